@@ -57,7 +57,9 @@ import org.matrix.androidsdk.rest.model.RoomAliasDescription;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.rest.model.group.InvitedGroupSync;
 import org.matrix.androidsdk.rest.model.sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.sync.RoomSync;
 import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+import org.matrix.androidsdk.rest.model.sync.ToDeviceSyncResponse;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.rest.model.bingrules.BingRule;
 import org.matrix.androidsdk.rest.model.bingrules.BingRuleSet;
@@ -65,16 +67,21 @@ import org.matrix.androidsdk.rest.model.bingrules.BingRulesResponse;
 import org.matrix.androidsdk.rest.model.bingrules.Condition;
 import org.matrix.androidsdk.rest.model.login.Credentials;
 import org.matrix.androidsdk.ssl.UnrecognizedCertificateException;
+import org.matrix.androidsdk.sync.RoomsSyncExecutor;
+import org.matrix.androidsdk.sync.SyncLatencyMetrics;
+import org.matrix.androidsdk.sync.SyncStreamParser;
 import org.matrix.androidsdk.util.BingRulesManager;
 import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.androidsdk.util.Log;
 import org.matrix.androidsdk.util.MXOsHandler;
 
+import java.io.InputStream;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -90,6 +97,9 @@ import java.util.Set;
 public class MXDataHandler implements IMXEventListener {
     private static final String LOG_TAG = MXDataHandler.class.getSimpleName();
 
+    // the max wait in ms between two checks of the sync responses queue
+    private static final int SYNC_RESPONSES_QUEUE_WAIT_MS = 1000;
+
     private static final String LEFT_ROOMS_FILTER = "{\"room\":{\"timeline\":{\"limit\":1},\"include_leave\":true}}";
 
     public interface RequestNetworkErrorListener {
@@ -111,6 +121,9 @@ public class MXDataHandler implements IMXEventListener {
     private IMXEventListener mCryptoEventsListener = null;
     private final Set<IMXEventListener> mEventListeners = new HashSet<>();
 
+    // the listeners which only receive the events of a room, by room id
+    private final Map<String, Set<IMXEventListener>> mRoomEventListeners = new HashMap<>();
+
     private final IMXStore mStore;
     private final Credentials mCredentials;
     private volatile String mInitialSyncToToken = null;
@@ -163,6 +176,37 @@ public class MXDataHandler implements IMXEventListener {
     // the crypto is only started when the sync did not retrieve new device
     private boolean mIsStartingCryptoWithInitialSync = false;
 
+    // the handler of the latest streamed sync response
+    // it is only used in the sync thread
+    private SyncStreamHandler mSyncStreamHandler = null;
+
+    // the number of sync responses which are received but not yet processed
+    private final Object mSyncResponsesQueueLock = new Object();
+    private int mPendingSyncResponsesCount = 0;
+
+    // the max number of pending sync responses, 0 means no limit
+    private int mMaxPendingSyncResponsesCount = 0;
+
+    // the sync latency metrics
+    private final SyncLatencyMetrics mSyncLatencyMetrics = new SyncLatencyMetrics();
+
+    // the reception time of the sync response which is processed, 0 if there is none
+    // it is only used in the sync thread
+    private long mProcessedSyncResponseReceptionTime = 0;
+
+    // true when the live events of a sync response are dispatched in a single batch
+    private volatile boolean mIsLiveEventsBatchDispatch = false;
+
+    // the live events which are not yet dispatched when the batched dispatch is enabled
+    // it is only used in the sync thread
+    private final List<LiveEvent> mPendingLiveEvents = new ArrayList<>();
+
+    // the number of threads which handle the joined rooms of a sync response, 1 to handle them in the sync thread
+    private volatile int mRoomsSyncThreadsCount = 1;
+
+    // the joined rooms executor, null when they are handled in the sync thread
+    private volatile RoomsSyncExecutor mRoomsSyncExecutor = null;
+
     // groups manager
     private GroupsManager mGroupsManager;
 
@@ -590,6 +634,54 @@ public class MXDataHandler implements IMXEventListener {
         }
     }
 
+    /**
+     * Add a listener which only receives the events of a room.
+     * The callbacks which are not related to a room are also provided to it.
+     *
+     * @param roomId   the room id
+     * @param listener the listener to add.
+     */
+    public void addRoomListener(String roomId, IMXEventListener listener) {
+        if (isAlive() && (null != roomId) && (null != listener)) {
+            synchronized (this) {
+                Set<IMXEventListener> roomListeners = mRoomEventListeners.get(roomId);
+
+                if (null == roomListeners) {
+                    roomListeners = new HashSet<>();
+                    mRoomEventListeners.put(roomId, roomListeners);
+                }
+
+                roomListeners.add(listener);
+            }
+
+            if (null != mInitialSyncToToken) {
+                listener.onInitialSyncComplete(mInitialSyncToToken);
+            }
+        }
+    }
+
+    /**
+     * Remove a room listener.
+     *
+     * @param roomId   the room id
+     * @param listener the listener to remove.
+     */
+    public void removeRoomListener(String roomId, IMXEventListener listener) {
+        if (isAlive() && (null != roomId) && (null != listener)) {
+            synchronized (this) {
+                Set<IMXEventListener> roomListeners = mRoomEventListeners.get(roomId);
+
+                if (null != roomListeners) {
+                    roomListeners.remove(listener);
+
+                    if (roomListeners.isEmpty()) {
+                        mRoomEventListeners.remove(roomId);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Clear the instance data.
      */
@@ -598,6 +690,11 @@ public class MXDataHandler implements IMXEventListener {
             mIsAlive = false;
             // remove any listener
             mEventListeners.clear();
+            mRoomEventListeners.clear();
+        }
+
+        if (null != mRoomsSyncExecutor) {
+            mRoomsSyncExecutor.shutdown();
         }
 
         // clear the store
@@ -634,19 +731,13 @@ public class MXDataHandler implements IMXEventListener {
         // some fields are not retrieved :
         // They are used to retrieve some data
         // so add the missing links.
+        // The lazy loaded rooms are initialised when they are retrieved with getRoom().
 
         Collection<Room> rooms = mStore.getRooms();
 
         for (Room room : rooms) {
             room.init(mStore, room.getRoomId(), this);
         }
-
-        Collection<RoomSummary> summaries = mStore.getSummaries();
-        for (RoomSummary summary : summaries) {
-            if (null != summary.getLatestRoomState()) {
-                summary.getLatestRoomState().setDataHandler(this);
-            }
-        }
     }
 
 
@@ -715,6 +806,27 @@ public class MXDataHandler implements IMXEventListener {
         return (null != roomId) && (null != mStore.getRoom(roomId));
     }
 
+    /**
+     * Provides all the rooms of the store.
+     * The rooms which are not yet loaded by the store are loaded : the rooms list should be
+     * built from the summaries when the rooms content is not required.
+     *
+     * @return the rooms
+     */
+    public Collection<Room> getAllRooms() {
+        List<Room> rooms = new ArrayList<>();
+
+        for (String roomId : mStore.getRoomIds()) {
+            Room room = mStore.getRoom(roomId);
+
+            if (null != room) {
+                rooms.add(room);
+            }
+        }
+
+        return rooms;
+    }
+
     /**
      * @return the left rooms
      */
@@ -858,6 +970,8 @@ public class MXDataHandler implements IMXEventListener {
     public void roomIdByAlias(final String roomAlias, final ApiCallback<String> callback) {
         String roomId = null;
 
+        // the rooms which are not yet loaded by the store are not loaded to check their aliases,
+        // the alias is resolved by the server if it is not found.
         Collection<Room> rooms = getStore().getRooms();
 
         for (Room room : rooms) {
@@ -1216,16 +1330,311 @@ public class MXDataHandler implements IMXEventListener {
      * @param isCatchingUp true when there is a pending catch-up
      */
     public void onSyncResponse(final SyncResponse syncResponse, final String fromToken, final boolean isCatchingUp) {
+        final long receptionTime = System.currentTimeMillis();
+
+        // the sync thread must not wait for itself
+        if (Looper.myLooper() != mSyncHandler.getLooper()) {
+            waitForSyncResponsesQueue();
+        }
+
+        synchronized (mSyncResponsesQueueLock) {
+            mPendingSyncResponsesCount++;
+        }
+
         // perform the sync in background
         // to avoid UI thread lags.
         mSyncHandler.post(new Runnable() {
             @Override
             public void run() {
-                manageResponse(syncResponse, fromToken, isCatchingUp);
+                long startTime = System.currentTimeMillis();
+                mProcessedSyncResponseReceptionTime = receptionTime;
+
+                try {
+                    manageResponse(syncResponse, fromToken, isCatchingUp);
+                } finally {
+                    // the initial sync has no chunk processed notification
+                    dispatchPendingLiveEvents();
+                    mProcessedSyncResponseReceptionTime = 0;
+
+                    long processingTime = System.currentTimeMillis() - startTime;
+                    mSyncLatencyMetrics.onSyncResponseProcessed(startTime - receptionTime, processingTime);
+                    Log.d(LOG_TAG, "onSyncResponse : processed in " + processingTime + " ms after " + (startTime - receptionTime) + " ms in the queue");
+
+                    synchronized (mSyncResponsesQueueLock) {
+                        mPendingSyncResponsesCount--;
+                        mSyncResponsesQueueLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task in the sync thread, after the pending sync responses.
+     * The live room states are updated in this thread, so the data which are
+     * not received by the sync (e.g. the lazy loaded members) must be applied in it.
+     *
+     * @param task the task to run
+     */
+    public void runInSyncThread(Runnable task) {
+        mSyncHandler.post(task);
+    }
+
+    /**
+     * Wait until the sync responses queue is not full.
+     */
+    private void waitForSyncResponsesQueue() {
+        synchronized (mSyncResponsesQueueLock) {
+            while ((mMaxPendingSyncResponsesCount > 0) && (mPendingSyncResponsesCount >= mMaxPendingSyncResponsesCount) && isAlive()) {
+                try {
+                    mSyncResponsesQueueLock.wait(SYNC_RESPONSES_QUEUE_WAIT_MS);
+                } catch (InterruptedException e) {
+                    Log.e(LOG_TAG, "## waitForSyncResponsesQueue() : interrupted");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the max number of sync responses which are received but not yet processed.
+     * The events thread requests the next sync response while the previous ones are processed,
+     * and it waits when this limit is reached.
+     *
+     * @param maxCount the max pending sync responses count, 0 means no limit.
+     */
+    public void setMaxPendingSyncResponses(int maxCount) {
+        synchronized (mSyncResponsesQueueLock) {
+            mMaxPendingSyncResponsesCount = Math.max(maxCount, 0);
+            mSyncResponsesQueueLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the sync latency metrics
+     */
+    public SyncLatencyMetrics getSyncLatencyMetrics() {
+        return mSyncLatencyMetrics;
+    }
+
+    /**
+     * Enable or disable the batched dispatch of the live events.
+     * When it is enabled, the live events of a sync response are dispatched to the listeners
+     * in a single UI thread message when the chunk is processed, instead of one message per event.
+     * The listeners then receive onLiveEvent() for each event and onLiveEvents() for each room.
+     *
+     * @param isEnabled true to enable the batched dispatch.
+     */
+    public void setLiveEventsBatchDispatch(boolean isEnabled) {
+        mIsLiveEventsBatchDispatch = isEnabled;
+    }
+
+    /**
+     * @return true if the live events are dispatched in batch.
+     */
+    public boolean isLiveEventsBatchDispatch() {
+        return mIsLiveEventsBatchDispatch;
+    }
+
+    /**
+     * Set the number of threads which handle the joined rooms of a sync response.
+     * The to device events and the account data are handled before the rooms,
+     * and the events of a room are dispatched in their order.
+     * It is applied from the next sync response.
+     *
+     * @param threadsCount the threads count, 1 to handle the rooms in the sync thread.
+     */
+    public void setRoomsSyncThreadsCount(int threadsCount) {
+        mRoomsSyncThreadsCount = Math.max(threadsCount, 1);
+    }
+
+    /**
+     * Provides the executor of the joined rooms of a sync response.
+     * It must be called from the sync thread.
+     *
+     * @return the executor, null if the rooms are handled in the sync thread.
+     */
+    private RoomsSyncExecutor getRoomsSyncExecutor() {
+        RoomsSyncExecutor executor = mRoomsSyncExecutor;
+        int threadsCount = mRoomsSyncThreadsCount;
+
+        if ((null != executor) && (executor.getThreadsCount() != threadsCount)) {
+            executor.shutdown();
+            executor = null;
+        }
+
+        if ((null == executor) && (threadsCount > 1) && isAlive()) {
+            Log.d(LOG_TAG, "## getRoomsSyncExecutor() : handle the joined rooms with " + threadsCount + " threads");
+            executor = new RoomsSyncExecutor(threadsCount);
+        }
+
+        mRoomsSyncExecutor = executor;
+        return executor;
+    }
+
+    /**
+     * Tell if the current thread handles a sync response.
+     *
+     * @return true if it is the sync thread or a joined rooms thread.
+     */
+    private boolean isSyncThread() {
+        RoomsSyncExecutor executor = mRoomsSyncExecutor;
+        return (Looper.myLooper() == mSyncHandler.getLooper()) || ((null != executor) && executor.isRunningTask());
+    }
+
+    /**
+     * Manage the rooms of a sync response while it is downloaded.
+     * The rooms are handled as soon as they are decoded, without materializing the whole response.
+     * The callback provides the response without its rooms : it must then be dispatched
+     * with onSyncResponse() to complete the sync.
+     * <p>
+     * If the stream fails, the rooms handled before the failure are not rolled back, but the
+     * sync token is not saved : the next sync restarts from the previous token and the server
+     * sends these rooms again. The events are stored by event id, so they are only replaced.
+     *
+     * @param stream    the sync response stream, it is closed when it has been read.
+     * @param fromToken the start sync token
+     * @param callback  the asynchronous callback
+     */
+    public void onSyncResponseStream(final InputStream stream, final String fromToken, final ApiCallback<SyncResponse> callback) {
+        final long receptionTime = System.currentTimeMillis();
+
+        // read the stream in the sync thread.
+        mSyncHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                SyncResponse syncResponse = null;
+                Exception exception = null;
+
+                mSyncStreamHandler = null;
+                mProcessedSyncResponseReceptionTime = receptionTime;
+
+                try {
+                    if (!isAlive()) {
+                        Log.e(LOG_TAG, "onSyncResponseStream : ignored because the session has been closed");
+                        exception = new Exception("the session has been closed");
+                    } else {
+                        SyncStreamHandler syncStreamHandler = new SyncStreamHandler(null == fromToken);
+                        long t0 = System.currentTimeMillis();
+
+                        try {
+                            syncResponse = SyncStreamParser.parse(stream, syncStreamHandler);
+                        } finally {
+                            syncStreamHandler.awaitJoinedRooms();
+                        }
+
+                        syncStreamHandler.mSyncResponse = syncResponse;
+
+                        Log.d(LOG_TAG, "onSyncResponseStream : " + syncStreamHandler.mRoomsCount + " rooms handled in " + (System.currentTimeMillis() - t0) + " ms");
+
+                        if (null != syncStreamHandler.mUpdatedDirectChatRoomsDict) {
+                            updateDirectChatRoomsDict(syncStreamHandler.mUpdatedDirectChatRoomsDict);
+                        }
+
+                        mSyncStreamHandler = syncStreamHandler;
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## onSyncResponseStream() : failed " + e.getMessage());
+                    exception = e;
+                } finally {
+                    dispatchPendingLiveEvents();
+                    mProcessedSyncResponseReceptionTime = 0;
+
+                    try {
+                        stream.close();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## onSyncResponseStream() : close failed " + e.getMessage());
+                    }
+                }
+
+                if (null != exception) {
+                    callback.onUnexpectedError(exception);
+                } else {
+                    callback.onSuccess(syncResponse);
+                }
             }
         });
     }
 
+    /**
+     * Handle the rooms of a streamed sync response.
+     * The sections received before the rooms one are handled before the rooms,
+     * like manageResponse does.
+     */
+    private class SyncStreamHandler implements SyncStreamParser.SyncStreamListener {
+        private final boolean mIsInitialSync;
+
+        // the decoded sync response, without its rooms
+        private SyncResponse mSyncResponse;
+
+        // the sections which have been handled before the rooms
+        private boolean mIsToDeviceHandled = false;
+        private boolean mIsAccountDataHandled = false;
+
+        // the handled rooms count
+        private int mRoomsCount = 0;
+
+        // the direct chats dictionary updated by the invites
+        private HashMap<String, List<String>> mUpdatedDirectChatRoomsDict = null;
+
+        // the joined rooms executor, null when they are handled in the sync thread
+        private RoomsSyncExecutor mRoomsSyncExecutor = null;
+
+        /**
+         * Constructor
+         *
+         * @param isInitialSync true if the response is an initial sync one
+         */
+        SyncStreamHandler(boolean isInitialSync) {
+            mIsInitialSync = isInitialSync;
+        }
+
+        @Override
+        public void onRoomsSyncStart(SyncResponse syncResponse) {
+            if (null != syncResponse.toDevice) {
+                manageToDeviceEvents(syncResponse.toDevice);
+                mIsToDeviceHandled = true;
+            }
+
+            if (null != syncResponse.accountData) {
+                Log.d(LOG_TAG, "Received " + syncResponse.accountData.size() + " accountData events");
+                manageAccountData(syncResponse.accountData, mIsInitialSync);
+                mIsAccountDataHandled = true;
+            }
+
+            mRoomsSyncExecutor = getRoomsSyncExecutor();
+        }
+
+        @Override
+        public void onJoinedRoomSync(String roomId, RoomSync roomSync) {
+            manageJoinedRoomSync(mRoomsSyncExecutor, roomId, roomSync, mIsInitialSync);
+            mRoomsCount++;
+        }
+
+        /**
+         * Wait until the joined rooms are handled.
+         */
+        void awaitJoinedRooms() {
+            if (null != mRoomsSyncExecutor) {
+                mRoomsSyncExecutor.await();
+            }
+        }
+
+        @Override
+        public void onInvitedRoomSync(String roomId, InvitedRoomSync invitedRoomSync) {
+            awaitJoinedRooms();
+            mUpdatedDirectChatRoomsDict = manageInvitedRoomSync(roomId, invitedRoomSync, mUpdatedDirectChatRoomsDict);
+            mRoomsCount++;
+        }
+
+        @Override
+        public void onLeftRoomSync(String roomId, RoomSync roomSync) {
+            awaitJoinedRooms();
+            manageLeftRoomSync(roomId, roomSync, mIsInitialSync);
+            mRoomsCount++;
+        }
+    }
+
     /**
      * Delete a room from its room id.
      * The room data is copied into the left rooms store.
@@ -1244,7 +1653,7 @@ public class MXDataHandler implements IMXEventListener {
                 // copy the summary
                 RoomSummary summary = getStore().getSummary(roomId);
                 if (null != summary) {
-                    mLeftRoomsStore.storeSummary(new RoomSummary(summary, summary.getLatestReceivedEvent(), summary.getLatestRoomState(), getUserId()));
+                    mLeftRoomsStore.storeSummary(new RoomSummary(summary, summary.getLatestReceivedEvent(), r.getState(), getUserId()));
                 }
 
                 // copy events and receiptData
@@ -1274,7 +1683,8 @@ public class MXDataHandler implements IMXEventListener {
     }
 
     /**
-     * Manage the sync response in the UI thread.
+     * Manage the sync response in the sync thread.
+     * It should be private : it is only package-private to let the sync replay benchmark call it synchronously.
      *
      * @param syncResponse the syncResponse to manage.
      * @param fromToken    the start sync token
@@ -1289,49 +1699,46 @@ public class MXDataHandler implements IMXEventListener {
         boolean isInitialSync = (null == fromToken);
         boolean isEmptyResponse = true;
 
+        // check if the rooms have been handled while the response was streamed
+        SyncStreamHandler syncStreamHandler = ((null != mSyncStreamHandler) && (mSyncStreamHandler.mSyncResponse == syncResponse)) ? mSyncStreamHandler : null;
+        mSyncStreamHandler = null;
+
         // sanity check
         if (null != syncResponse) {
             Log.d(LOG_TAG, "onSyncComplete");
 
             // Handle the to device events before the room ones
             // to ensure to decrypt them properly
-            if ((null != syncResponse.toDevice) &&
-                    (null != syncResponse.toDevice.events) &&
-                    (syncResponse.toDevice.events.size() > 0)) {
-                Log.d(LOG_TAG, "manageResponse : receives " + syncResponse.toDevice.events.size() + " toDevice events");
-
-                for (Event toDeviceEvent : syncResponse.toDevice.events) {
-                    handleToDeviceEvent(toDeviceEvent);
-                }
+            if ((null != syncResponse.toDevice) && ((null == syncStreamHandler) || !syncStreamHandler.mIsToDeviceHandled)) {
+                manageToDeviceEvents(syncResponse.toDevice);
             }
 
             // Handle account data before the room events
             // to be able to update direct chats dictionary during invites handling.
-            if (null != syncResponse.accountData) {
+            if ((null != syncResponse.accountData) && ((null == syncStreamHandler) || !syncStreamHandler.mIsAccountDataHandled)) {
                 Log.d(LOG_TAG, "Received " + syncResponse.accountData.size() + " accountData events");
                 manageAccountData(syncResponse.accountData, isInitialSync);
             }
 
-            // sanity check
-            if (null != syncResponse.rooms) {
+            if (null != syncStreamHandler) {
+                // the rooms have been handled while the response was decoded
+                isEmptyResponse = (0 == syncStreamHandler.mRoomsCount);
+            } else if (null != syncResponse.rooms) {
                 // joined rooms events
                 if ((null != syncResponse.rooms.join) && (syncResponse.rooms.join.size() > 0)) {
                     Log.d(LOG_TAG, "Received " + syncResponse.rooms.join.size() + " joined rooms");
 
                     Set<String> roomIds = syncResponse.rooms.join.keySet();
+                    RoomsSyncExecutor roomsSyncExecutor = getRoomsSyncExecutor();
 
                     // Handle first joined rooms
                     for (String roomId : roomIds) {
-                        try {
-                            if (null != mLeftRoomsStore.getRoom(roomId)) {
-                                Log.d(LOG_TAG, "the room " + roomId + " moves from left to the joined ones");
-                                mLeftRoomsStore.deleteRoom(roomId);
-                            }
+                        manageJoinedRoomSync(roomsSyncExecutor, roomId, syncResponse.rooms.join.get(roomId), isInitialSync);
+                    }
 
-                            getRoom(roomId).handleJoinedRoomSync(syncResponse.rooms.join.get(roomId), isInitialSync);
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## manageResponse() : handleJoinedRoomSync failed " + e.getMessage() + " for room " + roomId);
-                        }
+                    // the joined rooms must be handled before the invited and the left ones
+                    if (null != roomsSyncExecutor) {
+                        roomsSyncExecutor.await();
                     }
 
                     isEmptyResponse = false;
@@ -1344,91 +1751,15 @@ public class MXDataHandler implements IMXEventListener {
                     Set<String> roomIds = syncResponse.rooms.invite.keySet();
 
                     HashMap<String, List<String>> updatedDirectChatRoomsDict = null;
-                    boolean hasChanged = false;
 
                     for (String roomId : roomIds) {
-                        try {
-                            Log.d(LOG_TAG, "## manageResponse() : the user has been invited to " + roomId);
-
-                            if (null != mLeftRoomsStore.getRoom(roomId)) {
-                                Log.d(LOG_TAG, "the room " + roomId + " moves from left to the invited ones");
-                                mLeftRoomsStore.deleteRoom(roomId);
-                            }
-
-                            Room room = getRoom(roomId);
-                            InvitedRoomSync invitedRoomSync = syncResponse.rooms.invite.get(roomId);
-
-                            room.handleInvitedRoomSync(invitedRoomSync);
-
-                            // Handle here the invites to a direct chat.
-                            if (room.isDirectChatInvitation()) {
-                                // Retrieve the inviter user id.
-                                String participantUserId = null;
-                                for (Event event : invitedRoomSync.inviteState.events) {
-                                    if (null != event.sender) {
-                                        participantUserId = event.sender;
-                                        break;
-                                    }
-                                }
-
-                                if (null != participantUserId) {
-                                    // Prepare the updated dictionary.
-                                    if (null == updatedDirectChatRoomsDict) {
-                                        if (null != this.getStore().getDirectChatRoomsDict()) {
-                                            // Consider the current dictionary.
-                                            updatedDirectChatRoomsDict = new HashMap<>(this.getStore().getDirectChatRoomsDict());
-                                        } else {
-                                            updatedDirectChatRoomsDict = new HashMap<>();
-                                        }
-                                    }
-
-                                    ArrayList<String> roomIdsList;
-                                    if (updatedDirectChatRoomsDict.containsKey(participantUserId)) {
-                                        roomIdsList = new ArrayList<>(updatedDirectChatRoomsDict.get(participantUserId));
-                                    } else {
-                                        roomIdsList = new ArrayList<>();
-                                    }
-
-                                    // Check whether the room was not yet seen as direct chat
-                                    if (roomIdsList.indexOf(roomId) < 0) {
-                                        Log.d(LOG_TAG, "## manageResponse() : add this new invite in direct chats");
-
-                                        roomIdsList.add(roomId); // update room list with the new room
-                                        updatedDirectChatRoomsDict.put(participantUserId, roomIdsList);
-                                        hasChanged = true;
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## manageResponse() : handleInvitedRoomSync failed " + e.getMessage() + " for room " + roomId);
-                        }
+                        updatedDirectChatRoomsDict = manageInvitedRoomSync(roomId, syncResponse.rooms.invite.get(roomId), updatedDirectChatRoomsDict);
                     }
 
                     isEmptyResponse = false;
 
-                    if (hasChanged) {
-                        mAccountDataRestClient.setAccountData(mCredentials.userId, AccountDataRestClient.ACCOUNT_DATA_TYPE_DIRECT_MESSAGES, updatedDirectChatRoomsDict, new ApiCallback<Void>() {
-                            @Override
-                            public void onSuccess(Void info) {
-                                Log.d(LOG_TAG, "## manageResponse() : succeeds");
-                            }
-
-                            @Override
-                            public void onNetworkError(Exception e) {
-                                Log.e(LOG_TAG, "## manageResponse() : update account data failed " + e.getMessage());
-                                // TODO: we should try again.
-                            }
-
-                            @Override
-                            public void onMatrixError(MatrixError e) {
-                                Log.e(LOG_TAG, "## manageResponse() : update account data failed " + e.getMessage());
-                            }
-
-                            @Override
-                            public void onUnexpectedError(Exception e) {
-                                Log.e(LOG_TAG, "## manageResponse() : update account data failed " + e.getMessage());
-                            }
-                        });
+                    if (null != updatedDirectChatRoomsDict) {
+                        updateDirectChatRoomsDict(updatedDirectChatRoomsDict);
                     }
                 }
 
@@ -1441,43 +1772,7 @@ public class MXDataHandler implements IMXEventListener {
                     Set<String> roomIds = syncResponse.rooms.leave.keySet();
 
                     for (String roomId : roomIds) {
-                        // RoomSync leftRoomSync = syncResponse.rooms.leave.get(roomId);
-
-                        // Presently we remove the existing room from the rooms list.
-                        // FIXME SYNC V2 Archive/Display the left rooms!
-                        // For that create 'handleArchivedRoomSync' method
-
-                        String membership = RoomMember.MEMBERSHIP_LEAVE;
-                        Room room = getRoom(roomId);
-
-                        // Retrieve existing room
-                        // check if the room still exists.
-                        if (null != room) {
-                            // use 'handleJoinedRoomSync' to pass the last events to the room before leaving it.
-                            // The room will then able to notify its listeners.
-                            room.handleJoinedRoomSync(syncResponse.rooms.leave.get(roomId), isInitialSync);
-
-                            RoomMember member = room.getMember(getUserId());
-                            if (null != member) {
-                                membership = member.membership;
-                            }
-
-                            Log.d(LOG_TAG, "## manageResponse() : leave the room " + roomId);
-                        }
-
-                        if (!TextUtils.equals(membership, RoomMember.MEMBERSHIP_KICK) && !TextUtils.equals(membership, RoomMember.MEMBERSHIP_BAN)) {
-                            // ensure that the room data are properly deleted
-                            this.getStore().deleteRoom(roomId);
-                            onLeaveRoom(roomId);
-                        } else {
-                            onRoomKick(roomId);
-                        }
-
-                        // don't add to the left rooms if the user has been kicked / banned
-                        if ((mAreLeftRoomsSynced) && TextUtils.equals(membership, RoomMember.MEMBERSHIP_LEAVE)) {
-                            Room leftRoom = getRoom(mLeftRoomsStore, roomId, true);
-                            leftRoom.handleJoinedRoomSync(syncResponse.rooms.leave.get(roomId), isInitialSync);
-                        }
+                        manageLeftRoomSync(roomId, syncResponse.rooms.leave.get(roomId), isInitialSync);
                     }
 
                     isEmptyResponse = false;
@@ -1561,6 +1856,200 @@ public class MXDataHandler implements IMXEventListener {
         }
     }
 
+    /**
+     * Handle the to device events of a sync response.
+     *
+     * @param toDevice the to device events
+     */
+    private void manageToDeviceEvents(ToDeviceSyncResponse toDevice) {
+        if ((null != toDevice.events) && (toDevice.events.size() > 0)) {
+            Log.d(LOG_TAG, "manageResponse : receives " + toDevice.events.size() + " toDevice events");
+
+            for (Event toDeviceEvent : toDevice.events) {
+                handleToDeviceEvent(toDeviceEvent);
+            }
+        }
+    }
+
+    /**
+     * Handle a joined room of a sync response with a rooms executor.
+     *
+     * @param executor      the rooms executor, null to handle the room in the current thread
+     * @param roomId        the room id
+     * @param roomSync      the room sync
+     * @param isInitialSync true if the response is an initial sync one
+     */
+    private void manageJoinedRoomSync(RoomsSyncExecutor executor, final String roomId, final RoomSync roomSync, final boolean isInitialSync) {
+        if (null == executor) {
+            manageJoinedRoomSync(roomId, roomSync, isInitialSync);
+        } else {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    manageJoinedRoomSync(roomId, roomSync, isInitialSync);
+                }
+            });
+        }
+    }
+
+    /**
+     * Handle a joined room of a sync response.
+     *
+     * @param roomId        the room id
+     * @param roomSync      the room sync
+     * @param isInitialSync true if the response is an initial sync one
+     */
+    private void manageJoinedRoomSync(String roomId, RoomSync roomSync, boolean isInitialSync) {
+        try {
+            if (null != mLeftRoomsStore.getRoom(roomId)) {
+                Log.d(LOG_TAG, "the room " + roomId + " moves from left to the joined ones");
+                mLeftRoomsStore.deleteRoom(roomId);
+            }
+
+            getRoom(roomId).handleJoinedRoomSync(roomSync, isInitialSync);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## manageResponse() : handleJoinedRoomSync failed " + e.getMessage() + " for room " + roomId);
+        }
+    }
+
+    /**
+     * Handle an invited room of a sync response.
+     *
+     * @param roomId                     the room id
+     * @param invitedRoomSync            the invited room sync
+     * @param updatedDirectChatRoomsDict the direct chats dictionary updated by the previous invites, null if it has not been updated
+     * @return the updated direct chats dictionary, null if it has not been updated
+     */
+    private HashMap<String, List<String>> manageInvitedRoomSync(String roomId, InvitedRoomSync invitedRoomSync, HashMap<String, List<String>> updatedDirectChatRoomsDict) {
+        try {
+            Log.d(LOG_TAG, "## manageResponse() : the user has been invited to " + roomId);
+
+            if (null != mLeftRoomsStore.getRoom(roomId)) {
+                Log.d(LOG_TAG, "the room " + roomId + " moves from left to the invited ones");
+                mLeftRoomsStore.deleteRoom(roomId);
+            }
+
+            Room room = getRoom(roomId);
+
+            room.handleInvitedRoomSync(invitedRoomSync);
+
+            // Handle here the invites to a direct chat.
+            if (room.isDirectChatInvitation()) {
+                // Retrieve the inviter user id.
+                String participantUserId = null;
+                for (Event event : invitedRoomSync.inviteState.events) {
+                    if (null != event.sender) {
+                        participantUserId = event.sender;
+                        break;
+                    }
+                }
+
+                if (null != participantUserId) {
+                    Map<String, List<String>> directChatRoomsDict = (null != updatedDirectChatRoomsDict) ? updatedDirectChatRoomsDict : this.getStore().getDirectChatRoomsDict();
+                    List<String> roomIdsList = (null != directChatRoomsDict) ? directChatRoomsDict.get(participantUserId) : null;
+
+                    // Check whether the room was not yet seen as direct chat
+                    if ((null == roomIdsList) || (roomIdsList.indexOf(roomId) < 0)) {
+                        Log.d(LOG_TAG, "## manageResponse() : add this new invite in direct chats");
+
+                        // Prepare the updated dictionary.
+                        if (null == updatedDirectChatRoomsDict) {
+                            if (null != directChatRoomsDict) {
+                                // Consider the current dictionary.
+                                updatedDirectChatRoomsDict = new HashMap<>(directChatRoomsDict);
+                            } else {
+                                updatedDirectChatRoomsDict = new HashMap<>();
+                            }
+                        }
+
+                        ArrayList<String> updatedRoomIdsList = (null != roomIdsList) ? new ArrayList<>(roomIdsList) : new ArrayList<String>();
+                        updatedRoomIdsList.add(roomId); // update room list with the new room
+                        updatedDirectChatRoomsDict.put(participantUserId, updatedRoomIdsList);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## manageResponse() : handleInvitedRoomSync failed " + e.getMessage() + " for room " + roomId);
+        }
+
+        return updatedDirectChatRoomsDict;
+    }
+
+    /**
+     * Send the direct chats dictionary updated by the invites.
+     *
+     * @param updatedDirectChatRoomsDict the updated direct chats dictionary
+     */
+    private void updateDirectChatRoomsDict(HashMap<String, List<String>> updatedDirectChatRoomsDict) {
+        mAccountDataRestClient.setAccountData(mCredentials.userId, AccountDataRestClient.ACCOUNT_DATA_TYPE_DIRECT_MESSAGES, updatedDirectChatRoomsDict, new ApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                Log.d(LOG_TAG, "## manageResponse() : succeeds");
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                Log.e(LOG_TAG, "## manageResponse() : update account data failed " + e.getMessage());
+                // TODO: we should try again.
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                Log.e(LOG_TAG, "## manageResponse() : update account data failed " + e.getMessage());
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                Log.e(LOG_TAG, "## manageResponse() : update account data failed " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Handle a left room of a sync response.
+     *
+     * @param roomId        the room id
+     * @param roomSync      the room sync
+     * @param isInitialSync true if the response is an initial sync one
+     */
+    private void manageLeftRoomSync(String roomId, RoomSync roomSync, boolean isInitialSync) {
+        // Presently we remove the existing room from the rooms list.
+        // FIXME SYNC V2 Archive/Display the left rooms!
+        // For that create 'handleArchivedRoomSync' method
+
+        String membership = RoomMember.MEMBERSHIP_LEAVE;
+        Room room = getRoom(roomId);
+
+        // Retrieve existing room
+        // check if the room still exists.
+        if (null != room) {
+            // use 'handleJoinedRoomSync' to pass the last events to the room before leaving it.
+            // The room will then able to notify its listeners.
+            room.handleJoinedRoomSync(roomSync, isInitialSync);
+
+            RoomMember member = room.getMember(getUserId());
+            if (null != member) {
+                membership = member.membership;
+            }
+
+            Log.d(LOG_TAG, "## manageResponse() : leave the room " + roomId);
+        }
+
+        if (!TextUtils.equals(membership, RoomMember.MEMBERSHIP_KICK) && !TextUtils.equals(membership, RoomMember.MEMBERSHIP_BAN)) {
+            // ensure that the room data are properly deleted
+            this.getStore().deleteRoom(roomId);
+            onLeaveRoom(roomId);
+        } else {
+            onRoomKick(roomId);
+        }
+
+        // don't add to the left rooms if the user has been kicked / banned
+        if ((mAreLeftRoomsSynced) && TextUtils.equals(membership, RoomMember.MEMBERSHIP_LEAVE)) {
+            Room leftRoom = getRoom(mLeftRoomsStore, roomId, true);
+            leftRoom.handleJoinedRoomSync(roomSync, isInitialSync);
+        }
+    }
+
     /**
      * Refresh the unread summary counters of the updated rooms.
      */
@@ -1780,13 +2269,52 @@ public class MXDataHandler implements IMXEventListener {
     //================================================================================
 
     /**
-     * @return the current MXEvents listeners .
+     * A live event and the room state right before it.
+     */
+    private static class LiveEvent {
+        final Event mEvent;
+        final RoomState mRoomState;
+
+        LiveEvent(Event event, RoomState roomState) {
+            mEvent = event;
+            mRoomState = roomState;
+        }
+    }
+
+    /**
+     * @return the current MXEvents listeners, including the rooms ones.
      */
     private List<IMXEventListener> getListenersSnapshot() {
         List<IMXEventListener> eventListeners;
 
         synchronized (this) {
             eventListeners = new ArrayList<>(mEventListeners);
+
+            for (Set<IMXEventListener> roomListeners : mRoomEventListeners.values()) {
+                eventListeners.addAll(roomListeners);
+            }
+        }
+
+        return eventListeners;
+    }
+
+    /**
+     * Provides the listeners of a room event.
+     *
+     * @param roomId the room id
+     * @return the global listeners and the listeners of the room.
+     */
+    private List<IMXEventListener> getListenersSnapshot(String roomId) {
+        List<IMXEventListener> eventListeners;
+
+        synchronized (this) {
+            eventListeners = new ArrayList<>(mEventListeners);
+
+            Set<IMXEventListener> roomListeners = (null != roomId) ? mRoomEventListeners.get(roomId) : null;
+
+            if (null != roomListeners) {
+                eventListeners.addAll(roomListeners);
+            }
         }
 
         return eventListeners;
@@ -1898,11 +2426,28 @@ public class MXDataHandler implements IMXEventListener {
             mCryptoEventsListener.onLiveEvent(event, roomState);
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        boolean isSyncThread = isSyncThread();
+
+        // the events of a sync response are dispatched when the chunk is processed
+        if (mIsLiveEventsBatchDispatch && isSyncThread && (0 != mProcessedSyncResponseReceptionTime)) {
+            synchronized (mPendingLiveEvents) {
+                mPendingLiveEvents.add(new LiveEvent(event, roomState));
+            }
+            return;
+        }
+
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(event.roomId);
+
+        // the events received by a sync response are tracked by the latency metrics
+        final long receptionTime = isSyncThread ? mProcessedSyncResponseReceptionTime : 0;
 
         mUiHandler.post(new Runnable() {
             @Override
             public void run() {
+                if (0 != receptionTime) {
+                    mSyncLatencyMetrics.onEventDispatched(System.currentTimeMillis() - receptionTime);
+                }
+
                 for (IMXEventListener listener : eventListeners) {
                     try {
                         listener.onLiveEvent(event, roomState);
@@ -1923,10 +2468,15 @@ public class MXDataHandler implements IMXEventListener {
         }
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final Runnable liveEventsDispatcher = getPendingLiveEventsDispatcher();
 
         mUiHandler.post(new Runnable() {
             @Override
             public void run() {
+                if (null != liveEventsDispatcher) {
+                    liveEventsDispatcher.run();
+                }
+
                 for (IMXEventListener listener : eventListeners) {
                     try {
                         listener.onLiveEventsChunkProcessed(startToken, toToken);
@@ -1938,6 +2488,132 @@ public class MXDataHandler implements IMXEventListener {
         });
     }
 
+    @Override
+    public void onLiveEvents(final String roomId, final List<Event> events) {
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
+
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (IMXEventListener listener : eventListeners) {
+                    try {
+                        listener.onLiveEvents(roomId, events);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "onLiveEvents " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Take the live events which are not yet dispatched.
+     * It must be called from the sync thread.
+     *
+     * @return the pending live events
+     */
+    private List<LiveEvent> takePendingLiveEvents() {
+        List<LiveEvent> liveEvents = new ArrayList<>();
+
+        if (Looper.myLooper() == mSyncHandler.getLooper()) {
+            synchronized (mPendingLiveEvents) {
+                liveEvents.addAll(mPendingLiveEvents);
+                mPendingLiveEvents.clear();
+            }
+        }
+
+        return liveEvents;
+    }
+
+    /**
+     * Dispatch the pending live events to the listeners.
+     * It must be called from the sync thread.
+     */
+    private void dispatchPendingLiveEvents() {
+        Runnable liveEventsDispatcher = getPendingLiveEventsDispatcher();
+
+        if (null != liveEventsDispatcher) {
+            mUiHandler.post(liveEventsDispatcher);
+        }
+    }
+
+    /**
+     * Build the dispatcher of the pending live events.
+     * The events are grouped by room and each room batch is only provided to the global listeners
+     * and to the room listeners : each listener receives onLiveEvent() for each event of the room,
+     * then onLiveEvents().
+     * It must be called from the sync thread, the dispatcher must be run in the UI thread.
+     *
+     * @return the dispatcher, null if there is no pending live event.
+     */
+    private Runnable getPendingLiveEventsDispatcher() {
+        final List<LiveEvent> liveEvents = takePendingLiveEvents();
+
+        if (liveEvents.isEmpty()) {
+            return null;
+        }
+
+        final long receptionTime = mProcessedSyncResponseReceptionTime;
+
+        // group the events by room, in the reception order
+        final Map<String, List<LiveEvent>> liveEventsByRoomId = new LinkedHashMap<>();
+
+        for (LiveEvent liveEvent : liveEvents) {
+            List<LiveEvent> roomLiveEvents = liveEventsByRoomId.get(liveEvent.mEvent.roomId);
+
+            if (null == roomLiveEvents) {
+                roomLiveEvents = new ArrayList<>();
+                liveEventsByRoomId.put(liveEvent.mEvent.roomId, roomLiveEvents);
+            }
+
+            roomLiveEvents.add(liveEvent);
+        }
+
+        final Map<String, List<IMXEventListener>> listenersByRoomId = new HashMap<>();
+
+        for (String roomId : liveEventsByRoomId.keySet()) {
+            listenersByRoomId.put(roomId, getListenersSnapshot(roomId));
+        }
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (0 != receptionTime) {
+                    long dispatchTime = System.currentTimeMillis() - receptionTime;
+
+                    for (int i = 0; i < liveEvents.size(); i++) {
+                        mSyncLatencyMetrics.onEventDispatched(dispatchTime);
+                    }
+                }
+
+                for (Map.Entry<String, List<LiveEvent>> entry : liveEventsByRoomId.entrySet()) {
+                    String roomId = entry.getKey();
+                    List<Event> events = new ArrayList<>(entry.getValue().size());
+
+                    for (LiveEvent liveEvent : entry.getValue()) {
+                        events.add(liveEvent.mEvent);
+                    }
+
+                    for (IMXEventListener listener : listenersByRoomId.get(roomId)) {
+                        for (LiveEvent liveEvent : entry.getValue()) {
+                            try {
+                                listener.onLiveEvent(liveEvent.mEvent, liveEvent.mRoomState);
+                            } catch (Exception e) {
+                                Log.e(LOG_TAG, "onLiveEvent " + e.getMessage());
+                            }
+                        }
+
+                        try {
+                            listener.onLiveEvents(roomId, events);
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "onLiveEvents " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        };
+    }
+
     @Override
     public void onBingEvent(final Event event, final RoomState roomState, final BingRule bingRule) {
         if (null != mCryptoEventsListener) {
@@ -1948,7 +2624,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(event.roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -1984,7 +2660,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(event.roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2010,7 +2686,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(event.roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2150,7 +2826,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2176,7 +2852,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2202,7 +2878,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2228,7 +2904,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2254,7 +2930,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2280,7 +2956,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2306,7 +2982,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2337,7 +3013,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2363,7 +3039,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2389,7 +3065,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2415,7 +3091,7 @@ public class MXDataHandler implements IMXEventListener {
             return;
         }
 
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2499,7 +3175,7 @@ public class MXDataHandler implements IMXEventListener {
 
     @Override
     public void onEventDecrypted(final Event event) {
-        final List<IMXEventListener> eventListeners = getListenersSnapshot();
+        final List<IMXEventListener> eventListeners = getListenersSnapshot(event.roomId);
 
         mUiHandler.post(new Runnable() {
             @Override
@@ -2758,8 +3434,17 @@ public class MXDataHandler implements IMXEventListener {
         RoomIdsListRetroCompat item;
 
         if ((null != aStore) && (null != aDirectChatRoomIdsListRetValue)) {
-            ArrayList<Room> rooms = new ArrayList<>(aStore.getRooms());
+            ArrayList<Room> rooms = new ArrayList<>();
             ArrayList<RoomMember> members;
+
+            for (String roomId : aStore.getRoomIds()) {
+                Room room = aStore.getRoom(roomId);
+
+                if (null != room) {
+                    rooms.add(room);
+                }
+            }
+
             int otherParticipantIndex;
 
             for (Room r : rooms) {
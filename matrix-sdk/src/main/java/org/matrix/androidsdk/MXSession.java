@@ -51,8 +51,10 @@ import org.matrix.androidsdk.rest.client.BingRulesRestClient;
 import org.matrix.androidsdk.rest.client.CallRestClient;
 import org.matrix.androidsdk.rest.client.CryptoRestClient;
 import org.matrix.androidsdk.rest.client.EventsRestClient;
+import org.matrix.androidsdk.rest.client.FilterRestClient;
 import org.matrix.androidsdk.rest.client.GroupsRestClient;
 import org.matrix.androidsdk.rest.client.LoginRestClient;
+import org.matrix.androidsdk.rest.client.MXHttpEngine;
 import org.matrix.androidsdk.rest.client.PresenceRestClient;
 import org.matrix.androidsdk.rest.client.ProfileRestClient;
 import org.matrix.androidsdk.rest.client.PushersRestClient;
@@ -60,6 +62,7 @@ import org.matrix.androidsdk.rest.client.RoomsRestClient;
 import org.matrix.androidsdk.rest.client.ThirdPidRestClient;
 import org.matrix.androidsdk.rest.model.CreateRoomParams;
 import org.matrix.androidsdk.rest.model.CreateRoomResponse;
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
 import org.matrix.androidsdk.rest.model.pid.DeleteDeviceAuth;
 import org.matrix.androidsdk.rest.model.pid.DeleteDeviceParams;
 import org.matrix.androidsdk.rest.model.sync.DevicesListResponse;
@@ -77,8 +80,12 @@ import org.matrix.androidsdk.rest.model.bingrules.BingRule;
 import org.matrix.androidsdk.rest.model.login.Credentials;
 import org.matrix.androidsdk.rest.model.login.LoginFlow;
 import org.matrix.androidsdk.rest.model.login.RegistrationFlowResponse;
+import org.matrix.androidsdk.sync.AdaptiveSyncSchedulingPolicy;
 import org.matrix.androidsdk.sync.DefaultEventsThreadListener;
 import org.matrix.androidsdk.sync.EventsThread;
+import org.matrix.androidsdk.sync.SyncFilterRegistry;
+import org.matrix.androidsdk.sync.SyncLatencyMetrics;
+import org.matrix.androidsdk.sync.SyncSchedulingPolicy;
 import org.matrix.androidsdk.sync.EventsThreadListener;
 import org.matrix.androidsdk.util.BingRulesManager;
 import org.matrix.androidsdk.util.ContentManager;
@@ -109,6 +116,9 @@ import java.util.regex.Pattern;
 public class MXSession {
     private static final String LOG_TAG = MXSession.class.getSimpleName();
 
+    // the HTTP responses cache directory
+    private static final String HTTP_CACHE_DIR = "MXHttpCache";
+
     private DataRetriever mDataRetriever;
     private MXDataHandler mDataHandler;
     private EventsThread mEventsThread;
@@ -127,6 +137,16 @@ public class MXSession {
     private final CryptoRestClient mCryptoRestClient;
     private final LoginRestClient mLoginRestClient;
     private final GroupsRestClient mGroupsRestClient;
+    private final FilterRestClient mFilterRestClient;
+
+    // the HTTP engine shared by the rest clients
+    private final MXHttpEngine mHttpEngine;
+
+    // the sync filters
+    private SyncFilterRegistry mSyncFilterRegistry;
+
+    // the sync requests timeouts and retries policy
+    private SyncSchedulingPolicy mSyncSchedulingPolicy = new AdaptiveSyncSchedulingPolicy();
 
     private ApiFailureCallback mFailureCallback;
 
@@ -203,6 +223,8 @@ public class MXSession {
         mCredentials = hsConfig.getCredentials();
         mHsConfig = hsConfig;
 
+        mHttpEngine = MXHttpEngine.getEngine(hsConfig);
+
         mEventsRestClient = new EventsRestClient(hsConfig);
         mProfileRestClient = new ProfileRestClient(hsConfig);
         mPresenceRestClient = new PresenceRestClient(hsConfig);
@@ -215,6 +237,7 @@ public class MXSession {
         mCryptoRestClient = new CryptoRestClient(hsConfig);
         mLoginRestClient = new LoginRestClient(hsConfig);
         mGroupsRestClient = new GroupsRestClient(hsConfig);
+        mFilterRestClient = new FilterRestClient(hsConfig);
     }
 
     /**
@@ -321,6 +344,9 @@ public class MXSession {
         mCryptoRestClient.setUnsentEventsManager(mUnsentEventsManager);
         mLoginRestClient.setUnsentEventsManager(mUnsentEventsManager);
         mGroupsRestClient.setUnsentEventsManager(mUnsentEventsManager);
+        mFilterRestClient.setUnsentEventsManager(mUnsentEventsManager);
+
+        mSyncFilterRegistry = new SyncFilterRegistry(mDataHandler.getStore(), mFilterRestClient, mCredentials.userId);
 
         // return the default cache manager
         mLatestChatMessageCache = new MXLatestChatMessageCache(mCredentials.userId);
@@ -640,6 +666,8 @@ public class MXSession {
         if (null != mCrypto) {
             mCrypto.close();
         }
+
+        mHttpEngine.clear();
     }
 
     /**
@@ -720,7 +748,7 @@ public class MXSession {
         final Set<String> filesToKeep = new HashSet<>();
         IMXStore store = getDataHandler().getStore();
 
-        Collection<Room> rooms = store.getRooms();
+        Collection<Room> rooms = getDataHandler().getAllRooms();
 
         for (Room room : rooms) {
             Collection<Event> events = store.getRoomMessages(room.getRoomId());
@@ -880,6 +908,8 @@ public class MXSession {
             }
 
             mEventsThread.setUseDataSaveMode(mUseDataSaveMode);
+            mEventsThread.setSyncFilterRegistry(mSyncFilterRegistry);
+            mEventsThread.setSyncSchedulingPolicy(mSyncSchedulingPolicy);
 
             if (mCredentials.accessToken != null && !mEventsThread.isAlive()) {
                 // GA issue
@@ -1000,6 +1030,123 @@ public class MXSession {
         }
     }
 
+    /**
+     * Set the sync filter of a sync mode.
+     * It is used from the next sync request.
+     *
+     * @param mode       the sync mode
+     * @param filterBody the filter, null to sync without filter
+     */
+    public void setSyncFilter(SyncFilterRegistry.Mode mode, FilterBody filterBody) {
+        if (null != mSyncFilterRegistry) {
+            mSyncFilterRegistry.setFilter(mode, filterBody);
+        }
+    }
+
+    /**
+     * Set the sync filter of every sync mode.
+     * When the members are lazy loaded, Room.loadMembers() must be called to get the full members list.
+     * The rooms names and members counts are then provided by the sync room summaries.
+     *
+     * @param timelineLimit   the max number of timeline events by room, null to use the server default one
+     * @param lazyLoadMembers true to only receive the m.room.member events of the timeline events senders
+     */
+    public void setSyncFilters(Integer timelineLimit, boolean lazyLoadMembers) {
+        if (null != mSyncFilterRegistry) {
+            mSyncFilterRegistry.setFilters(timelineLimit, lazyLoadMembers);
+        }
+    }
+
+    /**
+     * Tells if the rooms members are lazy loaded by the sync filters.
+     *
+     * @return true if the room states might only contain some of the members
+     */
+    public boolean areMembersLazyLoaded() {
+        return (null != mSyncFilterRegistry) && mSyncFilterRegistry.areMembersLazyLoaded();
+    }
+
+    /**
+     * Set the sync scheduling policy, which defines the sync requests timeouts and retries.
+     * It is used from the next event stream start.
+     *
+     * @param syncSchedulingPolicy the sync scheduling policy
+     */
+    public void setSyncSchedulingPolicy(SyncSchedulingPolicy syncSchedulingPolicy) {
+        if (null != syncSchedulingPolicy) {
+            mSyncSchedulingPolicy = syncSchedulingPolicy;
+
+            if (null != mEventsThread) {
+                mEventsThread.setSyncSchedulingPolicy(syncSchedulingPolicy);
+            }
+        }
+    }
+
+    /**
+     * @return the sync scheduling policy
+     */
+    public SyncSchedulingPolicy getSyncSchedulingPolicy() {
+        return mSyncSchedulingPolicy;
+    }
+
+    /**
+     * Enable the on-disk cache of the cacheable HTTP responses.
+     * It is stored in the application cache directory, and it is deleted when the session is cleared.
+     *
+     * @param maxSize the cache max size in bytes
+     */
+    public void enableHttpResponseCache(long maxSize) {
+        checkIfAlive();
+
+        File cacheDir = new File(new File(mAppContent.getCacheDir(), HTTP_CACHE_DIR), mCredentials.userId);
+        mHttpEngine.enableResponseCache(cacheDir, maxSize);
+    }
+
+    /**
+     * @return the HTTP engine shared by the rest clients
+     */
+    public MXHttpEngine getHttpEngine() {
+        return mHttpEngine;
+    }
+
+    /**
+     * Set the max number of sync responses which are received but not yet processed.
+     * The next sync request is sent while the previous responses are processed, until this limit is reached.
+     *
+     * @param maxCount the max pending sync responses count, 0 means no limit.
+     */
+    public void setMaxPendingSyncResponses(int maxCount) {
+        mDataHandler.setMaxPendingSyncResponses(maxCount);
+    }
+
+    /**
+     * @return the sync latency metrics
+     */
+    public SyncLatencyMetrics getSyncLatencyMetrics() {
+        return mDataHandler.getSyncLatencyMetrics();
+    }
+
+    /**
+     * Enable or disable the batched dispatch of the live events.
+     * When it is enabled, the listeners receive the live events of a sync response
+     * when the chunk is processed, with onLiveEvents() for each room.
+     *
+     * @param isEnabled true to enable the batched dispatch.
+     */
+    public void setLiveEventsBatchDispatch(boolean isEnabled) {
+        mDataHandler.setLiveEventsBatchDispatch(isEnabled);
+    }
+
+    /**
+     * Set the number of threads which handle the joined rooms of a sync response.
+     * Use Runtime.getRuntime().availableProcessors() to scale the initial sync with the cores count.
+     *
+     * @param threadsCount the threads count, 1 to handle the rooms in the sync thread.
+     */
+    public void setRoomsSyncThreadsCount(int threadsCount) {
+        mDataHandler.setRoomsSyncThreadsCount(threadsCount);
+    }
+
     /**
      * Refresh the network connection information.
      * On android version older than 6.0, the doze mode might have killed the network connection.
@@ -1637,7 +1784,7 @@ public class MXSession {
         }
 
         if (!TextUtils.equals(tag, RoomTag.ROOM_TAG_NO_TAG)) {
-            Collection<Room> rooms = mDataHandler.getStore().getRooms();
+            Collection<Room> rooms = mDataHandler.getAllRooms();
 
             for (Room room : rooms) {
                 if (null != room.getAccountData().roomTag(tag)) {
@@ -1682,7 +1829,7 @@ public class MXSession {
                 });
             }
         } else {
-            Collection<Room> rooms = mDataHandler.getStore().getRooms();
+            Collection<Room> rooms = mDataHandler.getAllRooms();
 
             for (Room room : rooms) {
                 if (!room.getAccountData().hasTags()) {
@@ -1799,58 +1946,28 @@ public class MXSession {
                 String chosenUserId;
 
                 if (null == aParticipantUserId) {
-                    List<RoomMember> members = new ArrayList<>(room.getActiveMembers());
-
-                    // should never happen but it was reported by a GA issue
-                    if (members.isEmpty()) {
-                        return;
-                    }
+                    RoomState state = room.getState();
+                    String conferenceUserId = MXCallsManager.getConferenceUserId(roomId);
 
-                    if (members.size() > 1) {
-                        // sort algo: oldest join first, then oldest invited
-                        Collections.sort(members, new Comparator<RoomMember>() {
-                            @Override
-                            public int compare(RoomMember r1, RoomMember r2) {
-                                int res;
-                                long diff;
-
-                                if (RoomMember.MEMBERSHIP_JOIN.equals(r2.membership) && RoomMember.MEMBERSHIP_INVITE.equals(r1.membership)) {
-                                    res = 1;
-                                } else if (r2.membership.equals(r1.membership)) {
-                                    diff = r1.getOriginServerTs() - r2.getOriginServerTs();
-                                    res = (0 == diff) ? 0 : ((diff > 0) ? 1 : -1);
-                                } else {
-                                    res = -1;
-                                }
-                                return res;
-                            }
-                        });
+                    // oldest join first, then oldest invited
+                    directChatMember = getOldestMember(state, RoomMember.MEMBERSHIP_JOIN, getMyUserId(), conferenceUserId);
 
-                        int nextIndexSearch = 0;
+                    if (null == directChatMember) {
+                        directChatMember = getOldestMember(state, RoomMember.MEMBERSHIP_INVITE, getMyUserId(), conferenceUserId);
+                    }
 
-                        // take the oldest join member
-                        if (!TextUtils.equals(members.get(0).getUserId(), getMyUserId())) {
-                            if (RoomMember.MEMBERSHIP_JOIN.equals(members.get(0).membership)) {
-                                directChatMember = members.get(0);
-                            }
-                        } else {
-                            nextIndexSearch = 1;
-                            if (RoomMember.MEMBERSHIP_JOIN.equals(members.get(1).membership)) {
-                                directChatMember = members.get(1);
-                            }
-                        }
+                    // last option: get the logged user
+                    if (null == directChatMember) {
+                        directChatMember = getOldestMember(state, RoomMember.MEMBERSHIP_JOIN, null, conferenceUserId);
+                    }
 
-                        // no join member found, test the oldest join member
-                        if (null == directChatMember) {
-                            if (RoomMember.MEMBERSHIP_INVITE.equals(members.get(nextIndexSearch).membership)) {
-                                directChatMember = members.get(nextIndexSearch);
-                            }
-                        }
+                    if (null == directChatMember) {
+                        directChatMember = getOldestMember(state, RoomMember.MEMBERSHIP_INVITE, null, conferenceUserId);
                     }
 
-                    // last option: get the logged user
+                    // should never happen but it was reported by a GA issue
                     if (null == directChatMember) {
-                        directChatMember = members.get(0);
+                        return;
                     }
 
                     chosenUserId = directChatMember.getUserId();
@@ -1890,6 +2007,31 @@ public class MXSession {
             mAccountDataRestClient.setAccountData(getMyUserId(), AccountDataRestClient.ACCOUNT_DATA_TYPE_DIRECT_MESSAGES, params, callback);
         }
     }
+    /**
+     * Provides the oldest member with a membership, without copying the members list.
+     *
+     * @param state            the room state
+     * @param membership       the membership
+     * @param excludedUserId   the user id to ignore (can be null)
+     * @param conferenceUserId the conference user id
+     * @return the member, null if there is none
+     */
+    private static RoomMember getOldestMember(RoomState state, String membership, String excludedUserId, String conferenceUserId) {
+        RoomMember oldestMember = null;
+        Iterator<RoomMember> iterator = state.getMembersIterator(membership);
+
+        while (iterator.hasNext()) {
+            RoomMember member = iterator.next();
+
+            if (!TextUtils.equals(member.getUserId(), excludedUserId) && !TextUtils.equals(member.getUserId(), conferenceUserId) &&
+                    ((null == oldestMember) || (member.getOriginServerTs() < oldestMember.getOriginServerTs()))) {
+                oldestMember = member;
+            }
+        }
+
+        return oldestMember;
+    }
+
     /**
      * Update the account password
      *
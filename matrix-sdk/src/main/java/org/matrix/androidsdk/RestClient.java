@@ -27,9 +27,10 @@ import com.squareup.okhttp.OkHttpClient;
 
 import org.matrix.androidsdk.listeners.IMXNetworkEventListener;
 import org.matrix.androidsdk.network.NetworkConnectivityReceiver;
+import org.matrix.androidsdk.rest.client.MXHttpEngine;
 import org.matrix.androidsdk.rest.client.MXRestExecutor;
+import org.matrix.androidsdk.rest.client.RequestsCoalescer;
 import org.matrix.androidsdk.rest.model.login.Credentials;
-import org.matrix.androidsdk.ssl.CertUtil;
 import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.androidsdk.util.Log;
 import org.matrix.androidsdk.util.UnsentEventsManager;
@@ -59,7 +60,7 @@ public class RestClient<T> {
     private static final String PARAM_ACCESS_TOKEN = "access_token";
 
     protected static final int CONNECTION_TIMEOUT_MS = 30000;
-    private static final int READ_TIMEOUT_MS = 60000;
+    protected static final int READ_TIMEOUT_MS = 60000;
     private static final int WRITE_TIMEOUT_MS = 60000;
 
     protected Credentials mCredentials;
@@ -72,14 +73,17 @@ public class RestClient<T> {
 
     protected HomeServerConnectionConfig mHsConfig;
 
+    // merge the identical read requests
+    protected final RequestsCoalescer mRequestsCoalescer = new RequestsCoalescer();
+
     // unitary tests only
     public static boolean mUseMXExececutor = false;
 
     // the user agent
     private static String sUserAgent = null;
 
-    // http client
-    private OkHttpClient mOkHttpClient = new OkHttpClient();
+    // http client, it shares the connection pool and the TLS sessions of the other rest clients of the session
+    private OkHttpClient mOkHttpClient;
 
     public RestClient(HomeServerConnectionConfig hsConfig, Class<T> type, String uriPrefix, boolean withNullSerialization) {
         this(hsConfig, type, uriPrefix, withNullSerialization, false);
@@ -101,24 +105,12 @@ public class RestClient<T> {
         mHsConfig = hsConfig;
         mCredentials = hsConfig.getCredentials();
 
-        mOkHttpClient = new OkHttpClient();
+        mOkHttpClient = MXHttpEngine.getEngine(hsConfig).newClient();
 
         mOkHttpClient.setConnectTimeout(CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         mOkHttpClient.setReadTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         mOkHttpClient.setWriteTimeout(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 
-        try {
-            mOkHttpClient.setSslSocketFactory(CertUtil.newPinnedSSLSocketFactory(hsConfig));
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## RestClient() setSslSocketFactory failed" + e.getMessage());
-        }
-
-        try {
-            mOkHttpClient.setHostnameVerifier(CertUtil.newHostnameVerifier(hsConfig));
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## RestClient() setSslSocketFactory failed" + e.getMessage());
-        }
-
         // remove any trailing http in the uri prefix
         if (uriPrefix.startsWith("http://")) {
             uriPrefix = uriPrefix.substring("http://".length());
@@ -251,6 +243,34 @@ public class RestClient<T> {
         }
     }
 
+    /**
+     * Update the read timeout
+     *
+     * @param aTimeoutMs the read timeout
+     */
+    protected void setReadTimeout(int aTimeoutMs) {
+        int timeoutMs = aTimeoutMs;
+
+        if (null != mUnsentEventsManager) {
+            NetworkConnectivityReceiver networkConnectivityReceiver = mUnsentEventsManager.getNetworkConnectivityReceiver();
+
+            if ((null != networkConnectivityReceiver) && networkConnectivityReceiver.isConnected()) {
+                timeoutMs *= networkConnectivityReceiver.getTimeoutScale();
+            }
+        }
+
+        if (timeoutMs != mOkHttpClient.getReadTimeout()) {
+            mOkHttpClient.setReadTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the read timeout in ms
+     */
+    public int getReadTimeout() {
+        return mOkHttpClient.getReadTimeout();
+    }
+
     /**
      * Set the unsentEvents manager.
      *
@@ -271,6 +291,13 @@ public class RestClient<T> {
         });
     }
 
+    /**
+     * @return the requests coalescer, which provides the deduplicated requests counters
+     */
+    public RequestsCoalescer getRequestsCoalescer() {
+        return mRequestsCoalescer;
+    }
+
     /**
      * Get the user's credentials. Typically for saving them somewhere persistent.
      *
@@ -293,6 +320,7 @@ public class RestClient<T> {
      * Default protected constructor for unit tests.
      */
     protected RestClient() {
+        mOkHttpClient = new OkHttpClient();
     }
 
     /**
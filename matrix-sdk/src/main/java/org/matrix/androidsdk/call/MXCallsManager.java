@@ -32,6 +32,7 @@ import org.matrix.androidsdk.crypto.data.MXDeviceInfo;
 import org.matrix.androidsdk.crypto.data.MXUsersDevicesMap;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomSummary;
 import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
@@ -1071,7 +1072,29 @@ public class MXCallsManager {
         String conferenceUserId = getConferenceUserId(roomId);
 
         Room conferenceRoom = null;
-        Collection<Room> rooms = mSession.getDataHandler().getStore().getRooms();
+        IMXStore store = mSession.getDataHandler().getStore();
+        List<Room> rooms = new ArrayList<>(store.getRooms());
+
+        Set<String> loadedRoomIds = new HashSet<>();
+
+        for (Room room : rooms) {
+            loadedRoomIds.add(room.getRoomId());
+        }
+
+        // the rooms which are not yet loaded by the store are only loaded if they might be a 1:1 room
+        for (String storedRoomId : store.getRoomIds()) {
+            if (!loadedRoomIds.contains(storedRoomId)) {
+                RoomSummary summary = store.getSummary(storedRoomId);
+
+                if ((null == summary) || summary.isRoomStateDataMissing() || (summary.getJoinedMembersCount() <= 2)) {
+                    Room room = store.getRoom(storedRoomId);
+
+                    if (null != room) {
+                        rooms.add(room);
+                    }
+                }
+            }
+        }
 
         // Use an existing 1:1 with the conference user; else make one
         for (Room room : rooms) {
@@ -37,10 +37,12 @@ import org.matrix.androidsdk.crypto.data.MXUsersDevicesMap;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.data.cryptostore.IMXCryptoStore;
+import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.listeners.IMXNetworkEventListener;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.network.NetworkConnectivityReceiver;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.EventContent;
 import org.matrix.androidsdk.rest.model.MatrixError;
@@ -809,7 +811,7 @@ public class MXCrypto {
 
         final ArrayList<String> userRoomIds = new ArrayList<>();
 
-        Collection<Room> rooms = mSession.getDataHandler().getStore().getRooms();
+        Collection<Room> rooms = getEncryptedRooms();
 
         for (Room room : rooms) {
             if (room.isEncrypted()) {
@@ -1248,6 +1250,21 @@ public class MXCrypto {
             return;
         }
 
+        // with the lazy loaded members, the room state only contains some of the members
+        // so they are loaded to encrypt the event for all of them
+        if (mSession.areMembersLazyLoaded() && !room.areAllMembersLoaded()) {
+            Log.d(LOG_TAG, "## encryptEventContent() : load the members of " + room.getRoomId());
+
+            room.loadMembers(new SimpleApiCallback<Void>(callback) {
+                @Override
+                public void onSuccess(Void info) {
+                    encryptEventContent(eventContent, eventType, room, callback);
+                }
+            });
+
+            return;
+        }
+
         // just as you are sending a secret message?
         final ArrayList<String> userdIds = new ArrayList<>();
 
@@ -1487,6 +1504,40 @@ public class MXCrypto {
         return res;
     }
 
+    /**
+     * Provides the encrypted rooms.
+     * The rooms which are not yet loaded by the store are only loaded when the crypto store
+     * knows that they are encrypted.
+     *
+     * @return the encrypted rooms
+     */
+    private List<Room> getEncryptedRooms() {
+        List<Room> encryptedRooms = new ArrayList<>();
+        IMXStore store = mSession.getDataHandler().getStore();
+
+        Set<String> loadedRoomIds = new HashSet<>();
+
+        for (Room room : store.getRooms()) {
+            loadedRoomIds.add(room.getRoomId());
+
+            if (room.isEncrypted()) {
+                encryptedRooms.add(room);
+            }
+        }
+
+        for (String roomId : store.getRoomIds()) {
+            if (!loadedRoomIds.contains(roomId) && (null != mCryptoStore.getRoomAlgorithm(roomId))) {
+                Room room = store.getRoom(roomId);
+
+                if ((null != room) && room.isEncrypted()) {
+                    encryptedRooms.add(room);
+                }
+            }
+        }
+
+        return encryptedRooms;
+    }
+
     /**
      * Provides the list of e2e rooms
      *
@@ -1500,7 +1551,7 @@ public class MXCrypto {
             return e2eRooms;
         }
 
-        List<Room> rooms = new ArrayList<>(mSession.getDataHandler().getStore().getRooms());
+        List<Room> rooms = getEncryptedRooms();
         for (Room r : rooms) {
             if (r.isEncrypted()) {
                 RoomMember me = r.getMember(mSession.getMyUserId());
@@ -2487,7 +2538,7 @@ public class MXCrypto {
         final String userId = mSession.getMyUserId();
         final ArrayList<String> userRoomIds = new ArrayList<>();
 
-        Collection<Room> rooms = mSession.getDataHandler().getStore().getRooms();
+        Collection<Room> rooms = getEncryptedRooms();
 
         for (Room room : rooms) {
             if (room.isEncrypted()) {
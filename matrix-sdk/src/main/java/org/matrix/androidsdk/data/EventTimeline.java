@@ -323,12 +323,10 @@ public class EventTimeline {
         mState.setDataHandler(mDataHandler);
 
         if (null != stateEvents) {
-            for (Event event : stateEvents) {
-                try {
-                    processStateEvent(event, Direction.FORWARDS);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "initHistory failed " + e.getMessage());
-                }
+            try {
+                processStateEvents(stateEvents, Direction.FORWARDS);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "initHistory failed " + e.getMessage());
             }
         }
 
@@ -364,6 +362,7 @@ public class EventTimeline {
 
     /**
      * Make a deep copy or the dedicated state.
+     * It is done in a constant time, the room state maps are shared with the copy.
      *
      * @param direction the room state direction to deep copy.
      */
@@ -393,6 +392,21 @@ public class EventTimeline {
         return isProcessed;
     }
 
+    /**
+     * Process a batch of state events (see {@link RoomState#applyStateEvents(IMXStore, List, Direction)}).
+     *
+     * @param events    the state events
+     * @param direction the direction; ie. forwards for live state, backwards for back state
+     */
+    private void processStateEvents(List<Event> events, Direction direction) {
+        RoomState affectedState = (direction == Direction.FORWARDS) ? mState : mBackState;
+        int count = affectedState.applyStateEvents(getStore(), events, direction);
+
+        if ((count > 0) && (direction == Direction.FORWARDS)) {
+            mStore.storeLiveStateForRoom(mRoomId);
+        }
+    }
+
     /**
      * Handle the invitation room events
      *
@@ -456,12 +470,10 @@ public class EventTimeline {
             // Build/Update first the room state corresponding to the 'start' of the timeline.
             // Note: We consider it is not required to clone the existing room state here, because no notification is posted for these events.
             if (mDataHandler.isAlive()) {
-                for (Event event : roomSync.state.events) {
-                    try {
-                        processStateEvent(event, Direction.FORWARDS);
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "processStateEvent failed " + e.getMessage());
-                    }
+                try {
+                    processStateEvents(roomSync.state.events, Direction.FORWARDS);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "processStateEvents failed " + e.getMessage());
                 }
 
                 mRoom.setReadyState(true);
@@ -625,6 +637,19 @@ public class EventTimeline {
                 }
             }
 
+            // the room summary is sent when the members are lazy loaded
+            if (null != roomSync.summary) {
+                RoomSummary summary = mStore.getSummary(mRoomId);
+
+                if (null != summary) {
+                    summary.setRoomSyncSummary(roomSync.summary);
+                    summary.setName(mRoom.getName(myUserId));
+                    mStore.flushSummary(summary);
+                } else {
+                    Log.e(LOG_TAG, "## handleJoinedRoomSync() : no summary to update with the sync summary for room id " + mRoomId);
+                }
+            }
+
             if (null != roomSync.unreadNotifications) {
                 int notifCount = 0;
                 int highlightCount = 0;
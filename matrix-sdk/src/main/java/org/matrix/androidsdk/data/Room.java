@@ -76,6 +76,7 @@ import org.matrix.androidsdk.util.Log;
 import java.io.File;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -127,6 +128,9 @@ public class Room {
     // This is used to block live events and history requests until the state is fully processed and ready
     private boolean mIsReady = false;
 
+    // true when the members have been loaded from the server by loadMembers()
+    private volatile boolean mAreAllMembersLoaded = false;
+
     // call conference user id
     private String mCallConferenceUserId;
 
@@ -423,6 +427,59 @@ public class Room {
         return getState().getMembers();
     }
 
+    /**
+     * Load the room members from the server.
+     * It is required when the sync filter lazy loads the members :
+     * the room state only contains the members who have sent the received timeline events.
+     * The members which are already known are not updated, the sync keeps them up to date.
+     *
+     * @param callback the asynchronous callback
+     */
+    public void loadMembers(final ApiCallback<Void> callback) {
+        mDataHandler.getDataRetriever().getRoomsRestClient().getRoomMembers(getRoomId(), new SimpleApiCallback<TokensChunkResponse<Event>>(callback) {
+            @Override
+            public void onSuccess(final TokensChunkResponse<Event> response) {
+                // the sync updates the live room state in the sync thread
+                mDataHandler.runInSyncThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (null != response.chunk) {
+                            RoomState state = getState();
+
+                            for (Event event : response.chunk) {
+                                if ((null != event.stateKey) && (null == state.getMember(event.stateKey))) {
+                                    state.applyState(getStore(), event, EventTimeline.Direction.FORWARDS);
+                                }
+                            }
+
+                            getStore().storeLiveStateForRoom(getRoomId());
+                        }
+
+                        mAreAllMembersLoaded = true;
+
+                        if (null != callback) {
+                            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onSuccess(null);
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tells if the members have been loaded from the server with loadMembers().
+     *
+     * @return true if the room state contains all the members
+     */
+    public boolean areAllMembersLoaded() {
+        return mAreAllMembersLoaded;
+    }
+
     public EventTimeline getLiveTimeLine() {
         return mLiveTimeline;
     }
@@ -443,13 +500,18 @@ public class Room {
      * @return the list of active members in a room ie joined or invited ones.
      */
     public Collection<RoomMember> getActiveMembers() {
-        Collection<RoomMember> members = getState().getMembers();
-        List<RoomMember> activeMembers = new ArrayList<>();
+        RoomState state = getState();
+        List<RoomMember> activeMembers = new ArrayList<>(state.getMembersCount(RoomMember.MEMBERSHIP_JOIN) + state.getMembersCount(RoomMember.MEMBERSHIP_INVITE));
         String conferenceUserId = MXCallsManager.getConferenceUserId(getRoomId());
 
-        for (RoomMember member : members) {
-            if (!TextUtils.equals(member.getUserId(), conferenceUserId)) {
-                if (TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN) || TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_INVITE)) {
+        // the other members are not browsed
+        for (String membership : Arrays.asList(RoomMember.MEMBERSHIP_JOIN, RoomMember.MEMBERSHIP_INVITE)) {
+            Iterator<RoomMember> iterator = state.getMembersIterator(membership);
+
+            while (iterator.hasNext()) {
+                RoomMember member = iterator.next();
+
+                if (!TextUtils.equals(member.getUserId(), conferenceUserId)) {
                     activeMembers.add(member);
                 }
             }
@@ -460,20 +522,12 @@ public class Room {
 
     /**
      * Get the list of the members who have joined the room.
+     * They are ordered by power level, then by name.
      *
      * @return the list the joined members of the room.
      */
     public Collection<RoomMember> getJoinedMembers() {
-        Collection<RoomMember> membersList = getState().getMembers();
-        List<RoomMember> joinedMembersList = new ArrayList<>();
-
-        for (RoomMember member : membersList) {
-            if (TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN)) {
-                joinedMembersList.add(member);
-            }
-        }
-
-        return joinedMembersList;
+        return getState().getMembers(RoomMember.MEMBERSHIP_JOIN, 0, Integer.MAX_VALUE);
     }
 
     public RoomMember getMember(String userId) {
@@ -488,7 +542,14 @@ public class Room {
         final RoomMember member = getMember(userId);
 
         if ((null != member) && (null != member.getOriginalEventId())) {
-            event = mMemberEventByEventId.get(member.getOriginalEventId());
+            Event cachedEvent = mMemberEventByEventId.get(member.getOriginalEventId());
+
+            // the member event might have been saved in the store
+            if ((null == cachedEvent) && (null != getStore())) {
+                cachedEvent = getStore().getEventFromIndex(member.getOriginalEventId(), getRoomId());
+            }
+
+            event = cachedEvent;
 
             if (null == event) {
                 mDataHandler.getDataRetriever().getRoomsRestClient().getEvent(getRoomId(), member.getOriginalEventId(), new ApiCallback<Event>() {
@@ -534,9 +595,32 @@ public class Room {
     }
 
     public String getName(String selfUserId) {
+        RoomSummary summary = (null != getStore()) ? getStore().getSummary(getRoomId()) : null;
+
+        if (null != summary) {
+            return getState().getDisplayName(selfUserId, summary.getHeroes(), summary.getJoinedMembersCount() + summary.getInvitedMembersCount());
+        }
+
         return getState().getDisplayName(selfUserId);
     }
 
+    /**
+     * Provides the joined members count.
+     * When the members are lazy loaded, the room state does not contain all of them :
+     * the count of the sync room summary is then used.
+     *
+     * @return the joined members count
+     */
+    public int getNumberOfJoinedMembers() {
+        RoomSummary summary = (null != getStore()) ? getStore().getSummary(getRoomId()) : null;
+
+        if (null != summary) {
+            return summary.getJoinedMembersCount();
+        }
+
+        return getState().getJoinedMembersCount();
+    }
+
     public String getVisibility() {
         return getState().visibility;
     }
@@ -2134,7 +2218,8 @@ public class Room {
             return;
         }
 
-        // Create a global listener that we'll add to the data handler
+        // Create a room listener that we'll add to the data handler
+        // the data handler only routes the events of this room to it
         IMXEventListener globalListener = new MXEventListener() {
             @Override
             public void onPresenceUpdate(Event event, User user) {
@@ -2160,6 +2245,18 @@ public class Room {
                 }
             }
 
+            @Override
+            public void onLiveEvents(String roomId, List<Event> events) {
+                // Filter out events for other rooms and events while we are joining (before the room is ready)
+                if (TextUtils.equals(getRoomId(), roomId) && mIsReady) {
+                    try {
+                        eventListener.onLiveEvents(roomId, events);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "onLiveEvents exception " + e.getMessage());
+                    }
+                }
+            }
+
             @Override
             public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
                 try {
@@ -2342,7 +2439,11 @@ public class Room {
 
         // GA crash
         if (null != mDataHandler) {
-            mDataHandler.addListener(globalListener);
+            if (null != getRoomId()) {
+                mDataHandler.addRoomListener(getRoomId(), globalListener);
+            } else {
+                mDataHandler.addListener(globalListener);
+            }
         }
     }
 
@@ -2354,8 +2455,13 @@ public class Room {
     public void removeEventListener(IMXEventListener eventListener) {
         // sanity check
         if ((null != eventListener) && (null != mDataHandler)) {
-            mDataHandler.removeListener(mEventListeners.get(eventListener));
-            mEventListeners.remove(eventListener);
+            IMXEventListener globalListener = mEventListeners.remove(eventListener);
+
+            if (null != getRoomId()) {
+                mDataHandler.removeRoomListener(getRoomId(), globalListener);
+            }
+
+            mDataHandler.removeListener(globalListener);
         }
     }
 
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data;
+
+import org.matrix.androidsdk.rest.model.PowerLevels;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.util.PersistentHashMap;
+import org.matrix.androidsdk.util.PersistentSortedList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable index of the members of a room state.
+ * <p>
+ * The members are partitioned by membership, and each partition is ordered by power level (highest first),
+ * then by name (case insensitive), then by user id.
+ * The members are also ordered by name, to find the ones whose name starts with a prefix.
+ * <p>
+ * The index is updated with add() and remove() which return a new index, it is rebuilt when the power levels change.
+ * It can be shared between several room state snapshots.
+ */
+class RoomMembersIndex {
+
+    /**
+     * A member, with its name key.
+     */
+    private static class NameEntry {
+        final String mKey;
+        final RoomMember mMember;
+
+        NameEntry(String key, RoomMember member) {
+            mKey = key;
+            mMember = member;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return (other instanceof NameEntry) && (((NameEntry) other).mMember == mMember);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mMember);
+        }
+    }
+
+    // order the name entries by key, then by user id
+    private static final Comparator<NameEntry> NAME_ENTRY_COMPARATOR = new Comparator<NameEntry>() {
+        @Override
+        public int compare(NameEntry entry1, NameEntry entry2) {
+            int res = entry1.mKey.compareTo(entry2.mKey);
+
+            if (0 == res) {
+                res = compareUserIds(entry1.mMember, entry2.mMember);
+            }
+
+            return res;
+        }
+    };
+
+    private final PowerLevels mPowerLevels;
+    private final Comparator<RoomMember> mMembersComparator;
+
+    // the members by membership
+    private final PersistentHashMap<String, PersistentSortedList<RoomMember>> mMembersByMembership;
+
+    // the members by name
+    private final PersistentSortedList<NameEntry> mMembersByName;
+
+    private RoomMembersIndex(PowerLevels powerLevels, Comparator<RoomMember> membersComparator,
+                             PersistentHashMap<String, PersistentSortedList<RoomMember>> membersByMembership,
+                             PersistentSortedList<NameEntry> membersByName) {
+        mPowerLevels = powerLevels;
+        mMembersComparator = membersComparator;
+        mMembersByMembership = membersByMembership;
+        mMembersByName = membersByName;
+    }
+
+    /**
+     * Compare the user ids of two members, the null one (a search key) is the lowest.
+     *
+     * @param member1 the first member
+     * @param member2 the second member
+     * @return the comparison result
+     */
+    private static int compareUserIds(RoomMember member1, RoomMember member2) {
+        String userId1 = (null == member1) ? null : member1.getUserId();
+        String userId2 = (null == member2) ? null : member2.getUserId();
+
+        if (null == userId1) {
+            return (null == userId2) ? 0 : -1;
+        } else if (null == userId2) {
+            return 1;
+        }
+
+        return userId1.compareTo(userId2);
+    }
+
+    /**
+     * Provides the key used to order the members by name.
+     * It is the lower case display name, or the user id without its leading '@'.
+     *
+     * @param name the member name
+     * @return the name key
+     */
+    static String getNameKey(String name) {
+        if (null == name) {
+            return "";
+        }
+
+        if (name.startsWith("@")) {
+            name = name.substring(1);
+        }
+
+        return name.toLowerCase();
+    }
+
+    /**
+     * Build an index.
+     *
+     * @param members     the members
+     * @param powerLevels the power levels, they must not be modified later
+     * @return the index
+     */
+    static RoomMembersIndex build(Collection<RoomMember> members, final PowerLevels powerLevels) {
+        Comparator<RoomMember> membersComparator = new Comparator<RoomMember>() {
+            @Override
+            public int compare(RoomMember member1, RoomMember member2) {
+                int res = 0;
+
+                if (null != powerLevels) {
+                    // highest power level first
+                    res = powerLevels.getUserPowerLevel(member2.getUserId()) - powerLevels.getUserPowerLevel(member1.getUserId());
+                }
+
+                if (0 == res) {
+                    res = getNameKey(member1.getName()).compareTo(getNameKey(member2.getName()));
+                }
+
+                if (0 == res) {
+                    res = compareUserIds(member1, member2);
+                }
+
+                return res;
+            }
+        };
+
+        Map<String, List<RoomMember>> membersByMembership = new HashMap<>();
+        List<NameEntry> nameEntries = new ArrayList<>(members.size());
+
+        for (RoomMember member : members) {
+            List<RoomMember> partition = membersByMembership.get(member.membership);
+
+            if (null == partition) {
+                partition = new ArrayList<>();
+                membersByMembership.put(member.membership, partition);
+            }
+
+            partition.add(member);
+            nameEntries.add(new NameEntry(getNameKey(member.getName()), member));
+        }
+
+        Map<String, PersistentSortedList<RoomMember>> partitions = new HashMap<>();
+
+        for (Map.Entry<String, List<RoomMember>> entry : membersByMembership.entrySet()) {
+            partitions.put(entry.getKey(), PersistentSortedList.fromCollection(entry.getValue(), membersComparator));
+        }
+
+        return new RoomMembersIndex(powerLevels, membersComparator, PersistentHashMap.fromMap(partitions),
+                PersistentSortedList.fromCollection(nameEntries, NAME_ENTRY_COMPARATOR));
+    }
+
+    /**
+     * @return the power levels used to order the members
+     */
+    PowerLevels getPowerLevels() {
+        return mPowerLevels;
+    }
+
+    /**
+     * Provides an index with a new member.
+     *
+     * @param member the member
+     * @return the updated index, this index is not modified
+     */
+    RoomMembersIndex add(RoomMember member) {
+        PersistentSortedList<RoomMember> partition = mMembersByMembership.get(member.membership);
+
+        if (null == partition) {
+            partition = PersistentSortedList.empty(mMembersComparator);
+        }
+
+        return new RoomMembersIndex(mPowerLevels, mMembersComparator,
+                mMembersByMembership.put(member.membership, partition.add(member)),
+                mMembersByName.add(new NameEntry(getNameKey(member.getName()), member)));
+    }
+
+    /**
+     * Provides an index without a member.
+     *
+     * @param member the member, as it has been added
+     * @return the updated index, this index is not modified
+     */
+    RoomMembersIndex remove(RoomMember member) {
+        PersistentSortedList<RoomMember> partition = mMembersByMembership.get(member.membership);
+
+        if (null == partition) {
+            return this;
+        }
+
+        partition = partition.remove(member);
+
+        return new RoomMembersIndex(mPowerLevels, mMembersComparator,
+                partition.isEmpty() ? mMembersByMembership.remove(member.membership) : mMembersByMembership.put(member.membership, partition),
+                mMembersByName.remove(new NameEntry(getNameKey(member.getName()), member)));
+    }
+
+    /**
+     * Provides the members with a membership.
+     *
+     * @param membership the membership (RoomMember.MEMBERSHIP_XX)
+     * @return the sorted members
+     */
+    PersistentSortedList<RoomMember> getMembers(String membership) {
+        PersistentSortedList<RoomMember> partition = mMembersByMembership.get(membership);
+        return (null == partition) ? PersistentSortedList.empty(mMembersComparator) : partition;
+    }
+
+    /**
+     * Provides the members whose name starts with a prefix, ordered by name.
+     *
+     * @param prefix     the name prefix (case insensitive)
+     * @param membership the membership, null to provide all the members
+     * @return the members iterator
+     */
+    Iterator<RoomMember> getMembersWithNamePrefix(String prefix, final String membership) {
+        final String key = getNameKey(prefix);
+        final Iterator<NameEntry> entries = mMembersByName.iteratorFrom(new NameEntry(key, null));
+
+        return new Iterator<RoomMember>() {
+            private RoomMember mNext = findNext();
+
+            private RoomMember findNext() {
+                while (entries.hasNext()) {
+                    NameEntry entry = entries.next();
+
+                    if (!entry.mKey.startsWith(key)) {
+                        return null;
+                    }
+
+                    if ((null == membership) || membership.equals(entry.mMember.membership)) {
+                        return entry.mMember;
+                    }
+                }
+
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return null != mNext;
+            }
+
+            @Override
+            public RoomMember next() {
+                if (null == mNext) {
+                    throw new NoSuchElementException();
+                }
+
+                RoomMember member = mNext;
+                mNext = findNext();
+                return member;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("The index is immutable");
+            }
+        };
+    }
+}
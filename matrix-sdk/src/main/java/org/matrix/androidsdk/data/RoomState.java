@@ -33,6 +33,7 @@ import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.rest.model.pid.RoomThirdPartyInvite;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.PersistentHashMap;
 
 import java.io.Externalizable;
 import java.io.IOException;
@@ -86,16 +87,16 @@ public class RoomState implements Externalizable {
     public List<String> aliases;
 
     // The room aliases. The key is the domain.
-    private Map<String, Event> mRoomAliases = new HashMap<>();
+    private PersistentHashMap<String, Event> mRoomAliases = PersistentHashMap.empty();
 
     // the aliases are defined for each home server url
-    private Map<String, List<String>> mAliasesByDomain = new HashMap();
+    private PersistentHashMap<String, List<String>> mAliasesByDomain = PersistentHashMap.empty();
 
     // merged from mAliasesByHomeServerUrl
     private List<String> mMergedAliasesList;
 
     //
-    private Map<String, List<Event>> mStateEvents = new HashMap<>();
+    private PersistentHashMap<String, List<Event>> mStateEvents = PersistentHashMap.empty();
 
     // Informs which alias is the canonical one.
     public String alias;
@@ -156,17 +157,20 @@ public class RoomState implements Externalizable {
     // the associated token
     private String token;
 
+    // the maps are persistent ones : an update replaces the map by a new one, which shares the unchanged nodes.
+    // So deepCopy() does not copy them.
+
     // the room members
-    private final Map<String, RoomMember> mMembers = new HashMap<>();
+    private PersistentHashMap<String, RoomMember> mMembers = PersistentHashMap.empty();
 
     // the third party invite members
-    private final Map<String, RoomThirdPartyInvite> mThirdPartyInvites = new HashMap<>();
+    private PersistentHashMap<String, RoomThirdPartyInvite> mThirdPartyInvites = PersistentHashMap.empty();
 
     /**
      * Cache for [self memberWithThirdPartyInviteToken].
      * The key is the 3pid invite token.
      */
-    private final Map<String, RoomMember> mMembersWithThirdPartyInviteTokenCache = new HashMap<>();
+    private PersistentHashMap<String, RoomMember> mMembersWithThirdPartyInviteTokenCache = PersistentHashMap.empty();
 
     /**
      * Additional and optional metadata got from initialSync
@@ -187,7 +191,50 @@ public class RoomState implements Externalizable {
     private transient Object mDataHandler = null;
 
     // member display cache
-    private transient HashMap<String, String> mMemberDisplayNameByUserId = new HashMap<>();
+    private transient PersistentHashMap<String, String> mMemberDisplayNameByUserId = PersistentHashMap.empty();
+
+    // the user ids by member display name, to find the members which must be disambiguated.
+    // It is built at the first use, then it is updated with the members.
+    private transient PersistentHashMap<String, List<String>> mUserIdsByDisplayName = null;
+
+    // incremented each time the members list is updated
+    private transient int mMembersVersion = 0;
+
+    // the room display name cache, and the values it has been computed from
+    private transient String mDisplayName = null;
+    private transient String mDisplayNameSelfUserId = null;
+    private transient String mDisplayNameName = null;
+    private transient String mDisplayNameAlias = null;
+    private transient int mDisplayNameMembersVersion = -1;
+
+    // the joined members count cache
+    private transient int mJoinedMembersCount = 0;
+    private transient int mJoinedMembersCountVersion = -1;
+
+    /**
+     * The updates of a batch of state events, which are applied at the end of the batch.
+     */
+    private static class StateEventsBatch {
+        // the updated members, a null value means that the member has been removed
+        final HashMap<String, RoomMember> mMembers;
+
+        final HashMap<String, RoomThirdPartyInvite> mThirdPartyInvites = new HashMap<>();
+        final HashMap<String, RoomMember> mMembersWithThirdPartyInviteToken = new HashMap<>();
+
+        // the updated state events lists
+        final HashMap<String, List<Event>> mStateEvents = new HashMap<>();
+
+        StateEventsBatch(int eventsCount) {
+            mMembers = new HashMap<>((eventsCount * 4 / 3) + 1);
+        }
+    }
+
+    // the members sorted by membership / power level / name.
+    // It is built at the first use, then it is updated with the members.
+    private transient RoomMembersIndex mMembersIndex = null;
+
+    // the batch in progress (see applyStateEvents())
+    private transient StateEventsBatch mStateEventsBatch = null;
 
     // get the guest access
     // avoid the null case
@@ -247,11 +294,11 @@ public class RoomState implements Externalizable {
      * @return a copy of the room members list.
      */
     public Collection<RoomMember> getMembers() {
-        ArrayList<RoomMember> res;
+        List<RoomMember> res;
 
         synchronized (this) {
-            // make a copy to avoid concurrency modifications
-            res = new ArrayList<>(mMembers.values());
+            // values() provides a new list
+            res = mMembers.values();
         }
 
         return res;
@@ -399,10 +446,133 @@ public class RoomState implements Externalizable {
             member.setUserId(userId);
         }
         synchronized (this) {
+            // the caches are reset at the end of the batch
+            if (null != mStateEventsBatch) {
+                mStateEventsBatch.mMembers.put(userId, member);
+                return;
+            }
+
             if (null != mMemberDisplayNameByUserId) {
-                mMemberDisplayNameByUserId.remove(userId);
+                mMemberDisplayNameByUserId = mMemberDisplayNameByUserId.remove(userId);
+            }
+
+            RoomMember currentMember = mMembers.get(userId);
+
+            if (null != mUserIdsByDisplayName) {
+                String currentDisplayName = (null != currentMember) ? currentMember.displayname : null;
+
+                if ((null == currentMember) || !TextUtils.equals(currentDisplayName, member.displayname)) {
+                    if (null != currentMember) {
+                        removeFromDisplayNameIndex(currentDisplayName, userId);
+                    }
+                    addToDisplayNameIndex(member.displayname, userId);
+                }
             }
-            mMembers.put(userId, member);
+
+            if (null != mMembersIndex) {
+                if (null != currentMember) {
+                    mMembersIndex = mMembersIndex.remove(currentMember);
+                }
+                mMembersIndex = mMembersIndex.add(member);
+            }
+
+            mMembers = mMembers.put(userId, member);
+            mMembersVersion++;
+        }
+    }
+
+    /**
+     * Provides the joined members count.
+     * It is cached until the members are updated.
+     *
+     * @return the joined members count
+     */
+    public int getJoinedMembersCount() {
+        synchronized (this) {
+            if (mJoinedMembersCountVersion != mMembersVersion) {
+                int count = 0;
+
+                for (RoomMember member : mMembers.values()) {
+                    if (TextUtils.equals(member.membership, RoomMember.MEMBERSHIP_JOIN)) {
+                        count++;
+                    }
+                }
+
+                mJoinedMembersCount = count;
+                mJoinedMembersCountVersion = mMembersVersion;
+            }
+
+            return mJoinedMembersCount;
+        }
+    }
+
+    /**
+     * Provides the members index.
+     * It must be called in a synchronized block.
+     *
+     * @return the members index
+     */
+    private RoomMembersIndex getMembersIndex() {
+        if (null == mMembersIndex) {
+            mMembersIndex = RoomMembersIndex.build(mMembers.values(), powerLevels);
+        }
+
+        return mMembersIndex;
+    }
+
+    /**
+     * Provides the number of members with a membership.
+     *
+     * @param membership the membership (RoomMember.MEMBERSHIP_XX)
+     * @return the members count
+     */
+    public int getMembersCount(String membership) {
+        synchronized (this) {
+            return getMembersIndex().getMembers(membership).size();
+        }
+    }
+
+    /**
+     * Provides a page of the members with a membership.
+     * The members are ordered by power level (highest first), then by name.
+     *
+     * @param membership the membership (RoomMember.MEMBERSHIP_XX)
+     * @param offset     the first member position
+     * @param count      the max number of members
+     * @return a new list of members
+     */
+    public List<RoomMember> getMembers(String membership, int offset, int count) {
+        synchronized (this) {
+            return getMembersIndex().getMembers(membership).getPage(offset, count);
+        }
+    }
+
+    /**
+     * Provides an iterator on the members with a membership, without copying them.
+     * The members are ordered by power level (highest first), then by name.
+     * The iterator is not impacted by the next room state updates.
+     *
+     * @param membership the membership (RoomMember.MEMBERSHIP_XX)
+     * @return the members iterator
+     */
+    public Iterator<RoomMember> getMembersIterator(String membership) {
+        synchronized (this) {
+            return getMembersIndex().getMembers(membership).iterator();
+        }
+    }
+
+    /**
+     * Provides an iterator on the members whose name (i.e the display name or the user id) starts with a prefix.
+     * The members are ordered by name. It can be used to complete a member name.
+     * The iterator is not impacted by the next room state updates.
+     *
+     * @param prefix     the name prefix (case insensitive)
+     * @param membership the membership (RoomMember.MEMBERSHIP_XX), null to provide all the members
+     * @return the members iterator
+     */
+    public Iterator<RoomMember> getMembersWithNamePrefix(String prefix, String membership) {
+        synchronized (this) {
+            return getMembersIndex().getMembersWithNamePrefix(prefix, membership);
         }
     }
 
@@ -416,7 +586,11 @@ public class RoomState implements Externalizable {
         RoomMember member;
 
         synchronized (this) {
-            member = mMembers.get(userId);
+            if ((null != mStateEventsBatch) && mStateEventsBatch.mMembers.containsKey(userId)) {
+                member = mStateEventsBatch.mMembers.get(userId);
+            } else {
+                member = mMembers.get(userId);
+            }
         }
 
         return member;
@@ -429,12 +603,116 @@ public class RoomState implements Externalizable {
      */
     public void removeMember(String userId) {
         synchronized (this) {
-            mMembers.remove(userId);
+            if (null != mStateEventsBatch) {
+                mStateEventsBatch.mMembers.put(userId, null);
+                return;
+            }
+
+            RoomMember currentMember = mMembers.get(userId);
+
+            if ((null != currentMember) && (null != mUserIdsByDisplayName)) {
+                removeFromDisplayNameIndex(currentMember.displayname, userId);
+            }
+
+            if ((null != currentMember) && (null != mMembersIndex)) {
+                mMembersIndex = mMembersIndex.remove(currentMember);
+            }
+
+            mMembers = mMembers.remove(userId);
+            mMembersVersion++;
+
             // remove the cached display name
             if (null != mMemberDisplayNameByUserId) {
-                mMemberDisplayNameByUserId.remove(userId);
+                mMemberDisplayNameByUserId = mMemberDisplayNameByUserId.remove(userId);
+            }
+        }
+    }
+
+    /**
+     * Provides the user ids by member display name.
+     * It must be called in a synchronized block.
+     *
+     * @return the user ids by display name
+     */
+    private PersistentHashMap<String, List<String>> getUserIdsByDisplayName() {
+        if (null == mUserIdsByDisplayName) {
+            mUserIdsByDisplayName = PersistentHashMap.empty();
+
+            for (Map.Entry<String, RoomMember> entry : mMembers.entries()) {
+                addToDisplayNameIndex(entry.getValue().displayname, entry.getKey());
             }
         }
+
+        return mUserIdsByDisplayName;
+    }
+
+    /**
+     * Add a member to the display names index.
+     * It must be called in a synchronized block.
+     *
+     * @param displayName the member display name
+     * @param userId      the member user id
+     */
+    private void addToDisplayNameIndex(String displayName, String userId) {
+        if (TextUtils.isEmpty(displayName)) {
+            return;
+        }
+
+        List<String> userIds = mUserIdsByDisplayName.get(displayName);
+
+        // the lists may be shared with a copy of this room state
+        userIds = (null == userIds) ? new ArrayList<String>() : new ArrayList<>(userIds);
+        userIds.add(userId);
+        mUserIdsByDisplayName = mUserIdsByDisplayName.put(displayName, userIds);
+
+        // the member which had this display name must be disambiguated now
+        if (2 == userIds.size()) {
+            invalidateMemberName(userIds.get(0));
+        }
+    }
+
+    /**
+     * Remove a member from the display names index.
+     * It must be called in a synchronized block.
+     *
+     * @param displayName the member display name
+     * @param userId      the member user id
+     */
+    private void removeFromDisplayNameIndex(String displayName, String userId) {
+        if (TextUtils.isEmpty(displayName)) {
+            return;
+        }
+
+        List<String> userIds = mUserIdsByDisplayName.get(displayName);
+
+        if (null == userIds) {
+            return;
+        }
+
+        userIds = new ArrayList<>(userIds);
+        userIds.remove(userId);
+
+        if (userIds.isEmpty()) {
+            mUserIdsByDisplayName = mUserIdsByDisplayName.remove(displayName);
+        } else {
+            mUserIdsByDisplayName = mUserIdsByDisplayName.put(displayName, userIds);
+
+            // the remaining member does not need to be disambiguated anymore
+            if (1 == userIds.size()) {
+                invalidateMemberName(userIds.get(0));
+            }
+        }
+    }
+
+    /**
+     * Remove the cached display name of a member.
+     *
+     * @param userId the member user id
+     */
+    private void invalidateMemberName(String userId) {
+        if (null != mMemberDisplayNameByUserId) {
+            mMemberDisplayNameByUserId = mMemberDisplayNameByUserId.remove(userId);
+        }
     }
 
     /**
@@ -481,7 +759,11 @@ public class RoomState implements Externalizable {
      * @param powerLevels the new power levels
      */
     public void setPowerLevels(PowerLevels powerLevels) {
-        this.powerLevels = powerLevels;
+        synchronized (this) {
+            this.powerLevels = powerLevels;
+            // the members are ordered by power level
+            mMembersIndex = null;
+        }
     }
 
     /**
@@ -554,6 +836,9 @@ public class RoomState implements Externalizable {
 
     /**
      * Make a deep copy of this room state object.
+     * The members, the state events and the aliases maps are persistent ones, so they are shared with the copy
+     * in a constant time : an update of one of both states only copies the updated path.
+     * The room members are shared too, they are never modified once they are in a room state.
      *
      * @return the copy
      */
@@ -562,7 +847,7 @@ public class RoomState implements Externalizable {
         copy.roomId = roomId;
         copy.setPowerLevels((powerLevels == null) ? null : powerLevels.deepCopy());
         copy.aliases = (aliases == null) ? null : new ArrayList<>(aliases);
-        copy.mAliasesByDomain = new HashMap<>(mAliasesByDomain);
+        copy.mAliasesByDomain = mAliasesByDomain;
         copy.alias = this.alias;
         copy.name = name;
         copy.topic = topic;
@@ -580,25 +865,25 @@ public class RoomState implements Externalizable {
         copy.mIsLive = mIsLive;
         copy.mIsConferenceUserRoom = mIsConferenceUserRoom;
         copy.algorithm = algorithm;
-        copy.mRoomAliases = new HashMap<>(mRoomAliases);
-        copy.mStateEvents = new HashMap<>(mStateEvents);
+        copy.mRoomAliases = mRoomAliases;
+        copy.mStateEvents = mStateEvents;
 
         synchronized (this) {
-            Iterator it = mMembers.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, RoomMember> pair = (Map.Entry<String, RoomMember>) it.next();
-                copy.setMember(pair.getKey(), pair.getValue().deepCopy());
-            }
-
-            Collection<String> keys = mThirdPartyInvites.keySet();
-            for (String key : keys) {
-                copy.mThirdPartyInvites.put(key, mThirdPartyInvites.get(key).deepCopy());
-            }
-
-            keys = mMembersWithThirdPartyInviteTokenCache.keySet();
-            for (String key : keys) {
-                copy.mMembersWithThirdPartyInviteTokenCache.put(key, mMembersWithThirdPartyInviteTokenCache.get(key).deepCopy());
-            }
+            copy.mMembers = mMembers;
+            copy.mThirdPartyInvites = mThirdPartyInvites;
+            copy.mMembersWithThirdPartyInviteTokenCache = mMembersWithThirdPartyInviteTokenCache;
+            copy.mMemberDisplayNameByUserId = mMemberDisplayNameByUserId;
+            copy.mUserIdsByDisplayName = mUserIdsByDisplayName;
+
+            copy.mMembersVersion = mMembersVersion;
+            copy.mDisplayName = mDisplayName;
+            copy.mDisplayNameSelfUserId = mDisplayNameSelfUserId;
+            copy.mDisplayNameName = mDisplayNameName;
+            copy.mDisplayNameAlias = mDisplayNameAlias;
+            copy.mDisplayNameMembersVersion = mDisplayNameMembersVersion;
+            copy.mJoinedMembersCount = mJoinedMembersCount;
+            copy.mJoinedMembersCountVersion = mJoinedMembersCountVersion;
+            copy.mMembersIndex = mMembersIndex;
         }
 
         return copy;
@@ -645,8 +930,8 @@ public class RoomState implements Externalizable {
         if (null == mMergedAliasesList) {
             mMergedAliasesList = new ArrayList<>();
 
-            for (String url : mAliasesByDomain.keySet()) {
-                mMergedAliasesList.addAll(mAliasesByDomain.get(url));
+            for (List<String> domainAliases : mAliasesByDomain.values()) {
+                mMergedAliasesList.addAll(domainAliases);
             }
 
             // ensure that the current aliases have been added.
@@ -669,7 +954,7 @@ public class RoomState implements Externalizable {
      * @return the aliases list map
      */
     public Map<String, List<String>> getAliasesByDomain() {
-        return new HashMap<>(mAliasesByDomain);
+        return mAliasesByDomain.toHashMap();
     }
 
     /**
@@ -683,8 +968,13 @@ public class RoomState implements Externalizable {
                 aliases.remove(alias);
             }
 
-            for (String host : mAliasesByDomain.keySet()) {
-                mAliasesByDomain.get(host).remove(alias);
+            // the aliases lists may be shared with a copy of this room state
+            for (Map.Entry<String, List<String>> entry : mAliasesByDomain.entries()) {
+                if (entry.getValue().contains(alias)) {
+                    List<String> domainAliases = new ArrayList<>(entry.getValue());
+                    domainAliases.remove(alias);
+                    mAliasesByDomain = mAliasesByDomain.put(entry.getKey(), domainAliases);
+                }
             }
 
             mMergedAliasesList = null;
@@ -705,59 +995,135 @@ public class RoomState implements Externalizable {
 
     /**
      * Build and return the room's display name.
+     * It is cached until the room name, its alias or its members are updated.
      *
      * @param selfUserId this user's user id (to exclude from members)
      * @return the display name
      */
     public String getDisplayName(String selfUserId) {
-        String displayName = null;
         String alias = getAlias();
+        String roomName;
+        int membersVersion;
+
+        synchronized (this) {
+            if ((null != mDisplayName) && (mDisplayNameMembersVersion == mMembersVersion) && TextUtils.equals(mDisplayNameSelfUserId, selfUserId) &&
+                    TextUtils.equals(mDisplayNameName, name) && TextUtils.equals(mDisplayNameAlias, alias)) {
+                return mDisplayName;
+            }
+
+            roomName = name;
+            membersVersion = mMembersVersion;
+        }
+
+        String displayName = computeDisplayName(selfUserId, roomName, alias);
+
+        synchronized (this) {
+            mDisplayName = displayName;
+            mDisplayNameSelfUserId = selfUserId;
+            mDisplayNameName = roomName;
+            mDisplayNameAlias = alias;
+            mDisplayNameMembersVersion = membersVersion;
+        }
+
+        return displayName;
+    }
+
+    /**
+     * Build and return the room's display name.
+     * When the members are lazy loaded, the room state only contains some of them :
+     * the room is then named with the heroes of the sync room summary.
+     *
+     * @param selfUserId   this user's user id (to exclude from members)
+     * @param heroes       the user ids of the sync room summary heroes, null if they are not known
+     * @param membersCount the joined and invited members count
+     * @return the display name
+     */
+    public String getDisplayName(String selfUserId, List<String> heroes, int membersCount) {
+        if ((null == heroes) || heroes.isEmpty() || (null != name) || !TextUtils.isEmpty(getAlias())) {
+            return getDisplayName(selfUserId);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        int count = 0;
+
+        for (String heroId : heroes) {
+            if (!TextUtils.equals(heroId, selfUserId)) {
+                if (count > 0) {
+                    builder.append(", ");
+                }
+
+                builder.append(getMemberName(heroId));
+                count++;
+            }
+        }
+
+        if (0 == count) {
+            return getDisplayName(selfUserId);
+        }
+
+        // the other members count
+        int othersCount = Math.max(count, membersCount - 1);
+
+        // follow the members names format of computeDisplayName()
+        if (othersCount >= 2) {
+            return "(" + othersCount + ") " + builder.toString();
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Compute the room's display name.
+     *
+     * @param selfUserId this user's user id (to exclude from members)
+     * @param roomName   the room name
+     * @param alias      the room alias
+     * @return the display name
+     */
+    private String computeDisplayName(String selfUserId, String roomName, String alias) {
+        String displayName = null;
 
         synchronized (this) {
-            if (name != null) {
-                displayName = name;
+            if (roomName != null) {
+                displayName = roomName;
             } else if (!TextUtils.isEmpty(alias)) {
-                displayName = getAlias();
+                displayName = alias;
             }
             // compute a name
             else if (mMembers.size() > 0) {
-                Iterator it = mMembers.entrySet().iterator();
+                List<Map.Entry<String, RoomMember>> members = mMembers.entries();
                 Map.Entry<String, RoomMember> otherUserPair = null;
 
-                if ((mMembers.size() >= 3) && (selfUserId != null)) {
+                if ((members.size() >= 3) && (selfUserId != null)) {
                     // this is a group chat and should have the names of participants
                     // according to "(<num> <name1>, <name2>, <name3> ..."
+                    StringBuilder builder = new StringBuilder();
                     int count = 0;
 
-                    displayName = "";
-
-                    while (it.hasNext()) {
-                        Map.Entry<String, RoomMember> pair = (Map.Entry<String, RoomMember>) it.next();
-
+                    for (Map.Entry<String, RoomMember> pair : members) {
                         if (!selfUserId.equals(pair.getKey())) {
                             otherUserPair = pair;
 
                             if (count > 0) {
-                                displayName += ", ";
+                                builder.append(", ");
                             }
 
                             if (otherUserPair.getValue().getName() != null) {
-                                displayName += getMemberName(otherUserPair.getValue().getUserId()); // The member name
+                                builder.append(getMemberName(otherUserPair.getValue().getUserId())); // The member name
                             } else {
-                                displayName += getMemberName(otherUserPair.getKey()); // The user id
+                                builder.append(getMemberName(otherUserPair.getKey())); // The user id
                             }
                             count++;
                         }
                     }
-                    displayName = "(" + count + ") " + displayName;
+                    displayName = "(" + count + ") " + builder.toString();
                 } else {
                     // by default, it is oneself name
                     displayName = getMemberName(selfUserId);
 
                     // A One2One private room can default to being called like the other guy
                     if (selfUserId != null) {
-                        while (it.hasNext()) {
-                            Map.Entry<String, RoomMember> pair = (Map.Entry<String, RoomMember>) it.next();
+                        for (Map.Entry<String, RoomMember> pair : members) {
                             if (!selfUserId.equals(pair.getKey())) {
                                 otherUserPair = pair;
                                 break;
@@ -841,10 +1207,10 @@ public class RoomState implements Externalizable {
 
                     // sanity check
                     if (null != aliases) {
-                        mAliasesByDomain.put(event.stateKey, aliases);
-                        mRoomAliases.put(event.stateKey, event);
+                        mAliasesByDomain = mAliasesByDomain.put(event.stateKey, aliases);
+                        mRoomAliases = mRoomAliases.put(event.stateKey, event);
                     } else {
-                        mAliasesByDomain.put(event.stateKey, new ArrayList<String>());
+                        mAliasesByDomain = mAliasesByDomain.put(event.stateKey, new ArrayList<String>());
                     }
                 }
             } else if (Event.EVENT_TYPE_MESSAGE_ENCRYPTION.equals(eventType)) {
@@ -911,7 +1277,7 @@ public class RoomState implements Externalizable {
 
                                 // remove the cached display name
                                 if (null != mMemberDisplayNameByUserId) {
-                                    mMemberDisplayNameByUserId.remove(userId);
+                                    mMemberDisplayNameByUserId = mMemberDisplayNameByUserId.remove(userId);
                                 }
 
                                 // test if the user has been kicked
@@ -929,7 +1295,13 @@ public class RoomState implements Externalizable {
 
                         // Cache room member event that is successor of a third party invite event
                         if (!TextUtils.isEmpty(member.getThirdPartyInviteToken())) {
-                            mMembersWithThirdPartyInviteTokenCache.put(member.getThirdPartyInviteToken(), member);
+                            synchronized (this) {
+                                if (null != mStateEventsBatch) {
+                                    mStateEventsBatch.mMembersWithThirdPartyInviteToken.put(member.getThirdPartyInviteToken(), member);
+                                } else {
+                                    mMembersWithThirdPartyInviteTokenCache = mMembersWithThirdPartyInviteTokenCache.put(member.getThirdPartyInviteToken(), member);
+                                }
+                            }
                         }
                     } catch (Exception e) {
                         Log.e(LOG_TAG, "## applyState() - EVENT_TYPE_STATE_ROOM_MEMBER failed " + e.getMessage());
@@ -938,7 +1310,7 @@ public class RoomState implements Externalizable {
                     setMember(userId, member);
                 }
             } else if (Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(eventType)) {
-                powerLevels = JsonUtils.toPowerLevels(contentToConsider);
+                setPowerLevels(JsonUtils.toPowerLevels(contentToConsider));
             } else if (Event.EVENT_TYPE_STATE_ROOM_THIRD_PARTY_INVITE.equals(event.getType())) {
                 if (null != contentToConsider) {
                     RoomThirdPartyInvite thirdPartyInvite = JsonUtils.toRoomThirdPartyInvite(contentToConsider);
@@ -950,7 +1322,13 @@ public class RoomState implements Externalizable {
                     }
 
                     if (!TextUtils.isEmpty(thirdPartyInvite.token)) {
-                        mThirdPartyInvites.put(thirdPartyInvite.token, thirdPartyInvite);
+                        synchronized (this) {
+                            if (null != mStateEventsBatch) {
+                                mStateEventsBatch.mThirdPartyInvites.put(thirdPartyInvite.token, thirdPartyInvite);
+                            } else {
+                                mThirdPartyInvites = mThirdPartyInvites.put(thirdPartyInvite.token, thirdPartyInvite);
+                            }
+                        }
                     }
                 }
             }
@@ -959,14 +1337,26 @@ public class RoomState implements Externalizable {
             // excepts the membership ones
             // they are saved elsewhere
             if (!TextUtils.isEmpty(eventType) && !Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType)) {
-                List<Event> eventsList = mStateEvents.get(eventType);
+                synchronized (this) {
+                    List<Event> eventsList = (null != mStateEventsBatch) ? mStateEventsBatch.mStateEvents.get(eventType) : null;
 
-                if (null == eventsList) {
-                    eventsList = new ArrayList<>();
-                    mStateEvents.put(eventType, eventsList);
-                }
+                    if (null == eventsList) {
+                        eventsList = mStateEvents.get(eventType);
+
+                        // the list may be shared with a copy of this room state
+                        eventsList = (null == eventsList) ? new ArrayList<Event>() : new ArrayList<>(eventsList);
 
-                eventsList.add(event);
+                        if (null != mStateEventsBatch) {
+                            mStateEventsBatch.mStateEvents.put(eventType, eventsList);
+                        }
+                    }
+
+                    eventsList.add(event);
+
+                    if (null == mStateEventsBatch) {
+                        mStateEvents = mStateEvents.put(eventType, eventsList);
+                    }
+                }
             }
 
         } catch (Exception e) {
@@ -976,6 +1366,95 @@ public class RoomState implements Externalizable {
         return true;
     }
 
+    /**
+     * Apply a batch of state events, e.g. the state events of a room initial sync.
+     * <p>
+     * The updates of the members, of the third party invites and of the state events lists are
+     * collected in some standard maps, then applied in one pass at the end of the batch.
+     * The display names caches are also reset once, instead of being updated for each member.
+     * During the batch, getMember() provides the pending members, the other collections are updated at the end.
+     *
+     * @param store     the store to use
+     * @param events    the state events
+     * @param direction how the events should affect the state
+     * @return the number of managed events
+     */
+    public int applyStateEvents(IMXStore store, List<Event> events, EventTimeline.Direction direction) {
+        if ((null == events) || events.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+
+        synchronized (this) {
+            // nested batch
+            if (null != mStateEventsBatch) {
+                Log.e(LOG_TAG, "## applyStateEvents() : a batch is already in progress in " + roomId);
+            } else {
+                mStateEventsBatch = new StateEventsBatch(events.size());
+            }
+        }
+
+        try {
+            for (Event event : events) {
+                try {
+                    if (applyState(store, event, direction)) {
+                        count++;
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## applyStateEvents() : applyState failed " + e.getMessage());
+                }
+            }
+        } finally {
+            commitStateEventsBatch();
+        }
+
+        return count;
+    }
+
+    /**
+     * Apply the updates collected during a batch.
+     */
+    private void commitStateEventsBatch() {
+        synchronized (this) {
+            StateEventsBatch batch = mStateEventsBatch;
+            mStateEventsBatch = null;
+
+            if (null == batch) {
+                return;
+            }
+
+            if (!batch.mMembers.isEmpty()) {
+                HashMap<String, RoomMember> updatedMembers = new HashMap<>((batch.mMembers.size() * 4 / 3) + 1);
+                List<String> removedUserIds = new ArrayList<>();
+
+                for (Map.Entry<String, RoomMember> entry : batch.mMembers.entrySet()) {
+                    if (null != entry.getValue()) {
+                        updatedMembers.put(entry.getKey(), entry.getValue());
+                    } else {
+                        removedUserIds.add(entry.getKey());
+                    }
+                }
+
+                mMembers = mMembers.putAll(updatedMembers);
+
+                for (String userId : removedUserIds) {
+                    mMembers = mMembers.remove(userId);
+                }
+
+                // the indexes are rebuilt at their next use
+                mUserIdsByDisplayName = null;
+                mMembersIndex = null;
+                mMemberDisplayNameByUserId = PersistentHashMap.empty();
+                mMembersVersion++;
+            }
+
+            mThirdPartyInvites = mThirdPartyInvites.putAll(batch.mThirdPartyInvites);
+            mMembersWithThirdPartyInviteTokenCache = mMembersWithThirdPartyInviteTokenCache.putAll(batch.mMembersWithThirdPartyInviteToken);
+            mStateEvents = mStateEvents.putAll(batch.mStateEvents);
+        }
+    }
+
     /**
      * @return true if the room is a public one
      */
@@ -999,7 +1478,7 @@ public class RoomState implements Externalizable {
 
         synchronized (this) {
             if (null == mMemberDisplayNameByUserId) {
-                mMemberDisplayNameByUserId = new HashMap<>();
+                mMemberDisplayNameByUserId = PersistentHashMap.empty();
             }
             displayName = mMemberDisplayNameByUserId.get(userId);
         }
@@ -1016,18 +1495,12 @@ public class RoomState implements Externalizable {
             displayName = member.displayname;
 
             synchronized (this) {
-                ArrayList<String> matrixIds = new ArrayList<>();
-
                 // Disambiguate users who have the same display name in the room
-                for (RoomMember aMember : mMembers.values()) {
-                    if (displayName.equals(aMember.displayname)) {
-                        matrixIds.add(aMember.getUserId());
-                    }
-                }
+                List<String> matrixIds = getUserIdsByDisplayName().get(displayName);
 
                 // if several users have the same display name
                 // index it i.e bob (<Matrix id>)
-                if (matrixIds.size() > 1) {
+                if ((null != matrixIds) && (matrixIds.size() > 1)) {
                     displayName += " (" + userId + ")";
                 }
             }
@@ -1044,7 +1517,9 @@ public class RoomState implements Externalizable {
             displayName = userId;
         }
 
-        mMemberDisplayNameByUserId.put(userId, displayName);
+        synchronized (this) {
+            mMemberDisplayNameByUserId = mMemberDisplayNameByUserId.put(userId, displayName);
+        }
 
         return displayName;
     }
@@ -1065,10 +1540,10 @@ public class RoomState implements Externalizable {
 
         List<Event> roomAliasesEvents = (List<Event>) input.readObject();
         for (Event e : roomAliasesEvents) {
-            mRoomAliases.put(e.stateKey, e);
+            mRoomAliases = mRoomAliases.put(e.stateKey, e);
         }
 
-        mAliasesByDomain = (Map<String, List<String>>) input.readObject();
+        mAliasesByDomain = PersistentHashMap.fromMap((Map<String, List<String>>) input.readObject());
 
         if (input.readBoolean()) {
             mMergedAliasesList = (List<String>) input.readObject();
@@ -1076,7 +1551,7 @@ public class RoomState implements Externalizable {
 
         Map<String, List<Event>> stateEvents = (Map<String, List<Event>>) input.readObject();
         if (null != stateEvents) {
-            mStateEvents = new HashMap<>(stateEvents);
+            mStateEvents = PersistentHashMap.fromMap(stateEvents);
         }
 
         if (input.readBoolean()) {
@@ -1135,18 +1610,20 @@ public class RoomState implements Externalizable {
         }
 
         List<RoomMember> members = (List<RoomMember>) input.readObject();
+        HashMap<String, RoomMember> membersMap = new HashMap<>((members.size() * 4 / 3) + 1);
         for (RoomMember r : members) {
-            mMembers.put(r.getUserId(), r);
+            membersMap.put(r.getUserId(), r);
         }
+        mMembers = PersistentHashMap.fromMap(membersMap);
 
         List<RoomThirdPartyInvite> invites = (List<RoomThirdPartyInvite>) input.readObject();
         for (RoomThirdPartyInvite i : invites) {
-            mThirdPartyInvites.put(i.token, i);
+            mThirdPartyInvites = mThirdPartyInvites.put(i.token, i);
         }
 
         List<RoomMember> inviteTokens = (List<RoomMember>) input.readObject();
         for (RoomMember r : inviteTokens) {
-            mMembersWithThirdPartyInviteTokenCache.put(r.getThirdPartyInviteToken(), r);
+            mMembersWithThirdPartyInviteTokenCache = mMembersWithThirdPartyInviteTokenCache.put(r.getThirdPartyInviteToken(), r);
         }
 
         if (input.readBoolean()) {
@@ -1181,16 +1658,16 @@ public class RoomState implements Externalizable {
             output.writeObject(aliases);
         }
 
-        output.writeObject(new ArrayList<>(mRoomAliases.values()));
+        output.writeObject(mRoomAliases.values());
 
-        output.writeObject(mAliasesByDomain);
+        output.writeObject(mAliasesByDomain.toHashMap());
 
         output.writeBoolean(null != mMergedAliasesList);
         if (null != mMergedAliasesList) {
             output.writeObject(mMergedAliasesList);
         }
 
-        output.writeObject(mStateEvents);
+        output.writeObject(mStateEvents.toHashMap());
 
         output.writeBoolean(null != alias);
         if (null != alias) {
@@ -1260,9 +1737,9 @@ public class RoomState implements Externalizable {
             output.writeUTF(token);
         }
 
-        output.writeObject(new ArrayList<>(mMembers.values()));
-        output.writeObject(new ArrayList<>(mThirdPartyInvites.values()));
-        output.writeObject(new ArrayList<>(mMembersWithThirdPartyInviteTokenCache.values()));
+        output.writeObject(mMembers.values());
+        output.writeObject(mThirdPartyInvites.values());
+        output.writeObject(mMembersWithThirdPartyInviteTokenCache.values());
 
         output.writeBoolean(null != mMembership);
         if (null != mMembership) {
@@ -26,10 +26,23 @@ import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.EventContent;
 import org.matrix.androidsdk.rest.model.message.Message;
 import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.sync.RoomSyncSummary;
 import org.matrix.androidsdk.util.Log;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Stores summarised information about the room.
+ * <p>
+ * It only keeps the data displayed in the rooms list, the room state is not kept.
+ * It is saved with a compact form (see {@link CompactForm}),
+ * the summaries saved with the default serialization can still be read.
  */
 public class RoomSummary implements java.io.Serializable {
     private static final String LOG_TAG = RoomSummary.class.getSimpleName();
@@ -39,13 +52,10 @@ public class RoomSummary implements java.io.Serializable {
     private String mRoomId = null;
     private String mName = null;
     private String mTopic = null;
+    private String mAvatarUrl = null;
+    private int mJoinedMembersCount = 0;
     private Event mLatestReceivedEvent = null;
 
-    // the room state is only used to check
-    // 1- the invitation status
-    // 2- the members display name
-    private transient RoomState mLatestRoomState = null;
-
     // defines the latest read message
     private String mReadReceiptEventId;
 
@@ -68,6 +78,16 @@ public class RoomSummary implements java.io.Serializable {
 
     private String mMatrixId = null;
 
+    // true when the room state data (avatar, members count...) are known
+    // i.e the summary has been updated with a room state or read from its compact form
+    private transient boolean mHasRoomStateData = false;
+
+    // the data of the sync room summary (see RoomSyncSummary) : the room state does not
+    // contain all the members when they are lazy loaded. They are null when they are not known.
+    private List<String> mHeroes = null;
+    private Integer mSyncJoinedMembersCount = null;
+    private Integer mSyncInvitedMembersCount = null;
+
 
     public RoomSummary() {
     }
@@ -83,6 +103,13 @@ public class RoomSummary implements java.io.Serializable {
     public RoomSummary(RoomSummary fromSummary, Event event, RoomState roomState, String userId) {
         setMatrixId(userId);
 
+        // the server only sends the sync room summary when it is updated
+        if (null != fromSummary) {
+            mHeroes = fromSummary.mHeroes;
+            mSyncJoinedMembersCount = fromSummary.mSyncJoinedMembersCount;
+            mSyncInvitedMembersCount = fromSummary.mSyncInvitedMembersCount;
+        }
+
         if (null != roomState) {
             setRoomId(roomState.roomId);
         }
@@ -94,6 +121,18 @@ public class RoomSummary implements java.io.Serializable {
         setLatestReceivedEvent(event, roomState);
 
         // if no summary is provided
+        if ((null == roomState) && (null != fromSummary)) {
+            // keep the data retrieved from the room state
+            setName(fromSummary.mName);
+            setTopic(fromSummary.mTopic);
+            mAvatarUrl = fromSummary.mAvatarUrl;
+            mJoinedMembersCount = fromSummary.mJoinedMembersCount;
+            mIsInvited = fromSummary.mIsInvited;
+            mInviterUserId = fromSummary.mInviterUserId;
+            mInviterName = fromSummary.mInviterName;
+            mHasRoomStateData = fromSummary.mHasRoomStateData;
+        }
+
         if (null == fromSummary) {
             if (null != event) {
                 setReadMarkerEventId(event.eventId);
@@ -235,22 +274,8 @@ public class RoomSummary implements java.io.Serializable {
         String name = mName;
 
         // when invited, the only received message should be the invitation one
-        if (isInvited()) {
-            if (null != mLatestReceivedEvent) {
-                String inviterName;
-
-                // try to retrieve a display name
-                if (null != mLatestRoomState) {
-                    inviterName = mLatestRoomState.getMemberName(mLatestReceivedEvent.getSender());
-                } else {
-                    // use the stored one
-                    inviterName = mInviterName;
-                }
-
-                if (null != inviterName) {
-                    name = inviterName;
-                }
-            }
+        if (isInvited() && (null != mLatestReceivedEvent) && (null != mInviterName)) {
+            name = mInviterName;
         }
 
         return name;
@@ -264,17 +289,75 @@ public class RoomSummary implements java.io.Serializable {
     }
 
     /**
-     * @return the room summary event.
+     * @return the room avatar url.
      */
-    public Event getLatestReceivedEvent() {
-        return mLatestReceivedEvent;
+    public String getAvatarUrl() {
+        return mAvatarUrl;
+    }
+
+    /**
+     * Provides the joined members count.
+     * The sync room summary one is used when it is known.
+     *
+     * @return the joined members count.
+     */
+    public int getJoinedMembersCount() {
+        return (null != mSyncJoinedMembersCount) ? mSyncJoinedMembersCount : mJoinedMembersCount;
     }
 
     /**
-     * @return the dedicated room state.
+     * @return the invited members count, 0 when it is not provided by the sync room summary.
      */
-    public RoomState getLatestRoomState() {
-        return mLatestRoomState;
+    public int getInvitedMembersCount() {
+        return (null != mSyncInvitedMembersCount) ? mSyncInvitedMembersCount : 0;
+    }
+
+    /**
+     * @return the user ids of the members to use to name the room, null when they are not provided by the sync room summary.
+     */
+    public List<String> getHeroes() {
+        return mHeroes;
+    }
+
+    /**
+     * Update the summary with the sync room summary.
+     * The server only sends the updated fields, so the missing ones are kept.
+     *
+     * @param syncSummary the sync room summary
+     * @return This summary for chaining calls.
+     */
+    public RoomSummary setRoomSyncSummary(RoomSyncSummary syncSummary) {
+        if (null != syncSummary) {
+            if (null != syncSummary.heroes) {
+                mHeroes = new ArrayList<>(syncSummary.heroes);
+            }
+
+            if (null != syncSummary.joinedMembersCount) {
+                mSyncJoinedMembersCount = syncSummary.joinedMembersCount;
+            }
+
+            if (null != syncSummary.invitedMembersCount) {
+                mSyncInvitedMembersCount = syncSummary.invitedMembersCount;
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * The summaries saved by the previous versions do not contain the avatar and the members count.
+     *
+     * @return true if the summary must be updated with its room state after being loaded.
+     */
+    public boolean isRoomStateDataMissing() {
+        return !mHasRoomStateData;
+    }
+
+    /**
+     * @return the room summary event.
+     */
+    public Event getLatestReceivedEvent() {
+        return mLatestReceivedEvent;
     }
 
     /**
@@ -343,11 +426,6 @@ public class RoomSummary implements java.io.Serializable {
     public RoomSummary setLatestReceivedEvent(Event event, RoomState roomState) {
         setLatestReceivedEvent(event);
         setLatestRoomState(roomState);
-
-        if (null != roomState) {
-            setName(roomState.getDisplayName(getMatrixId()));
-            setTopic(roomState.topic);
-        }
         return this;
     }
 
@@ -363,17 +441,23 @@ public class RoomSummary implements java.io.Serializable {
     }
 
     /**
-     * Set the latest tracked event (e.g. the latest m.room.message)
+     * Update the summary data with the room state of the latest event
+     * i.e the display name, the topic, the avatar, the members count and the invitation status.
+     * The room state is not kept.
      *
      * @param roomState The room state of the latest event.
      * @return This summary for chaining calls.
      */
     public RoomSummary setLatestRoomState(RoomState roomState) {
-        mLatestRoomState = roomState;
-
         // check for the invitation status
-        if (null != mLatestRoomState) {
-            RoomMember member = mLatestRoomState.getMember(mMatrixId);
+        if (null != roomState) {
+            setName(roomState.getDisplayName(getMatrixId(), mHeroes, getJoinedMembersCount() + getInvitedMembersCount()));
+            setTopic(roomState.topic);
+            mAvatarUrl = roomState.getAvatarUrl();
+            mJoinedMembersCount = roomState.getJoinedMembersCount();
+            mHasRoomStateData = true;
+
+            RoomMember member = roomState.getMember(mMatrixId);
             mIsInvited = (null != member) && RoomMember.MEMBERSHIP_INVITE.equals(member.membership);
         }
         // when invited, the only received message should be the invitation one
@@ -384,8 +468,8 @@ public class RoomSummary implements java.io.Serializable {
                 mInviterName = mInviterUserId = mLatestReceivedEvent.getSender();
 
                 // try to retrieve a display name
-                if (null != mLatestRoomState) {
-                    mInviterName = mLatestRoomState.getMemberName(mLatestReceivedEvent.getSender());
+                if (null != roomState) {
+                    mInviterName = roomState.getMemberName(mLatestReceivedEvent.getSender());
                 }
             }
         } else {
@@ -489,4 +573,182 @@ public class RoomSummary implements java.io.Serializable {
     public int getHighlightCount() {
         return mHighlightsCount;
     }
+
+    //================================================================================
+    // Serialization
+    //================================================================================
+
+    /**
+     * The summaries are saved with their compact form.
+     *
+     * @return the object to serialize
+     * @throws ObjectStreamException if the serialization fails
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new CompactForm(this);
+    }
+
+    /**
+     * The compact serialized form of a room summary.
+     * The fields are written one by one, without the java serialization descriptors,
+     * and the latest event is saved without its invite room state.
+     */
+    static class CompactForm implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        // the compact form version
+        private static final int VERSION = 2;
+
+        // the version before the sync room summary data
+        private static final int VERSION_WITHOUT_SYNC_SUMMARY = 1;
+
+        private RoomSummary mSummary;
+
+        /**
+         * Constructor used by the deserialization.
+         */
+        public CompactForm() {
+        }
+
+        /**
+         * Constructor
+         *
+         * @param summary the summary to save
+         */
+        CompactForm(RoomSummary summary) {
+            mSummary = summary;
+        }
+
+        /**
+         * Write a nullable string.
+         *
+         * @param output the output
+         * @param value  the string
+         * @throws IOException if the write fails
+         */
+        private static void writeString(ObjectOutput output, String value) throws IOException {
+            output.writeBoolean(null != value);
+            if (null != value) {
+                output.writeUTF(value);
+            }
+        }
+
+        /**
+         * Read a nullable string.
+         *
+         * @param input the input
+         * @return the string
+         * @throws IOException if the read fails
+         */
+        private static String readString(ObjectInput input) throws IOException {
+            return input.readBoolean() ? input.readUTF() : null;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput output) throws IOException {
+            output.writeInt(VERSION);
+
+            writeString(output, mSummary.mRoomId);
+            writeString(output, mSummary.mMatrixId);
+            writeString(output, mSummary.mName);
+            writeString(output, mSummary.mTopic);
+            writeString(output, mSummary.mAvatarUrl);
+            output.writeInt(mSummary.mJoinedMembersCount);
+
+            writeString(output, mSummary.mReadReceiptEventId);
+            writeString(output, mSummary.mReadMarkerEventId);
+            output.writeInt(mSummary.mUnreadEventsCount);
+            output.writeInt(mSummary.mNotificationCount);
+            output.writeInt(mSummary.mHighlightsCount);
+
+            output.writeBoolean(mSummary.mIsInvited);
+            writeString(output, mSummary.mInviterUserId);
+            writeString(output, mSummary.mInviterName);
+
+            Event event = mSummary.mLatestReceivedEvent;
+
+            if ((null != event) && (null != event.invite_room_state)) {
+                // the invite room state is only used to create the room
+                event = event.deepCopy();
+                event.invite_room_state = null;
+            }
+
+            output.writeObject(event);
+
+            output.writeBoolean(null != mSummary.mHeroes);
+            if (null != mSummary.mHeroes) {
+                output.writeInt(mSummary.mHeroes.size());
+                for (String userId : mSummary.mHeroes) {
+                    output.writeUTF(userId);
+                }
+            }
+
+            output.writeBoolean(null != mSummary.mSyncJoinedMembersCount);
+            if (null != mSummary.mSyncJoinedMembersCount) {
+                output.writeInt(mSummary.mSyncJoinedMembersCount);
+            }
+
+            output.writeBoolean(null != mSummary.mSyncInvitedMembersCount);
+            if (null != mSummary.mSyncInvitedMembersCount) {
+                output.writeInt(mSummary.mSyncInvitedMembersCount);
+            }
+        }
+
+        @Override
+        public void readExternal(ObjectInput input) throws IOException, ClassNotFoundException {
+            int version = input.readInt();
+
+            if ((version != VERSION) && (version != VERSION_WITHOUT_SYNC_SUMMARY)) {
+                throw new IOException("Unsupported RoomSummary version " + version);
+            }
+
+            mSummary = new RoomSummary();
+            mSummary.mHasRoomStateData = true;
+
+            mSummary.mRoomId = readString(input);
+            mSummary.mMatrixId = readString(input);
+            mSummary.mName = readString(input);
+            mSummary.mTopic = readString(input);
+            mSummary.mAvatarUrl = readString(input);
+            mSummary.mJoinedMembersCount = input.readInt();
+
+            mSummary.mReadReceiptEventId = readString(input);
+            mSummary.mReadMarkerEventId = readString(input);
+            mSummary.mUnreadEventsCount = input.readInt();
+            mSummary.mNotificationCount = input.readInt();
+            mSummary.mHighlightsCount = input.readInt();
+
+            mSummary.mIsInvited = input.readBoolean();
+            mSummary.mInviterUserId = readString(input);
+            mSummary.mInviterName = readString(input);
+
+            mSummary.mLatestReceivedEvent = (Event) input.readObject();
+
+            if (version != VERSION_WITHOUT_SYNC_SUMMARY) {
+                if (input.readBoolean()) {
+                    int count = input.readInt();
+                    mSummary.mHeroes = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        mSummary.mHeroes.add(input.readUTF());
+                    }
+                }
+
+                if (input.readBoolean()) {
+                    mSummary.mSyncJoinedMembersCount = input.readInt();
+                }
+
+                if (input.readBoolean()) {
+                    mSummary.mSyncInvitedMembersCount = input.readInt();
+                }
+            }
+        }
+
+        /**
+         * @return the deserialized summary
+         * @throws ObjectStreamException if the deserialization fails
+         */
+        private Object readResolve() throws ObjectStreamException {
+            return mSummary;
+        }
+    }
 }
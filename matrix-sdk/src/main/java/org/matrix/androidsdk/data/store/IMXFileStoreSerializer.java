@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An interface to (de)serialize the objects saved by the MXFileStore.
+ */
+public interface IMXFileStoreSerializer {
+    /**
+     * Tells if the serializer is able to read a stream starting with the provided bytes.
+     *
+     * @param header the first bytes of the stream (it might be shorter than expected with tiny files)
+     * @return true if the stream format is supported
+     */
+    boolean canRead(byte[] header);
+
+    /**
+     * Serialize an object into a stream.
+     * The stream is closed by the caller.
+     *
+     * @param stream the output stream
+     * @param object the object to save
+     * @throws IOException if the serialization fails
+     */
+    void write(OutputStream stream, Object object) throws IOException;
+
+    /**
+     * Deserialize an object from a stream.
+     * The stream is closed by the caller.
+     *
+     * @param stream the input stream
+     * @return the read object
+     * @throws IOException            if the deserialization fails
+     * @throws ClassNotFoundException if a serialized class is unknown
+     */
+    Object read(InputStream stream) throws IOException, ClassNotFoundException;
+}
@@ -195,10 +195,21 @@ public interface IMXStore {
     void setDirectChatRoomsDict(Map<String, List<String>> directChatRoomsDict);
 
     /**
-     * @return the known rooms list
+     * Provides the rooms which are loaded in memory.
+     * A store which loads its rooms on demand does not list the rooms which are not yet loaded :
+     * use getRoomIds() or getSummaries() to list all of them.
+     *
+     * @return the loaded rooms list
      */
     Collection<Room> getRooms();
 
+    /**
+     * Provides the ids of the known rooms, without loading them.
+     *
+     * @return the rooms ids
+     */
+    Collection<String> getRoomIds();
+
     /**
      * Retrieve a room from its room id
      *
@@ -291,6 +302,17 @@ public interface IMXStore {
      */
     Event getEvent(String eventId, String roomId);
 
+    /**
+     * Retrieve an event from its room Id and its Event id.
+     * Unlike {@link #getEvent(String, String)}, the events which are not anymore in the room timeline
+     * are also searched in the saved events. It might read the filesystem.
+     *
+     * @param eventId the event id
+     * @param roomId  the room Id
+     * @return the event (null if it is not found)
+     */
+    Event getEventFromIndex(String eventId, String roomId);
+
     /**
      * Delete an event
      *
@@ -596,4 +618,17 @@ public interface IMXStore {
      * @return the room ids list which don't have URL preview enabled
      */
     Set<String> getRoomsWithoutURLPreviews();
+
+    /**
+     * Add an uploaded filter.
+     *
+     * @param jsonFilter the filter as a JSON string
+     * @param filterId   the filter id provided by the server
+     */
+    void addFilter(String jsonFilter, String filterId);
+
+    /**
+     * @return the uploaded filters ids, by JSON filter
+     */
+    Map<String, String> getFilters();
 }
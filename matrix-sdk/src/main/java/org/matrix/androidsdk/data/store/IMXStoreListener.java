@@ -58,4 +58,12 @@ public interface IMXStoreListener {
      * @param roomId the room id
      */
     void onReadReceiptsLoaded(String roomId);
+
+    /**
+     * The pending changes have been saved.
+     * It is called in the store thread.
+     *
+     * @param accountId the account id
+     */
+    void onStoreCommitted(String accountId);
 }
@@ -0,0 +1,674 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.rest.model.ReceiptData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact tagged binary format for the MXFileStore objects.
+ * <p>
+ * The Externalizable objects (events, room states, room members) are written through
+ * their writeExternal method into a dedicated ObjectOutput which interns the short strings
+ * (event types, sender ids, room ids...) so they are only written once per file.
+ * The common collections are written field by field and the other Serializable objects
+ * fall back to the java serialization.
+ * <p>
+ * The payload can be compressed with the fastest deflate level.
+ */
+public class MXBinaryFileStoreSerializer implements IMXFileStoreSerializer {
+
+    // file header
+    private static final byte[] MAGIC = {'M', 'X', 'B', 'S'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    // header flags
+    private static final int FLAG_COMPRESSED = 0x01;
+
+    // the longer strings (event contents...) are very unlikely to be duplicated
+    private static final int MAX_INTERNED_STRING_LENGTH = 256;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // string headers
+    private static final int STRING_INLINE = 0;
+    private static final int STRING_NEW_ENTRY = 1;
+    private static final int STRING_FIRST_REFERENCE = 2;
+
+    // value tags
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_BOOLEAN = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_ENUM = 5;
+    private static final int TAG_RECEIPT = 6;
+    private static final int TAG_EXTERNALIZABLE = 7;
+    private static final int TAG_ARRAY_LIST = 8;
+    private static final int TAG_HASH_MAP = 9;
+    private static final int TAG_LINKED_HASH_MAP = 10;
+    private static final int TAG_HASH_SET = 11;
+    private static final int TAG_SERIALIZABLE = 12;
+
+    // true to compress the payload
+    private final boolean mUseCompression;
+
+    /**
+     * Constructor with compression.
+     */
+    public MXBinaryFileStoreSerializer() {
+        this(true);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param useCompression true to compress the payload.
+     */
+    public MXBinaryFileStoreSerializer(boolean useCompression) {
+        mUseCompression = useCompression;
+    }
+
+    @Override
+    public boolean canRead(byte[] header) {
+        if ((null == header) || (header.length < MAGIC.length)) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void write(OutputStream stream, Object object) throws IOException {
+        stream.write(MAGIC);
+        stream.write(FORMAT_VERSION);
+        stream.write(mUseCompression ? FLAG_COMPRESSED : 0);
+
+        Deflater deflater = null;
+        DeflaterOutputStream deflaterOutputStream = null;
+        OutputStream payloadStream = stream;
+
+        if (mUseCompression) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            deflaterOutputStream = new DeflaterOutputStream(stream, deflater, BUFFER_SIZE);
+            payloadStream = deflaterOutputStream;
+        }
+
+        try {
+            BinaryObjectOutput output = new BinaryObjectOutput(new BufferedOutputStream(payloadStream, BUFFER_SIZE));
+            output.writeObject(object);
+            output.flush();
+
+            if (null != deflaterOutputStream) {
+                deflaterOutputStream.finish();
+            }
+        } finally {
+            if (null != deflater) {
+                deflater.end();
+            }
+        }
+    }
+
+    @Override
+    public Object read(InputStream stream) throws IOException, ClassNotFoundException {
+        byte[] header = new byte[HEADER_LENGTH];
+        new DataInputStream(stream).readFully(header);
+
+        if (!canRead(header)) {
+            throw new StreamCorruptedException("Invalid header");
+        }
+
+        if (header[MAGIC.length] != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Unsupported format version " + header[MAGIC.length]);
+        }
+
+        Inflater inflater = null;
+        InputStream payloadStream = stream;
+
+        if ((header[MAGIC.length + 1] & FLAG_COMPRESSED) != 0) {
+            inflater = new Inflater();
+            payloadStream = new InflaterInputStream(stream, inflater, BUFFER_SIZE);
+        }
+
+        try {
+            BinaryObjectInput input = new BinaryObjectInput(new BufferedInputStream(payloadStream, BUFFER_SIZE));
+            return input.readObject();
+        } finally {
+            if (null != inflater) {
+                inflater.end();
+            }
+        }
+    }
+
+    //================================================================================
+    // Writer
+    //================================================================================
+
+    /**
+     * ObjectOutput which writes the tagged binary format.
+     */
+    private static class BinaryObjectOutput implements ObjectOutput {
+        private final DataOutputStream mStream;
+
+        // interned string -> index
+        private final HashMap<String, Integer> mStringIndexes = new HashMap<>();
+
+        BinaryObjectOutput(OutputStream stream) {
+            mStream = new DataOutputStream(stream);
+        }
+
+        /**
+         * Write an unsigned variable length integer.
+         *
+         * @param value the value
+         * @throws IOException if the write fails
+         */
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                mStream.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mStream.writeByte(value);
+        }
+
+        /**
+         * Write a string without any interning.
+         *
+         * @param value the string
+         * @throws IOException if the write fails
+         */
+        private void writeRawString(String value) throws IOException {
+            byte[] bytes = value.getBytes("UTF-8");
+            writeVarInt(bytes.length);
+            mStream.write(bytes);
+        }
+
+        /**
+         * Write a string, the short ones are interned.
+         *
+         * @param value the string
+         * @throws IOException if the write fails
+         */
+        private void writeString(String value) throws IOException {
+            if (value.length() > MAX_INTERNED_STRING_LENGTH) {
+                writeVarInt(STRING_INLINE);
+                writeRawString(value);
+                return;
+            }
+
+            Integer index = mStringIndexes.get(value);
+
+            if (null != index) {
+                writeVarInt(STRING_FIRST_REFERENCE + index);
+            } else {
+                mStringIndexes.put(value, mStringIndexes.size());
+                writeVarInt(STRING_NEW_ENTRY);
+                writeRawString(value);
+            }
+        }
+
+        @Override
+        public void writeObject(Object object) throws IOException {
+            if (null == object) {
+                mStream.writeByte(TAG_NULL);
+            } else if (object instanceof String) {
+                mStream.writeByte(TAG_STRING);
+                writeString((String) object);
+            } else if (object instanceof Boolean) {
+                mStream.writeByte(TAG_BOOLEAN);
+                mStream.writeBoolean((Boolean) object);
+            } else if (object instanceof Integer) {
+                mStream.writeByte(TAG_INT);
+                mStream.writeInt((Integer) object);
+            } else if (object instanceof Long) {
+                mStream.writeByte(TAG_LONG);
+                mStream.writeLong((Long) object);
+            } else if (object instanceof Enum) {
+                Enum<?> enumValue = (Enum<?>) object;
+                mStream.writeByte(TAG_ENUM);
+                writeString(enumValue.getDeclaringClass().getName());
+                writeString(enumValue.name());
+            } else if (object.getClass() == ReceiptData.class) {
+                ReceiptData receipt = (ReceiptData) object;
+                mStream.writeByte(TAG_RECEIPT);
+                writeObject(receipt.userId);
+                writeObject(receipt.eventId);
+                mStream.writeLong(receipt.originServerTs);
+            } else if (object instanceof Externalizable) {
+                mStream.writeByte(TAG_EXTERNALIZABLE);
+                writeString(object.getClass().getName());
+                ((Externalizable) object).writeExternal(this);
+            } else if (object.getClass() == ArrayList.class) {
+                List<?> list = (List<?>) object;
+                mStream.writeByte(TAG_ARRAY_LIST);
+                writeVarInt(list.size());
+                for (Object item : list) {
+                    writeObject(item);
+                }
+            } else if ((object.getClass() == HashMap.class) || (object.getClass() == LinkedHashMap.class)) {
+                Map<?, ?> map = (Map<?, ?>) object;
+                mStream.writeByte((object.getClass() == HashMap.class) ? TAG_HASH_MAP : TAG_LINKED_HASH_MAP);
+                writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeObject(entry.getKey());
+                    writeObject(entry.getValue());
+                }
+            } else if (object.getClass() == HashSet.class) {
+                Set<?> set = (Set<?>) object;
+                mStream.writeByte(TAG_HASH_SET);
+                writeVarInt(set.size());
+                for (Object item : set) {
+                    writeObject(item);
+                }
+            } else if (object instanceof Serializable) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bos);
+                oos.writeObject(object);
+                oos.close();
+
+                mStream.writeByte(TAG_SERIALIZABLE);
+                writeVarInt(bos.size());
+                bos.writeTo(mStream);
+            } else {
+                throw new NotSerializableException(object.getClass().getName());
+            }
+        }
+
+        @Override
+        public void writeUTF(String value) throws IOException {
+            writeString(value);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            mStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mStream.write(b, off, len);
+        }
+
+        @Override
+        public void writeBoolean(boolean v) throws IOException {
+            mStream.writeBoolean(v);
+        }
+
+        @Override
+        public void writeByte(int v) throws IOException {
+            mStream.writeByte(v);
+        }
+
+        @Override
+        public void writeShort(int v) throws IOException {
+            mStream.writeShort(v);
+        }
+
+        @Override
+        public void writeChar(int v) throws IOException {
+            mStream.writeChar(v);
+        }
+
+        @Override
+        public void writeInt(int v) throws IOException {
+            mStream.writeInt(v);
+        }
+
+        @Override
+        public void writeLong(long v) throws IOException {
+            mStream.writeLong(v);
+        }
+
+        @Override
+        public void writeFloat(float v) throws IOException {
+            mStream.writeFloat(v);
+        }
+
+        @Override
+        public void writeDouble(double v) throws IOException {
+            mStream.writeDouble(v);
+        }
+
+        @Override
+        public void writeBytes(String s) throws IOException {
+            mStream.writeBytes(s);
+        }
+
+        @Override
+        public void writeChars(String s) throws IOException {
+            mStream.writeChars(s);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mStream.close();
+        }
+    }
+
+    //================================================================================
+    // Reader
+    //================================================================================
+
+    /**
+     * ObjectInput which reads the tagged binary format.
+     */
+    private static class BinaryObjectInput implements ObjectInput {
+        private final DataInputStream mStream;
+
+        // interned strings by index
+        private final ArrayList<String> mStrings = new ArrayList<>();
+
+        BinaryObjectInput(InputStream stream) {
+            mStream = new DataInputStream(stream);
+        }
+
+        /**
+         * Read an unsigned variable length integer.
+         *
+         * @return the value
+         * @throws IOException if the read fails
+         */
+        private int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                if (shift > 28) {
+                    throw new StreamCorruptedException("Invalid var int");
+                }
+
+                b = mStream.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+        /**
+         * Read a string without any interning.
+         *
+         * @return the string
+         * @throws IOException if the read fails
+         */
+        private String readRawString() throws IOException {
+            byte[] bytes = new byte[readVarInt()];
+            mStream.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        /**
+         * Read a string written by BinaryObjectOutput.writeString.
+         *
+         * @return the string
+         * @throws IOException if the read fails
+         */
+        private String readString() throws IOException {
+            int header = readVarInt();
+
+            if (STRING_INLINE == header) {
+                return readRawString();
+            } else if (STRING_NEW_ENTRY == header) {
+                String value = readRawString();
+                mStrings.add(value);
+                return value;
+            }
+
+            int index = header - STRING_FIRST_REFERENCE;
+
+            if (index >= mStrings.size()) {
+                throw new StreamCorruptedException("Unknown string index " + index);
+            }
+
+            return mStrings.get(index);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object readObject() throws ClassNotFoundException, IOException {
+            int tag = mStream.readUnsignedByte();
+
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString();
+                case TAG_BOOLEAN:
+                    return mStream.readBoolean();
+                case TAG_INT:
+                    return mStream.readInt();
+                case TAG_LONG:
+                    return mStream.readLong();
+                case TAG_ENUM: {
+                    Class enumClass = Class.forName(readString());
+                    return Enum.valueOf(enumClass, readString());
+                }
+                case TAG_RECEIPT: {
+                    String userId = (String) readObject();
+                    String eventId = (String) readObject();
+                    return new ReceiptData(userId, eventId, mStream.readLong());
+                }
+                case TAG_EXTERNALIZABLE: {
+                    String className = readString();
+                    Externalizable externalizable;
+
+                    try {
+                        externalizable = (Externalizable) Class.forName(className).newInstance();
+                    } catch (InstantiationException e) {
+                        throw new InvalidClassException(className, e.getMessage());
+                    } catch (IllegalAccessException e) {
+                        throw new InvalidClassException(className, e.getMessage());
+                    }
+
+                    externalizable.readExternal(this);
+                    return externalizable;
+                }
+                case TAG_ARRAY_LIST: {
+                    int size = readVarInt();
+                    ArrayList<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readObject());
+                    }
+                    return list;
+                }
+                case TAG_HASH_MAP:
+                case TAG_LINKED_HASH_MAP: {
+                    int size = readVarInt();
+                    // avoid rehashing while filling the map
+                    int capacity = (int) (size / 0.75f) + 1;
+                    Map<Object, Object> map = (TAG_HASH_MAP == tag) ? new HashMap<>(capacity) : new LinkedHashMap<>(capacity);
+                    for (int i = 0; i < size; i++) {
+                        Object key = readObject();
+                        map.put(key, readObject());
+                    }
+                    return map;
+                }
+                case TAG_HASH_SET: {
+                    int size = readVarInt();
+                    HashSet<Object> set = new HashSet<>((int) (size / 0.75f) + 1);
+                    for (int i = 0; i < size; i++) {
+                        set.add(readObject());
+                    }
+                    return set;
+                }
+                case TAG_SERIALIZABLE: {
+                    byte[] bytes = new byte[readVarInt()];
+                    mStream.readFully(bytes);
+                    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                    Object object = ois.readObject();
+                    ois.close();
+                    return object;
+                }
+                default:
+                    throw new StreamCorruptedException("Unknown tag " + tag);
+            }
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return readString();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return mStream.read();
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return mStream.read(b);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return mStream.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return mStream.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return mStream.available();
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            mStream.readFully(b);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            mStream.readFully(b, off, len);
+        }
+
+        @Override
+        public int skipBytes(int n) throws IOException {
+            return mStream.skipBytes(n);
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return mStream.readBoolean();
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return mStream.readByte();
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return mStream.readUnsignedByte();
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            return mStream.readShort();
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return mStream.readUnsignedShort();
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            return mStream.readChar();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return mStream.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return mStream.readLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return mStream.readFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return mStream.readDouble();
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            throw new EOFException("readLine is not supported");
+        }
+
+        @Override
+        public void close() throws IOException {
+            mStream.close();
+        }
+    }
+}
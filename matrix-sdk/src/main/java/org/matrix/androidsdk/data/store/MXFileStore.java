@@ -40,21 +40,34 @@ import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.util.ContentUtils;
 import org.matrix.androidsdk.util.MXOsHandler;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An in-file IMXStore.
@@ -63,16 +76,42 @@ public class MXFileStore extends MXMemoryStore {
     private static final String LOG_TAG = MXFileStore.class.getSimpleName();
 
     // some constant values
-    private static final int MXFILE_VERSION = 21;
+    private static final int MXFILE_VERSION = 22;
+
+    // the files were saved with the java serialization in GZIP streams
+    private static final int MXFILE_GZIP_VERSION = 21;
+
+    // the number of bytes used to detect the file format
+    private static final int MXFILE_HEADER_LENGTH = 8;
 
     // ensure that there is enough messages to fill a tablet screen
     private static final int MAX_STORED_MESSAGES_COUNT = 50;
 
+    // the default max size of the rooms history cache
+    private static final long DEFAULT_HISTORY_CACHE_SIZE = 10 * 1024 * 1024;
+
+    // the default delay during which the commits are coalesced
+    private static final long DEFAULT_COMMIT_DELAY_MS = 1000;
+
+    // the max time to wait for the pending changes when the store is closed
+    private static final long CLOSE_FLUSH_TIMEOUT_MS = 3000;
+
+    // the max number of threads used to load the store in parallel
+    private static final int MAX_LOADING_THREADS_COUNT = 8;
+
+    // the default max number of rooms timelines kept in memory when the rooms are lazy loaded
+    private static final int DEFAULT_MAX_LOADED_ROOMS_TIMELINES = 20;
+
+    // the number of locks serializing the loading of the lazy rooms
+    private static final int LAZY_ROOMS_LOADING_LOCKS_COUNT = 64;
+
     private static final String MXFILE_STORE_FOLDER = "MXFileStore";
     private static final String MXFILE_STORE_METADATA_FILE_NAME = "MXFileStore";
 
     private static final String MXFILE_STORE_GZ_ROOMS_MESSAGES_FOLDER = "messages_gz";
     private static final String MXFILE_STORE_ROOMS_TOKENS_FOLDER = "tokens";
+    private static final String MXFILE_STORE_ROOMS_MESSAGES_DELTA_FOLDER = "messages_delta";
+    private static final String MXFILE_STORE_ROOMS_HISTORY_FOLDER = "history";
     private static final String MXFILE_STORE_GZ_ROOMS_STATE_FOLDER = "state_gz";
     private static final String MXFILE_STORE_GZ_ROOMS_STATE_EVENTS_FOLDER = "state_rooms_events";
     private static final String MXFILE_STORE_ROOMS_SUMMARY_FOLDER = "summary";
@@ -80,6 +119,8 @@ public class MXFileStore extends MXMemoryStore {
     private static final String MXFILE_STORE_ROOMS_ACCOUNT_DATA_FOLDER = "accountData";
     private static final String MXFILE_STORE_USER_FOLDER = "users";
     private static final String MXFILE_STORE_GROUPS_FOLDER = "groups";
+    private static final String MXFILE_STORE_JOURNAL_FOLDER = "journal";
+    private static final String MXFILE_STORE_EVENTS_INDEX_FOLDER = "events_index";
 
     // the data is read from the file system
     private boolean mIsReady = false;
@@ -95,14 +136,30 @@ public class MXFileStore extends MXMemoryStore {
 
     // List of rooms to save on [MXStore commit]
     // filled with roomId
-    private HashSet<String> mRoomsToCommitForMessages;
-    private HashSet<String> mRoomsToCommitForStates;
+    private Set<String> mRoomsToCommitForMessages;
+    private Set<String> mRoomsToCommitForStates;
     //private HashSet<String> mRoomsToCommitForStatesEvents;
-    private HashSet<String> mRoomsToCommitForSummaries;
-    private HashSet<String> mRoomsToCommitForAccountData;
-    private HashSet<String> mRoomsToCommitForReceipts;
-    private HashSet<String> mUserIdsToCommit;
-    private HashSet<String> mGroupsToCommit;
+    private Set<String> mRoomsToCommitForSummaries;
+    private Set<String> mRoomsToCommitForAccountData;
+    private Set<String> mRoomsToCommitForReceipts;
+    private Set<String> mUserIdsToCommit;
+    private Set<String> mGroupsToCommit;
+
+    // the rooms whose saved messages must be fully rewritten
+    private final Set<String> mRoomsToRewriteForMessages = createDirtySet();
+
+    // the saved timelines descriptions
+    private final Map<String, SavedTimeline> mSavedTimelines = new ConcurrentHashMap<>();
+
+    // the back paginated history
+    private MXFileStoreHistoryCache mHistoryCache = null;
+    private long mHistoryCacheSize = DEFAULT_HISTORY_CACHE_SIZE;
+
+    // the event id index of the saved events
+    private MXFileStoreEventIndex mEventIndex = null;
+
+    // the events to index on the next commit, by event id
+    private final Map<String, Event> mEventsToIndex = new ConcurrentHashMap<>();
 
     // Flag to indicate metaData needs to be store
     private boolean mMetaDataHasChanged = false;
@@ -111,6 +168,7 @@ public class MXFileStore extends MXMemoryStore {
     private File mStoreFolderFile = null;
     private File mGzStoreRoomsMessagesFolderFile = null;
     private File mStoreRoomsTokensFolderFile = null;
+    private File mStoreRoomsMessagesDeltaFolderFile = null;
     private File mGzStoreRoomsStateFolderFile = null;
     private File mGzStoreRoomsStateEventsFolderFile = null;
     private File mStoreRoomsSummaryFolderFile = null;
@@ -138,6 +196,60 @@ public class MXFileStore extends MXMemoryStore {
     // store some stats
     private final HashMap<String, Long> mStoreStats = new HashMap<>();
 
+    // the serializer used to save the files
+    private final IMXFileStoreSerializer mSerializer;
+
+    // the supported formats to read the files
+    private final List<IMXFileStoreSerializer> mReadSerializers;
+
+    // true to save the data in an append-only journal instead of one file per item
+    private final boolean mUseJournal;
+    private MXFileStoreJournal mJournal = null;
+    private boolean mIsJournalCompactionPending = false;
+
+    // the commits are coalesced during this delay
+    private long mCommitDelayMs = DEFAULT_COMMIT_DELAY_MS;
+    private final Object mCommitLock = new Object();
+    private boolean mIsCommitScheduled = false;
+
+    private final Runnable mCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveChanges();
+        }
+    };
+
+    // the rooms data are loaded with a threads pool when the store is opened
+    private boolean mIsParallelLoadingEnabled = false;
+    private ExecutorService mLoadingExecutor = null;
+
+    // the rooms are loaded when they are used
+    private boolean mIsLazyRoomsLoadingEnabled = false;
+    private int mMaxLoadedRoomsTimelines = DEFAULT_MAX_LOADED_ROOMS_TIMELINES;
+
+    // protect the lazy loading structures
+    private final Object mLazyRoomsLoadingLock = new Object();
+
+    // the saved rooms which are not yet loaded
+    private final Set<String> mLazyRoomIds = new HashSet<>();
+
+    // the rooms with a loaded timeline, the least recently used first
+    private final LinkedHashMap<String, String> mLoadedTimelinesRoomIds = new LinkedHashMap<>(16, 0.75f, true);
+
+    // the rooms whose timeline has been unloaded to save memory
+    private final Set<String> mUnloadedTimelinesRoomIds = new HashSet<>();
+
+    // the rooms which are being loaded
+    private final Set<String> mLoadingRoomIds = new HashSet<>();
+
+    // a room is loaded by the thread which uses it first, the other threads wait for it :
+    // the rooms which do not share a lock are loaded concurrently
+    private final Object[] mLazyRoomsLoadingLocks = createLazyRoomsLoadingLocks();
+
+    private boolean mIsTimelinesUnloadingPending = false;
+    private long mLoadedRoomsCount = 0;
+    private long mUnloadedTimelinesCount = 0;
+
     /**
      * Create the file store dirtrees
      */
@@ -205,6 +317,24 @@ public class MXFileStore extends MXMemoryStore {
         if (!mStoreGroupsFolderFile.exists()) {
             mStoreGroupsFolderFile.mkdirs();
         }
+
+        mStoreRoomsMessagesDeltaFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_MESSAGES_DELTA_FOLDER);
+        if (!mStoreRoomsMessagesDeltaFolderFile.exists()) {
+            mStoreRoomsMessagesDeltaFolderFile.mkdirs();
+        }
+
+        File historyFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_HISTORY_FOLDER);
+        if (!historyFolderFile.exists()) {
+            historyFolderFile.mkdirs();
+        }
+        mHistoryCache = new MXFileStoreHistoryCache(historyFolderFile, mSerializer, mHistoryCacheSize);
+
+        // the indexed events are tiny : they are not compressed
+        mEventIndex = new MXFileStoreEventIndex(new File(mStoreFolderFile, MXFILE_STORE_EVENTS_INDEX_FOLDER), new MXBinaryFileStoreSerializer(false));
+
+        if (mUseJournal) {
+            mJournal = new MXFileStoreJournal(new File(mStoreFolderFile, MXFILE_STORE_JOURNAL_FOLDER));
+        }
     }
 
     /**
@@ -214,6 +344,35 @@ public class MXFileStore extends MXMemoryStore {
      * @param context  the context.
      */
     public MXFileStore(HomeServerConnectionConfig hsConfig, Context context) {
+        this(hsConfig, context, new MXBinaryFileStoreSerializer());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param hsConfig   the expected credentials
+     * @param context    the context.
+     * @param serializer the serializer used to save the files
+     */
+    public MXFileStore(HomeServerConnectionConfig hsConfig, Context context, IMXFileStoreSerializer serializer) {
+        this(hsConfig, context, serializer, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param hsConfig   the expected credentials
+     * @param context    the context.
+     * @param serializer the serializer used to save the files
+     * @param useJournal true to save the data in an append-only journal instead of one file per room and per data type.
+     *                   The store is cleared when this mode is updated.
+     */
+    public MXFileStore(HomeServerConnectionConfig hsConfig, Context context, IMXFileStoreSerializer serializer, boolean useJournal) {
+        mSerializer = serializer;
+        mUseJournal = useJournal;
+        // the files are read whatever their format to support the stores migration
+        mReadSerializers = Arrays.asList(serializer, new MXBinaryFileStoreSerializer(), new MXGzipFileStoreSerializer());
+
         initCommon();
         setContext(context);
 
@@ -225,18 +384,30 @@ public class MXFileStore extends MXMemoryStore {
         createDirTree(mCredentials.userId);
 
         // updated data
-        mRoomsToCommitForMessages = new HashSet<>();
-        mRoomsToCommitForStates = new HashSet<>();
+        mRoomsToCommitForMessages = createDirtySet();
+        mRoomsToCommitForStates = createDirtySet();
         //mRoomsToCommitForStatesEvents = new HashSet<>();
-        mRoomsToCommitForSummaries = new HashSet<>();
-        mRoomsToCommitForAccountData = new HashSet<>();
-        mRoomsToCommitForReceipts = new HashSet<>();
-        mUserIdsToCommit = new HashSet<>();
-        mGroupsToCommit = new HashSet<>();
+        mRoomsToCommitForSummaries = createDirtySet();
+        mRoomsToCommitForAccountData = createDirtySet();
+        mRoomsToCommitForReceipts = createDirtySet();
+        mUserIdsToCommit = createDirtySet();
+        mGroupsToCommit = createDirtySet();
 
         // check if the metadata file exists and if it is valid
         loadMetaData();
 
+        // the data have been saved with the other storage mode
+        if ((null != mMetadata) && (mUseJournal != isJournalStorage(mMetadata))) {
+            Log.e(LOG_TAG, "## MXFileStore() : the journal mode has been updated, clear the store");
+            mMetadata = null;
+        }
+
+        // the storage mode was not saved by the previous versions
+        if ((null != mMetadata) && (mMetadata.mUseJournal != mUseJournal)) {
+            mMetadata.mUseJournal = mUseJournal;
+            mMetaDataHasChanged = true;
+        }
+
         if (null == mMetadata) {
             deleteAllData(true);
         }
@@ -254,6 +425,7 @@ public class MXFileStore extends MXMemoryStore {
             mMetadata.mUserId = mCredentials.userId;
             mMetadata.mAccessToken = mCredentials.accessToken;
             mMetadata.mVersion = MXFILE_VERSION;
+            mMetadata.mUseJournal = mUseJournal;
             mMetaDataHasChanged = true;
             saveMetaData();
 
@@ -266,6 +438,61 @@ public class MXFileStore extends MXMemoryStore {
         }
     }
 
+    /**
+     * Tells if the saved data use the journal.
+     * The storage mode is saved in the metadata. The stores saved before it was saved
+     * use the journal if it contains some segments.
+     *
+     * @param metadata the saved metadata
+     * @return true if the data have been saved in the journal
+     */
+    private boolean isJournalStorage(MXFileStoreMetaData metadata) {
+        return metadata.mUseJournal || MXFileStoreJournal.exists(new File(mStoreFolderFile, MXFILE_STORE_JOURNAL_FOLDER));
+    }
+
+    /**
+     * Create a set of items to save.
+     * The items are added by the caller threads and removed in the store thread.
+     *
+     * @return the new set
+     */
+    private static Set<String> createDirtySet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Remove the items of a set of items to save.
+     * The items added while draining the set are either returned or kept for the next commit.
+     *
+     * @param dirtySet the set of items to save
+     * @return the removed items
+     */
+    private static Set<String> drainDirtySet(Set<String> dirtySet) {
+        Set<String> items = new HashSet<>();
+        Iterator<String> it = dirtySet.iterator();
+
+        while (it.hasNext()) {
+            items.add(it.next());
+            it.remove();
+        }
+
+        return items;
+    }
+
+    /**
+     * Run a save operation in the store thread.
+     * The operation is immediately done if the caller is the store thread.
+     *
+     * @param runnable the operation
+     */
+    private void runInStoreThread(Runnable runnable) {
+        if (Thread.currentThread() == mHandlerThread) {
+            runnable.run();
+        } else {
+            mFileStoreHandler.post(runnable);
+        }
+    }
+
     /**
      * Killed the background thread.
      *
@@ -297,19 +524,90 @@ public class MXFileStore extends MXMemoryStore {
      */
     @Override
     public void commit() {
+        // Save data only if metaData exists
+        if ((null != mMetadata) && (null != mMetadata.mAccessToken) && !isKilled() && (null != mFileStoreHandler)) {
+            synchronized (mCommitLock) {
+                // the updates are coalesced until the pending commit is done
+                if (!mIsCommitScheduled) {
+                    mIsCommitScheduled = true;
+                    mFileStoreHandler.postDelayed(mCommitRunnable, mCommitDelayMs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the pending changes without waiting for the commit delay.
+     * It should be called when the application is put in background.
+     * The changes are saved asynchronously in the store thread.
+     */
+    public void flush() {
+        if (!isKilled() && (null != mFileStoreHandler)) {
+            synchronized (mCommitLock) {
+                mFileStoreHandler.removeCallbacks(mCommitRunnable);
+                mIsCommitScheduled = true;
+                mFileStoreHandler.post(mCommitRunnable);
+            }
+        }
+    }
+
+    /**
+     * Set the delay during which the commits are coalesced.
+     *
+     * @param delayMs the delay in milliseconds, 0 to save the changes as soon as possible.
+     */
+    public void setCommitDelay(long delayMs) {
+        mCommitDelayMs = Math.max(0, delayMs);
+    }
+
+    /**
+     * Save the updated items in a single pass.
+     * It must be called in the store thread.
+     */
+    private void saveChanges() {
+        synchronized (mCommitLock) {
+            mIsCommitScheduled = false;
+        }
+
         // Save data only if metaData exists
         if ((null != mMetadata) && (null != mMetadata.mAccessToken) && !isKilled()) {
             Log.d(LOG_TAG, "++ Commit");
+
+            // the metadata is copied before the updated items are saved :
+            // the saved event stream token must not be more recent than the saved rooms data
+            MXFileStoreMetaData metadata = getMetaDataToSave();
+
             saveUsers();
             saveGroups();
             saveRoomsMessages();
+            saveEventsIndex();
             saveRoomStates();
             saveRoomStatesEvents();
             saveSummaries();
             saveRoomsAccountData();
             saveReceipts();
-            saveMetaData();
+            syncJournal();
+            saveMetaData(metadata);
             Log.d(LOG_TAG, "-- Commit");
+
+            dispatchOnStoreCommitted(mCredentials.userId);
+        }
+    }
+
+    /**
+     * Write the journal records of the commit to the disk before the metadata is saved,
+     * so the saved event stream token never refers to some lost records.
+     */
+    private void syncJournal() {
+        if (null != mJournal) {
+            runInStoreThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isKilled() && (null != mJournal)) {
+                        mJournal.sync();
+                    }
+                }
+            });
         }
     }
 
@@ -350,7 +648,9 @@ public class MXFileStore extends MXMemoryStore {
                                 Log.e(LOG_TAG, "Open the store in the background thread.");
 
                                 String errorDescription = null;
-                                boolean succeed = (mMetadata.mVersion == MXFILE_VERSION) &&
+                                // the previous format is migrated once the store is loaded
+                                final boolean isGzipStore = (mMetadata.mVersion == MXFILE_GZIP_VERSION);
+                                boolean succeed = ((mMetadata.mVersion == MXFILE_VERSION) || isGzipStore) &&
                                         TextUtils.equals(mMetadata.mUserId, mCredentials.userId) &&
                                         TextUtils.equals(mMetadata.mAccessToken, mCredentials.accessToken);
 
@@ -359,8 +659,24 @@ public class MXFileStore extends MXMemoryStore {
                                     Log.e(LOG_TAG, errorDescription);
                                 }
 
+                                int loadingThreadsCount = 1;
+
+                                if (mIsParallelLoadingEnabled) {
+                                    loadingThreadsCount = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), MAX_LOADING_THREADS_COUNT));
+                                    mLoadingExecutor = Executors.newFixedThreadPool(loadingThreadsCount);
+                                }
+
+                                mStoreStats.put("loadingThreads", (long) loadingThreadsCount);
+
+                                // check and repair the events index
+                                if (succeed) {
+                                    long t0 = System.currentTimeMillis();
+                                    mEventIndex.open();
+                                    mStoreStats.put("openEventIndex", System.currentTimeMillis() - t0);
+                                }
+
                                 if (succeed) {
-                                    succeed &= loadRoomsMessages();
+                                    succeed &= mIsLazyRoomsLoadingEnabled ? loadLazyRoomsIndex() : loadRoomsMessages();
                                     if (!succeed) {
                                         errorDescription = "loadRoomsMessages fails";
                                         Log.e(LOG_TAG, errorDescription);
@@ -379,7 +695,8 @@ public class MXFileStore extends MXMemoryStore {
                                     }
                                 }
 
-                                if (succeed) {
+                                // the rooms states are loaded with the rooms messages
+                                if (succeed && !mIsLazyRoomsLoadingEnabled) {
                                     succeed &= loadRoomsState();
 
                                     if (!succeed) {
@@ -423,6 +740,11 @@ public class MXFileStore extends MXMemoryStore {
                                         // https://github.com/vector-im/riot-android/issues/1302
 
                                         for (String roomId : mRoomSummaries.keySet()) {
+                                            // the room will be checked when it is loaded
+                                            if (isLazyRoom(roomId)) {
+                                                continue;
+                                            }
+
                                             Room room = getRoom(roomId);
 
                                             if (null == room) {
@@ -436,7 +758,8 @@ public class MXFileStore extends MXMemoryStore {
                                     }
                                 }
 
-                                if (succeed) {
+                                // the rooms account data are loaded with the rooms messages
+                                if (succeed && !mIsLazyRoomsLoadingEnabled) {
                                     succeed &= loadRoomsAccountData();
 
                                     if (!succeed) {
@@ -447,6 +770,11 @@ public class MXFileStore extends MXMemoryStore {
                                     }
                                 }
 
+                                if (null != mLoadingExecutor) {
+                                    mLoadingExecutor.shutdown();
+                                    mLoadingExecutor = null;
+                                }
+
                                 // do not expect having empty list
                                 // assume that something is corrupted
                                 if (!succeed) {
@@ -459,11 +787,11 @@ public class MXFileStore extends MXMemoryStore {
 
                                     deleteAllData(true);
 
-                                    mRoomsToCommitForMessages = new HashSet<>();
-                                    mRoomsToCommitForStates = new HashSet<>();
+                                    mRoomsToCommitForMessages = createDirtySet();
+                                    mRoomsToCommitForStates = createDirtySet();
                                     //mRoomsToCommitForStatesEvents = new HashSet<>();
-                                    mRoomsToCommitForSummaries = new HashSet<>();
-                                    mRoomsToCommitForReceipts = new HashSet<>();
+                                    mRoomsToCommitForSummaries = createDirtySet();
+                                    mRoomsToCommitForReceipts = createDirtySet();
 
                                     mMetadata = tmpMetadata;
 
@@ -479,6 +807,7 @@ public class MXFileStore extends MXMemoryStore {
                                         mMetadata.mEventStreamToken = null;
                                     }
                                     mMetadata.mVersion = MXFILE_VERSION;
+                                    mMetadata.mUseJournal = mUseJournal;
 
                                     //  the event stream token is put to zero to ensure ta
                                     mEventStreamToken = null;
@@ -516,7 +845,7 @@ public class MXFileStore extends MXMemoryStore {
                                     dispatchOnStoreCorrupted(mCredentials.userId, errorDescription);
                                 } else {
                                     // extract the room states
-                                    mRoomReceiptsToLoad.addAll(listFiles(mStoreRoomsMessagesReceiptsFolderFile.list()));
+                                    mRoomReceiptsToLoad.addAll(listFiles(mStoreRoomsMessagesReceiptsFolderFile));
                                     mPreloadTime = System.currentTimeMillis() - fLoadTimeT0;
 
                                     Log.e(LOG_TAG, "The store is opened.");
@@ -530,6 +859,10 @@ public class MXFileStore extends MXMemoryStore {
 
                                     // load the users
                                     loadUsers();
+
+                                    if (isGzipStore) {
+                                        migrateFromGzipFormat();
+                                    }
                                 }
                             }
                         });
@@ -603,137 +936,805 @@ public class MXFileStore extends MXMemoryStore {
      * @return the store stats
      */
     public Map<String, Long> getStats() {
+        if (mIsLazyRoomsLoadingEnabled) {
+            synchronized (mLazyRoomsLoadingLock) {
+                mStoreStats.put("lazyRoomsToLoad", (long) mLazyRoomIds.size());
+                mStoreStats.put("lazyLoadedRooms", mLoadedRoomsCount);
+                mStoreStats.put("lazyLoadedTimelines", (long) mLoadedTimelinesRoomIds.size());
+                mStoreStats.put("lazyUnloadedTimelines", mUnloadedTimelinesCount);
+            }
+        }
+
+        if (null != mEventIndex) {
+            mStoreStats.put("indexedEvents", (long) mEventIndex.getUsedSlotsCount());
+        }
+
         return mStoreStats;
     }
 
     /**
-     * Close the store.
-     * Any pending operation must be complete in this call.
+     * Rewrite the loaded data with the current file format.
+     * It must be called in the store thread once the store is fully loaded.
      */
-    @Override
-    public void close() {
-        Log.d(LOG_TAG, "Close the store");
+    private void migrateFromGzipFormat() {
+        Log.d(LOG_TAG, "## migrateFromGzipFormat() : migrate the store from version " + mMetadata.mVersion + " to " + MXFILE_VERSION);
 
-        super.close();
-        setIsKilled(true);
-        if (null != mHandlerThread) {
-            mHandlerThread.quit();
+        mRoomsToCommitForMessages.addAll(mRoomEvents.keySet());
+        mRoomsToCommitForStates.addAll(mRooms.keySet());
+        mRoomsToCommitForSummaries.addAll(mRoomSummaries.keySet());
+        mRoomsToCommitForAccountData.addAll(mRoomAccountData.keySet());
+        mUserIdsToCommit.addAll(mUsers.keySet());
+        mGroupsToCommit.addAll(mGroups.keySet());
+
+        synchronized (this) {
+            mRoomsToCommitForReceipts.addAll(mReceiptsByRoomId.keySet());
         }
-        mHandlerThread = null;
+
+        mMetadata.mVersion = MXFILE_VERSION;
+        mMetaDataHasChanged = true;
+
+        commit();
     }
 
+    //================================================================================
+    // Parallel loading
+    //================================================================================
+
     /**
-     * Clear the store.
-     * Any pending operation must be complete in this call.
+     * Enable the parallel loading.
+     * When it is enabled, the rooms files are read with a threads pool when the store is opened.
+     * It must be called before opening the store.
+     *
+     * @param isEnabled true to enable the parallel loading
      */
-    @Override
-    public void clear() {
-        Log.d(LOG_TAG, "Clear the store");
-        super.clear();
-        deleteAllData(false);
+    public void setParallelLoading(boolean isEnabled) {
+        mIsParallelLoadingEnabled = isEnabled;
     }
 
     /**
-     * Clear the filesystem storage.
+     * An interface to load the data of a room.
+     */
+    private interface IRoomDataLoader {
+        /**
+         * Load the room data.
+         *
+         * @param roomId the room id
+         * @return true if the operation succeeds
+         */
+        boolean load(String roomId);
+    }
+
+    /**
+     * Load the data of some rooms.
+     * They are loaded in parallel if the parallel loading is enabled.
+     * The loading time is saved in the store stats.
      *
-     * @param init true to init the filesystem dirtree
+     * @param phase   the loading phase name
+     * @param roomIds the room ids
+     * @param loader  the room data loader
+     * @return true if the data of all the rooms are loaded.
      */
-    private void deleteAllData(boolean init) {
-        // delete the dedicated directories
-        try {
-            ContentUtils.deleteDirectory(mStoreFolderFile);
-            if (init) {
-                createDirTree(mCredentials.userId);
+    private boolean loadRoomsData(String phase, List<String> roomIds, final IRoomDataLoader loader) {
+        boolean succeed = true;
+        long start = System.currentTimeMillis();
+
+        if ((null != mLoadingExecutor) && (roomIds.size() > 1)) {
+            List<Callable<Boolean>> tasks = new ArrayList<>(roomIds.size());
+
+            for (final String roomId : roomIds) {
+                tasks.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return loader.load(roomId);
+                    }
+                });
             }
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "deleteAllData failed " + e.getMessage());
-        }
 
-        if (init) {
-            initCommon();
+            try {
+                for (Future<Boolean> future : mLoadingExecutor.invokeAll(tasks)) {
+                    succeed &= future.get();
+                }
+            } catch (Exception e) {
+                succeed = false;
+                Log.e(LOG_TAG, "## loadRoomsData() : " + phase + " failed " + e.getMessage());
+            }
+        } else {
+            for (String roomId : roomIds) {
+                if (!loader.load(roomId)) {
+                    succeed = false;
+                    break;
+                }
+            }
         }
-        mMetadata = null;
-        mEventStreamToken = null;
-        mAreUsersLoaded = true;
+
+        long delta = (System.currentTimeMillis() - start);
+        Log.d(LOG_TAG, phase + " : " + roomIds.size() + " rooms in " + delta + " ms");
+        mStoreStats.put(phase, delta);
+
+        return succeed;
     }
 
+    //================================================================================
+    // Lazy rooms loading
+    //================================================================================
+
     /**
-     * Indicate if the MXStore implementation stores data permanently.
-     * Permanent storage allows the SDK to make less requests at the startup.
+     * Enable the rooms lazy loading.
+     * When it is enabled, the store opening only loads the rooms summaries and the list of the saved rooms.
+     * The messages and the state of a room are loaded when the room is used for the first time.
+     * The timelines of the least recently used rooms are unloaded from the memory.
+     * It must be called before opening the store.
      *
-     * @return true if permanent.
+     * @param isEnabled              true to enable the lazy loading
+     * @param maxLoadedRoomsTimelines the max number of rooms timelines to keep in memory
      */
-    @Override
-    public boolean isPermanent() {
-        return true;
+    public void setLazyRoomsLoading(boolean isEnabled, int maxLoadedRoomsTimelines) {
+        mIsLazyRoomsLoadingEnabled = isEnabled;
+        mMaxLoadedRoomsTimelines = Math.max(1, maxLoadedRoomsTimelines);
     }
 
     /**
-     * Check if the initial load is performed.
+     * Tells if a saved room is not yet loaded.
      *
-     * @return true if it is ready.
+     * @param roomId the room id
+     * @return true if the room will be loaded when it is used
      */
-    @Override
-    public boolean isReady() {
-        synchronized (this) {
-            return mIsReady;
+    private boolean isLazyRoom(String roomId) {
+        synchronized (mLazyRoomsLoadingLock) {
+            return mLazyRoomIds.contains(roomId);
         }
     }
 
     /**
-     * @return true if the store is corrupted.
+     * Tells if the timeline of a room has been unloaded.
+     *
+     * @param roomId the room id
+     * @return true if the timeline has been unloaded
      */
-    @Override
-    public boolean isCorrupted() {
-        return false;
+    private boolean isTimelineUnloaded(String roomId) {
+        synchronized (mLazyRoomsLoadingLock) {
+            return mUnloadedTimelinesRoomIds.contains(roomId);
+        }
     }
 
     /**
-     * Delete a directory with its content
+     * List the saved rooms without loading them.
      *
-     * @param directory the base directory
-     * @return the cache file size
+     * @return true if the operation succeeds.
      */
-    private long directorySize(File directory) {
-        long directorySize = 0;
+    private boolean loadLazyRoomsIndex() {
+        boolean succeed = true;
 
-        if (directory.exists()) {
-            File[] files = directory.listFiles();
+        try {
+            long start = System.currentTimeMillis();
 
-            if (null != files) {
-                for (int i = 0; i < files.length; i++) {
-                    if (files[i].isDirectory()) {
-                        directorySize += directorySize(files[i]);
-                    } else {
-                        directorySize += files[i].length();
-                    }
-                }
+            List<String> roomIds = listFiles(mGzStoreRoomsMessagesFolderFile);
+
+            synchronized (mLazyRoomsLoadingLock) {
+                mLazyRoomIds.addAll(roomIds);
             }
+
+            long delta = (System.currentTimeMillis() - start);
+            Log.d(LOG_TAG, "loadLazyRoomsIndex : " + roomIds.size() + " rooms in " + delta + " ms");
+            mStoreStats.put("loadLazyRoomsIndex", delta);
+        } catch (Exception e) {
+            succeed = false;
+            Log.e(LOG_TAG, "loadLazyRoomsIndex failed : " + e.getMessage());
         }
 
-        return directorySize;
+        return succeed;
     }
 
     /**
-     * Returns to disk usage size in bytes.
+     * Create the lazy rooms loading locks.
      *
-     * @return disk usage size
+     * @return the locks
      */
-    @Override
-    public long diskUsage() {
-        return directorySize(mStoreFolderFile);
+    private static Object[] createLazyRoomsLoadingLocks() {
+        Object[] locks = new Object[LAZY_ROOMS_LOADING_LOCKS_COUNT];
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        return locks;
     }
 
     /**
-     * Set the event stream token.
+     * Provides the lock serializing the loading of a room.
+     *
+     * @param roomId the room id
+     * @return the lock
+     */
+    private Object getLazyRoomLoadingLock(String roomId) {
+        int hash = (null == roomId) ? 0 : roomId.hashCode();
+        // spread the high bits as the room ids share their server name suffix
+        hash ^= (hash >>> 16);
+        return mLazyRoomsLoadingLocks[hash & (LAZY_ROOMS_LOADING_LOCKS_COUNT - 1)];
+    }
+
+    /**
+     * Tells if a room must be loaded before being used.
+     *
+     * @param roomId the room id
+     * @return true if the room is not yet loaded, if its timeline is unloaded or if it is being loaded.
+     */
+    private boolean isRoomLoadingRequired(String roomId) {
+        synchronized (mLazyRoomsLoadingLock) {
+            return mLazyRoomIds.contains(roomId) || mUnloadedTimelinesRoomIds.contains(roomId) || mLoadingRoomIds.contains(roomId);
+        }
+    }
+
+    /**
+     * Load a room and its timeline if they are not yet loaded.
+     * The method is synchronous because the callers expect the room data : the files are read in the
+     * calling thread, under the room loading lock, so the other threads using this room wait until it is loaded.
+     * A loaded room is not saved in the store thread until it is flagged as loaded.
+     *
+     * @param roomId the room id
+     */
+    private void loadLazyRoom(final String roomId) {
+        if (!mIsLazyRoomsLoadingEnabled || (null == roomId)) {
+            return;
+        }
+
+        if (isRoomLoadingRequired(roomId)) {
+            synchronized (getLazyRoomLoadingLock(roomId)) {
+                loadLazyRoomData(roomId);
+            }
+        }
+
+        synchronized (mLazyRoomsLoadingLock) {
+            if (mRoomEvents.containsKey(roomId) && (null == mLoadedTimelinesRoomIds.put(roomId, roomId)) &&
+                    (mLoadedTimelinesRoomIds.size() > mMaxLoadedRoomsTimelines) && !mIsTimelinesUnloadingPending && (null != mFileStoreHandler)) {
+                mIsTimelinesUnloadingPending = true;
+
+                // the messages are saved in the store thread
+                mFileStoreHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isKilled()) {
+                            unloadIdleTimelines();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Read the files of a lazy room, or of an unloaded timeline.
+     * It must be called with the room loading lock : the room stays flagged as unloaded until its data
+     * is available, so the store thread does not save it while it is read.
+     *
+     * @param roomId the room id
+     */
+    private void loadLazyRoomData(String roomId) {
+        boolean isLazyRoom;
+
+        synchronized (mLazyRoomsLoadingLock) {
+            // the room is loaded by this thread (e.g. getRoom() while the room state is read)
+            if (mLoadingRoomIds.contains(roomId)) {
+                return;
+            }
+
+            isLazyRoom = mLazyRoomIds.contains(roomId);
+
+            // the room has been loaded by another thread
+            if (!isLazyRoom && !mUnloadedTimelinesRoomIds.contains(roomId)) {
+                return;
+            }
+
+            mLoadingRoomIds.add(roomId);
+        }
+
+        try {
+            if (isLazyRoom) {
+                loadRoom(roomId);
+            } else {
+                long start = System.currentTimeMillis();
+
+                if (!loadRoomMessages(roomId)) {
+                    Log.e(LOG_TAG, "## loadLazyRoom() : failed to reload the timeline of " + roomId);
+                    setCorrupted("Cannot reload the timeline of " + roomId);
+                } else {
+                    Log.d(LOG_TAG, "## loadLazyRoom() : reload the timeline of " + roomId + " in " + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+        } finally {
+            synchronized (mLazyRoomsLoadingLock) {
+                mLoadingRoomIds.remove(roomId);
+                mLazyRoomIds.remove(roomId);
+                mUnloadedTimelinesRoomIds.remove(roomId);
+
+                if (isLazyRoom) {
+                    mLoadedRoomsCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a saved room i.e. its messages, its token and its state.
+     *
+     * @param roomId the room id
+     */
+    private void loadRoom(String roomId) {
+        long start = System.currentTimeMillis();
+
+        boolean succeed = loadRoomMessages(roomId) && loadRoomToken(roomId) && loadRoomState(roomId) && loadRoomAccountData(roomId);
+
+        if (!succeed) {
+            Log.e(LOG_TAG, "## loadRoom() : failed to load " + roomId);
+            setCorrupted("Cannot load the room " + roomId);
+            return;
+        }
+
+        Room room = mRooms.get(roomId);
+
+        if (null != room) {
+            for (RoomMember member : room.getLiveState().getMembers()) {
+                updateUserWithRoomMemberEvent(member);
+            }
+
+            RoomSummary summary = mRoomSummaries.get(roomId);
+
+            if ((null != summary) && summary.isRoomStateDataMissing()) {
+                summary.setLatestRoomState(room.getState());
+                // save it with the compact form
+                mRoomsToCommitForSummaries.add(roomId);
+            }
+        }
+
+        Log.d(LOG_TAG, "## loadRoom() : " + roomId + " loaded in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Unload the least recently used timelines from the memory.
+     * The rooms with some pending events are kept.
+     * It must be called in the store thread. The timelines are saved without holding mLazyRoomsLoadingLock,
+     * so the threads loading the other rooms do not wait for them.
+     */
+    private void unloadIdleTimelines() {
+        List<String> roomIds;
+
+        synchronized (mLazyRoomsLoadingLock) {
+            mIsTimelinesUnloadingPending = false;
+
+            // the least recently used first
+            roomIds = new ArrayList<>(mLoadedTimelinesRoomIds.keySet());
+        }
+
+        int toUnloadCount = roomIds.size() - mMaxLoadedRoomsTimelines;
+
+        for (int index = 0; (index < roomIds.size()) && (toUnloadCount > 0); index++) {
+            String roomId = roomIds.get(index);
+
+            if (canUnloadTimeline(roomId)) {
+                // ensure that the saved messages are up to date
+                saveRoomMessages(roomId);
+
+                if (unloadSavedTimeline(roomId)) {
+                    toUnloadCount--;
+                    Log.d(LOG_TAG, "## unloadIdleTimelines() : unload the timeline of " + roomId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unload a timeline if it has not been updated since it was saved.
+     *
+     * @param roomId the room id
+     * @return true if the timeline is unloaded
+     */
+    private boolean unloadSavedTimeline(String roomId) {
+        synchronized (getRoomEventsLock(roomId)) {
+            MXTimelineEventsMap events = mRoomEvents.get(roomId);
+            SavedTimeline savedTimeline = mSavedTimelines.get(roomId);
+
+            // the timeline has been updated since it was saved
+            if ((null == events) || (null == savedTimeline) || (savedTimeline.mEventsCount != events.size()) ||
+                    mRoomsToCommitForMessages.contains(roomId) || mRoomsToRewriteForMessages.contains(roomId)) {
+                return false;
+            }
+
+            synchronized (mLazyRoomsLoadingLock) {
+                // the room has been deleted
+                if (null == mLoadedTimelinesRoomIds.remove(roomId)) {
+                    return false;
+                }
+
+                mRoomEvents.remove(roomId);
+                mUnloadedTimelinesRoomIds.add(roomId);
+                mUnloadedTimelinesCount++;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tells if the timeline of a room can be unloaded.
+     *
+     * @param roomId the room id
+     * @return true if all the events have been sent.
+     */
+    private boolean canUnloadTimeline(String roomId) {
+        // the room is not saved
+        if (null == mRoomTokens.get(roomId)) {
+            return false;
+        }
+
+        synchronized (getRoomEventsLock(roomId)) {
+            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+            if (null == events) {
+                return false;
+            }
+
+            for (Event event : events.values()) {
+                if (!event.isSent() && !event.isUndeliverable()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public Room getRoom(String roomId) {
+        loadLazyRoom(roomId);
+        return super.getRoom(roomId);
+    }
+
+    @Override
+    public Collection<String> getRoomIds() {
+        Set<String> roomIds = new HashSet<>(super.getRoomIds());
+        roomIds.addAll(getLazyRoomIds());
+        return roomIds;
+    }
+
+    @Override
+    public RoomSummary getSummary(String roomId) {
+        // the summaries of the lazy rooms are loaded with the store
+        if ((null != roomId) && isLazyRoom(roomId)) {
+            return mRoomSummaries.get(roomId);
+        }
+
+        return super.getSummary(roomId);
+    }
+
+    @Override
+    public Collection<RoomSummary> getSummaries() {
+        Collection<RoomSummary> summaries = super.getSummaries();
+        Set<String> roomIds = new HashSet<>();
+
+        for (RoomSummary summary : summaries) {
+            roomIds.add(summary.getRoomId());
+        }
+
+        // the summaries of the lazy rooms are loaded with the store
+        for (String roomId : getLazyRoomIds()) {
+            RoomSummary summary = mRoomSummaries.get(roomId);
+
+            if ((null != summary) && !roomIds.contains(roomId)) {
+                summaries.add(summary);
+            }
+        }
+
+        return summaries;
+    }
+
+    /**
+     * @return a copy of the ids of the saved rooms which are not yet loaded.
+     */
+    private List<String> getLazyRoomIds() {
+        synchronized (mLazyRoomsLoadingLock) {
+            return new ArrayList<>(mLazyRoomIds);
+        }
+    }
+
+    @Override
+    public Collection<Event> getRoomMessages(final String roomId) {
+        loadLazyRoom(roomId);
+        return super.getRoomMessages(roomId);
+    }
+
+    @Override
+    public TokensChunkResponse<Event> getEarlierMessages(final String roomId, final String fromToken, final int limit) {
+        loadLazyRoom(roomId);
+        TokensChunkResponse<Event> response = super.getEarlierMessages(roomId, fromToken, limit);
+
+        // the history might have been paginated before
+        if ((null == response) && (null != fromToken) && (null != mHistoryCache)) {
+            response = mHistoryCache.get(roomId, fromToken);
+
+            if (null != response) {
+                Log.d(LOG_TAG, "## getEarlierMessages() : " + response.chunk.size() + " events retrieved from the history cache for " + roomId);
+            }
+        }
+
+        return response;
+    }
+
+    @Override
+    public Event getOldestEvent(String roomId) {
+        loadLazyRoom(roomId);
+        return super.getOldestEvent(roomId);
+    }
+
+    @Override
+    public Event getLatestEvent(String roomId) {
+        loadLazyRoom(roomId);
+        return super.getLatestEvent(roomId);
+    }
+
+    @Override
+    public int eventsCountAfter(String roomId, String eventId) {
+        loadLazyRoom(roomId);
+        return super.eventsCountAfter(roomId, eventId);
+    }
+
+    @Override
+    public boolean doesEventExist(String eventId, String roomId) {
+        loadLazyRoom(roomId);
+        return super.doesEventExist(eventId, roomId);
+    }
+
+    @Override
+    public Event getEvent(String eventId, String roomId) {
+        loadLazyRoom(roomId);
+        return super.getEvent(eventId, roomId);
+    }
+
+    /**
+     * Retrieve an event from the room timeline or from the events index.
+     * The events index is read from the filesystem so this method should not be called from the UI thread.
+     *
+     * @param eventId the event id
+     * @param roomId  the room id
+     * @return the event, null if it is not found
+     */
+    @Override
+    public Event getEventFromIndex(String eventId, String roomId) {
+        Event event = getEvent(eventId, roomId);
+
+        if ((null == event) && !TextUtils.isEmpty(eventId)) {
+            event = mEventsToIndex.get(eventId);
+
+            if ((null != event) && !TextUtils.equals(event.roomId, roomId)) {
+                event = null;
+            }
+        }
+
+        if ((null == event) && (null != mEventIndex)) {
+            event = mEventIndex.get(eventId, roomId);
+        }
+
+        return event;
+    }
+
+    @Override
+    public List<Event> getLatestUnsentEvents(String roomId) {
+        loadLazyRoom(roomId);
+        return super.getLatestUnsentEvents(roomId);
+    }
+
+    @Override
+    public List<Event> getUndeliverableEvents(String roomId) {
+        loadLazyRoom(roomId);
+        return super.getUndeliverableEvents(roomId);
+    }
+
+    @Override
+    public List<Event> getUnknownDeviceEvents(String roomId) {
+        loadLazyRoom(roomId);
+        return super.getUnknownDeviceEvents(roomId);
+    }
+
+    @Override
+    public boolean isEventRead(String roomId, String userId, String eventId) {
+        loadLazyRoom(roomId);
+        return super.isEventRead(roomId, userId, eventId);
+    }
+
+    @Override
+    public List<Event> unreadEvents(String roomId, List<String> types) {
+        loadLazyRoom(roomId);
+        return super.unreadEvents(roomId, types);
+    }
+
+    /**
+     * Close the store.
+     * Any pending operation must be complete in this call.
+     */
+    @Override
+    public void close() {
+        Log.d(LOG_TAG, "Close the store");
+
+        boolean isCommitScheduled;
+
+        synchronized (mCommitLock) {
+            isCommitScheduled = mIsCommitScheduled;
+        }
+
+        // save the pending changes before stopping the store thread
+        if (isCommitScheduled && !isKilled() && (null != mFileStoreHandler) && (Thread.currentThread() != mHandlerThread)) {
+            final CountDownLatch latch = new CountDownLatch(1);
+
+            flush();
+            mFileStoreHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            });
+
+            try {
+                if (!latch.await(CLOSE_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.e(LOG_TAG, "## close() : the pending changes are not saved after " + CLOSE_FLUSH_TIMEOUT_MS + " ms");
+                }
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "## close() : failed to wait for the pending changes " + e.getMessage());
+            }
+        }
+
+        super.close();
+        setIsKilled(true);
+        if (null != mHandlerThread) {
+            mHandlerThread.quit();
+        }
+        mHandlerThread = null;
+
+        if (null != mEventIndex) {
+            mEventIndex.close();
+        }
+
+        if (null != mJournal) {
+            mJournal.close();
+        }
+    }
+
+    /**
+     * Clear the store.
+     * Any pending operation must be complete in this call.
+     */
+    @Override
+    public void clear() {
+        Log.d(LOG_TAG, "Clear the store");
+        super.clear();
+        deleteAllData(false);
+    }
+
+    /**
+     * Clear the filesystem storage.
+     *
+     * @param init true to init the filesystem dirtree
+     */
+    private void deleteAllData(boolean init) {
+        if (null != mJournal) {
+            mJournal.close();
+            mJournal = null;
+        }
+
+        if (null != mEventIndex) {
+            mEventIndex.close();
+            mEventIndex = null;
+        }
+
+        mEventsToIndex.clear();
+
+        // delete the dedicated directories
+        try {
+            ContentUtils.deleteDirectory(mStoreFolderFile);
+            if (init) {
+                createDirTree(mCredentials.userId);
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "deleteAllData failed " + e.getMessage());
+        }
+
+        synchronized (mLazyRoomsLoadingLock) {
+            mLazyRoomIds.clear();
+            mLoadedTimelinesRoomIds.clear();
+            mUnloadedTimelinesRoomIds.clear();
+        }
+
+        mSavedTimelines.clear();
+        mRoomsToRewriteForMessages.clear();
+
+        if (init) {
+            initCommon();
+        }
+        mMetadata = null;
+        mEventStreamToken = null;
+        mAreUsersLoaded = true;
+    }
+
+    /**
+     * Indicate if the MXStore implementation stores data permanently.
+     * Permanent storage allows the SDK to make less requests at the startup.
+     *
+     * @return true if permanent.
+     */
+    @Override
+    public boolean isPermanent() {
+        return true;
+    }
+
+    /**
+     * Check if the initial load is performed.
+     *
+     * @return true if it is ready.
+     */
+    @Override
+    public boolean isReady() {
+        synchronized (this) {
+            return mIsReady;
+        }
+    }
+
+    /**
+     * @return true if the store is corrupted.
+     */
+    @Override
+    public boolean isCorrupted() {
+        return false;
+    }
+
+    /**
+     * Delete a directory with its content
+     *
+     * @param directory the base directory
+     * @return the cache file size
+     */
+    private long directorySize(File directory) {
+        long directorySize = 0;
+
+        if (directory.exists()) {
+            File[] files = directory.listFiles();
+
+            if (null != files) {
+                for (int i = 0; i < files.length; i++) {
+                    if (files[i].isDirectory()) {
+                        directorySize += directorySize(files[i]);
+                    } else {
+                        directorySize += files[i].length();
+                    }
+                }
+            }
+        }
+
+        return directorySize;
+    }
+
+    /**
+     * Returns to disk usage size in bytes.
+     *
+     * @return disk usage size
+     */
+    @Override
+    public long diskUsage() {
+        return directorySize(mStoreFolderFile);
+    }
+
+    /**
+     * Set the event stream token.
      *
      * @param token the event stream token
      */
     @Override
     public void setEventStreamToken(String token) {
         Log.d(LOG_TAG, "Set token to " + token);
-        super.setEventStreamToken(token);
-        mMetaDataHasChanged = true;
+
+        // the rooms data of this token are flagged before the token is set :
+        // they are saved by any commit which saves this token
+        synchronized (mCommitLock) {
+            super.setEventStreamToken(token);
+            mMetaDataHasChanged = true;
+        }
     }
 
     @Override
@@ -781,6 +1782,8 @@ public class MXFileStore extends MXMemoryStore {
     public void flushRoomEvents(String roomId) {
         super.flushRoomEvents(roomId);
 
+        // some saved events have been updated
+        mRoomsToRewriteForMessages.add(roomId);
         mRoomsToCommitForMessages.add(roomId);
 
         if ((null != mMetadata) && (null != mMetadata.mAccessToken) && !isKilled()) {
@@ -790,6 +1793,8 @@ public class MXFileStore extends MXMemoryStore {
 
     @Override
     public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, EventTimeline.Direction direction) {
+        loadLazyRoom(roomId);
+
         boolean canStore = true;
 
         // do not flush the room messages file
@@ -808,7 +1813,22 @@ public class MXFileStore extends MXMemoryStore {
 
         super.storeRoomEvents(roomId, eventsResponse, direction);
 
+        if (null != eventsResponse.chunk) {
+            for (Event event : eventsResponse.chunk) {
+                addEventToIndex(event);
+            }
+        }
+
+        if (direction == EventTimeline.Direction.BACKWARDS) {
+            saveRoomHistoryChunk(roomId, eventsResponse);
+        }
+
         if (canStore) {
+            // the events are not appended
+            if (direction == EventTimeline.Direction.BACKWARDS) {
+                mRoomsToRewriteForMessages.add(roomId);
+            }
+
             mRoomsToCommitForMessages.add(roomId);
         }
     }
@@ -820,13 +1840,39 @@ public class MXFileStore extends MXMemoryStore {
      */
     @Override
     public void storeLiveRoomEvent(Event event) {
+        loadLazyRoom(event.roomId);
+
+        boolean isRedaction = TextUtils.equals(event.getType(), Event.EVENT_TYPE_REDACTION);
+
+        // an event which is already in the timeline is updated in place (e.g. redacted or sent) :
+        // its saved version cannot be fixed by appending the new events
+        if (isRedaction || ((null != event.eventId) && super.doesEventExist(event.eventId, event.roomId))) {
+            mRoomsToRewriteForMessages.add(event.roomId);
+        }
+
         super.storeLiveRoomEvent(event);
+        addEventToIndex(event);
         mRoomsToCommitForMessages.add(event.roomId);
+
+        // the redacted event might be cached
+        if (isRedaction) {
+            deleteRoomHistoryCache(event.roomId);
+        }
     }
 
     @Override
     public void deleteEvent(Event event) {
+        loadLazyRoom(event.roomId);
         super.deleteEvent(event);
+
+        if (null != event.eventId) {
+            mEventsToIndex.remove(event.eventId);
+
+            if (null != mEventIndex) {
+                mEventIndex.remove(event.eventId);
+            }
+        }
+        mRoomsToRewriteForMessages.add(event.roomId);
         mRoomsToCommitForMessages.add(event.roomId);
     }
 
@@ -840,30 +1886,44 @@ public class MXFileStore extends MXMemoryStore {
         File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
 
         // remove the files
-        if (messagesListFile.exists()) {
+        if (fileExists(messagesListFile)) {
             try {
-                messagesListFile.delete();
+                deleteFile(messagesListFile);
             } catch (Exception e) {
                 Log.d(LOG_TAG, "deleteRoomMessagesFiles - messagesListFile failed " + e.getMessage());
             }
         }
 
         File tokenFile = new File(mStoreRoomsTokensFolderFile, roomId);
-        if (tokenFile.exists()) {
+        if (fileExists(tokenFile)) {
             try {
-                tokenFile.delete();
+                deleteFile(tokenFile);
             } catch (Exception e) {
                 Log.d(LOG_TAG, "deleteRoomMessagesFiles - tokenFile failed " + e.getMessage());
             }
         }
+
+        deleteRoomMessagesDeltaFile(roomId);
+        mSavedTimelines.remove(roomId);
+        deleteRoomHistoryCache(roomId);
     }
 
     @Override
     public void deleteRoom(String roomId) {
         Log.d(LOG_TAG, "deleteRoom " + roomId);
 
+        // wait that the room is loaded if another thread is loading it
+        synchronized (getLazyRoomLoadingLock(roomId)) {
+            synchronized (mLazyRoomsLoadingLock) {
+                mLazyRoomIds.remove(roomId);
+                mLoadedTimelinesRoomIds.remove(roomId);
+                mUnloadedTimelinesRoomIds.remove(roomId);
+            }
+        }
+
         super.deleteRoom(roomId);
         deleteRoomMessagesFiles(roomId);
+        removeRoomFromEventIndex(roomId);
         deleteRoomStateFile(roomId);
         deleteRoomSummaryFile(roomId);
         deleteRoomReceiptsFile(roomId);
@@ -874,13 +1934,16 @@ public class MXFileStore extends MXMemoryStore {
     public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
         Log.d(LOG_TAG, "deleteAllRoomMessages " + roomId);
 
+        loadLazyRoom(roomId);
         super.deleteAllRoomMessages(roomId, keepUnsent);
         if (!keepUnsent) {
             deleteRoomMessagesFiles(roomId);
         }
 
         deleteRoomSummaryFile(roomId);
+        removeRoomFromEventIndex(roomId);
 
+        mRoomsToRewriteForMessages.add(roomId);
         mRoomsToCommitForMessages.add(roomId);
         mRoomsToCommitForSummaries.add(roomId);
     }
@@ -942,8 +2005,7 @@ public class MXFileStore extends MXMemoryStore {
         // some updated rooms ?
         if ((mUserIdsToCommit.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
-            final HashSet<String> fUserIds = mUserIdsToCommit;
-            mUserIdsToCommit = new HashSet<>();
+            final Set<String> fUserIds = drainDirtySet(mUserIdsToCommit);
 
             try {
                 final HashSet<User> fUsers;
@@ -952,57 +2014,50 @@ public class MXFileStore extends MXMemoryStore {
                     fUsers = new HashSet<>(mUsers.values());
                 }
 
-                Runnable r = new Runnable() {
+                runInStoreThread(new Runnable() {
                     @Override
                     public void run() {
-                        mFileStoreHandler.post(new Runnable() {
-                            public void run() {
-                                if (!isKilled()) {
-                                    Log.d(LOG_TAG, "saveUsers " + fUserIds.size() + " users (" + fUsers.size() + " known ones)");
-
-                                    long start = System.currentTimeMillis();
-
-                                    // the users are split into groups to save time
-                                    HashMap<Integer, ArrayList<User>> usersGroups = new HashMap<>();
+                        if (!isKilled()) {
+                            Log.d(LOG_TAG, "saveUsers " + fUserIds.size() + " users (" + fUsers.size() + " known ones)");
 
-                                    // finds the group for each updated user
-                                    for (String userId : fUserIds) {
-                                        User user;
+                            long start = System.currentTimeMillis();
 
-                                        synchronized (mUsers) {
-                                            user = mUsers.get(userId);
-                                        }
+                            // the users are split into groups to save time
+                            HashMap<Integer, ArrayList<User>> usersGroups = new HashMap<>();
 
-                                        if (null != user) {
-                                            int hashCode = user.getStorageHashKey();
+                            // finds the group for each updated user
+                            for (String userId : fUserIds) {
+                                User user;
 
-                                            if (!usersGroups.containsKey(hashCode)) {
-                                                usersGroups.put(hashCode, new ArrayList<User>());
-                                            }
-                                        }
-                                    }
+                                synchronized (mUsers) {
+                                    user = mUsers.get(userId);
+                                }
 
-                                    // gather the user to the dedicated group if they need to be updated
-                                    for (User user : fUsers) {
-                                        if (usersGroups.containsKey(user.getStorageHashKey())) {
-                                            usersGroups.get(user.getStorageHashKey()).add(user);
-                                        }
-                                    }
+                                if (null != user) {
+                                    int hashCode = user.getStorageHashKey();
 
-                                    // save the groups
-                                    for (int hashKey : usersGroups.keySet()) {
-                                        writeObject("saveUser " + hashKey, new File(mStoreUserFolderFile, hashKey + ""), usersGroups.get(hashKey));
+                                    if (!usersGroups.containsKey(hashCode)) {
+                                        usersGroups.put(hashCode, new ArrayList<User>());
                                     }
+                                }
+                            }
 
-                                    Log.d(LOG_TAG, "saveUsers done in " + (System.currentTimeMillis() - start) + " ms");
+                            // gather the user to the dedicated group if they need to be updated
+                            for (User user : fUsers) {
+                                if (usersGroups.containsKey(user.getStorageHashKey())) {
+                                    usersGroups.get(user.getStorageHashKey()).add(user);
                                 }
                             }
-                        });
-                    }
-                };
 
-                Thread t = new Thread(r);
-                t.start();
+                            // save the groups
+                            for (int hashKey : usersGroups.keySet()) {
+                                writeObject("saveUser " + hashKey, new File(mStoreUserFolderFile, hashKey + ""), usersGroups.get(hashKey));
+                            }
+
+                            Log.d(LOG_TAG, "saveUsers done in " + (System.currentTimeMillis() - start) + " ms");
+                        }
+                    }
+                });
             } catch (OutOfMemoryError oom) {
                 Log.e(LOG_TAG, "saveUser : cannot clone the users list" + oom.getMessage());
             }
@@ -1013,7 +2068,7 @@ public class MXFileStore extends MXMemoryStore {
      * Load the user information from the filesystem..
      */
     private void loadUsers() {
-        List<String> filenames = listFiles(mStoreUserFolderFile.list());
+        List<String> filenames = listFiles(mStoreUserFolderFile);
         long start = System.currentTimeMillis();
 
         ArrayList<User> users = new ArrayList<>();
@@ -1063,22 +2118,11 @@ public class MXFileStore extends MXMemoryStore {
     /**
      * Computes the saved events map to reduce storage footprint.
      *
-     * @param roomId the room id
+     * @param roomId     the room id
+     * @param eventsList the room timeline events
      * @return the saved eventMap
      */
-    private LinkedHashMap<String, Event> getSavedEventsMap(String roomId) {
-        LinkedHashMap<String, Event> eventsMap;
-
-        synchronized (mRoomEventsLock) {
-            eventsMap = mRoomEvents.get(roomId);
-        }
-
-        List<Event> eventsList;
-
-        synchronized (mRoomEventsLock) {
-            eventsList = new ArrayList<>(eventsMap.values());
-        }
-
+    private LinkedHashMap<String, Event> getSavedEventsMap(String roomId, List<Event> eventsList) {
         int startIndex = 0;
 
         // try to reduce the number of stored messages
@@ -1109,8 +2153,13 @@ public class MXFileStore extends MXMemoryStore {
     }
 
     private void saveRoomMessages(String roomId) {
-        LinkedHashMap<String, Event> eventsHash;
-        synchronized (mRoomEventsLock) {
+        // the saved messages are up to date
+        if (isTimelineUnloaded(roomId)) {
+            return;
+        }
+
+        MXTimelineEventsMap eventsHash;
+        synchronized (getRoomEventsLock(roomId)) {
             eventsHash = mRoomEvents.get(roomId);
         }
 
@@ -1120,16 +2169,44 @@ public class MXFileStore extends MXMemoryStore {
         if ((null != eventsHash) && (null != token)) {
             long t0 = System.currentTimeMillis();
 
-            LinkedHashMap<String, Event> savedEventsMap = getSavedEventsMap(roomId);
+            SavedTimeline savedTimeline = mSavedTimelines.get(roomId);
+
+            // try to only append the new events
+            if (!mRoomsToRewriteForMessages.remove(roomId) && (null != savedTimeline) && appendRoomMessages(roomId, savedTimeline)) {
+                if (!TextUtils.equals(token, savedTimeline.mToken)) {
+                    if (!writeObject("saveRoomsMessage " + roomId, new File(mStoreRoomsTokensFolderFile, roomId), token)) {
+                        return;
+                    }
+                    savedTimeline.mToken = token;
+                }
+
+                Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") : " + savedTimeline.mDeltaEventsCount + " appended messages in " + (System.currentTimeMillis() - t0) + " ms");
+                return;
+            }
+
+            List<Event> eventsList;
+            String lastEventKey;
+
+            synchronized (getRoomEventsLock(roomId)) {
+                eventsList = new ArrayList<>(eventsHash.values());
+                lastEventKey = eventsHash.getLatestKey();
+            }
+
+            LinkedHashMap<String, Event> savedEventsMap = getSavedEventsMap(roomId, eventsList);
 
             if (!writeObject("saveRoomsMessage " + roomId, new File(mGzStoreRoomsMessagesFolderFile, roomId), savedEventsMap)) {
                 return;
             }
 
+            // the appended events are now in the messages file
+            deleteRoomMessagesDeltaFile(roomId);
+
             if (!writeObject("saveRoomsMessage " + roomId, new File(mStoreRoomsTokensFolderFile, roomId), token)) {
                 return;
             }
 
+            mSavedTimelines.put(roomId, new SavedTimeline(eventsList.size(), lastEventKey, 0, token));
+
             Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") : " + savedEventsMap.size() + " messages saved in " + (System.currentTimeMillis() - t0) + " ms");
         } else {
             deleteRoomMessagesFiles(roomId);
@@ -1143,30 +2220,22 @@ public class MXFileStore extends MXMemoryStore {
         // some updated rooms ?
         if ((mRoomsToCommitForMessages.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
-            final HashSet<String> fRoomsToCommitForMessages = mRoomsToCommitForMessages;
-            mRoomsToCommitForMessages = new HashSet<>();
+            final Set<String> fRoomsToCommitForMessages = drainDirtySet(mRoomsToCommitForMessages);
 
-            Runnable r = new Runnable() {
+            runInStoreThread(new Runnable() {
                 @Override
                 public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
-
-                                for (String roomId : fRoomsToCommitForMessages) {
-                                    saveRoomMessages(roomId);
-                                }
+                    if (!isKilled()) {
+                        long start = System.currentTimeMillis();
 
-                                Log.d(LOG_TAG, "saveRoomsMessages : " + fRoomsToCommitForMessages.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
-                            }
+                        for (String roomId : fRoomsToCommitForMessages) {
+                            saveRoomMessages(roomId);
                         }
-                    });
-                }
-            };
 
-            Thread t = new Thread(r);
-            t.start();
+                        Log.d(LOG_TAG, "saveRoomsMessages : " + fRoomsToCommitForMessages.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
+                    }
+                }
+            });
         }
     }
 
@@ -1183,7 +2252,7 @@ public class MXFileStore extends MXMemoryStore {
 
         File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
 
-        if (messagesListFile.exists()) {
+        if (fileExists(messagesListFile)) {
             Object eventsAsVoid = readObject("events " + roomId, messagesListFile);
 
             if (null != eventsAsVoid) {
@@ -1218,19 +2287,45 @@ public class MXFileStore extends MXMemoryStore {
             }
         }
 
+        // append the events saved since the last messages file update
+        int deltaEventsCount = 0;
+
+        if (null != events) {
+            List<Event> deltaEvents = loadRoomMessagesDelta(roomId);
+
+            if (null == deltaEvents) {
+                return false;
+            }
+
+            for (Event event : deltaEvents) {
+                if (!events.containsKey(event.eventId)) {
+                    events.put(event.eventId, event);
+                    deltaEventsCount++;
+                }
+            }
+        }
+
         // succeeds to extract the message list
         if (null != events) {
-            // create the room object
-            Room room = new Room();
-            room.init(this, roomId, null);
-            // do not wait that the live state update
-            room.setReadyState(true);
-            storeRoom(room);
+            // the room exists when its timeline is reloaded
+            if (null == mRooms.get(roomId)) {
+                // create the room object
+                Room room = new Room();
+                room.init(this, roomId, null);
+                // do not wait that the live state update
+                room.setReadyState(true);
+                storeRoom(room);
+            }
 
-            mRoomEvents.put(roomId, events);
+            MXTimelineEventsMap roomEvents = createRoomEventsMap();
+            roomEvents.putAll(events);
+            mSavedTimelines.put(roomId, new SavedTimeline(roomEvents.size(), roomEvents.getLatestKey(), deltaEventsCount, null));
+            mRoomEvents.put(roomId, roomEvents);
         }
 
         if (shouldSave) {
+            // the saved events have been updated
+            mRoomsToRewriteForMessages.add(roomId);
             saveRoomMessages(roomId);
         }
 
@@ -1286,7 +2381,7 @@ public class MXFileStore extends MXMemoryStore {
         } else {
             try {
                 File messagesListFile = new File(mStoreRoomsTokensFolderFile, roomId);
-                messagesListFile.delete();
+                deleteFile(messagesListFile);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "loadRoomToken failed with error " + e.getMessage());
             }
@@ -1301,47 +2396,380 @@ public class MXFileStore extends MXMemoryStore {
      * @return true if the operation succeeds.
      */
     private boolean loadRoomsMessages() {
-        boolean succeed = true;
+        boolean succeed;
 
         try {
             // extract the messages list
-            List<String> filenames = listFiles(mGzStoreRoomsMessagesFolderFile.list());
+            succeed = loadRoomsData("loadRoomMessages", listFiles(mGzStoreRoomsMessagesFolderFile), new IRoomDataLoader() {
+                @Override
+                public boolean load(String roomId) {
+                    return loadRoomMessages(roomId);
+                }
+            });
 
-            long start = System.currentTimeMillis();
+            // extract the tokens list
+            if (succeed) {
+                succeed = loadRoomsData("loadRoomToken", listFiles(mStoreRoomsTokensFolderFile), new IRoomDataLoader() {
+                    @Override
+                    public boolean load(String roomId) {
+                        return loadRoomToken(roomId);
+                    }
+                });
+            }
+        } catch (Exception e) {
+            succeed = false;
+            Log.e(LOG_TAG, "loadRoomToken failed : " + e.getMessage());
+        }
 
-            for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomMessages(filename);
+        return succeed;
+    }
+
+    //================================================================================
+    // Room messages delta management
+    //================================================================================
+
+    /**
+     * Describes the saved timeline of a room.
+     * The events are saved in the messages file and the following ones are appended to the delta file.
+     */
+    private static class SavedTimeline {
+        // the number of saved events in the timeline
+        int mEventsCount;
+
+        // the key of the latest saved event
+        String mLastEventKey;
+
+        // the number of events in the delta file
+        int mDeltaEventsCount;
+
+        // the saved token
+        String mToken;
+
+        /**
+         * Constructor
+         *
+         * @param eventsCount      the number of saved events
+         * @param lastEventKey     the key of the latest saved event, null if there is none
+         * @param deltaEventsCount the number of events in the delta file
+         * @param token            the saved token
+         */
+        SavedTimeline(int eventsCount, String lastEventKey, int deltaEventsCount, String token) {
+            mEventsCount = eventsCount;
+            mLastEventKey = lastEventKey;
+            mDeltaEventsCount = deltaEventsCount;
+            mToken = token;
+        }
+    }
+
+    /**
+     * Append the new events of a room timeline to its delta file.
+     * Only the events added after the latest saved one are read, the timeline is not copied.
+     * It fails if the saved events have been updated or if the delta file is too large.
+     *
+     * @param roomId        the room id
+     * @param savedTimeline the saved timeline description
+     * @return true if the new events are saved.
+     */
+    private boolean appendRoomMessages(String roomId, SavedTimeline savedTimeline) {
+        // the journal items cannot be appended
+        if (null != mJournal) {
+            return false;
+        }
+
+        List<Event> newEvents;
+        int eventsCount;
+        String lastEventKey;
+
+        synchronized (getRoomEventsLock(roomId)) {
+            MXTimelineEventsMap events = mRoomEvents.get(roomId);
+
+            if (null == events) {
+                return false;
+            }
+
+            newEvents = events.getEventsAddedAfter(savedTimeline.mLastEventKey);
+            eventsCount = events.size();
+            lastEventKey = events.getLatestKey();
+        }
+
+        // check that the saved events have not been updated (removed, inserted before the latest saved one)
+        if ((null == newEvents) || (eventsCount != (savedTimeline.mEventsCount + newEvents.size()))) {
+            return false;
+        }
+
+        if (newEvents.isEmpty()) {
+            return true;
+        }
+
+        // rewrite the messages file to trim the oldest events
+        if ((savedTimeline.mDeltaEventsCount + newEvents.size()) > MAX_STORED_MESSAGES_COUNT) {
+            return false;
+        }
+
+        // the pending events are updated until they are sent
+        for (Event event : newEvents) {
+            if (!event.isSent()) {
+                return false;
+            }
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            mSerializer.write(bytes, newEvents);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(mStoreRoomsMessagesDeltaFolderFile, roomId), true)));
+
+            try {
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (OutOfMemoryError oom) {
+            dispatchOOM(oom);
+            return false;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## appendRoomMessages() : " + roomId + " failed " + e.getMessage());
+            return false;
+        }
+
+        savedTimeline.mEventsCount = eventsCount;
+        savedTimeline.mLastEventKey = lastEventKey;
+        savedTimeline.mDeltaEventsCount += newEvents.size();
+
+        return true;
+    }
+
+    /**
+     * Load the events appended to the delta file of a room.
+     * A truncated trailing record (e.g. the application was killed while appending it) is removed from the file,
+     * else the next records would be appended after it and could not be read.
+     *
+     * @param roomId the room id
+     * @return the appended events, null if the file cannot be read
+     */
+    private List<Event> loadRoomMessagesDelta(String roomId) {
+        List<Event> events = new ArrayList<>();
+        File deltaFile = new File(mStoreRoomsMessagesDeltaFolderFile, roomId);
+
+        if ((null != mJournal) || !deltaFile.exists()) {
+            return events;
+        }
+
+        long fileLength = deltaFile.length();
+        long validLength = 0;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deltaFile)));
+
+            try {
+                while ((fileLength - validLength) >= 4) {
+                    int length = in.readInt();
+
+                    if ((length < 0) || (length > (fileLength - validLength - 4))) {
+                        break;
+                    }
+
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+
+                    events.addAll((List<Event>) readObject("loadRoomMessagesDelta " + roomId, new BufferedInputStream(new ByteArrayInputStream(data))));
+                    validLength += 4 + length;
                 }
+            } finally {
+                in.close();
             }
+        } catch (OutOfMemoryError oom) {
+            dispatchOOM(oom);
+            return null;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## loadRoomMessagesDelta() : " + roomId + " failed " + e.getMessage());
+            return null;
+        }
 
-            if (succeed) {
-                long delta = (System.currentTimeMillis() - start);
-                Log.d(LOG_TAG, "loadRoomMessages : " + filenames.size() + " rooms in " + delta + " ms");
-                mStoreStats.put("loadRoomMessages", delta);
+        if (validLength < fileLength) {
+            Log.e(LOG_TAG, "## loadRoomMessagesDelta() : " + roomId + " remove a truncated record of " + (fileLength - validLength) + " bytes");
+            truncateRoomMessagesDeltaFile(roomId, deltaFile, validLength);
+        }
+
+        return events;
+    }
+
+    /**
+     * Remove the truncated trailing record of a delta file.
+     * If the file cannot be truncated, the room messages are fully rewritten at the next commit.
+     *
+     * @param roomId      the room id
+     * @param deltaFile   the delta file
+     * @param validLength the length of the readable records
+     */
+    private void truncateRoomMessagesDeltaFile(String roomId, File deltaFile, long validLength) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(deltaFile, "rw");
+
+            try {
+                file.setLength(validLength);
+                file.getFD().sync();
+            } finally {
+                file.close();
             }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## truncateRoomMessagesDeltaFile() : " + roomId + " failed " + e.getMessage());
 
-            // extract the tokens list
-            filenames = listFiles(mStoreRoomsTokensFolderFile.list());
+            // the rewrite deletes the delta file
+            mRoomsToRewriteForMessages.add(roomId);
+            mRoomsToCommitForMessages.add(roomId);
+        }
+    }
 
-            start = System.currentTimeMillis();
+    /**
+     * Delete the messages delta file of a room.
+     *
+     * @param roomId the room id
+     */
+    private void deleteRoomMessagesDeltaFile(String roomId) {
+        File deltaFile = new File(mStoreRoomsMessagesDeltaFolderFile, roomId);
 
-            for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomToken(filename);
+        if (deltaFile.exists()) {
+            try {
+                deltaFile.delete();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "deleteRoomMessagesDeltaFile failed " + e.getMessage());
+            }
+        }
+    }
+
+    //================================================================================
+    // Rooms history cache
+    //================================================================================
+
+    /**
+     * Set the max size of the rooms history cache.
+     * The back paginated events are saved in this cache to be retrieved without network.
+     *
+     * @param maxSize the max size in bytes, 0 to disable the cache
+     */
+    public void setHistoryCacheSize(long maxSize) {
+        mHistoryCacheSize = Math.max(0, maxSize);
+
+        if (null != mHistoryCache) {
+            mHistoryCache.setMaxSize(mHistoryCacheSize);
+        }
+    }
+
+    /**
+     * Save a back paginated chunk in the history cache.
+     *
+     * @param roomId         the room id
+     * @param eventsResponse the back paginated chunk
+     */
+    private void saveRoomHistoryChunk(final String roomId, TokensChunkResponse<Event> eventsResponse) {
+        if ((null == mHistoryCache) || (null == mFileStoreHandler) || (null == eventsResponse.start) || (null == eventsResponse.chunk)) {
+            return;
+        }
+
+        final MXFileStoreHistoryCache historyCache = mHistoryCache;
+        final TokensChunkResponse<Event> chunk = new TokensChunkResponse<>();
+        chunk.start = eventsResponse.start;
+        chunk.end = eventsResponse.end;
+        chunk.chunk = new ArrayList<>(eventsResponse.chunk);
+
+        mFileStoreHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isKilled()) {
+                    historyCache.put(roomId, chunk);
                 }
             }
+        });
+    }
 
-            if (succeed) {
-                Log.d(LOG_TAG, "loadRoomToken : " + filenames.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
+    /**
+     * Delete the history cache of a room.
+     *
+     * @param roomId the room id
+     */
+    private void deleteRoomHistoryCache(final String roomId) {
+        if ((null == mHistoryCache) || (null == mFileStoreHandler)) {
+            return;
+        }
+
+        final MXFileStoreHistoryCache historyCache = mHistoryCache;
+
+        mFileStoreHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                historyCache.deleteRoom(roomId);
             }
+        });
+    }
 
-        } catch (Exception e) {
-            succeed = false;
-            Log.e(LOG_TAG, "loadRoomToken failed : " + e.getMessage());
+    //================================================================================
+    // Events index
+    //================================================================================
+
+    /**
+     * Add an event to the events to index on the next commit.
+     * The unsent events are not indexed.
+     *
+     * @param event the event
+     */
+    private void addEventToIndex(Event event) {
+        if ((null != event) && (null != event.eventId) && (null != event.roomId) && event.isSent()) {
+            mEventsToIndex.put(event.eventId, event);
         }
+    }
 
-        return succeed;
+    /**
+     * Index the pending events.
+     * It must be called in the store thread.
+     */
+    private void saveEventsIndex() {
+        if ((null == mEventIndex) || mEventsToIndex.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int count = 0;
+
+        for (String eventId : new ArrayList<>(mEventsToIndex.keySet())) {
+            Event event = mEventsToIndex.remove(eventId);
+
+            if ((null != event) && mEventIndex.put(event)) {
+                count++;
+            }
+        }
+
+        Log.d(LOG_TAG, "saveEventsIndex : " + count + " events indexed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Remove the events of a room from the events index.
+     * The index is updated in the store thread.
+     *
+     * @param roomId the room id
+     */
+    private void removeRoomFromEventIndex(final String roomId) {
+        Iterator<Event> it = mEventsToIndex.values().iterator();
+
+        while (it.hasNext()) {
+            if (TextUtils.equals(it.next().roomId, roomId)) {
+                it.remove();
+            }
+        }
+
+        if ((null == mEventIndex) || (null == mFileStoreHandler)) {
+            return;
+        }
+
+        final MXFileStoreEventIndex eventIndex = mEventIndex;
+
+        mFileStoreHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                eventIndex.removeRoom(roomId);
+            }
+        });
     }
 
     //================================================================================
@@ -1524,9 +2952,9 @@ public class MXFileStore extends MXMemoryStore {
         // states list
         File statesFile = new File(mGzStoreRoomsStateFolderFile, roomId);
 
-        if (statesFile.exists()) {
+        if (fileExists(statesFile)) {
             try {
-                statesFile.delete();
+                deleteFile(statesFile);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "deleteRoomStateFile failed with error " + e.getMessage());
             }
@@ -1534,9 +2962,9 @@ public class MXFileStore extends MXMemoryStore {
 
         File statesEventsFile = new File(mGzStoreRoomsStateEventsFolderFile, roomId);
 
-        if (statesEventsFile.exists()) {
+        if (fileExists(statesEventsFile)) {
             try {
-                statesEventsFile.delete();
+                deleteFile(statesEventsFile);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "deleteRoomStateFile failed with error " + e.getMessage());
             }
@@ -1572,30 +3000,22 @@ public class MXFileStore extends MXMemoryStore {
     private void saveRoomStates() {
         if ((mRoomsToCommitForStates.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
-            final HashSet<String> fRoomsToCommitForStates = mRoomsToCommitForStates;
-            mRoomsToCommitForStates = new HashSet<>();
-
-            Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
+            final Set<String> fRoomsToCommitForStates = drainDirtySet(mRoomsToCommitForStates);
 
-                                for (String roomId : fRoomsToCommitForStates) {
-                                    saveRoomState(roomId);
-                                }
+            runInStoreThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isKilled()) {
+                        long start = System.currentTimeMillis();
 
-                                Log.d(LOG_TAG, "saveRoomsState : " + fRoomsToCommitForStates.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
-                            }
+                        for (String roomId : fRoomsToCommitForStates) {
+                            saveRoomState(roomId);
                         }
-                    });
-                }
-            };
 
-            Thread t = new Thread(r);
-            t.start();
+                        Log.d(LOG_TAG, "saveRoomsState : " + fRoomsToCommitForStates.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
+                    }
+                }
+            });
         }
     }
 
@@ -1619,7 +3039,7 @@ public class MXFileStore extends MXMemoryStore {
                 File roomStateFile = new File(mGzStoreRoomsStateFolderFile, roomId);
 
                 // new format
-                if (roomStateFile.exists()) {
+                if (fileExists(roomStateFile)) {
                     Object roomStateAsObject = readObject("loadRoomState " + roomId, roomStateFile);
 
                     if (null == roomStateAsObject) {
@@ -1641,7 +3061,7 @@ public class MXFileStore extends MXMemoryStore {
         } else {
             try {
                 File messagesListFile = new File(mGzStoreRoomsStateFolderFile, roomId);
-                messagesListFile.delete();
+                deleteFile(messagesListFile);
 
             } catch (Exception e) {
                 Log.e(LOG_TAG, "loadRoomState failed to delete a file : " + e.getMessage());
@@ -1657,23 +3077,15 @@ public class MXFileStore extends MXMemoryStore {
      * @return true if the operation succeeds.
      */
     private boolean loadRoomsState() {
-        boolean succeed = true;
+        boolean succeed;
 
         try {
-            long start = System.currentTimeMillis();
-
-            List<String> filenames = listFiles(mGzStoreRoomsStateFolderFile.list());
-
-            for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomState(filename);
+            succeed = loadRoomsData("loadRoomsState", listFiles(mGzStoreRoomsStateFolderFile), new IRoomDataLoader() {
+                @Override
+                public boolean load(String roomId) {
+                    return loadRoomState(roomId);
                 }
-            }
-
-            long delta = (System.currentTimeMillis() - start);
-            Log.d(LOG_TAG, "loadRoomsState " + filenames.size() + " rooms in " + delta + " ms");
-            mStoreStats.put("loadRoomsState", delta);
-
+            });
         } catch (Exception e) {
             succeed = false;
             Log.e(LOG_TAG, "loadRoomsState failed : " + e.getMessage());
@@ -1695,9 +3107,9 @@ public class MXFileStore extends MXMemoryStore {
         File file = new File(mStoreRoomsAccountDataFolderFile, roomId);
 
         // remove the files
-        if (file.exists()) {
+        if (fileExists(file)) {
             try {
-                file.delete();
+                deleteFile(file);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "deleteRoomAccountDataFile failed : " + e.getMessage());
             }
@@ -1710,36 +3122,28 @@ public class MXFileStore extends MXMemoryStore {
     private void saveRoomsAccountData() {
         if ((mRoomsToCommitForAccountData.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
-            final HashSet<String> fRoomsToCommitForAccountData = mRoomsToCommitForAccountData;
-            mRoomsToCommitForAccountData = new HashSet<>();
+            final Set<String> fRoomsToCommitForAccountData = drainDirtySet(mRoomsToCommitForAccountData);
 
-            Runnable r = new Runnable() {
+            runInStoreThread(new Runnable() {
                 @Override
                 public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
-
-                                for (String roomId : fRoomsToCommitForAccountData) {
-                                    RoomAccountData accountData = mRoomAccountData.get(roomId);
+                    if (!isKilled()) {
+                        long start = System.currentTimeMillis();
 
-                                    if (null != accountData) {
-                                        writeObject("saveRoomsAccountData " + roomId, new File(mStoreRoomsAccountDataFolderFile, roomId), accountData);
-                                    } else {
-                                        deleteRoomAccountDataFile(roomId);
-                                    }
-                                }
+                        for (String roomId : fRoomsToCommitForAccountData) {
+                            RoomAccountData accountData = mRoomAccountData.get(roomId);
 
-                                Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForAccountData.size() + " account data in " + (System.currentTimeMillis() - start) + " ms");
+                            if (null != accountData) {
+                                writeObject("saveRoomsAccountData " + roomId, new File(mStoreRoomsAccountDataFolderFile, roomId), accountData);
+                            } else {
+                                deleteRoomAccountDataFile(roomId);
                             }
                         }
-                    });
-                }
-            };
 
-            Thread t = new Thread(r);
-            t.start();
+                        Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForAccountData.size() + " account data in " + (System.currentTimeMillis() - start) + " ms");
+                    }
+                }
+            });
         }
     }
 
@@ -1755,7 +3159,7 @@ public class MXFileStore extends MXMemoryStore {
         try {
             File accountDataFile = new File(mStoreRoomsAccountDataFolderFile, roomId);
 
-            if (accountDataFile.exists()) {
+            if (fileExists(accountDataFile)) {
                 Object accountAsVoid = readObject("loadRoomAccountData " + roomId, accountDataFile);
 
                 if (null == accountAsVoid) {
@@ -1788,21 +3192,15 @@ public class MXFileStore extends MXMemoryStore {
      * @return true if the operation succeeds.
      */
     private boolean loadRoomsAccountData() {
-        boolean succeed = true;
+        boolean succeed;
 
         try {
-            // extract the messages list
-            List<String> filenames = listFiles(mStoreRoomsAccountDataFolderFile.list());
-
-            long start = System.currentTimeMillis();
-
-            for (String filename : filenames) {
-                succeed &= loadRoomAccountData(filename);
-            }
-
-            if (succeed) {
-                Log.d(LOG_TAG, "loadRoomsAccountData : " + filenames.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
-            }
+            succeed = loadRoomsData("loadRoomsAccountData", listFiles(mStoreRoomsAccountDataFolderFile), new IRoomDataLoader() {
+                @Override
+                public boolean load(String roomId) {
+                    return loadRoomAccountData(roomId);
+                }
+            });
         } catch (Exception e) {
             succeed = false;
             Log.e(LOG_TAG, "loadRoomsAccountData failed : " + e.getMessage());
@@ -1839,9 +3237,9 @@ public class MXFileStore extends MXMemoryStore {
         File statesFile = new File(mStoreRoomsSummaryFolderFile, roomId);
 
         // remove the files
-        if (statesFile.exists()) {
+        if (fileExists(statesFile)) {
             try {
-                statesFile.delete();
+                deleteFile(statesFile);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "deleteRoomSummaryFile failed : " + e.getMessage());
             }
@@ -1854,44 +3252,36 @@ public class MXFileStore extends MXMemoryStore {
     private void saveSummaries() {
         if ((mRoomsToCommitForSummaries.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
-            final HashSet<String> fRoomsToCommitForSummaries = mRoomsToCommitForSummaries;
-            mRoomsToCommitForSummaries = new HashSet<>();
+            final Set<String> fRoomsToCommitForSummaries = drainDirtySet(mRoomsToCommitForSummaries);
 
-            Runnable r = new Runnable() {
+            runInStoreThread(new Runnable() {
                 @Override
                 public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!isKilled()) {
-                                long start = System.currentTimeMillis();
+                    if (!isKilled()) {
+                        long start = System.currentTimeMillis();
 
-                                for (String roomId : fRoomsToCommitForSummaries) {
-                                    try {
-                                        File roomSummaryFile = new File(mStoreRoomsSummaryFolderFile, roomId);
-                                        RoomSummary roomSummary = mRoomSummaries.get(roomId);
+                        for (String roomId : fRoomsToCommitForSummaries) {
+                            try {
+                                File roomSummaryFile = new File(mStoreRoomsSummaryFolderFile, roomId);
+                                RoomSummary roomSummary = mRoomSummaries.get(roomId);
 
-                                        if (null != roomSummary) {
-                                            writeObject("saveSummaries " + roomId, roomSummaryFile, roomSummary);
-                                        } else {
-                                            deleteRoomSummaryFile(roomId);
-                                        }
-                                    } catch (OutOfMemoryError oom) {
-                                        dispatchOOM(oom);
-                                    } catch (Exception e) {
-                                        Log.e(LOG_TAG, "saveSummaries failed : " + e.getMessage());
-                                        // Toast.makeText(mContext, "saveSummaries failed " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
-                                    }
+                                if (null != roomSummary) {
+                                    writeObject("saveSummaries " + roomId, roomSummaryFile, roomSummary);
+                                } else {
+                                    deleteRoomSummaryFile(roomId);
                                 }
-
-                                Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForSummaries.size() + " summaries in " + (System.currentTimeMillis() - start) + " ms");
+                            } catch (OutOfMemoryError oom) {
+                                dispatchOOM(oom);
+                            } catch (Exception e) {
+                                Log.e(LOG_TAG, "saveSummaries failed : " + e.getMessage());
+                                // Toast.makeText(mContext, "saveSummaries failed " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
                             }
                         }
-                    });
-                }
-            };
 
-            Thread t = new Thread(r);
-            t.start();
+                        Log.d(LOG_TAG, "saveSummaries : " + fRoomsToCommitForSummaries.size() + " summaries in " + (System.currentTimeMillis() - start) + " ms");
+                    }
+                }
+            });
         }
     }
 
@@ -1926,12 +3316,15 @@ public class MXFileStore extends MXMemoryStore {
         if (null != summary) {
             //summary.getLatestReceivedEvent().finalizeDeserialization();
 
-            Room room = getRoom(summary.getRoomId());
+            // do not trigger the room lazy loading
+            Room room = mRooms.get(summary.getRoomId());
 
-            // the room state is not saved in the summary.
-            // it is restored from the room
-            if (null != room) {
+            // the summaries saved by the previous versions
+            // are completed with the room state
+            if ((null != room) && summary.isRoomStateDataMissing()) {
                 summary.setLatestRoomState(room.getState());
+                // save it with the compact form
+                mRoomsToCommitForSummaries.add(roomId);
             }
 
             mRoomSummaries.put(roomId, summary);
@@ -1946,20 +3339,15 @@ public class MXFileStore extends MXMemoryStore {
      * @return true if the operation succeeds.
      */
     private boolean loadSummaries() {
-        boolean succeed = true;
-        try {
-            // extract the room states
-            List<String> filenames = listFiles(mStoreRoomsSummaryFolderFile.list());
-
-            long start = System.currentTimeMillis();
-
-            for (String filename : filenames) {
-                succeed &= loadSummary(filename);
-            }
+        boolean succeed;
 
-            long delta = (System.currentTimeMillis() - start);
-            Log.d(LOG_TAG, "loadSummaries " + filenames.size() + " rooms in " + delta + " ms");
-            mStoreStats.put("loadSummaries", delta);
+        try {
+            succeed = loadRoomsData("loadSummaries", listFiles(mStoreRoomsSummaryFolderFile), new IRoomDataLoader() {
+                @Override
+                public boolean load(String roomId) {
+                    return loadSummary(roomId);
+                }
+            });
         } catch (Exception e) {
             succeed = false;
             Log.e(LOG_TAG, "loadSummaries failed : " + e.getMessage());
@@ -2008,38 +3396,54 @@ public class MXFileStore extends MXMemoryStore {
         Log.d(LOG_TAG, "loadMetaData : " + (System.currentTimeMillis() - start) + " ms");
     }
 
+    /**
+     * Provides a copy of the metadata to save.
+     *
+     * @return the metadata copy, null if the metadata has not been updated since the last save
+     */
+    private MXFileStoreMetaData getMetaDataToSave() {
+        synchronized (mCommitLock) {
+            if (mMetaDataHasChanged && (null != mMetadata)) {
+                mMetaDataHasChanged = false;
+                return mMetadata.deepCopy();
+            }
+        }
+
+        return null;
+    }
+
     /**
      * flush the metadata info from the file system.
      */
     private void saveMetaData() {
-        if ((mMetaDataHasChanged) && (null != mFileStoreHandler) && (null != mMetadata)) {
-            mMetaDataHasChanged = false;
-
-            final MXFileStoreMetaData fMetadata = mMetadata.deepCopy();
+        if (null != mFileStoreHandler) {
+            saveMetaData(getMetaDataToSave());
+        }
+    }
 
-            Runnable r = new Runnable() {
+    /**
+     * flush a metadata copy to the file system.
+     *
+     * @param metadata the metadata copy to save
+     */
+    private void saveMetaData(final MXFileStoreMetaData metadata) {
+        if ((null != metadata) && (null != mFileStoreHandler)) {
+            runInStoreThread(new Runnable() {
                 @Override
                 public void run() {
-                    mFileStoreHandler.post(new Runnable() {
-                        public void run() {
-                            if (!mIsKilled) {
-                                // save the metadata only when there is a current valid stream token
-                                // avoid saving the metadata if the store has been cleared
-                                if (null != mMetadata.mEventStreamToken) {
-                                    long start = System.currentTimeMillis();
-                                    writeObject("saveMetaData", new File(mStoreFolderFile, MXFILE_STORE_METADATA_FILE_NAME), fMetadata);
-                                    Log.d(LOG_TAG, "saveMetaData : " + (System.currentTimeMillis() - start) + " ms");
-                                } else {
-                                    Log.e(LOG_TAG, "## saveMetaData() : cancelled because mEventStreamToken is null");
-                                }
-                            }
+                    if (!mIsKilled) {
+                        // save the metadata only when there is a current valid stream token
+                        // avoid saving the metadata if the store has been cleared
+                        if ((null != metadata.mEventStreamToken) && (null != mMetadata) && (null != mMetadata.mEventStreamToken)) {
+                            long start = System.currentTimeMillis();
+                            writeObject("saveMetaData", new File(mStoreFolderFile, MXFILE_STORE_METADATA_FILE_NAME), metadata);
+                            Log.d(LOG_TAG, "saveMetaData : " + (System.currentTimeMillis() - start) + " ms");
+                        } else {
+                            Log.e(LOG_TAG, "## saveMetaData() : cancelled because mEventStreamToken is null");
                         }
-                    });
+                    }
                 }
-            };
-
-            Thread t = new Thread(r);
-            t.start();
+            });
         }
     }
 
@@ -2072,6 +3476,7 @@ public class MXFileStore extends MXMemoryStore {
      */
     @Override
     public boolean storeReceipt(ReceiptData receipt, String roomId) {
+        loadLazyRoom(roomId);
         boolean res = super.storeReceipt(receipt, roomId);
 
         if (res) {
@@ -2092,7 +3497,7 @@ public class MXFileStore extends MXMemoryStore {
         Map<String, ReceiptData> receiptsMap = null;
         File file = new File(mStoreRoomsMessagesReceiptsFolderFile, roomId);
 
-        if (file.exists()) {
+        if (fileExists(file)) {
             Object receiptsAsVoid = readObject("loadReceipts " + roomId, file);
 
             if (null != receiptsAsVoid) {
@@ -2206,37 +3611,24 @@ public class MXFileStore extends MXMemoryStore {
             return;
         }
 
-        Runnable r = new Runnable() {
+        runInStoreThread(new Runnable() {
             @Override
             public void run() {
-                mFileStoreHandler.post(new Runnable() {
-                    public void run() {
-                        if (!mIsKilled) {
-                            long start = System.currentTimeMillis();
-                            writeObject("saveReceipts " + roomId, new File(mStoreRoomsMessagesReceiptsFolderFile, roomId), receipts);
-                            Log.d(LOG_TAG, "saveReceipts : roomId " + roomId + " eventId : " + (System.currentTimeMillis() - start) + " ms");
-                        }
-                    }
-                });
+                if (!mIsKilled) {
+                    long start = System.currentTimeMillis();
+                    writeObject("saveReceipts " + roomId, new File(mStoreRoomsMessagesReceiptsFolderFile, roomId), receipts);
+                    Log.d(LOG_TAG, "saveReceipts : roomId " + roomId + " eventId : " + (System.currentTimeMillis() - start) + " ms");
+                }
             }
-        };
-
-        Thread t = new Thread(r);
-        t.start();
+        });
     }
 
     /**
      * Save the events receipts.
      */
     private void saveReceipts() {
-        synchronized (this) {
-            HashSet<String> roomsToCommit = mRoomsToCommitForReceipts;
-
-            for (String roomId : roomsToCommit) {
-                saveReceipts(roomId);
-            }
-
-            mRoomsToCommitForReceipts.clear();
+        for (String roomId : drainDirtySet(mRoomsToCommitForReceipts)) {
+            saveReceipts(roomId);
         }
     }
 
@@ -2249,9 +3641,9 @@ public class MXFileStore extends MXMemoryStore {
         File receiptsFile = new File(mStoreRoomsMessagesReceiptsFolderFile, roomId);
 
         // remove the files
-        if (receiptsFile.exists()) {
+        if (fileExists(receiptsFile)) {
             try {
-                receiptsFile.delete();
+                deleteFile(receiptsFile);
             } catch (Exception e) {
                 Log.d(LOG_TAG, "deleteReceiptsFile - failed " + e.getMessage());
             }
@@ -2271,6 +3663,10 @@ public class MXFileStore extends MXMemoryStore {
      * @return true if the operation succeeds
      */
     private boolean writeObject(String description, File file, Object object) {
+        if (isJournalFile(file)) {
+            return writeJournalObject(description, file, object);
+        }
+
         String parent = file.getParent();
         String name = file.getName();
 
@@ -2286,12 +3682,13 @@ public class MXFileStore extends MXMemoryStore {
 
         boolean succeed = false;
         try {
-            FileOutputStream fos = new FileOutputStream(file);
-            GZIPOutputStream gz = new GZIPOutputStream(fos);
-            ObjectOutputStream out = new ObjectOutputStream(gz);
+            BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file));
 
-            out.writeObject(object);
-            out.close();
+            try {
+                mSerializer.write(out, object);
+            } finally {
+                out.close();
+            }
 
             succeed = true;
         } catch (OutOfMemoryError oom) {
@@ -2317,6 +3714,10 @@ public class MXFileStore extends MXMemoryStore {
      * @return the read object if it can be retrieved
      */
     private Object readObject(String description, File file) {
+        if (isJournalFile(file)) {
+            return readJournalObject(description, file);
+        }
+
         String parent = file.getParent();
         String name = file.getName();
 
@@ -2329,11 +3730,7 @@ public class MXFileStore extends MXMemoryStore {
 
         Object object = null;
         try {
-            FileInputStream fis = new FileInputStream(file);
-            GZIPInputStream gz = new GZIPInputStream(fis);
-            ObjectInputStream ois = new ObjectInputStream(gz);
-            object = ois.readObject();
-            ois.close();
+            object = readObject(description, new BufferedInputStream(new FileInputStream(file)));
         } catch (OutOfMemoryError oom) {
             dispatchOOM(oom);
         } catch (Exception e) {
@@ -2342,6 +3739,177 @@ public class MXFileStore extends MXMemoryStore {
         return object;
     }
 
+    /**
+     * Read an object from a stream.
+     * The stream format is detected from its first bytes.
+     *
+     * @param description the operation description
+     * @param in          the input stream, it is closed by this method
+     * @return the read object, null if the format is unknown
+     * @throws Exception if the read fails
+     */
+    private Object readObject(String description, BufferedInputStream in) throws Exception {
+        Object object = null;
+
+        try {
+            // detect the file format
+            byte[] header = new byte[MXFILE_HEADER_LENGTH];
+            in.mark(MXFILE_HEADER_LENGTH);
+            int headerLength = in.read(header);
+            in.reset();
+
+            IMXFileStoreSerializer serializer = getReadSerializer((headerLength > 0) ? Arrays.copyOf(header, headerLength) : new byte[0]);
+
+            if (null != serializer) {
+                object = serializer.read(in);
+            } else {
+                Log.e(LOG_TAG, "## readObject()  " + description + " : unknown file format");
+            }
+        } finally {
+            in.close();
+        }
+
+        return object;
+    }
+
+    //================================================================================
+    // journal methods
+    //================================================================================
+
+    /**
+     * Tells if a file is saved in the journal.
+     * The metadata file is always saved as a dedicated file.
+     *
+     * @param file the file
+     * @return true if the file is managed by the journal
+     */
+    private boolean isJournalFile(File file) {
+        return (null != mJournal) && !mStoreFolderFile.equals(file.getParentFile());
+    }
+
+    /**
+     * Save an object in the journal.
+     *
+     * @param description the operation description
+     * @param file        the file
+     * @param object      the object to save
+     * @return true if the operation succeeds
+     */
+    private boolean writeJournalObject(String description, File file, Object object) {
+        boolean succeed = false;
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mSerializer.write(out, object);
+            succeed = mJournal.put(file.getParentFile().getName(), file.getName(), out.toByteArray());
+        } catch (OutOfMemoryError oom) {
+            dispatchOOM(oom);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## writeJournalObject()  " + description + " : failed " + e.getMessage());
+        }
+
+        if (succeed && mJournal.needsCompaction() && !mIsJournalCompactionPending && (null != mFileStoreHandler)) {
+            mIsJournalCompactionPending = true;
+
+            // compact after the pending writes
+            mFileStoreHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isKilled() && (null != mJournal)) {
+                        mJournal.compact();
+                    }
+                    mIsJournalCompactionPending = false;
+                }
+            });
+        }
+
+        return succeed;
+    }
+
+    /**
+     * Read an object from the journal.
+     *
+     * @param description the operation description
+     * @param file        the file
+     * @return the read object if it can be retrieved
+     */
+    private Object readJournalObject(String description, File file) {
+        Object object = null;
+
+        try {
+            byte[] data = mJournal.get(file.getParentFile().getName(), file.getName());
+
+            if (null != data) {
+                object = readObject(description, new BufferedInputStream(new ByteArrayInputStream(data)));
+            } else {
+                Log.e(LOG_TAG, "## readJournalObject()  " + description + " : not found");
+            }
+        } catch (OutOfMemoryError oom) {
+            dispatchOOM(oom);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## readJournalObject()  " + description + " : failed " + e.getMessage());
+        }
+
+        return object;
+    }
+
+    /**
+     * Tells if a store file exists.
+     *
+     * @param file the file
+     * @return true if it exists in the journal or in the file system
+     */
+    private boolean fileExists(File file) {
+        if (isJournalFile(file)) {
+            return mJournal.contains(file.getParentFile().getName(), file.getName());
+        }
+
+        return file.exists();
+    }
+
+    /**
+     * Delete a store file.
+     *
+     * @param file the file
+     */
+    private void deleteFile(File file) {
+        if (isJournalFile(file)) {
+            mJournal.delete(file.getParentFile().getName(), file.getName());
+        } else {
+            file.delete();
+        }
+    }
+
+    /**
+     * List the saved items of a folder.
+     *
+     * @param folder the folder
+     * @return the items names
+     */
+    private List<String> listFiles(File folder) {
+        if (null != mJournal) {
+            return mJournal.keys(folder.getName());
+        }
+
+        return listFiles(folder.list());
+    }
+
+
+    /**
+     * Provides the serializer which can read a file.
+     *
+     * @param header the first bytes of the file
+     * @return the serializer, null if the format is not supported
+     */
+    private IMXFileStoreSerializer getReadSerializer(byte[] header) {
+        for (IMXFileStoreSerializer serializer : mReadSerializers) {
+            if (serializer.canRead(header)) {
+                return serializer;
+            }
+        }
+
+        return null;
+    }
 
     /**
      * Remove the tmp files from a filename list
@@ -2442,47 +4010,39 @@ public class MXFileStore extends MXMemoryStore {
         // some updated rooms ?
         if ((mGroupsToCommit.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
-            final HashSet<String> fGroupIds = mGroupsToCommit;
-            mGroupsToCommit = new HashSet<>();
+            final Set<String> fGroupIds = drainDirtySet(mGroupsToCommit);
 
             try {
-                Runnable r = new Runnable() {
+                runInStoreThread(new Runnable() {
                     @Override
                     public void run() {
-                        mFileStoreHandler.post(new Runnable() {
-                            public void run() {
-                                if (!isKilled()) {
-                                    Log.d(LOG_TAG, "saveGroups " + fGroupIds.size() + " groups");
+                        if (!isKilled()) {
+                            Log.d(LOG_TAG, "saveGroups " + fGroupIds.size() + " groups");
 
-                                    long start = System.currentTimeMillis();
+                            long start = System.currentTimeMillis();
 
-                                    for (String groupId : fGroupIds) {
-                                        Group group;
+                            for (String groupId : fGroupIds) {
+                                Group group;
 
-                                        synchronized (mGroups) {
-                                            group = mGroups.get(groupId);
-                                        }
+                                synchronized (mGroups) {
+                                    group = mGroups.get(groupId);
+                                }
 
-                                        if (null != group) {
-                                            writeObject("saveGroup " + groupId, new File(mStoreGroupsFolderFile, groupId), group);
-                                        } else {
-                                            File tokenFile = new File(mStoreGroupsFolderFile, groupId);
+                                if (null != group) {
+                                    writeObject("saveGroup " + groupId, new File(mStoreGroupsFolderFile, groupId), group);
+                                } else {
+                                    File tokenFile = new File(mStoreGroupsFolderFile, groupId);
 
-                                            if (tokenFile.exists()) {
-                                                tokenFile.delete();
-                                            }
-                                        }
+                                    if (fileExists(tokenFile)) {
+                                        deleteFile(tokenFile);
                                     }
-
-                                    Log.d(LOG_TAG, "saveGroups done in " + (System.currentTimeMillis() - start) + " ms");
                                 }
                             }
-                        });
-                    }
-                };
 
-                Thread t = new Thread(r);
-                t.start();
+                            Log.d(LOG_TAG, "saveGroups done in " + (System.currentTimeMillis() - start) + " ms");
+                        }
+                    }
+                });
             } catch (OutOfMemoryError oom) {
                 Log.e(LOG_TAG, "saveGroups : failed" + oom.getMessage());
             }
@@ -2499,14 +4059,14 @@ public class MXFileStore extends MXMemoryStore {
 
         try {
             // extract the messages list
-            List<String> filenames = listFiles(mStoreGroupsFolderFile.list());
+            List<String> filenames = listFiles(mStoreGroupsFolderFile);
 
             long start = System.currentTimeMillis();
 
             for (String filename : filenames) {
                 File groupFile = new File(mStoreGroupsFolderFile, filename);
 
-                if (groupFile.exists()) {
+                if (fileExists(groupFile)) {
                     Object groupAsVoid = readObject("loadGroups " + filename, groupFile);
 
                     if ((null != groupAsVoid) && (groupAsVoid instanceof Group)) {
@@ -2544,4 +4104,27 @@ public class MXFileStore extends MXMemoryStore {
         super.setRoomsWithoutURLPreview(roomIds);
         mMetaDataHasChanged = true;
     }
+
+    /**
+     * Save a filter id.
+     * The filters are updated from the REST callbacks thread while the metadata might be copied
+     * to be saved, so the filters map is only accessed with mCommitLock.
+     *
+     * @param jsonFilter the JSON filter
+     * @param filterId   the filter id
+     */
+    @Override
+    public void addFilter(String jsonFilter, String filterId) {
+        synchronized (mCommitLock) {
+            super.addFilter(jsonFilter, filterId);
+            mMetaDataHasChanged = true;
+        }
+    }
+
+    @Override
+    public Map<String, String> getFilters() {
+        synchronized (mCommitLock) {
+            return super.getFilters();
+        }
+    }
 }
\ No newline at end of file
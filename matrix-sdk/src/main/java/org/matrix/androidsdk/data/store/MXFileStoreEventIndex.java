@@ -0,0 +1,834 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent event id index used by the MXFileStore to retrieve the events
+ * which are not anymore in the rooms timelines.
+ * <p>
+ * Each indexed event is appended to a segment file as a checksummed record.
+ * The event id hashes are saved in a memory-mapped open addressing table which
+ * provides the record location (segment, offset, length), so an event is read
+ * without deserializing the room files.
+ * The oldest segments are deleted when their count reaches a max value.
+ * <p>
+ * The table is checked when it is opened : the slots pointing to missing records are
+ * dropped and the records appended after the latest indexed one are indexed again.
+ * An unreadable table is rebuilt from the segments.
+ */
+public class MXFileStoreEventIndex {
+    private static final String LOG_TAG = MXFileStoreEventIndex.class.getSimpleName();
+
+    private static final String INDEX_FILE_NAME = "index";
+    private static final String INDEX_TMP_FILE_NAME = "index.tmp";
+    private static final String SEGMENT_FILE_PREFIX = "segment_";
+
+    private static final int MAGIC = 0x4d584549;
+    private static final int VERSION = 1;
+
+    // header : magic, version, capacity, used slots count, indexed segment, indexed offset
+    // slot : event id hash (long), room id hash, segment, offset, record length
+    private static final int SLOT_SIZE = 24;
+    private static final int HEADER_SIZE = SLOT_SIZE;
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+
+    // a deleted slot keeps its hash to preserve the probing sequences
+    private static final int DELETED_SEGMENT = -1;
+
+    // record : data length + crc
+    private static final int RECORD_HEADER_LENGTH = 4 + 8;
+
+    // a new segment is started when the current one reaches this size
+    private static final long MAX_SEGMENT_SIZE = 1024 * 1024;
+
+    // the default max number of segments
+    private static final int DEFAULT_MAX_SEGMENTS_COUNT = 16;
+
+    // the index folder
+    private final File mFolder;
+
+    // the events serializer
+    private final IMXFileStoreSerializer mSerializer;
+
+    private int mMaxSegmentsCount = DEFAULT_MAX_SEGMENTS_COUNT;
+
+    // the mapped table
+    private RandomAccessFile mIndexFile = null;
+    private MappedByteBuffer mTable = null;
+    private int mCapacity = 0;
+    private int mUsedSlotsCount = 0;
+
+    // the live segments
+    private int mFirstSegment = 0;
+    private int mLastSegment = 0;
+    private RandomAccessFile mSegmentWriter = null;
+    private long mSegmentLength = 0;
+    private final Map<Integer, RandomAccessFile> mSegmentReaders = new HashMap<>();
+
+    private boolean mIsOpen = false;
+    private boolean mIsClosed = false;
+
+    /**
+     * Constructor
+     *
+     * @param folder     the index folder
+     * @param serializer the events serializer
+     */
+    public MXFileStoreEventIndex(File folder, IMXFileStoreSerializer serializer) {
+        mFolder = folder;
+        mSerializer = serializer;
+    }
+
+    /**
+     * Update the max number of segments.
+     *
+     * @param maxSegmentsCount the max number of segments
+     */
+    public synchronized void setMaxSegmentsCount(int maxSegmentsCount) {
+        mMaxSegmentsCount = Math.max(1, maxSegmentsCount);
+    }
+
+    /**
+     * Compute the hash of an event id.
+     *
+     * @param eventId the event id
+     * @return a non zero hash
+     */
+    private static long hash(String eventId) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < eventId.length(); i++) {
+            hash ^= eventId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return (0 == hash) ? 1 : hash;
+    }
+
+    /**
+     * Provides a segment file.
+     *
+     * @param segment the segment id
+     * @return the segment file
+     */
+    private File getSegmentFile(int segment) {
+        return new File(mFolder, SEGMENT_FILE_PREFIX + segment);
+    }
+
+    /**
+     * Open the index, check it and repair it if it is required.
+     * It is automatically called by the first index operation.
+     *
+     * @return true if the index is opened
+     */
+    public synchronized boolean open() {
+        if (mIsOpen || mIsClosed) {
+            return mIsOpen;
+        }
+
+        long t0 = System.currentTimeMillis();
+
+        try {
+            if (!mFolder.exists()) {
+                mFolder.mkdirs();
+            }
+
+            listSegments();
+            truncateTornRecord();
+
+            int droppedSlotsCount = 0;
+
+            if (!mapTable(new File(mFolder, INDEX_FILE_NAME))) {
+                Log.e(LOG_TAG, "## open() : the table is not readable, rebuild it");
+                createTable(INITIAL_CAPACITY);
+                setIndexedPosition(mFirstSegment, 0);
+            } else {
+                droppedSlotsCount = checkSlots();
+            }
+
+            int indexedRecordsCount = indexPendingRecords();
+
+            mSegmentWriter = new RandomAccessFile(getSegmentFile(mLastSegment), "rw");
+            mSegmentLength = mSegmentWriter.length();
+            setIndexedPosition(mLastSegment, mSegmentLength);
+
+            mIsOpen = true;
+
+            Log.d(LOG_TAG, "## open() : " + mUsedSlotsCount + " slots, segments " + mFirstSegment + " to " + mLastSegment
+                    + ", " + droppedSlotsCount + " dropped slots, " + indexedRecordsCount + " records indexed in "
+                    + (System.currentTimeMillis() - t0) + " ms");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## open() failed " + e.getMessage());
+            closeFiles();
+        }
+
+        return mIsOpen;
+    }
+
+    /**
+     * Retrieve the existing segments.
+     */
+    private void listSegments() {
+        List<Integer> segments = new ArrayList<>();
+        String[] names = mFolder.list();
+
+        if (null != names) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_FILE_PREFIX)) {
+                    try {
+                        segments.add(Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Log.e(LOG_TAG, "## listSegments() : invalid segment name " + name);
+                    }
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            mFirstSegment = 0;
+            mLastSegment = 0;
+        } else {
+            Collections.sort(segments);
+            mFirstSegment = segments.get(0);
+            mLastSegment = segments.get(segments.size() - 1);
+        }
+    }
+
+    /**
+     * Truncate the latest segment after its last complete record.
+     * The application might have been killed while a record was written.
+     *
+     * @throws IOException if the segment cannot be read
+     */
+    private void truncateTornRecord() throws IOException {
+        File segmentFile = getSegmentFile(mLastSegment);
+
+        if (!segmentFile.exists()) {
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+
+        try {
+            long length = raf.length();
+            long offset = 0;
+
+            while (offset + RECORD_HEADER_LENGTH <= length) {
+                raf.seek(offset);
+                int dataLength = raf.readInt();
+
+                if ((dataLength < 0) || (offset + RECORD_HEADER_LENGTH + dataLength > length)) {
+                    break;
+                }
+
+                offset += RECORD_HEADER_LENGTH + dataLength;
+            }
+
+            if (offset != length) {
+                Log.e(LOG_TAG, "## truncateTornRecord() : truncate the segment " + mLastSegment + " at " + offset);
+                raf.setLength(offset);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Map an existing table file.
+     *
+     * @param file the table file
+     * @return true if the table is valid
+     * @throws IOException if the file cannot be opened
+     */
+    private boolean mapTable(File file) throws IOException {
+        if (!file.exists() || (file.length() < HEADER_SIZE)) {
+            return false;
+        }
+
+        mIndexFile = new RandomAccessFile(file, "rw");
+        mTable = mIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mIndexFile.length());
+
+        int capacity = mTable.getInt(8);
+
+        boolean isValid = (mTable.getInt(0) == MAGIC) && (mTable.getInt(4) == VERSION) &&
+                (capacity >= INITIAL_CAPACITY) && (Integer.bitCount(capacity) == 1) &&
+                (mIndexFile.length() == HEADER_SIZE + (long) capacity * SLOT_SIZE);
+
+        if (isValid) {
+            mCapacity = capacity;
+            mUsedSlotsCount = mTable.getInt(12);
+        } else {
+            closeTable();
+        }
+
+        return isValid;
+    }
+
+    /**
+     * Create an empty table.
+     *
+     * @param capacity the slots count
+     * @throws IOException if the file cannot be created
+     */
+    private void createTable(int capacity) throws IOException {
+        File file = new File(mFolder, INDEX_FILE_NAME);
+        file.delete();
+
+        mIndexFile = new RandomAccessFile(file, "rw");
+        mIndexFile.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        mTable = mIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mIndexFile.length());
+
+        mCapacity = capacity;
+        mUsedSlotsCount = 0;
+
+        mTable.putInt(0, MAGIC);
+        mTable.putInt(4, VERSION);
+        mTable.putInt(8, mCapacity);
+        mTable.putInt(12, mUsedSlotsCount);
+    }
+
+    /**
+     * Release the mapped table.
+     */
+    private void closeTable() {
+        if (null != mTable) {
+            mTable.force();
+            mTable = null;
+        }
+
+        if (null != mIndexFile) {
+            try {
+                mIndexFile.close();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## closeTable() failed " + e.getMessage());
+            }
+            mIndexFile = null;
+        }
+    }
+
+    /**
+     * Save the position of the latest indexed record.
+     *
+     * @param segment the segment id
+     * @param offset  the offset after the record
+     */
+    private void setIndexedPosition(int segment, long offset) {
+        mTable.putInt(16, segment);
+        mTable.putInt(20, (int) offset);
+    }
+
+    /**
+     * Drop the slots pointing to missing records.
+     *
+     * @return the dropped slots count
+     */
+    private int checkSlots() {
+        Map<Integer, Long> segmentLengths = new HashMap<>();
+
+        for (int segment = mFirstSegment; segment <= mLastSegment; segment++) {
+            segmentLengths.put(segment, getSegmentFile(segment).length());
+        }
+
+        int droppedSlotsCount = 0;
+
+        for (int slot = 0; slot < mCapacity; slot++) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+
+            if ((0 != mTable.getLong(position)) && (DELETED_SEGMENT != mTable.getInt(position + 12))) {
+                Long segmentLength = segmentLengths.get(mTable.getInt(position + 12));
+
+                if ((null == segmentLength) || (mTable.getInt(position + 16) + (long) mTable.getInt(position + 20) > segmentLength)) {
+                    mTable.putInt(position + 12, DELETED_SEGMENT);
+                    droppedSlotsCount++;
+                }
+            }
+        }
+
+        return droppedSlotsCount;
+    }
+
+    /**
+     * Index the records appended after the latest indexed one.
+     * A torn record at the end of the latest segment is truncated.
+     *
+     * @return the indexed records count
+     * @throws IOException if a segment cannot be read
+     */
+    private int indexPendingRecords() throws IOException {
+        int segment = Math.max(mTable.getInt(16), mFirstSegment);
+        long offset = (segment == mTable.getInt(16)) ? (mTable.getInt(20) & 0xffffffffL) : 0;
+        int count = 0;
+
+        for (; segment <= mLastSegment; segment++, offset = 0) {
+            File segmentFile = getSegmentFile(segment);
+
+            if (!segmentFile.exists()) {
+                continue;
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+
+            try {
+                long length = raf.length();
+
+                while (offset < length) {
+                    Event event = readRecord(raf, offset, -1);
+
+                    if (null == event) {
+                        if (segment == mLastSegment) {
+                            Log.e(LOG_TAG, "## indexPendingRecords() : truncate the segment " + segment + " at " + offset);
+                            raf.setLength(offset);
+                        }
+                        break;
+                    }
+
+                    raf.seek(offset);
+                    int recordLength = RECORD_HEADER_LENGTH + raf.readInt();
+
+                    if (null != event.eventId) {
+                        putSlot(hash(event.eventId), (null != event.roomId) ? event.roomId.hashCode() : 0, segment, offset, recordLength);
+                        count++;
+                    }
+
+                    offset += recordLength;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Read an event record.
+     *
+     * @param raf            the segment file
+     * @param offset         the record offset
+     * @param expectedLength the expected record length, -1 if it is unknown
+     * @return the event, null if the record is invalid
+     */
+    private Event readRecord(RandomAccessFile raf, long offset, int expectedLength) {
+        try {
+            if (offset + RECORD_HEADER_LENGTH > raf.length()) {
+                return null;
+            }
+
+            raf.seek(offset);
+            int dataLength = raf.readInt();
+            long crc = raf.readLong();
+
+            if ((dataLength < 0) || (offset + RECORD_HEADER_LENGTH + dataLength > raf.length()) ||
+                    ((expectedLength >= 0) && (expectedLength != RECORD_HEADER_LENGTH + dataLength))) {
+                return null;
+            }
+
+            byte[] data = new byte[dataLength];
+            raf.readFully(data);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(data);
+
+            if (checksum.getValue() != crc) {
+                return null;
+            }
+
+            return (Event) mSerializer.read(new ByteArrayInputStream(data));
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## readRecord() failed " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the slot of an event id hash.
+     *
+     * @param hash the event id hash
+     * @return the slot position of this hash or of the first empty slot
+     */
+    private int findSlot(long hash) {
+        int slot = (int) (hash ^ (hash >>> 32)) & (mCapacity - 1);
+
+        while (true) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            long slotHash = mTable.getLong(position);
+
+            if ((0 == slotHash) || (slotHash == hash)) {
+                return position;
+            }
+
+            slot = (slot + 1) & (mCapacity - 1);
+        }
+    }
+
+    /**
+     * Tells if a slot points to a live record.
+     *
+     * @param position the slot position
+     * @return true if the slot is used by a live record
+     */
+    private boolean isLiveSlot(int position) {
+        int segment = mTable.getInt(position + 12);
+        return (0 != mTable.getLong(position)) && (DELETED_SEGMENT != segment) && (segment >= mFirstSegment);
+    }
+
+    /**
+     * Update the slot of an event id hash.
+     *
+     * @param hash         the event id hash
+     * @param roomHash     the room id hash
+     * @param segment      the record segment
+     * @param offset       the record offset
+     * @param recordLength the record length
+     * @throws IOException if the table cannot be resized
+     */
+    private void putSlot(long hash, int roomHash, int segment, long offset, int recordLength) throws IOException {
+        int position = findSlot(hash);
+
+        if (0 == mTable.getLong(position)) {
+            mUsedSlotsCount++;
+            mTable.putInt(12, mUsedSlotsCount);
+        }
+
+        mTable.putLong(position, hash);
+        mTable.putInt(position + 8, roomHash);
+        mTable.putInt(position + 12, segment);
+        mTable.putInt(position + 16, (int) offset);
+        mTable.putInt(position + 20, recordLength);
+
+        if (mUsedSlotsCount > mCapacity * MAX_LOAD_FACTOR) {
+            rehash();
+        }
+    }
+
+    /**
+     * Rewrite the table without the deleted slots, with a larger capacity if it is required.
+     *
+     * @throws IOException if the table cannot be written
+     */
+    private void rehash() throws IOException {
+        List<long[]> liveSlots = new ArrayList<>();
+
+        for (int slot = 0; slot < mCapacity; slot++) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+
+            if (isLiveSlot(position)) {
+                liveSlots.add(new long[]{mTable.getLong(position), mTable.getInt(position + 8), mTable.getInt(position + 12),
+                        mTable.getInt(position + 16), mTable.getInt(position + 20)});
+            }
+        }
+
+        int capacity = mCapacity;
+
+        while (liveSlots.size() > capacity * MAX_LOAD_FACTOR / 2) {
+            capacity *= 2;
+        }
+
+        int indexedSegment = mTable.getInt(16);
+        int indexedOffset = mTable.getInt(20);
+
+        // the new table is written aside to keep a valid table if the application is killed
+        File tmpFile = new File(mFolder, INDEX_TMP_FILE_NAME);
+        tmpFile.delete();
+
+        RandomAccessFile tmpIndexFile = new RandomAccessFile(tmpFile, "rw");
+
+        try {
+            tmpIndexFile.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            MappedByteBuffer table = tmpIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, tmpIndexFile.length());
+
+            for (long[] liveSlot : liveSlots) {
+                int slot = (int) (liveSlot[0] ^ (liveSlot[0] >>> 32)) & (capacity - 1);
+
+                while (0 != table.getLong(HEADER_SIZE + slot * SLOT_SIZE)) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+
+                int position = HEADER_SIZE + slot * SLOT_SIZE;
+                table.putLong(position, liveSlot[0]);
+                table.putInt(position + 8, (int) liveSlot[1]);
+                table.putInt(position + 12, (int) liveSlot[2]);
+                table.putInt(position + 16, (int) liveSlot[3]);
+                table.putInt(position + 20, (int) liveSlot[4]);
+            }
+
+            table.putInt(4, VERSION);
+            table.putInt(8, capacity);
+            table.putInt(12, liveSlots.size());
+            table.putInt(16, indexedSegment);
+            table.putInt(20, indexedOffset);
+            // the magic number is written at last
+            table.putInt(0, MAGIC);
+            table.force();
+        } finally {
+            tmpIndexFile.close();
+        }
+
+        closeTable();
+
+        File indexFile = new File(mFolder, INDEX_FILE_NAME);
+
+        if (!tmpFile.renameTo(indexFile)) {
+            indexFile.delete();
+            tmpFile.renameTo(indexFile);
+        }
+
+        if (!mapTable(indexFile)) {
+            throw new IOException("the rehashed table is not valid");
+        }
+
+        Log.d(LOG_TAG, "## rehash() : " + liveSlots.size() + " live slots, capacity " + mCapacity);
+    }
+
+    /**
+     * Start a new segment and delete the oldest ones.
+     *
+     * @throws IOException if the segment cannot be created
+     */
+    private void startSegment() throws IOException {
+        mSegmentWriter.close();
+        mLastSegment++;
+        mSegmentWriter = new RandomAccessFile(getSegmentFile(mLastSegment), "rw");
+        mSegmentLength = 0;
+
+        // the slots pointing to the deleted segments are dropped by the next rehash
+        while (mLastSegment - mFirstSegment + 1 > mMaxSegmentsCount) {
+            RandomAccessFile reader = mSegmentReaders.remove(mFirstSegment);
+
+            if (null != reader) {
+                reader.close();
+            }
+
+            getSegmentFile(mFirstSegment).delete();
+            mFirstSegment++;
+        }
+    }
+
+    /**
+     * Index an event.
+     * The previous indexed version of this event is replaced.
+     *
+     * @param event the event
+     * @return true if the event is indexed
+     */
+    public synchronized boolean put(Event event) {
+        if ((null == event) || (null == event.eventId) || (null == event.roomId) || !open()) {
+            return false;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            mSerializer.write(bytes, event);
+            byte[] data = bytes.toByteArray();
+
+            CRC32 checksum = new CRC32();
+            checksum.update(data);
+
+            int recordLength = RECORD_HEADER_LENGTH + data.length;
+
+            if ((mSegmentLength > 0) && (mSegmentLength + recordLength > MAX_SEGMENT_SIZE)) {
+                startSegment();
+            }
+
+            long offset = mSegmentLength;
+
+            mSegmentWriter.seek(offset);
+            mSegmentWriter.writeInt(data.length);
+            mSegmentWriter.writeLong(checksum.getValue());
+            mSegmentWriter.write(data);
+            mSegmentLength += recordLength;
+
+            putSlot(hash(event.eventId), event.roomId.hashCode(), mLastSegment, offset, recordLength);
+            setIndexedPosition(mLastSegment, mSegmentLength);
+
+            return true;
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## put() : " + event.eventId + " failed " + oom.getMessage());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## put() : " + event.eventId + " failed " + e.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Retrieve the live slot of an event.
+     *
+     * @param eventId the event id
+     * @param roomId  the room id
+     * @return the slot position, -1 if the event is not indexed
+     */
+    private int getLiveSlot(String eventId, String roomId) {
+        if ((null == eventId) || (null == roomId) || !open()) {
+            return -1;
+        }
+
+        int position = findSlot(hash(eventId));
+
+        if (isLiveSlot(position) && (mTable.getInt(position + 8) == roomId.hashCode())) {
+            return position;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Tells if an event is indexed.
+     *
+     * @param eventId the event id
+     * @param roomId  the room id
+     * @return true if the event is indexed
+     */
+    public synchronized boolean contains(String eventId, String roomId) {
+        return getLiveSlot(eventId, roomId) >= 0;
+    }
+
+    /**
+     * Read an indexed event.
+     *
+     * @param eventId the event id
+     * @param roomId  the room id
+     * @return the event, null if it is not indexed
+     */
+    public synchronized Event get(String eventId, String roomId) {
+        int position = getLiveSlot(eventId, roomId);
+
+        if (position < 0) {
+            return null;
+        }
+
+        int segment = mTable.getInt(position + 12);
+
+        try {
+            RandomAccessFile reader = mSegmentReaders.get(segment);
+
+            if (null == reader) {
+                reader = new RandomAccessFile(getSegmentFile(segment), "r");
+                mSegmentReaders.put(segment, reader);
+            }
+
+            Event event = readRecord(reader, mTable.getInt(position + 16) & 0xffffffffL, mTable.getInt(position + 20));
+
+            // check the ids in case of hash collision
+            if ((null != event) && eventId.equals(event.eventId) && roomId.equals(event.roomId)) {
+                return event;
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## get() : " + eventId + " failed " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove an event from the index.
+     *
+     * @param eventId the event id
+     */
+    public synchronized void remove(String eventId) {
+        if ((null == eventId) || !open()) {
+            return;
+        }
+
+        int position = findSlot(hash(eventId));
+
+        if (0 != mTable.getLong(position)) {
+            mTable.putInt(position + 12, DELETED_SEGMENT);
+        }
+    }
+
+    /**
+     * Remove the events of a room from the index.
+     *
+     * @param roomId the room id
+     */
+    public synchronized void removeRoom(String roomId) {
+        if ((null == roomId) || !open()) {
+            return;
+        }
+
+        int roomHash = roomId.hashCode();
+
+        for (int slot = 0; slot < mCapacity; slot++) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+
+            if (isLiveSlot(position) && (mTable.getInt(position + 8) == roomHash)) {
+                mTable.putInt(position + 12, DELETED_SEGMENT);
+            }
+        }
+    }
+
+    /**
+     * @return the number of used slots
+     */
+    public synchronized int getUsedSlotsCount() {
+        return mUsedSlotsCount;
+    }
+
+    /**
+     * Close the opened files.
+     */
+    private void closeFiles() {
+        closeTable();
+
+        try {
+            if (null != mSegmentWriter) {
+                mSegmentWriter.close();
+            }
+
+            for (RandomAccessFile reader : mSegmentReaders.values()) {
+                reader.close();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## closeFiles() failed " + e.getMessage());
+        }
+
+        mSegmentWriter = null;
+        mSegmentReaders.clear();
+    }
+
+    /**
+     * Close the index.
+     * It cannot be reopened.
+     */
+    public synchronized void close() {
+        closeFiles();
+        mIsOpen = false;
+        mIsClosed = true;
+    }
+}
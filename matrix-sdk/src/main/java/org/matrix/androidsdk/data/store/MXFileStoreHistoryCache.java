@@ -0,0 +1,330 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.util.ContentUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An on-disk cache of the rooms history.
+ * <p>
+ * The back paginated chunks are saved as segments identified by their start token,
+ * so a back pagination request can be served without network, even after a restart.
+ * The least recently used rooms are removed when the cache size exceeds its max size.
+ */
+public class MXFileStoreHistoryCache {
+    private static final String LOG_TAG = MXFileStoreHistoryCache.class.getSimpleName();
+
+    // the cache folder
+    private final File mFolder;
+
+    // the segments serializer
+    private final IMXFileStoreSerializer mSerializer;
+
+    // the max cache size in bytes
+    private long mMaxSize;
+
+    // the room folder sizes, the least recently used first
+    private final LinkedHashMap<String, Long> mRoomSizes = new LinkedHashMap<>(16, 0.75f, true);
+
+    // the cache size in bytes
+    private long mSize = 0;
+
+    private boolean mIsLoaded = false;
+
+    /**
+     * Constructor
+     *
+     * @param folder     the cache folder
+     * @param serializer the segments serializer
+     * @param maxSize    the max cache size in bytes, 0 to disable the cache
+     */
+    public MXFileStoreHistoryCache(File folder, IMXFileStoreSerializer serializer, long maxSize) {
+        mFolder = folder;
+        mSerializer = serializer;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Update the max cache size.
+     *
+     * @param maxSize the max cache size in bytes, 0 to disable the cache
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+
+        if (mIsLoaded) {
+            evict();
+        }
+    }
+
+    /**
+     * @return the cache size in bytes
+     */
+    public synchronized long getSize() {
+        load();
+        return mSize;
+    }
+
+    /**
+     * Provides the segment file of a token.
+     *
+     * @param roomId the room id
+     * @param token  the segment start token
+     * @return the segment file
+     */
+    private File getSegmentFile(String roomId, String token) {
+        return new File(new File(mFolder, roomId), Integer.toHexString(token.hashCode()));
+    }
+
+    /**
+     * Compute the room folders sizes.
+     * The least recently used room folders are the least recently modified ones.
+     */
+    private void load() {
+        if (mIsLoaded) {
+            return;
+        }
+
+        mIsLoaded = true;
+        mRoomSizes.clear();
+        mSize = 0;
+
+        File[] roomFolders = mFolder.listFiles();
+
+        if (null != roomFolders) {
+            Arrays.sort(roomFolders, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    long delta = f1.lastModified() - f2.lastModified();
+                    return (delta < 0) ? -1 : ((delta > 0) ? 1 : 0);
+                }
+            });
+
+            for (File roomFolder : roomFolders) {
+                long size = 0;
+                File[] segments = roomFolder.listFiles();
+
+                if (null != segments) {
+                    for (File segment : segments) {
+                        size += segment.length();
+                    }
+                }
+
+                mRoomSizes.put(roomFolder.getName(), size);
+                mSize += size;
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * Save a back paginated chunk.
+     *
+     * @param roomId   the room id
+     * @param response the chunk, its start token identifies the segment
+     */
+    public synchronized void put(String roomId, TokensChunkResponse<Event> response) {
+        if ((mMaxSize <= 0) || (null == roomId) || (null == response.start) || (null == response.chunk) || response.chunk.isEmpty()) {
+            return;
+        }
+
+        load();
+
+        try {
+            // the segment is saved as [start token, end token, events...]
+            List<Object> segment = new ArrayList<>(response.chunk.size() + 2);
+            segment.add(response.start);
+            segment.add(response.end);
+            segment.addAll(response.chunk);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            mSerializer.write(bytes, segment);
+
+            // the segment cannot be cached
+            if (bytes.size() > mMaxSize) {
+                return;
+            }
+
+            File roomFolder = new File(mFolder, roomId);
+
+            if (!roomFolder.exists()) {
+                roomFolder.mkdirs();
+            }
+
+            File segmentFile = getSegmentFile(roomId, response.start);
+            long previousSize = segmentFile.length();
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(segmentFile));
+
+            try {
+                bytes.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            Long roomSize = mRoomSizes.get(roomId);
+            mRoomSizes.put(roomId, ((null == roomSize) ? 0 : roomSize) - previousSize + bytes.size());
+            mSize += bytes.size() - previousSize;
+            roomFolder.setLastModified(System.currentTimeMillis());
+
+            evict();
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## put() : " + roomId + " failed " + oom.getMessage());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## put() : " + roomId + " failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Provides the cached chunk starting at a token.
+     *
+     * @param roomId the room id
+     * @param token  the start token
+     * @return the cached chunk, null if it is not cached
+     */
+    public synchronized TokensChunkResponse<Event> get(String roomId, String token) {
+        if ((mMaxSize <= 0) || (null == roomId) || (null == token)) {
+            return null;
+        }
+
+        load();
+
+        File segmentFile = getSegmentFile(roomId, token);
+
+        if (!segmentFile.exists()) {
+            return null;
+        }
+
+        TokensChunkResponse<Event> response = null;
+
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(segmentFile));
+            List<Object> segment;
+
+            try {
+                segment = (List<Object>) mSerializer.read(in);
+            } finally {
+                in.close();
+            }
+
+            // check the token in case of hash collision
+            if ((segment.size() > 2) && token.equals(segment.get(0))) {
+                response = new TokensChunkResponse<>();
+                response.start = token;
+                response.end = (String) segment.get(1);
+                response.chunk = new ArrayList<>();
+
+                for (int i = 2; i < segment.size(); i++) {
+                    response.chunk.add((Event) segment.get(i));
+                }
+
+                // flag the room as recently used
+                mRoomSizes.get(roomId);
+                segmentFile.getParentFile().setLastModified(System.currentTimeMillis());
+            }
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## get() : " + roomId + " failed " + oom.getMessage());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## get() : " + roomId + " failed " + e.getMessage());
+            deleteSegment(roomId, segmentFile);
+        }
+
+        return response;
+    }
+
+    /**
+     * Delete an unreadable segment.
+     *
+     * @param roomId      the room id
+     * @param segmentFile the segment file
+     */
+    private void deleteSegment(String roomId, File segmentFile) {
+        long size = segmentFile.length();
+
+        if (segmentFile.delete()) {
+            Long roomSize = mRoomSizes.get(roomId);
+
+            if (null != roomSize) {
+                mRoomSizes.put(roomId, roomSize - size);
+            }
+
+            mSize -= size;
+        }
+    }
+
+    /**
+     * Delete the cached history of a room.
+     *
+     * @param roomId the room id
+     */
+    public synchronized void deleteRoom(String roomId) {
+        if (null == roomId) {
+            return;
+        }
+
+        load();
+
+        Long roomSize = mRoomSizes.remove(roomId);
+
+        if (null != roomSize) {
+            mSize -= roomSize;
+        }
+
+        File roomFolder = new File(mFolder, roomId);
+
+        if (roomFolder.exists()) {
+            ContentUtils.deleteDirectory(roomFolder);
+        }
+    }
+
+    /**
+     * Remove the least recently used rooms until the cache size is lower than its max size.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = mRoomSizes.entrySet().iterator();
+
+        while ((mSize > Math.max(mMaxSize, 0)) && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+
+            Log.d(LOG_TAG, "## evict() : remove the history of " + entry.getKey() + " (" + entry.getValue() + " bytes)");
+
+            ContentUtils.deleteDirectory(new File(mFolder, entry.getKey()));
+            mSize -= entry.getValue();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal used by the MXFileStore instead of one file per item.
+ * <p>
+ * Each saved item is identified by a folder name and a key (the room id, the user hash...).
+ * The updates and the deletions are appended to segment files as checksummed records.
+ * The journal is replayed to rebuild the items index when it is opened : a torn or corrupted
+ * record (application killed while writing) is dropped with the end of its segment.
+ * The live records are rewritten in new segments when the overwritten bytes reach a threshold.
+ */
+public class MXFileStoreJournal {
+    private static final String LOG_TAG = MXFileStoreJournal.class.getSimpleName();
+
+    private static final String SEGMENT_FILE_PREFIX = "segment_";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+    // a new segment is started when the current one reaches this size
+    private static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    // compaction thresholds
+    private static final long COMPACTION_MIN_DEAD_BYTES = 2 * 1024 * 1024;
+
+    // record types
+    private static final int RECORD_PUT = 1;
+    private static final int RECORD_DELETE = 2;
+
+    // body length + crc
+    private static final int RECORD_HEADER_LENGTH = 4 + 8;
+
+    /**
+     * Location of the latest record of an item.
+     */
+    private static class RecordLocation {
+        // the segment id
+        final long mSegmentId;
+        // the data offset in the segment
+        final long mDataOffset;
+        // the data length
+        final int mDataLength;
+        // the full record length
+        final int mRecordLength;
+
+        RecordLocation(long segmentId, long dataOffset, int dataLength, int recordLength) {
+            mSegmentId = segmentId;
+            mDataOffset = dataOffset;
+            mDataLength = dataLength;
+            mRecordLength = recordLength;
+        }
+    }
+
+    // the journal folder
+    private final File mFolder;
+
+    // folder name -> key -> record location
+    private final Map<String, Map<String, RecordLocation>> mIndex = new HashMap<>();
+
+    // the known segments ids
+    private final List<Long> mSegmentIds = new ArrayList<>();
+
+    // the segment in which the records are appended
+    private long mCurrentSegmentId = 0;
+    private FileOutputStream mCurrentSegmentStream = null;
+    private long mCurrentSegmentSize = 0;
+
+    // bytes stats
+    private long mLiveBytes = 0;
+    private long mDeadBytes = 0;
+
+    private boolean mIsOpened = false;
+    private boolean mIsClosed = false;
+
+    /**
+     * Constructor
+     *
+     * @param folder the journal folder
+     */
+    public MXFileStoreJournal(File folder) {
+        mFolder = folder;
+    }
+
+    /**
+     * Tells if a journal has been saved in a folder.
+     *
+     * @param folder the journal folder
+     * @return true if the folder contains some segments
+     */
+    public static boolean exists(File folder) {
+        return !listSegmentIds(folder).isEmpty();
+    }
+
+    /**
+     * List the segment ids of a folder.
+     *
+     * @param folder the journal folder
+     * @return the sorted segment ids
+     */
+    private static List<Long> listSegmentIds(File folder) {
+        List<Long> ids = new ArrayList<>();
+        String[] names = folder.list();
+
+        if (null != names) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Log.e(LOG_TAG, "## listSegmentIds() : invalid segment name " + name);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Provides the file of a segment.
+     *
+     * @param segmentId the segment id
+     * @return the segment file
+     */
+    private File getSegmentFile(long segmentId) {
+        return new File(mFolder, SEGMENT_FILE_PREFIX + segmentId + SEGMENT_FILE_SUFFIX);
+    }
+
+    /**
+     * Open the journal i.e. replay the segments to build the index.
+     * It is done once, the other methods call it if it was not yet done.
+     *
+     * @return true if the journal is ready to be used.
+     */
+    public synchronized boolean open() {
+        if (mIsClosed) {
+            return false;
+        }
+
+        if (mIsOpened) {
+            return true;
+        }
+
+        long start = System.currentTimeMillis();
+
+        if (!mFolder.exists()) {
+            mFolder.mkdirs();
+        }
+
+        mIndex.clear();
+        mSegmentIds.clear();
+        mSegmentIds.addAll(listSegmentIds(mFolder));
+        mLiveBytes = 0;
+        mDeadBytes = 0;
+
+        for (long segmentId : mSegmentIds) {
+            replaySegment(segmentId);
+        }
+
+        mCurrentSegmentId = mSegmentIds.isEmpty() ? 0 : mSegmentIds.get(mSegmentIds.size() - 1);
+        mCurrentSegmentSize = getSegmentFile(mCurrentSegmentId).length();
+        mIsOpened = true;
+
+        Log.d(LOG_TAG, "## open() : " + mSegmentIds.size() + " segments replayed in " + (System.currentTimeMillis() - start) + " ms (live bytes " + mLiveBytes + " dead bytes " + mDeadBytes + ")");
+
+        return true;
+    }
+
+    /**
+     * Replay a segment file.
+     * The segment is truncated at the first invalid record.
+     *
+     * @param segmentId the segment id
+     */
+    private void replaySegment(long segmentId) {
+        File segmentFile = getSegmentFile(segmentId);
+        long position = 0;
+        boolean isTruncated = false;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)));
+
+            try {
+                CRC32 crc = new CRC32();
+
+                while (true) {
+                    int bodyLength;
+
+                    try {
+                        bodyLength = in.readInt();
+                    } catch (EOFException e) {
+                        // end of segment, or a partially written header
+                        isTruncated = (position < segmentFile.length());
+                        break;
+                    }
+
+                    long checksum;
+                    byte[] body;
+
+                    try {
+                        checksum = in.readLong();
+
+                        if ((bodyLength <= 0) || ((position + RECORD_HEADER_LENGTH + bodyLength) > segmentFile.length())) {
+                            throw new EOFException("invalid body length " + bodyLength);
+                        }
+
+                        body = new byte[bodyLength];
+                        in.readFully(body);
+                    } catch (EOFException e) {
+                        Log.e(LOG_TAG, "## replaySegment() : torn record in " + segmentFile.getName() + " at " + position);
+                        isTruncated = true;
+                        break;
+                    }
+
+                    crc.reset();
+                    crc.update(body, 0, bodyLength);
+
+                    if (crc.getValue() != checksum) {
+                        Log.e(LOG_TAG, "## replaySegment() : invalid checksum in " + segmentFile.getName() + " at " + position);
+                        isTruncated = true;
+                        break;
+                    }
+
+                    applyRecord(segmentId, position, body);
+                    position += RECORD_HEADER_LENGTH + bodyLength;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## replaySegment() : failed " + e.getMessage());
+            isTruncated = true;
+        }
+
+        if (isTruncated) {
+            // drop the invalid tail to append the next records after the valid ones
+            try {
+                RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+                file.setLength(position);
+                file.close();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## replaySegment() : cannot truncate " + segmentFile.getName() + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Update the index with a record.
+     *
+     * @param segmentId the record segment
+     * @param position  the record position in the segment
+     * @param body      the record body
+     * @throws IOException if the body is invalid
+     */
+    private void applyRecord(long segmentId, long position, byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+
+        int type = in.readUnsignedByte();
+        String folderName = in.readUTF();
+        String key = in.readUTF();
+        int dataLength = in.readInt();
+
+        int recordLength = RECORD_HEADER_LENGTH + body.length;
+        long dataOffset = position + recordLength - dataLength;
+
+        if (RECORD_PUT == type) {
+            updateIndex(folderName, key, new RecordLocation(segmentId, dataOffset, dataLength, recordLength));
+        } else {
+            updateIndex(folderName, key, null);
+            // the deletion record is useless once replayed
+            mDeadBytes += recordLength;
+        }
+    }
+
+    /**
+     * Update the index and the bytes stats.
+     *
+     * @param folderName the folder name
+     * @param key        the item key
+     * @param location   the new location, null if the item is deleted
+     */
+    private void updateIndex(String folderName, String key, RecordLocation location) {
+        Map<String, RecordLocation> folderIndex = mIndex.get(folderName);
+
+        if (null == folderIndex) {
+            folderIndex = new HashMap<>();
+            mIndex.put(folderName, folderIndex);
+        }
+
+        RecordLocation previousLocation = (null != location) ? folderIndex.put(key, location) : folderIndex.remove(key);
+
+        if (null != previousLocation) {
+            mLiveBytes -= previousLocation.mRecordLength;
+            mDeadBytes += previousLocation.mRecordLength;
+        }
+
+        if (null != location) {
+            mLiveBytes += location.mRecordLength;
+        }
+    }
+
+    /**
+     * Append a record to the current segment.
+     *
+     * @param type       the record type
+     * @param folderName the folder name
+     * @param key        the item key
+     * @param data       the item data (empty for a deletion)
+     * @throws IOException if the write fails
+     */
+    private void appendRecord(int type, String folderName, String key, byte[] data) throws IOException {
+        ByteArrayOutputStream bodyStream = new ByteArrayOutputStream(data.length + 64);
+        DataOutputStream body = new DataOutputStream(bodyStream);
+        body.writeByte(type);
+        body.writeUTF(folderName);
+        body.writeUTF(key);
+        body.writeInt(data.length);
+        body.write(data);
+        body.flush();
+
+        byte[] bodyBytes = bodyStream.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes, 0, bodyBytes.length);
+
+        ByteArrayOutputStream recordStream = new ByteArrayOutputStream(RECORD_HEADER_LENGTH + bodyBytes.length);
+        DataOutputStream record = new DataOutputStream(recordStream);
+        record.writeInt(bodyBytes.length);
+        record.writeLong(crc.getValue());
+        record.write(bodyBytes);
+        record.flush();
+
+        int recordLength = recordStream.size();
+
+        // start a new segment
+        if ((mCurrentSegmentSize > 0) && ((mCurrentSegmentSize + recordLength) > MAX_SEGMENT_SIZE)) {
+            closeCurrentSegment();
+            mCurrentSegmentId++;
+            mCurrentSegmentSize = 0;
+        }
+
+        if (null == mCurrentSegmentStream) {
+            mCurrentSegmentStream = new FileOutputStream(getSegmentFile(mCurrentSegmentId), true);
+
+            if (!mSegmentIds.contains(mCurrentSegmentId)) {
+                mSegmentIds.add(mCurrentSegmentId);
+            }
+        }
+
+        long position = mCurrentSegmentSize;
+        recordStream.writeTo(mCurrentSegmentStream);
+        mCurrentSegmentStream.flush();
+        mCurrentSegmentSize += recordLength;
+
+        if (RECORD_PUT == type) {
+            updateIndex(folderName, key, new RecordLocation(mCurrentSegmentId, position + recordLength - data.length, data.length, recordLength));
+        } else {
+            updateIndex(folderName, key, null);
+            mDeadBytes += recordLength;
+        }
+    }
+
+    /**
+     * Sync and close the current segment.
+     */
+    private void closeCurrentSegment() {
+        if (null != mCurrentSegmentStream) {
+            try {
+                mCurrentSegmentStream.getFD().sync();
+                mCurrentSegmentStream.close();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## closeCurrentSegment() : failed " + e.getMessage());
+            }
+
+            mCurrentSegmentStream = null;
+        }
+    }
+
+    /**
+     * Write the appended records to the disk.
+     * It is called at the commit boundaries, the closed segments are already written.
+     */
+    public synchronized void sync() {
+        if (null != mCurrentSegmentStream) {
+            try {
+                mCurrentSegmentStream.getFD().sync();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## sync() : failed " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Save an item.
+     *
+     * @param folderName the folder name
+     * @param key        the item key
+     * @param data       the item data
+     * @return true if the operation succeeds
+     */
+    public synchronized boolean put(String folderName, String key, byte[] data) {
+        if (!open()) {
+            return false;
+        }
+
+        try {
+            appendRecord(RECORD_PUT, folderName, key, data);
+            return true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## put() : " + folderName + "/" + key + " failed " + e.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Delete an item.
+     *
+     * @param folderName the folder name
+     * @param key        the item key
+     */
+    public synchronized void delete(String folderName, String key) {
+        if (!contains(folderName, key)) {
+            return;
+        }
+
+        try {
+            appendRecord(RECORD_DELETE, folderName, key, new byte[0]);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## delete() : " + folderName + "/" + key + " failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tells if an item exists.
+     *
+     * @param folderName the folder name
+     * @param key        the item key
+     * @return true if the item exists
+     */
+    public synchronized boolean contains(String folderName, String key) {
+        if (!open()) {
+            return false;
+        }
+
+        Map<String, RecordLocation> folderIndex = mIndex.get(folderName);
+        return (null != folderIndex) && folderIndex.containsKey(key);
+    }
+
+    /**
+     * Provides the item keys of a folder.
+     *
+     * @param folderName the folder name
+     * @return the keys list
+     */
+    public synchronized List<String> keys(String folderName) {
+        List<String> keys = new ArrayList<>();
+
+        if (open()) {
+            Map<String, RecordLocation> folderIndex = mIndex.get(folderName);
+
+            if (null != folderIndex) {
+                keys.addAll(folderIndex.keySet());
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Read an item.
+     *
+     * @param folderName the folder name
+     * @param key        the item key
+     * @return the item data, null if it does not exist
+     * @throws IOException if the read fails
+     */
+    public synchronized byte[] get(String folderName, String key) throws IOException {
+        if (!open()) {
+            return null;
+        }
+
+        Map<String, RecordLocation> folderIndex = mIndex.get(folderName);
+        RecordLocation location = (null != folderIndex) ? folderIndex.get(key) : null;
+
+        if (null == location) {
+            return null;
+        }
+
+        return readData(location);
+    }
+
+    /**
+     * Read the data of a record.
+     *
+     * @param location the record location
+     * @return the data
+     * @throws IOException if the read fails
+     */
+    private byte[] readData(RecordLocation location) throws IOException {
+        byte[] data = new byte[location.mDataLength];
+        RandomAccessFile file = new RandomAccessFile(getSegmentFile(location.mSegmentId), "r");
+
+        try {
+            file.seek(location.mDataOffset);
+            file.readFully(data);
+        } finally {
+            file.close();
+        }
+
+        return data;
+    }
+
+    /**
+     * @return true if the dead bytes should be reclaimed.
+     */
+    public synchronized boolean needsCompaction() {
+        return mIsOpened && !mIsClosed && (mDeadBytes > COMPACTION_MIN_DEAD_BYTES) && (mDeadBytes > mLiveBytes);
+    }
+
+    /**
+     * Rewrite the live records in new segments and delete the previous ones.
+     * A crash during the compaction is harmless : the new segments are replayed after the previous ones.
+     */
+    public synchronized void compact() {
+        if (!open()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long deadBytes = mDeadBytes;
+
+        closeCurrentSegment();
+
+        List<Long> previousSegmentIds = new ArrayList<>(mSegmentIds);
+
+        // copy the index because it is updated while rewriting the records
+        Map<String, Map<String, RecordLocation>> index = new HashMap<>();
+        for (Map.Entry<String, Map<String, RecordLocation>> entry : mIndex.entrySet()) {
+            index.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+
+        mCurrentSegmentId++;
+        mCurrentSegmentSize = 0;
+
+        try {
+            for (Map.Entry<String, Map<String, RecordLocation>> folderEntry : index.entrySet()) {
+                for (Map.Entry<String, RecordLocation> entry : folderEntry.getValue().entrySet()) {
+                    appendRecord(RECORD_PUT, folderEntry.getKey(), entry.getKey(), readData(entry.getValue()));
+                }
+            }
+
+            closeCurrentSegment();
+        } catch (Exception e) {
+            // the previous segments are kept, they are replayed before the new ones
+            Log.e(LOG_TAG, "## compact() : failed " + e.getMessage());
+            return;
+        }
+
+        for (long segmentId : previousSegmentIds) {
+            if (!getSegmentFile(segmentId).delete()) {
+                Log.e(LOG_TAG, "## compact() : cannot delete the segment " + segmentId);
+            }
+            mSegmentIds.remove(segmentId);
+        }
+
+        mDeadBytes = 0;
+
+        Log.d(LOG_TAG, "## compact() : " + deadBytes + " dead bytes reclaimed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Close the journal.
+     * The next calls are ignored.
+     */
+    public synchronized void close() {
+        closeCurrentSegment();
+        mIsClosed = true;
+    }
+}
@@ -19,12 +19,16 @@ package org.matrix.androidsdk.data.store;
 import org.matrix.androidsdk.rest.model.pid.ThirdPartyIdentifier;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public class MXFileStoreMetaData implements java.io.Serializable {
+    // the serialized metadata must stay readable when new fields are added
+    private static final long serialVersionUID = -1296895589867051765L;
+
     // The obtained user id.
     public String mUserId = null;
 
@@ -51,6 +55,12 @@ public class MXFileStoreMetaData implements java.io.Serializable {
     // crypto
     public boolean mEndToEndDeviceAnnounced = false;
 
+    // the uploaded sync filters ids, by JSON filter
+    public Map<String, String> mFilters = new HashMap<>();
+
+    // true when the store data is saved in the journal
+    public boolean mUseJournal = false;
+
     public MXFileStoreMetaData deepCopy() {
         MXFileStoreMetaData copy = new MXFileStoreMetaData();
 
@@ -72,6 +82,8 @@ public class MXFileStoreMetaData implements java.io.Serializable {
 
         copy.mIsUrlPreviewEnabled = mIsUrlPreviewEnabled;
         copy.mRoomsListWithoutURLPrevew = mRoomsListWithoutURLPrevew;
+        copy.mFilters = (null != mFilters) ? new HashMap<>(mFilters) : new HashMap<String, String>();
+        copy.mUseJournal = mUseJournal;
 
         return copy;
     }
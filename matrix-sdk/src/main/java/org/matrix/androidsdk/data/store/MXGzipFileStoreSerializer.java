@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The historical MXFileStore format : java serialization in a GZIP stream.
+ * It is kept to read the stores created before MXFileStore version 22.
+ */
+public class MXGzipFileStoreSerializer implements IMXFileStoreSerializer {
+
+    @Override
+    public boolean canRead(byte[] header) {
+        return (null != header) && (header.length >= 2) &&
+                ((header[0] & 0xFF) == (GZIPInputStream.GZIP_MAGIC & 0xFF)) &&
+                ((header[1] & 0xFF) == ((GZIPInputStream.GZIP_MAGIC >> 8) & 0xFF));
+    }
+
+    @Override
+    public void write(OutputStream stream, Object object) throws IOException {
+        GZIPOutputStream gz = new GZIPOutputStream(stream);
+        ObjectOutputStream out = new ObjectOutputStream(gz);
+        out.writeObject(object);
+        out.flush();
+        gz.finish();
+    }
+
+    @Override
+    public Object read(InputStream stream) throws IOException, ClassNotFoundException {
+        GZIPInputStream gz = new GZIPInputStream(stream);
+        ObjectInputStream ois = new ObjectInputStream(gz);
+        return ois.readObject();
+    }
+}
@@ -60,10 +60,15 @@ public class MXMemoryStore implements IMXStore {
     protected Map<String, Room> mRooms;
     protected Map<String, User> mUsers;
 
-    protected static final Object mRoomEventsLock = new Object();
+    // the number of locks protecting the rooms events
+    private static final int ROOM_EVENTS_LOCKS_COUNT = 64;
+
+    // the rooms events are protected by striped locks :
+    // the rooms which do not share a lock are read and updated concurrently
+    private final Object[] mRoomEventsLocks = createRoomEventsLocks();
 
     // room id -> map of (event_id -> event) events for this room (linked so insertion order is preserved)
-    protected Map<String, LinkedHashMap<String, Event>> mRoomEvents;
+    protected Map<String, MXTimelineEventsMap> mRoomEvents;
 
     protected Map<String, String> mRoomTokens;
 
@@ -86,7 +91,7 @@ public class MXMemoryStore implements IMXStore {
     protected Context mContext;
 
     //
-    private final HashMap<String, Event> mTemporaryEventsList = new HashMap<>();
+    private final Map<String, Event> mTemporaryEventsList = new ConcurrentHashMap<>();
 
     protected Credentials mCredentials;
 
@@ -102,6 +107,43 @@ public class MXMemoryStore implements IMXStore {
     protected long mUserDisplayNameTs;
     protected long mUserAvatarUrlTs;
 
+    /**
+     * Create the rooms events locks.
+     *
+     * @return the locks
+     */
+    private static Object[] createRoomEventsLocks() {
+        Object[] locks = new Object[ROOM_EVENTS_LOCKS_COUNT];
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        return locks;
+    }
+
+    /**
+     * Create an empty room events map.
+     *
+     * @return the new map
+     */
+    protected MXTimelineEventsMap createRoomEventsMap() {
+        return new MXTimelineEventsMap((null != mCredentials) ? mCredentials.userId : null);
+    }
+
+    /**
+     * Provides the lock protecting the events of a room.
+     *
+     * @param roomId the room id
+     * @return the lock
+     */
+    protected Object getRoomEventsLock(String roomId) {
+        int hash = (null == roomId) ? 0 : roomId.hashCode();
+        // spread the high bits as the room ids share their server name suffix
+        hash ^= (hash >>> 16);
+        return mRoomEventsLocks[hash & (ROOM_EVENTS_LOCKS_COUNT - 1)];
+    }
+
     /**
      * Initialization method.
      */
@@ -430,6 +472,11 @@ public class MXMemoryStore implements IMXStore {
         return new ArrayList<>(mRooms.values());
     }
 
+    @Override
+    public Collection<String> getRoomIds() {
+        return new ArrayList<>(mRooms.keySet());
+    }
+
     @Override
     public Collection<User> getUsers() {
         Collection<User> users;
@@ -540,7 +587,7 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
 
                 if (events != null) {
@@ -566,7 +613,7 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
 
                 if (events != null) {
@@ -595,19 +642,32 @@ public class MXMemoryStore implements IMXStore {
      */
     @Override
     public int eventsCountAfter(String roomId, String eventId) {
-        return eventsAfter(roomId, eventId, mCredentials.userId, null).size();
+        int count = 0;
+
+        // sanity check
+        if (null != roomId) {
+            synchronized (getRoomEventsLock(roomId)) {
+                MXTimelineEventsMap roomEvents = mRoomEvents.get(roomId);
+
+                if (null != roomEvents) {
+                    count = roomEvents.countEventsAfter(eventId);
+                }
+            }
+        }
+
+        return count;
     }
 
     @Override
     public void storeLiveRoomEvent(Event event) {
         try {
             if ((null != event) && (null != event.roomId) && (null != event.eventId)) {
-                synchronized (mRoomEventsLock) {
-                    LinkedHashMap<String, Event> events = mRoomEvents.get(event.roomId);
+                synchronized (getRoomEventsLock(event.roomId)) {
+                    MXTimelineEventsMap events = mRoomEvents.get(event.roomId);
 
                     // create the list it does not exist
                     if (null == events) {
-                        events = new LinkedHashMap<>();
+                        events = createRoomEventsMap();
                         mRoomEvents.put(event.roomId, events);
                     } else if (events.containsKey(event.eventId)) {
                         // the event is already define
@@ -649,7 +709,7 @@ public class MXMemoryStore implements IMXStore {
         boolean res = false;
 
         if (!TextUtils.isEmpty(eventId) && !TextUtils.isEmpty(roomId)) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 res = mRoomEvents.containsKey(roomId) && mRoomEvents.get(roomId).containsKey(eventId);
             }
         }
@@ -662,7 +722,7 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (!TextUtils.isEmpty(eventId) && !TextUtils.isEmpty(roomId)) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
 
                 if (events != null) {
@@ -674,10 +734,15 @@ public class MXMemoryStore implements IMXStore {
         return event;
     }
 
+    @Override
+    public Event getEventFromIndex(String eventId, String roomId) {
+        return getEvent(eventId, roomId);
+    }
+
     @Override
     public void deleteEvent(Event event) {
         if ((null != event) && (null != event.roomId) && (event.eventId != null)) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(event.roomId)) {
                 LinkedHashMap<String, Event> events = mRoomEvents.get(event.roomId);
                 if (events != null) {
                     events.remove(event.eventId);
@@ -691,7 +756,7 @@ public class MXMemoryStore implements IMXStore {
         // sanity check
         if (null != roomId) {
             deleteRoomData(roomId);
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 mRooms.remove(roomId);
             }
         }
@@ -701,7 +766,7 @@ public class MXMemoryStore implements IMXStore {
     public void deleteRoomData(String roomId) {
         // sanity check
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 mRoomEvents.remove(roomId);
                 mRoomTokens.remove(roomId);
                 mRoomSummaries.remove(roomId);
@@ -721,7 +786,7 @@ public class MXMemoryStore implements IMXStore {
     public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
         // sanity check
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
 
                 if (keepUnsent) {
                     LinkedHashMap<String, Event> eventMap = mRoomEvents.get(roomId);
@@ -755,10 +820,10 @@ public class MXMemoryStore implements IMXStore {
     public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, EventTimeline.Direction direction) {
         try {
             if (null != roomId) {
-                synchronized (mRoomEventsLock) {
-                    LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+                synchronized (getRoomEventsLock(roomId)) {
+                    MXTimelineEventsMap events = mRoomEvents.get(roomId);
                     if (events == null) {
-                        events = new LinkedHashMap<>();
+                        events = createRoomEventsMap();
                         mRoomEvents.put(roomId, events);
                     }
 
@@ -782,7 +847,7 @@ public class MXMemoryStore implements IMXStore {
                             // define a token
                             mRoomTokens.put(roomId, eventsResponse.start);
                         } else {
-                            LinkedHashMap<String, Event> events2 = new LinkedHashMap<>();
+                            MXTimelineEventsMap events2 = createRoomEventsMap();
 
                             // insert the catchup events in reverse order
                             for (int index = eventsResponse.chunk.size() - 1; index >= 0; index--) {
@@ -908,7 +973,7 @@ public class MXMemoryStore implements IMXStore {
 
         Collection<Event> collection = null;
 
-        synchronized (mRoomEventsLock) {
+        synchronized (getRoomEventsLock(roomId)) {
             LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
 
             if (null != events) {
@@ -926,7 +991,7 @@ public class MXMemoryStore implements IMXStore {
         if (null != roomId) {
             ArrayList<Event> eventsList;
 
-            synchronized (mRoomEventsLock) {
+            synchronized (getRoomEventsLock(roomId)) {
                 LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
                 if ((events == null) || (events.size() == 0)) {
                     return null;
@@ -1046,7 +1111,7 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> unsentRoomEvents = new ArrayList<>();
 
-        synchronized (mRoomEventsLock) {
+        synchronized (getRoomEventsLock(roomId)) {
             LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
 
             // contain some events
@@ -1078,7 +1143,7 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> undeliverableRoomEvents = new ArrayList<>();
 
-        synchronized (mRoomEventsLock) {
+        synchronized (getRoomEventsLock(roomId)) {
             LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
 
             // contain some events
@@ -1108,7 +1173,7 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> unknownDeviceEvents = new ArrayList<>();
 
-        synchronized (mRoomEventsLock) {
+        synchronized (getRoomEventsLock(roomId)) {
             LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
 
             // contain some events
@@ -1229,19 +1294,12 @@ public class MXMemoryStore implements IMXStore {
             // check if the read receipt is not for an already read message
             if (TextUtils.equals(receipt.userId, mCredentials.userId)) {
                 synchronized (mReceiptsByRoomIdLock) {
-                    LinkedHashMap<String, Event> eventsMap = mRoomEvents.get(roomId);
-
-                    // test if the event is know
-                    if ((null != eventsMap) && eventsMap.containsKey(receipt.eventId)) {
-                        ArrayList<String> eventIds = new ArrayList<>(eventsMap.keySet());
+                    MXTimelineEventsMap eventsMap = mRoomEvents.get(roomId);
 
-                        int curEventPos = eventIds.indexOf(curReceipt.eventId);
-                        int newEventPos = eventIds.indexOf(receipt.eventId);
-
-                        if (curEventPos >= newEventPos) {
-                            Log.d(LOG_TAG, "## storeReceipt() : the read message is already read (cur pos " + curEventPos + " receipt event pos " + newEventPos + ")");
-                            return false;
-                        }
+                    // test if both events are known and if the receipt one is not after the current one
+                    if ((null != eventsMap) && eventsMap.isNotAfter(receipt.eventId, curReceipt.eventId)) {
+                        Log.d(LOG_TAG, "## storeReceipt() : the read message is already read (cur event " + curReceipt.eventId + " receipt event " + receipt.eventId + ")");
+                        return false;
                     }
                 }
             }
@@ -1281,58 +1339,32 @@ public class MXMemoryStore implements IMXStore {
 
     /**
      * Return a list of stored events after the parameter one.
-     * It could the ones sent by the user excludedUserId.
+     * The events sent by the user and the member events are ignored.
      * A filter can be applied to ignore some event (Event.EVENT_TYPE_...).
      *
-     * @param roomId         the roomId
-     * @param eventId        the start event Id.
-     * @param excludedUserId the excluded user id
-     * @param allowedTypes   the filtered event type (null to allow anyone)
-     * @return the evnts list
+     * @param roomId       the roomId
+     * @param eventId      the start event Id.
+     * @param allowedTypes the filtered event type (null to allow anyone)
+     * @return the events list
      */
-    private List<Event> eventsAfter(String roomId, String eventId, String excludedUserId, List<String> allowedTypes) {
-        // events list
-        ArrayList<Event> events = new ArrayList<>();
+    private List<Event> eventsAfter(String roomId, String eventId, List<String> allowedTypes) {
+        List<Event> events = null;
 
         // sanity check
         if (null != roomId) {
-            synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> roomEvents = mRoomEvents.get(roomId);
+            synchronized (getRoomEventsLock(roomId)) {
+                MXTimelineEventsMap roomEvents = mRoomEvents.get(roomId);
 
                 if (roomEvents != null) {
-                    List<Event> linkedEvents = new ArrayList<>(roomEvents.values());
-
-                    // Check messages from the most recent
-                    for (int i = linkedEvents.size() - 1; i >= 0; i--) {
-                        Event event = linkedEvents.get(i);
-
-                        if ((null == eventId) || !TextUtils.equals(event.eventId, eventId)) {
-                            // Keep events matching filters
-                            if ((null == allowedTypes || (allowedTypes.indexOf(event.getType()) >= 0)) && !TextUtils.equals(event.getSender(), excludedUserId)) {
-                                events.add(event);
-                            }
-                        } else {
-                            // We are done
-                            break;
-                        }
-                    }
-
-                    // filter the unread messages
-                    // some messages are not defined as unreadable
-                    for (int index = 0; index < events.size(); index++) {
-                        Event event = events.get(index);
-
-                        if (TextUtils.equals(event.getSender(), mCredentials.userId) || TextUtils.equals(event.getType(), Event.EVENT_TYPE_STATE_ROOM_MEMBER)) {
-                            events.remove(index);
-                            index--;
-                        }
-                    }
-
-                    Collections.reverse(events);
+                    events = roomEvents.getEventsAfter(eventId, allowedTypes);
                 }
             }
         }
 
+        if (null == events) {
+            events = new ArrayList<>();
+        }
+
         return events;
     }
 
@@ -1351,18 +1383,17 @@ public class MXMemoryStore implements IMXStore {
         // sanity check
         if ((null != roomId) && (null != userId)) {
             synchronized (mReceiptsByRoomIdLock) {
-                synchronized (mRoomEventsLock) {
+                synchronized (getRoomEventsLock(roomId)) {
                     if (mReceiptsByRoomId.containsKey(roomId) && mRoomEvents.containsKey(roomId)) {
                         Map<String, ReceiptData> receiptsByUserId = mReceiptsByRoomId.get(roomId);
-                        LinkedHashMap<String, Event> eventsMap = mRoomEvents.get(roomId);
+                        MXTimelineEventsMap eventsMap = mRoomEvents.get(roomId);
 
                         // check if the event is known
                         if (eventsMap.containsKey(eventIdTotest) && receiptsByUserId.containsKey(userId)) {
                             ReceiptData data = receiptsByUserId.get(userId);
-                            ArrayList<String> eventIds = new ArrayList<>(eventsMap.keySet());
 
                             // the message has been read if it was sent before the latest read one
-                            res = eventIds.indexOf(eventIdTotest) <= eventIds.indexOf(data.eventId);
+                            res = eventsMap.isNotAfter(eventIdTotest, data.eventId);
                         } else if (receiptsByUserId.containsKey(userId)) {
                             // the event is not known so assume it is has been flushed
                             res = true;
@@ -1393,7 +1424,7 @@ public class MXMemoryStore implements IMXStore {
                 if (receiptsByUserId.containsKey(mCredentials.userId)) {
                     ReceiptData data = receiptsByUserId.get(mCredentials.userId);
 
-                    res = eventsAfter(roomId, data.eventId, mCredentials.userId, types);
+                    res = eventsAfter(roomId, data.eventId, types);
                 }
             }
         }
@@ -1484,6 +1515,19 @@ public class MXMemoryStore implements IMXStore {
         }
     }
 
+    /**
+     * Dispatch that the pending changes have been saved.
+     *
+     * @param accountId the account id
+     */
+    protected void dispatchOnStoreCommitted(String accountId) {
+        List<IMXStoreListener> listeners = getListeners();
+
+        for (IMXStoreListener listener : listeners) {
+            listener.onStoreCommitted(accountId);
+        }
+    }
+
     /**
      * Provides the store preload time in milliseconds.
      *
@@ -1593,4 +1637,18 @@ public class MXMemoryStore implements IMXStore {
     public Set<String> getRoomsWithoutURLPreviews() {
         return (null != mMetadata.mRoomsListWithoutURLPrevew) ? mMetadata.mRoomsListWithoutURLPrevew : new HashSet<String>();
     }
+
+    @Override
+    public void addFilter(String jsonFilter, String filterId) {
+        if (null == mMetadata.mFilters) {
+            mMetadata.mFilters = new HashMap<>();
+        }
+
+        mMetadata.mFilters.put(jsonFilter, filterId);
+    }
+
+    @Override
+    public Map<String, String> getFilters() {
+        return (null != mMetadata.mFilters) ? new HashMap<>(mMetadata.mFilters) : new HashMap<String, String>();
+    }
 }
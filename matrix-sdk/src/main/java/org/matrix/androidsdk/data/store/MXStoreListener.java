@@ -39,4 +39,8 @@ public class MXStoreListener implements IMXStoreListener {
     @Override
     public void onReadReceiptsLoaded(String roomId) {
     }
+
+    @Override
+    public void onStoreCommitted(String accountId) {
+    }
 }
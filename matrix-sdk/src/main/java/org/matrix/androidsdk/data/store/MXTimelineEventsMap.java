@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The events of a room timeline, by event id, in their timeline order.
+ * <p>
+ * Each event is tagged with its position in the timeline, so two events are compared without
+ * walking the timeline. A Fenwick tree counts the unread-able events (neither sent by the user nor
+ * member events), so the unread events count after a position is computed in O(log n).
+ * <p>
+ * The timeline must only be updated with put(), putAll(), remove() and clear() :
+ * the keySet(), values() and entrySet() views must not be used to remove events.
+ */
+public class MXTimelineEventsMap extends LinkedHashMap<String, Event> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the current user id : the user events are not counted
+    private final String mMyUserId;
+
+    // the event positions
+    private final Map<String, Integer> mPositions = new HashMap<>();
+
+    // the events and their keys by position, null when the event has been removed
+    // the key might differ from the event id when the event id is updated (e.g. an echoed event)
+    private Event[] mEventsByPosition = new Event[INITIAL_CAPACITY];
+    private String[] mKeysByPosition = new String[INITIAL_CAPACITY];
+
+    // the Fenwick tree of the counted events (1-based)
+    private int[] mCountedTree = new int[INITIAL_CAPACITY + 1];
+
+    // the position of the next added event
+    private int mNextPosition = 0;
+
+    /**
+     * Constructor
+     *
+     * @param myUserId the current user id
+     */
+    public MXTimelineEventsMap(String myUserId) {
+        super();
+        mMyUserId = myUserId;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param myUserId the current user id
+     * @param events   the timeline events
+     */
+    public MXTimelineEventsMap(String myUserId, Map<String, Event> events) {
+        this(myUserId);
+        putAll(events);
+    }
+
+    /**
+     * Tells if an event is counted as an unread-able one.
+     *
+     * @param event the event
+     * @return true if the event is counted
+     */
+    private boolean isCounted(Event event) {
+        return (null != event) && !TextUtils.equals(event.getSender(), mMyUserId) && !TextUtils.equals(event.getType(), Event.EVENT_TYPE_STATE_ROOM_MEMBER);
+    }
+
+    /**
+     * Update the counted events tree.
+     *
+     * @param position the event position
+     * @param delta    the count delta
+     */
+    private void updateCountedTree(int position, int delta) {
+        for (int i = position + 1; i < mCountedTree.length; i += i & (-i)) {
+            mCountedTree[i] += delta;
+        }
+    }
+
+    /**
+     * Count the counted events until a position.
+     *
+     * @param position the position (included), -1 to count nothing
+     * @return the counted events count
+     */
+    private int countUntil(int position) {
+        int count = 0;
+
+        for (int i = Math.min(position + 1, mCountedTree.length - 1); i > 0; i -= i & (-i)) {
+            count += mCountedTree[i];
+        }
+
+        return count;
+    }
+
+    /**
+     * Renumber the events from 0 and resize the positions arrays.
+     * It is called when there is no more free position.
+     */
+    private void reindex() {
+        int liveCount = mPositions.size();
+        int capacity = mEventsByPosition.length;
+
+        // the removed events positions are reused when there are enough of them
+        if (liveCount >= capacity / 2) {
+            capacity *= 2;
+        }
+
+        Event[] eventsByPosition = new Event[capacity];
+        String[] keysByPosition = new String[capacity];
+        int[] countedTree = new int[capacity + 1];
+        int position = 0;
+
+        for (int i = 0; i < mNextPosition; i++) {
+            Event event = mEventsByPosition[i];
+
+            if (null != event) {
+                eventsByPosition[position] = event;
+                keysByPosition[position] = mKeysByPosition[i];
+                mPositions.put(mKeysByPosition[i], position);
+                countedTree[position + 1] = isCounted(event) ? 1 : 0;
+                position++;
+            }
+        }
+
+        // linear Fenwick tree build
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & (-i));
+
+            if (parent <= capacity) {
+                countedTree[parent] += countedTree[i];
+            }
+        }
+
+        mEventsByPosition = eventsByPosition;
+        mKeysByPosition = keysByPosition;
+        mCountedTree = countedTree;
+        mNextPosition = position;
+    }
+
+    @Override
+    public Event put(String eventId, Event event) {
+        Event previous = super.put(eventId, event);
+        Integer position = mPositions.get(eventId);
+
+        if (null == position) {
+            if (mNextPosition == mEventsByPosition.length) {
+                reindex();
+            }
+
+            position = mNextPosition++;
+            mPositions.put(eventId, position);
+            mKeysByPosition[position] = eventId;
+        } else if (isCounted(mEventsByPosition[position])) {
+            updateCountedTree(position, -1);
+        }
+
+        mEventsByPosition[position] = event;
+
+        if (isCounted(event)) {
+            updateCountedTree(position, 1);
+        }
+
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Event> map) {
+        for (Map.Entry<? extends String, ? extends Event> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Event remove(Object eventId) {
+        Event event = super.remove(eventId);
+        Integer position = mPositions.remove(eventId);
+
+        if (null != position) {
+            if (isCounted(mEventsByPosition[position])) {
+                updateCountedTree(position, -1);
+            }
+
+            mEventsByPosition[position] = null;
+            mKeysByPosition[position] = null;
+        }
+
+        return event;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mPositions.clear();
+        mEventsByPosition = new Event[INITIAL_CAPACITY];
+        mKeysByPosition = new String[INITIAL_CAPACITY];
+        mCountedTree = new int[INITIAL_CAPACITY + 1];
+        mNextPosition = 0;
+    }
+
+    /**
+     * Compare the timeline positions of two events.
+     *
+     * @param eventId1 the first event id
+     * @param eventId2 the second event id
+     * @return true if both events are known and the first one is not after the second one
+     */
+    public boolean isNotAfter(String eventId1, String eventId2) {
+        Integer position1 = mPositions.get(eventId1);
+        Integer position2 = mPositions.get(eventId2);
+
+        return (null != position1) && (null != position2) && (position1 <= position2);
+    }
+
+    /**
+     * Provides the key of the latest event.
+     *
+     * @return the key, null if the timeline is empty
+     */
+    public String getLatestKey() {
+        for (int i = mNextPosition - 1; i >= 0; i--) {
+            if (null != mKeysByPosition[i]) {
+                return mKeysByPosition[i];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Provides the events added after an event, without walking the previous ones.
+     *
+     * @param key the event key, all the events are provided if it is null
+     * @return the events in the timeline order, null if the key is unknown
+     */
+    public List<Event> getEventsAddedAfter(String key) {
+        Integer position = (null != key) ? mPositions.get(key) : null;
+
+        if ((null != key) && (null == position)) {
+            return null;
+        }
+
+        List<Event> events = new ArrayList<>();
+
+        for (int i = (null != position) ? (position + 1) : 0; i < mNextPosition; i++) {
+            if (null != mEventsByPosition[i]) {
+                events.add(mEventsByPosition[i]);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Count the events after an event, excluding the user ones and the member events.
+     *
+     * @param eventId the event id, all the events are counted if it is null or unknown
+     * @return the events count
+     */
+    public int countEventsAfter(String eventId) {
+        Integer position = (null != eventId) ? mPositions.get(eventId) : null;
+        int count = countUntil(mNextPosition - 1);
+
+        if (null != position) {
+            count -= countUntil(position);
+        }
+
+        return count;
+    }
+
+    /**
+     * Provides the events after an event, excluding the user ones and the member events.
+     *
+     * @param eventId      the event id, all the events are provided if it is null or unknown
+     * @param allowedTypes the allowed events types, null to allow any type
+     * @return the events in the timeline order
+     */
+    public List<Event> getEventsAfter(String eventId, List<String> allowedTypes) {
+        Integer position = (null != eventId) ? mPositions.get(eventId) : null;
+        List<Event> events = new ArrayList<>();
+
+        for (int i = (null != position) ? (position + 1) : 0; i < mNextPosition; i++) {
+            Event event = mEventsByPosition[i];
+
+            if (isCounted(event) && ((null == allowedTypes) || allowedTypes.contains(event.getType()))) {
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+}
@@ -770,7 +770,7 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
         if (null == currentReadMarkerRow) {
             // crash reported by GA
             try {
-                Event readMarkedEvent = mSession.getDataHandler().getStore().getEvent(currentReadMarkerEventId, mRoom.getRoomId());
+                Event readMarkedEvent = mSession.getDataHandler().getStore().getEventFromIndex(currentReadMarkerEventId, mRoom.getRoomId());
 
                 // the read marked event might be a non displayable event
                 if ((null != readMarkedEvent) && !canAddEvent(readMarkedEvent)) {
@@ -71,6 +71,16 @@ public interface IMXEventListener {
      */
     void onLiveEventsChunkProcessed(String fromToken, String toToken);
 
+    /**
+     * The live events of a room which were received by a sync response chunk.
+     * It is only called when the batched dispatch is enabled (see MXDataHandler.setLiveEventsBatchDispatch()).
+     * The events have been dispatched with onLiveEvent() before, in the same order.
+     *
+     * @param roomId the room id
+     * @param events the live events
+     */
+    void onLiveEvents(String roomId, List<Event> events);
+
     /**
      * A received event fulfills the bing rules
      * The first matched bing rule is provided in paramater to perform
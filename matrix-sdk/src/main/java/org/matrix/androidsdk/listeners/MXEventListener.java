@@ -51,6 +51,10 @@ public class MXEventListener implements IMXEventListener {
     public void onLiveEventsChunkProcessed(String fromToken, String toToken) {
     }
 
+    @Override
+    public void onLiveEvents(String roomId, List<Event> events) {
+    }
+
     @Override
     public void onBingEvent(Event event, RoomState roomState, BingRule bingRule) {
     }
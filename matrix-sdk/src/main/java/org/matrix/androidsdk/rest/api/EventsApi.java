@@ -29,11 +29,13 @@ import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 import java.util.Map;
 
 import retrofit.Callback;
+import retrofit.client.Response;
 import retrofit.http.Body;
 import retrofit.http.GET;
 import retrofit.http.POST;
 import retrofit.http.Query;
 import retrofit.http.QueryMap;
+import retrofit.http.Streaming;
 
 /**
  * The events API.
@@ -49,6 +51,17 @@ public interface EventsApi {
     @GET(RestClient.URI_API_PREFIX_PATH_R0 + "/sync")
     void sync(@QueryMap Map<String, Object> params, Callback<SyncResponse> callback);
 
+    /**
+     * Perform a sync request without decoding its response.
+     * The response body is streamed so it can be decoded while it is downloaded.
+     *
+     * @param params   the GET params.
+     * @param callback The asynchronous callback to call when the response headers are received
+     */
+    @Streaming
+    @GET(RestClient.URI_API_PREFIX_PATH_R0 + "/sync")
+    void syncStream(@QueryMap Map<String, Object> params, Callback<Response> callback);
+
 
     /**
      * Get the third party server protocols.
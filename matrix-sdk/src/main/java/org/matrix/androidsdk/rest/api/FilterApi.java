@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.api;
+
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
+import org.matrix.androidsdk.rest.model.filter.FilterResponse;
+
+import retrofit.Callback;
+import retrofit.http.Body;
+import retrofit.http.GET;
+import retrofit.http.POST;
+import retrofit.http.Path;
+
+/**
+ * The sync filters API.
+ */
+public interface FilterApi {
+
+    /**
+     * Upload a sync filter.
+     *
+     * @param userId   the user id
+     * @param body     the filter definition
+     * @param callback the asynchronous callback called when finished
+     */
+    @POST("/user/{userId}/filter")
+    void uploadFilter(@Path("userId") String userId, @Body FilterBody body, Callback<FilterResponse> callback);
+
+    /**
+     * Retrieve an uploaded sync filter.
+     *
+     * @param userId   the user id
+     * @param filterId the filter id
+     * @param callback the asynchronous callback called when finished
+     */
+    @GET("/user/{userId}/filter/{filterId}")
+    void getFilter(@Path("userId") String userId, @Path("filterId") String filterId, Callback<FilterBody> callback);
+}
@@ -325,6 +325,15 @@ public interface RoomsApi {
     @GET("/rooms/{roomId}/initialSync")
     void initialSync(@Path("roomId") String roomId, @Query("limit") int limit, Callback<RoomResponse> callback);
 
+    /**
+     * Get the m.room.member events of a room.
+     *
+     * @param roomId   the room id
+     * @param callback the asynchronous callback called with the response
+     */
+    @GET("/rooms/{roomId}/members")
+    void getMembers(@Path("roomId") String roomId, Callback<TokensChunkResponse<Event>> callback);
+
     /**
      * Get the context surrounding an event.
      *
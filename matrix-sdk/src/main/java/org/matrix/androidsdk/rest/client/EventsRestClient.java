@@ -39,6 +39,8 @@ import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 import org.matrix.androidsdk.rest.model.URLPreview;
 import org.matrix.androidsdk.rest.model.User;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -46,6 +48,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import retrofit.client.Response;
+
 /**
  * Class used to make requests to the events API.
  */
@@ -201,6 +205,92 @@ public class EventsRestClient extends RestClient<EventsApi> {
      * @param callback      The request callback
      */
     public void syncFromToken(final String token, final int serverTimeout, final int clientTimeout, final String setPresence, final String filterId, final ApiCallback<SyncResponse> callback) {
+        Map<String, Object> params = buildSyncParams(token, serverTimeout, clientTimeout, setPresence, filterId);
+
+        final String description = "syncFromToken";
+
+        try {
+            // Disable retry because it interferes with clientTimeout
+            // Let the client manage retries on events streams
+            mApi.sync(params, new RestAdapterCallback<SyncResponse>(description, null, false, callback, new RestAdapterCallback.RequestRetryCallBack() {
+                @Override
+                public void onRetry() {
+                    syncFromToken(token, serverTimeout, clientTimeout, setPresence, filterId, callback);
+                }
+            }));
+        } catch (Throwable t) {
+            callback.onUnexpectedError(new Exception(t));
+        }
+    }
+
+    /**
+     * Same as syncFromToken but the response is not decoded.
+     * The callback provides the response body stream as soon as the response headers are received,
+     * so the response can be decoded while it is downloaded.
+     * The stream must be read outside the UI thread and closed by the caller.
+     *
+     * @param token         the token to stream from (nil in case of initial sync).
+     * @param serverTimeout the maximum time in ms to wait for an event.
+     * @param clientTimeout the maximum time in ms the SDK must wait for the server response.
+     * @param setPresence   the optional set_presence parameter.
+     * @param filterId      the ID of a filter created using the filter API (optional).
+     * @param callback      The request callback
+     */
+    public void syncFromTokenAsStream(final String token, final int serverTimeout, final int clientTimeout, final String setPresence, final String filterId, final ApiCallback<InputStream> callback) {
+        Map<String, Object> params = buildSyncParams(token, serverTimeout, clientTimeout, setPresence, filterId);
+
+        final String description = "syncFromTokenAsStream";
+
+        try {
+            // Disable retry because it interferes with clientTimeout
+            // Let the client manage retries on events streams
+            mApi.syncStream(params, new RestAdapterCallback<Response>(description, null, false, new ApiCallback<Response>() {
+                @Override
+                public void onSuccess(Response response) {
+                    try {
+                        callback.onSuccess(response.getBody().in());
+                    } catch (IOException e) {
+                        callback.onNetworkError(e);
+                    }
+                }
+
+                @Override
+                public void onNetworkError(Exception e) {
+                    callback.onNetworkError(e);
+                }
+
+                @Override
+                public void onMatrixError(MatrixError e) {
+                    callback.onMatrixError(e);
+                }
+
+                @Override
+                public void onUnexpectedError(Exception e) {
+                    callback.onUnexpectedError(e);
+                }
+            }, new RestAdapterCallback.RequestRetryCallBack() {
+                @Override
+                public void onRetry() {
+                    syncFromTokenAsStream(token, serverTimeout, clientTimeout, setPresence, filterId, callback);
+                }
+            }));
+        } catch (Throwable t) {
+            callback.onUnexpectedError(new Exception(t));
+        }
+    }
+
+    /**
+     * Build the sync request parameters and update the connection and read timeouts.
+     * It is package-private to be tested.
+     *
+     * @param token         the token to stream from (nil in case of initial sync).
+     * @param serverTimeout the maximum time in ms to wait for an event.
+     * @param clientTimeout the maximum time in ms the SDK must wait for the server response.
+     * @param setPresence   the optional set_presence parameter.
+     * @param filterId      the ID of a filter created using the filter API (optional).
+     * @return the request parameters
+     */
+    Map<String, Object> buildSyncParams(String token, int serverTimeout, int clientTimeout, String setPresence, String filterId) {
         HashMap<String, Object> params = new HashMap<>();
         int timeout = (EVENT_STREAM_TIMEOUT_MS / 1000);
 
@@ -225,20 +315,11 @@ public class EventsRestClient extends RestClient<EventsApi> {
         // increase the timeout because the init sync might require more time to be built
         setConnectionTimeout(RestClient.CONNECTION_TIMEOUT_MS * ((null == token) ? 2 : 1));
 
-        final String description = "syncFromToken";
+        // the server waits up to serverTimeout before responding :
+        // the read timeout must not interrupt the long poll before the client timeout
+        setReadTimeout(Math.max(RestClient.READ_TIMEOUT_MS, clientTimeout));
 
-        try {
-            // Disable retry because it interferes with clientTimeout
-            // Let the client manage retries on events streams
-            mApi.sync(params, new RestAdapterCallback<SyncResponse>(description, null, false, callback, new RestAdapterCallback.RequestRetryCallBack() {
-                @Override
-                public void onRetry() {
-                    syncFromToken(token, serverTimeout, clientTimeout, setPresence, filterId, callback);
-                }
-            }));
-        } catch (Throwable t) {
-            callback.onUnexpectedError(new Exception(t));
-        }
+        return params;
     }
 
     /**
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.client;
+
+import org.matrix.androidsdk.HomeServerConnectionConfig;
+import org.matrix.androidsdk.RestClient;
+import org.matrix.androidsdk.rest.api.FilterApi;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.callback.RestAdapterCallback;
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
+import org.matrix.androidsdk.rest.model.filter.FilterResponse;
+
+/**
+ * Class used to make requests to the sync filters API.
+ */
+public class FilterRestClient extends RestClient<FilterApi> {
+
+    /**
+     * {@inheritDoc}
+     */
+    public FilterRestClient(HomeServerConnectionConfig hsConfig) {
+        super(hsConfig, FilterApi.class, RestClient.URI_API_PREFIX_PATH_R0, false);
+    }
+
+    protected FilterRestClient(FilterApi api) {
+        mApi = api;
+    }
+
+    /**
+     * Upload a sync filter.
+     *
+     * @param userId     the user id
+     * @param filterBody the filter definition
+     * @param callback   the asynchronous callback called when finished
+     */
+    public void uploadFilter(final String userId, final FilterBody filterBody, final ApiCallback<FilterResponse> callback) {
+        final String description = "uploadFilter userId : " + userId;
+
+        try {
+            mApi.uploadFilter(userId, filterBody, new RestAdapterCallback<FilterResponse>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
+                @Override
+                public void onRetry() {
+                    uploadFilter(userId, filterBody, callback);
+                }
+            }));
+        } catch (Throwable t) {
+            callback.onUnexpectedError(new Exception(t));
+        }
+    }
+
+    /**
+     * Retrieve an uploaded sync filter.
+     *
+     * @param userId   the user id
+     * @param filterId the filter id
+     * @param callback the asynchronous callback called when finished
+     */
+    public void getFilter(final String userId, final String filterId, final ApiCallback<FilterBody> callback) {
+        final String description = "getFilter userId : " + userId + " filterId : " + filterId;
+
+        try {
+            mApi.getFilter(userId, filterId, new RestAdapterCallback<FilterBody>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
+                @Override
+                public void onRetry() {
+                    getFilter(userId, filterId, callback);
+                }
+            }));
+        } catch (Throwable t) {
+            callback.onUnexpectedError(new Exception(t));
+        }
+    }
+}
@@ -220,13 +220,29 @@ public class GroupsRestClient extends RestClient<GroupsApi> {
      * @param callback the asynchronous callback.
      */
     public void getGroupProfile(final String groupId, final ApiCallback<GroupProfile> callback) {
+        // the group profiles are refreshed when they are updated, so they are not cached
+        mRequestsCoalescer.request("getGroupProfile " + groupId, 0, callback, new RequestsCoalescer.Request<GroupProfile>() {
+            @Override
+            public void send(ApiCallback<GroupProfile> requestCallback) {
+                sendGroupProfileRequest(groupId, requestCallback);
+            }
+        });
+    }
+
+    /**
+     * Send a group profile request.
+     *
+     * @param groupId  the group id
+     * @param callback the asynchronous callback.
+     */
+    private void sendGroupProfileRequest(final String groupId, final ApiCallback<GroupProfile> callback) {
         final String description = "getGroupProfile " + groupId;
 
         try {
             mApi.getProfile(groupId, new RestAdapterCallback<GroupProfile>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
                 @Override
                 public void onRetry() {
-                    getGroupProfile(groupId, callback);
+                    sendGroupProfileRequest(groupId, callback);
                 }
             }));
         } catch (Throwable t) {
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.client;
+
+import android.text.TextUtils;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+
+import org.matrix.androidsdk.HomeServerConnectionConfig;
+import org.matrix.androidsdk.ssl.CertUtil;
+import org.matrix.androidsdk.ssl.Fingerprint;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HTTP engine shared by the rest clients of a home server connection config, i.e by the rest clients of a session.
+ * <p>
+ * The rest clients use some copies of the same base client, so they share its connection pool,
+ * its SSL socket factory (and then the TLS sessions cache) and its optional response cache.
+ * The requests use HTTP/1.1 : the connections are reused with the keep-alive.
+ * The timeouts remain defined by each rest client.
+ */
+public class MXHttpEngine {
+    private static final String LOG_TAG = MXHttpEngine.class.getSimpleName();
+
+    // the idle connections are kept 5 minutes
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+
+    // the engines by connection settings
+    private static final Map<EngineKey, MXHttpEngine> sEngines = new HashMap<>();
+
+    /**
+     * The settings which define the connections of an engine :
+     * the home server connection configs with the same settings share the same engine.
+     */
+    private static class EngineKey {
+        private final String mHsUri;
+        private final List<Fingerprint> mAllowedFingerprints;
+        private final boolean mPin;
+        // the response cache is not shared between the sessions
+        private final String mUserId;
+
+        /**
+         * Constructor
+         *
+         * @param hsConfig the home server connection config
+         */
+        EngineKey(HomeServerConnectionConfig hsConfig) {
+            mHsUri = (null != hsConfig.getHomeserverUri()) ? hsConfig.getHomeserverUri().toString() : null;
+            mAllowedFingerprints = (null != hsConfig.getAllowedFingerprints()) ? new ArrayList<>(hsConfig.getAllowedFingerprints()) : new ArrayList<Fingerprint>();
+            mPin = hsConfig.shouldPin();
+            mUserId = (null != hsConfig.getCredentials()) ? hsConfig.getCredentials().userId : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof EngineKey)) {
+                return false;
+            }
+
+            EngineKey other = (EngineKey) o;
+
+            return (mPin == other.mPin) && TextUtils.equals(mHsUri, other.mHsUri) && TextUtils.equals(mUserId, other.mUserId)
+                    && mAllowedFingerprints.equals(other.mAllowedFingerprints);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (null != mHsUri) ? mHsUri.hashCode() : 0;
+            hash = 31 * hash + ((null != mUserId) ? mUserId.hashCode() : 0);
+            hash = 31 * hash + mAllowedFingerprints.hashCode();
+            return 31 * hash + (mPin ? 1 : 0);
+        }
+    }
+
+    // the base client
+    private final OkHttpClient mBaseClient;
+
+    // the clients created from the base one
+    private final List<WeakReference<OkHttpClient>> mClients = new ArrayList<>();
+
+    // the response cache
+    private Cache mCache;
+
+    /**
+     * Provides the HTTP engine of a home server connection config.
+     * It is created at the first call, then it is shared by the configs with the same
+     * home server url, TLS settings (pinning and allowed fingerprints) and user id.
+     *
+     * @param hsConfig the home server connection config
+     * @return the HTTP engine
+     */
+    public static MXHttpEngine getEngine(HomeServerConnectionConfig hsConfig) {
+        synchronized (sEngines) {
+            EngineKey key = new EngineKey(hsConfig);
+            MXHttpEngine engine = sEngines.get(key);
+
+            if (null == engine) {
+                engine = new MXHttpEngine(hsConfig);
+                sEngines.put(key, engine);
+            }
+
+            return engine;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param hsConfig the home server connection config
+     */
+    private MXHttpEngine(HomeServerConnectionConfig hsConfig) {
+        mBaseClient = new OkHttpClient();
+
+        mBaseClient.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS));
+        // OkHttp 2.2 only implements some experimental drafts of HTTP/2 and SPDY/3, which are deprecated
+        mBaseClient.setProtocols(Arrays.asList(Protocol.HTTP_1_1));
+
+        try {
+            mBaseClient.setSslSocketFactory(CertUtil.newPinnedSSLSocketFactory(hsConfig));
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## MXHttpEngine() setSslSocketFactory failed" + e.getMessage());
+        }
+
+        try {
+            mBaseClient.setHostnameVerifier(CertUtil.newHostnameVerifier(hsConfig));
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## MXHttpEngine() setHostnameVerifier failed" + e.getMessage());
+        }
+    }
+
+    /**
+     * Create a client which shares the connection pool, the TLS sessions and the response cache of this engine.
+     * Its timeouts can be updated without impacting the other clients.
+     *
+     * @return a new client
+     */
+    public OkHttpClient newClient() {
+        synchronized (mClients) {
+            // forget the released clients
+            Iterator<WeakReference<OkHttpClient>> iterator = mClients.iterator();
+
+            while (iterator.hasNext()) {
+                if (null == iterator.next().get()) {
+                    iterator.remove();
+                }
+            }
+
+            OkHttpClient client = mBaseClient.clone();
+            mClients.add(new WeakReference<>(client));
+            return client;
+        }
+    }
+
+    /**
+     * Enable the on-disk cache of the cacheable responses.
+     * It is applied to the existing clients too.
+     *
+     * @param directory the cache directory
+     * @param maxSize   the cache max size in bytes
+     */
+    public void enableResponseCache(File directory, long maxSize) {
+        synchronized (mClients) {
+            if (null != mCache) {
+                Log.d(LOG_TAG, "## enableResponseCache() : the cache is already enabled");
+                return;
+            }
+
+            try {
+                mCache = new Cache(directory, maxSize);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## enableResponseCache() failed " + e.getMessage());
+                return;
+            }
+
+            setCache(mCache);
+        }
+    }
+
+    /**
+     * Release the shared resources : the idle connections are closed and the response cache is deleted.
+     * The next rest clients of the home server connection config will use a new engine.
+     */
+    public void clear() {
+        synchronized (sEngines) {
+            sEngines.values().remove(this);
+        }
+
+        synchronized (mClients) {
+            mBaseClient.getConnectionPool().evictAll();
+
+            if (null != mCache) {
+                setCache(null);
+
+                try {
+                    mCache.delete();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## clear() : cache delete failed " + e.getMessage());
+                }
+
+                mCache = null;
+            }
+        }
+    }
+
+    /**
+     * Update the response cache of the base client and of the living clients.
+     *
+     * @param cache the cache
+     */
+    private void setCache(Cache cache) {
+        mBaseClient.setCache(cache);
+
+        Iterator<WeakReference<OkHttpClient>> iterator = mClients.iterator();
+
+        while (iterator.hasNext()) {
+            OkHttpClient client = iterator.next().get();
+
+            if (null == client) {
+                iterator.remove();
+            } else {
+                client.setCache(cache);
+            }
+        }
+    }
+}
@@ -53,6 +53,9 @@ import retrofit.client.Response;
 public class ProfileRestClient extends RestClient<ProfileApi> {
     private static final String LOG_TAG = ProfileRestClient.class.getSimpleName();
 
+    // the profile responses are reused during 10 seconds
+    private static final long PROFILE_CACHE_TTL_MS = 10 * 1000;
+
     /**
      * {@inheritDoc}
      */
@@ -66,13 +69,27 @@ public class ProfileRestClient extends RestClient<ProfileApi> {
      * @param callback the callback to return the name on success
      */
     public void displayname(final String userId, final ApiCallback<String> callback) {
+        mRequestsCoalescer.request("displayname " + userId, PROFILE_CACHE_TTL_MS, callback, new RequestsCoalescer.Request<String>() {
+            @Override
+            public void send(ApiCallback<String> requestCallback) {
+                sendDisplaynameRequest(userId, requestCallback);
+            }
+        });
+    }
+
+    /**
+     * Send a display name request.
+     * @param userId the user id
+     * @param callback the callback to return the name on success
+     */
+    private void sendDisplaynameRequest(final String userId, final ApiCallback<String> callback) {
         final String description = "display name userId : " + userId;
 
         try {
             mApi.displayname(userId, new RestAdapterCallback<User>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
                 @Override
                 public void onRetry() {
-                    displayname(userId, callback);
+                    sendDisplaynameRequest(userId, callback);
                 }
             }) {
                 @Override
@@ -107,7 +124,14 @@ public class ProfileRestClient extends RestClient<ProfileApi> {
                 public void onRetry() {
                     updateDisplayname(newName, callback);
                 }
-            }));
+            }) {
+                @Override
+                public void success(Void info, Response response) {
+                    // the cached value is obsolete
+                    mRequestsCoalescer.invalidate("displayname " + mCredentials.userId);
+                    super.success(info, response);
+                }
+            });
         } catch (Throwable t) {
             callback.onUnexpectedError(new Exception(t));
         }
@@ -119,13 +143,27 @@ public class ProfileRestClient extends RestClient<ProfileApi> {
      * @param callback the callback to return the URL on success
      */
     public void avatarUrl(final String userId, final ApiCallback<String> callback) {
+        mRequestsCoalescer.request("avatarUrl " + userId, PROFILE_CACHE_TTL_MS, callback, new RequestsCoalescer.Request<String>() {
+            @Override
+            public void send(ApiCallback<String> requestCallback) {
+                sendAvatarUrlRequest(userId, requestCallback);
+            }
+        });
+    }
+
+    /**
+     * Send an avatar URL request.
+     * @param userId the user id
+     * @param callback the callback to return the URL on success
+     */
+    private void sendAvatarUrlRequest(final String userId, final ApiCallback<String> callback) {
         final String description = "avatarUrl userId : " + userId;
 
         try {
             mApi.avatarUrl(userId, new RestAdapterCallback<User>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
                 @Override
                 public void onRetry() {
-                    avatarUrl(userId, callback);
+                    sendAvatarUrlRequest(userId, callback);
                 }
             }) {
                 @Override
@@ -158,7 +196,14 @@ public class ProfileRestClient extends RestClient<ProfileApi> {
                 public void onRetry() {
                     updateAvatarUrl(newUrl, callback);
                 }
-            }));
+            }) {
+                @Override
+                public void success(Void info, Response response) {
+                    // the cached value is obsolete
+                    mRequestsCoalescer.invalidate("avatarUrl " + mCredentials.userId);
+                    super.success(info, response);
+                }
+            });
         } catch (Throwable t) {
             callback.onUnexpectedError(new Exception(t));
         }
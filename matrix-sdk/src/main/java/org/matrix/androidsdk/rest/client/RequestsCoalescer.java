@@ -0,0 +1,350 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.client;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merge the identical read requests which are in progress.
+ * <p>
+ * The first request is sent, the next identical ones wait for its response, which is dispatched to all the callbacks.
+ * The successful responses can also be kept for a short time, to answer the next identical requests without sending them.
+ * Like the network responses, the cached ones are dispatched in the UI thread.
+ * <p>
+ * A mutable response (e.g. an event which is decrypted by the caller) must be requested with a ResponseCopier :
+ * each callback then receives its own copy.
+ */
+public class RequestsCoalescer {
+    private static final String LOG_TAG = RequestsCoalescer.class.getSimpleName();
+
+    // the max number of cached responses
+    private static final int MAX_CACHED_RESPONSES_COUNT = 500;
+
+    /**
+     * A request to send.
+     *
+     * @param <T> the response type
+     */
+    public interface Request<T> {
+        /**
+         * Send the request.
+         * The callback must be called once, when the request is done.
+         *
+         * @param callback the request callback
+         */
+        void send(ApiCallback<T> callback);
+    }
+
+    /**
+     * Copy a mutable response.
+     *
+     * @param <T> the response type
+     */
+    public interface ResponseCopier<T> {
+        /**
+         * Copy a response.
+         *
+         * @param response the response
+         * @return a copy that can be updated without impacting the response
+         */
+        T copy(T response);
+    }
+
+    /**
+     * A cached response.
+     */
+    private static class CachedResponse {
+        final Object mResponse;
+        final long mExpirationTime;
+
+        CachedResponse(Object response, long expirationTime) {
+            mResponse = response;
+            mExpirationTime = expirationTime;
+        }
+    }
+
+    /**
+     * A request in progress.
+     */
+    private static class PendingRequest {
+        // the callbacks waiting for the response
+        final List<ApiCallback<?>> mCallbacks = new ArrayList<>();
+
+        // false when the request target has been updated while the request was in progress
+        boolean mIsCacheable = true;
+    }
+
+    // the requests in progress, by request key
+    private final Map<String, PendingRequest> mPendingRequests = new HashMap<>();
+
+    // the cached responses, by request key
+    private final Map<String, CachedResponse> mCachedResponses = new HashMap<>();
+
+    // the network responses are dispatched in the UI thread
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+
+    // counters
+    private int mSentRequestsCount = 0;
+    private int mCoalescedRequestsCount = 0;
+    private int mCachedResponsesHitsCount = 0;
+
+    /**
+     * Send a request, unless the same request is in progress.
+     *
+     * @param key      the request key, two requests with the same key are identical
+     * @param cacheTtl the time in ms during which the successful response is reused, 0 to disable it
+     * @param callback the asynchronous callback
+     * @param request  the request to send
+     * @param <T>      the response type
+     */
+    public <T> void request(String key, long cacheTtl, ApiCallback<T> callback, Request<T> request) {
+        request(key, cacheTtl, null, callback, request);
+    }
+
+    /**
+     * Send a request, unless the same request is in progress.
+     *
+     * @param key      the request key, two requests with the same key are identical
+     * @param cacheTtl the time in ms during which the successful response is reused, 0 to disable it
+     * @param copier   the response copier, null if the response is immutable
+     * @param callback the asynchronous callback
+     * @param request  the request to send
+     * @param <T>      the response type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void request(final String key, final long cacheTtl, final ResponseCopier<T> copier, final ApiCallback<T> callback, final Request<T> request) {
+        CachedResponse cachedResponse;
+        final PendingRequest pendingRequest;
+
+        synchronized (this) {
+            cachedResponse = mCachedResponses.get(key);
+
+            if ((null != cachedResponse) && (cachedResponse.mExpirationTime < System.currentTimeMillis())) {
+                mCachedResponses.remove(key);
+                cachedResponse = null;
+            }
+
+            if (null != cachedResponse) {
+                mCachedResponsesHitsCount++;
+                pendingRequest = null;
+            } else {
+                PendingRequest currentRequest = mPendingRequests.get(key);
+
+                if (null != currentRequest) {
+                    mCoalescedRequestsCount++;
+                    currentRequest.mCallbacks.add(callback);
+                    return;
+                }
+
+                pendingRequest = new PendingRequest();
+                pendingRequest.mCallbacks.add(callback);
+                mPendingRequests.put(key, pendingRequest);
+                mSentRequestsCount++;
+            }
+        }
+
+        if (null != cachedResponse) {
+            T cachedInfo = (T) cachedResponse.mResponse;
+            final T response = (null == copier) ? cachedInfo : copier.copy(cachedInfo);
+
+            mUIHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onSuccess(response);
+                }
+            });
+            return;
+        }
+
+        try {
+            request.send(new ApiCallback<T>() {
+                @Override
+                public void onSuccess(T info) {
+                    List<ApiCallback<?>> callbacks = getPendingCallbacks(key, pendingRequest);
+
+                    synchronized (RequestsCoalescer.this) {
+                        if ((cacheTtl > 0) && pendingRequest.mIsCacheable) {
+                            cacheResponse(key, ((null == copier) || (null == info)) ? info : copier.copy(info), System.currentTimeMillis() + cacheTtl);
+                        }
+                    }
+
+                    // the copies are made before the first caller can update the response
+                    List<T> responses = new ArrayList<>(callbacks.size());
+
+                    for (int i = 0; i < callbacks.size(); i++) {
+                        responses.add(((0 == i) || (null == copier) || (null == info)) ? info : copier.copy(info));
+                    }
+
+                    for (int i = 0; i < callbacks.size(); i++) {
+                        try {
+                            ((ApiCallback<T>) callbacks.get(i)).onSuccess(responses.get(i));
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "## request() : onSuccess failed " + e.getMessage());
+                        }
+                    }
+                }
+
+                @Override
+                public void onNetworkError(Exception e) {
+                    for (ApiCallback<?> pendingCallback : getPendingCallbacks(key, pendingRequest)) {
+                        try {
+                            pendingCallback.onNetworkError(e);
+                        } catch (Exception callbackException) {
+                            Log.e(LOG_TAG, "## request() : onNetworkError failed " + callbackException.getMessage());
+                        }
+                    }
+                }
+
+                @Override
+                public void onMatrixError(MatrixError e) {
+                    for (ApiCallback<?> pendingCallback : getPendingCallbacks(key, pendingRequest)) {
+                        try {
+                            pendingCallback.onMatrixError(e);
+                        } catch (Exception callbackException) {
+                            Log.e(LOG_TAG, "## request() : onMatrixError failed " + callbackException.getMessage());
+                        }
+                    }
+                }
+
+                @Override
+                public void onUnexpectedError(Exception e) {
+                    for (ApiCallback<?> pendingCallback : getPendingCallbacks(key, pendingRequest)) {
+                        try {
+                            pendingCallback.onUnexpectedError(e);
+                        } catch (Exception callbackException) {
+                            Log.e(LOG_TAG, "## request() : onUnexpectedError failed " + callbackException.getMessage());
+                        }
+                    }
+                }
+            });
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## request() : send failed " + e.getMessage());
+
+            for (ApiCallback<?> pendingCallback : getPendingCallbacks(key, pendingRequest)) {
+                pendingCallback.onUnexpectedError(e);
+            }
+        }
+    }
+
+    /**
+     * Provides the callbacks of a request in progress, and forget the request.
+     * The next identical requests will be sent.
+     *
+     * @param key            the request key
+     * @param pendingRequest the request
+     * @return the callbacks
+     */
+    private synchronized List<ApiCallback<?>> getPendingCallbacks(String key, PendingRequest pendingRequest) {
+        // the request might have been replaced by a new one after an invalidation
+        if (mPendingRequests.get(key) == pendingRequest) {
+            mPendingRequests.remove(key);
+        }
+
+        List<ApiCallback<?>> callbacks = new ArrayList<>(pendingRequest.mCallbacks);
+        pendingRequest.mCallbacks.clear();
+        return callbacks;
+    }
+
+    /**
+     * Cache a response.
+     *
+     * @param key            the request key
+     * @param response       the response
+     * @param expirationTime the expiration time
+     */
+    private void cacheResponse(String key, Object response, long expirationTime) {
+        if (mCachedResponses.size() >= MAX_CACHED_RESPONSES_COUNT) {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, CachedResponse>> iterator = mCachedResponses.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                if (iterator.next().getValue().mExpirationTime < now) {
+                    iterator.remove();
+                }
+            }
+
+            // the responses are short-lived
+            if (mCachedResponses.size() >= MAX_CACHED_RESPONSES_COUNT) {
+                mCachedResponses.clear();
+            }
+        }
+
+        mCachedResponses.put(key, new CachedResponse(response, expirationTime));
+    }
+
+    /**
+     * Forget the cached response of a request.
+     * It must be called when the request target is updated.
+     * The response of a request in progress is not cached, and the next identical requests are sent
+     * instead of waiting for it.
+     *
+     * @param key the request key
+     */
+    public synchronized void invalidate(String key) {
+        mCachedResponses.remove(key);
+
+        PendingRequest pendingRequest = mPendingRequests.remove(key);
+
+        if (null != pendingRequest) {
+            pendingRequest.mIsCacheable = false;
+        }
+    }
+
+    /**
+     * Forget the cached responses.
+     */
+    public synchronized void clearCache() {
+        mCachedResponses.clear();
+    }
+
+    /**
+     * @return the number of sent requests
+     */
+    public synchronized int getSentRequestsCount() {
+        return mSentRequestsCount;
+    }
+
+    /**
+     * @return the number of requests which have been merged with an identical request in progress
+     */
+    public synchronized int getCoalescedRequestsCount() {
+        return mCoalescedRequestsCount;
+    }
+
+    /**
+     * @return the number of requests which have been answered with a cached response
+     */
+    public synchronized int getCachedResponsesHitsCount() {
+        return mCachedResponsesHitsCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "sent " + mSentRequestsCount + " coalesced " + mCoalescedRequestsCount + " cache hits " + mCachedResponsesHitsCount;
+    }
+}
@@ -48,6 +48,7 @@ import org.matrix.androidsdk.rest.model.User;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -58,6 +59,28 @@ public class RoomsRestClient extends RestClient<RoomsApi> {
 
     public static final int DEFAULT_MESSAGES_PAGINATION_LIMIT = 30;
 
+    // the retrieved events are updated by the callers (decryption, pagination...) : each caller receives its own copy
+    private static final RequestsCoalescer.ResponseCopier<Event> EVENT_COPIER = new RequestsCoalescer.ResponseCopier<Event>() {
+        @Override
+        public Event copy(Event event) {
+            return event.deepCopy();
+        }
+    };
+
+    private static final RequestsCoalescer.ResponseCopier<EventContext> EVENT_CONTEXT_COPIER = new RequestsCoalescer.ResponseCopier<EventContext>() {
+        @Override
+        public EventContext copy(EventContext eventContext) {
+            EventContext copy = new EventContext();
+            copy.event = (null == eventContext.event) ? null : eventContext.event.deepCopy();
+            copy.start = eventContext.start;
+            copy.eventsBefore = copyEvents(eventContext.eventsBefore);
+            copy.eventsAfter = copyEvents(eventContext.eventsAfter);
+            copy.end = eventContext.end;
+            copy.state = copyEvents(eventContext.state);
+            return copy;
+        }
+    };
+
     // read marker field names
     private static final String READ_MARKER_FULLY_READ = "m.fully_read";
     private static final String READ_MARKER_READ = "m.read";
@@ -414,14 +437,73 @@ public class RoomsRestClient extends RestClient<RoomsApi> {
         }
     }
 
+    /**
+     * Retrieve the m.room.member events of a room.
+     * It is required when the members are lazy loaded by the sync filter.
+     *
+     * @param roomId   the room id
+     * @param callback the asynchronous callback
+     */
+    public void getRoomMembers(final String roomId, final ApiCallback<TokensChunkResponse<Event>> callback) {
+        final String description = "getRoomMembers : roomId " + roomId;
+
+        try {
+            mApi.getMembers(roomId, new RestAdapterCallback<TokensChunkResponse<Event>>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
+                @Override
+                public void onRetry() {
+                    getRoomMembers(roomId, callback);
+                }
+            }));
+        } catch (Throwable t) {
+            callback.onUnexpectedError(new Exception(t));
+        }
+    }
+
+    /**
+     * Copy an events list.
+     *
+     * @param events the events
+     * @return a list of events copies
+     */
+    private static List<Event> copyEvents(List<Event> events) {
+        if (null == events) {
+            return null;
+        }
+
+        List<Event> copies = new ArrayList<>(events.size());
+
+        for (Event event : events) {
+            copies.add((null == event) ? null : event.deepCopy());
+        }
+
+        return copies;
+    }
+
     /**
      * Retrieve an event from its room id / event id.
+     * The identical requests in progress are merged.
      *
      * @param roomId   the room id
      * @param eventId  the event id
      * @param callback the asynchronous callback.
      */
     public void getEvent(final String roomId, final String eventId, final ApiCallback<Event> callback) {
+        mRequestsCoalescer.request("getEvent " + roomId + " " + eventId, 0, EVENT_COPIER, callback, new RequestsCoalescer.Request<Event>() {
+            @Override
+            public void send(ApiCallback<Event> requestCallback) {
+                sendGetEventRequests(roomId, eventId, requestCallback);
+            }
+        });
+    }
+
+    /**
+     * Send the requests to retrieve an event.
+     *
+     * @param roomId   the room id
+     * @param eventId  the event id
+     * @param callback the asynchronous callback.
+     */
+    private void sendGetEventRequests(final String roomId, final String eventId, final ApiCallback<Event> callback) {
         // try first with roomid / event id
         getEventFromRoomIdEventId(roomId, eventId, new ApiCallback<Event>() {
             @Override
@@ -549,13 +631,30 @@ public class RoomsRestClient extends RestClient<RoomsApi> {
      * @param callback the asynchronous callback called with the response
      */
     public void getContextOfEvent(final String roomId, final String eventId, final int limit, final ApiCallback<EventContext> callback) {
+        mRequestsCoalescer.request("getContextOfEvent " + roomId + " " + eventId + " " + limit, 0, EVENT_CONTEXT_COPIER, callback, new RequestsCoalescer.Request<EventContext>() {
+            @Override
+            public void send(ApiCallback<EventContext> requestCallback) {
+                sendContextOfEventRequest(roomId, eventId, limit, requestCallback);
+            }
+        });
+    }
+
+    /**
+     * Send a request to get the context surrounding an event.
+     *
+     * @param roomId   the room id
+     * @param eventId  the event Id
+     * @param limit    the maximum number of messages to retrieve
+     * @param callback the asynchronous callback called with the response
+     */
+    private void sendContextOfEventRequest(final String roomId, final String eventId, final int limit, final ApiCallback<EventContext> callback) {
         final String description = "getContextOfEvent : roomId " + roomId + " eventId " + eventId + " limit " + limit;
 
         try {
             mApi.getContextOfEvent(roomId, eventId, limit, new RestAdapterCallback<EventContext>(description, mUnsentEventsManager, callback, new RestAdapterCallback.RequestRetryCallBack() {
                 @Override
                 public void onRetry() {
-                    getContextOfEvent(roomId, eventId, limit, callback);
+                    sendContextOfEventRequest(roomId, eventId, limit, callback);
                 }
             }));
         } catch (Throwable t) {
@@ -22,7 +22,8 @@ import com.google.gson.JsonObject;
 
 import org.matrix.androidsdk.rest.model.Event;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 public class EventMatchCondition extends Condition {
@@ -30,7 +31,8 @@ public class EventMatchCondition extends Condition {
     public String key;
     public String pattern;
 
-    private static HashMap<String, Pattern> mPatternByRule = null;
+    // the compiled patterns, shared by the threads which evaluate the rules
+    private static final Map<String, Pattern> mPatternByRule = new ConcurrentHashMap<>();
 
     public EventMatchCondition() {
         kind = Condition.KIND_EVENT_MATCH;
@@ -69,10 +71,6 @@ public class EventMatchCondition extends Condition {
             return true;
         }
 
-        if (null == mPatternByRule) {
-            mPatternByRule = new HashMap<>();
-        }
-
         Pattern patternEx = mPatternByRule.get(pattern);
 
         if (null == patternEx) {
@@ -17,9 +17,6 @@ package org.matrix.androidsdk.rest.model.bingrules;
 
 import org.matrix.androidsdk.util.Log;
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.rest.model.RoomMember;
-
-import java.util.Collection;
 
 public class RoomMemberCountCondition extends Condition {
 
@@ -80,15 +77,7 @@ public class RoomMemberCountCondition extends Condition {
      * @return the number of joined members
      */
     private int getNumberOfMembers(Room room) {
-        Collection<RoomMember> members = room.getMembers();
-        int n = 0;
-
-        for (RoomMember member : members) {
-            if (RoomMember.MEMBERSHIP_JOIN.equals(member.membership)) {
-                n++;
-            }
-        }
-        return n;
+        return room.getNumberOfJoinedMembers();
     }
 
     /**
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.model.filter;
+
+import org.matrix.androidsdk.util.JsonUtils;
+
+import java.util.List;
+
+/**
+ * Class representing a sync filter definition.
+ * It is uploaded to get a filter id, or it is sent inline as a JSON string.
+ */
+public class FilterBody {
+    // the event fields to include, all the fields are included if it is not set
+    public List<String> event_fields;
+
+    // the events format ("client" or "federation")
+    public String event_format;
+
+    // the presence events filter
+    public EventFilter presence;
+
+    // the account data filter
+    public EventFilter account_data;
+
+    // the rooms filter
+    public RoomFilter room;
+
+    /**
+     * @return the filter as a JSON string
+     */
+    public String toJSONString() {
+        return JsonUtils.getGson(false).toJson(this);
+    }
+}
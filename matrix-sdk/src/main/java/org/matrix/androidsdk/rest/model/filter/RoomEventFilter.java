@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.model.filter;
+
+import java.util.List;
+
+/**
+ * Class representing a sync filter room events filter.
+ */
+public class RoomEventFilter {
+    // the max number of events to return
+    public Integer limit;
+
+    // the event types to include, "*" can be used as a wildcard
+    public List<String> types;
+
+    // the event types to exclude
+    public List<String> not_types;
+
+    // the senders to include
+    public List<String> senders;
+
+    // the senders to exclude
+    public List<String> not_senders;
+
+    // the rooms to include
+    public List<String> rooms;
+
+    // the rooms to exclude
+    public List<String> not_rooms;
+
+    // true to only include the events with an url, false to exclude them
+    public Boolean contains_url;
+
+    // true to only send the m.room.member events of the timeline events senders
+    // it is only meaningful for the state filter
+    public Boolean lazy_load_members;
+
+    // true to send the m.room.member events of the timeline events senders even if they have already been sent
+    public Boolean include_redundant_members;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.model.filter;
+
+import java.util.List;
+
+/**
+ * Class representing a sync filter rooms filter.
+ */
+public class RoomFilter {
+    // the rooms to include
+    public List<String> rooms;
+
+    // the rooms to exclude
+    public List<String> not_rooms;
+
+    // true to include the left rooms
+    public Boolean include_leave;
+
+    // the timeline events filter
+    public RoomEventFilter timeline;
+
+    // the state events filter
+    public RoomEventFilter state;
+
+    // the ephemeral events filter
+    public RoomEventFilter ephemeral;
+
+    // the room account data filter
+    public RoomEventFilter account_data;
+}
@@ -42,4 +42,9 @@ public class RoomSync implements java.io.Serializable {
      */
     public RoomSyncUnreadNotifications unreadNotifications;
 
+    /**
+     * The room summary, sent when the members are lazy loaded.
+     */
+    public RoomSyncSummary summary;
+
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.model.sync;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.List;
+
+/**
+ * `RoomSyncSummary` represents the summary of a room.
+ * It is sent when the members are lazy loaded : the room state does not contain all of them.
+ * The fields are only sent when they have changed.
+ */
+public class RoomSyncSummary implements java.io.Serializable {
+    /**
+     * The user ids of the members to use to name the room when it has no name and no alias.
+     */
+    @SerializedName("m.heroes")
+    public List<String> heroes;
+
+    /**
+     * The number of joined members.
+     */
+    @SerializedName("m.joined_member_count")
+    public Integer joinedMembersCount;
+
+    /**
+     * The number of invited members.
+     */
+    @SerializedName("m.invited_member_count")
+    public Integer invitedMembersCount;
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.matrix.androidsdk.sync;
+
+import java.util.Random;
+
+/**
+ * The default sync scheduling policy.
+ * <ul>
+ * <li>The server long poll timeout grows while the polls return no update, so an idle session wakes
+ * the radio up less often. It is reset by an update, and reduced when an extended poll fails.</li>
+ * <li>The client timeout is the server timeout plus a margin derived from the observed latency.</li>
+ * <li>The failed requests are retried with an exponential backoff and a random jitter.
+ * The first retry is fast to recover quickly from a network flap, the background ones are slower.</li>
+ * </ul>
+ * It also counts the requests, the empty polls and the retries.
+ */
+public class AdaptiveSyncSchedulingPolicy implements SyncSchedulingPolicy {
+    // the number of consecutive empty polls before extending the server timeout
+    private static final int EMPTY_POLLS_BY_EXTENSION = 3;
+    // the server timeout extension ratio
+    private static final float SERVER_TIMEOUT_EXTENSION_RATIO = 0.5f;
+    // the max server timeout
+    private static final int MAX_SERVER_TIMEOUT_MS = 90000;
+
+    // the client timeout margin bounds
+    private static final int MIN_CLIENT_TIMEOUT_MARGIN_MS = 30000;
+    private static final int MAX_CLIENT_TIMEOUT_MARGIN_MS = 90000;
+    // the client timeout margin by latency
+    private static final int CLIENT_TIMEOUT_MARGIN_BY_LATENCY = 4;
+
+    // the latency moving average weight of a new sample
+    private static final float LATENCY_SAMPLE_WEIGHT = 0.2f;
+
+    // the retry delays bounds
+    private static final int MIN_RETRY_DELAY_MS = 2000;
+    private static final int MAX_RETRY_DELAY_MS = 60000;
+    // the background retry delays ratio
+    private static final int BACKGROUND_RETRY_DELAY_RATIO = 2;
+
+    private final Random mRandom;
+
+    // the current state
+    private int mConsecutiveEmptyPollsCount = 0;
+    private int mConsecutiveErrorsCount = 0;
+    private int mLastDefaultServerTimeoutMs = 0;
+    private int mMaxServerTimeoutMs = MAX_SERVER_TIMEOUT_MS;
+    // the latency moving average, -1 until there is a sample
+    private float mLatencyMs = -1;
+
+    // the counters
+    private long mRequestsCount = 0;
+    private long mEmptyPollsCount = 0;
+    private long mRetriesCount = 0;
+    private long mSucceededRequestsCount = 0;
+    private long mTotalRoundTripMs = 0;
+
+    /**
+     * Constructor
+     */
+    public AdaptiveSyncSchedulingPolicy() {
+        this(new Random());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param random the jitter random generator
+     */
+    public AdaptiveSyncSchedulingPolicy(Random random) {
+        mRandom = random;
+    }
+
+    @Override
+    public synchronized int getServerTimeout(int defaultServerTimeoutMs, boolean isCatchingUp) {
+        mLastDefaultServerTimeoutMs = defaultServerTimeoutMs;
+
+        // the catchup polls must not last
+        if (isCatchingUp) {
+            return defaultServerTimeoutMs;
+        }
+
+        int extensionsCount = mConsecutiveEmptyPollsCount / EMPTY_POLLS_BY_EXTENSION;
+        int serverTimeoutMs = (int) (defaultServerTimeoutMs * (1 + extensionsCount * SERVER_TIMEOUT_EXTENSION_RATIO));
+
+        return Math.max(defaultServerTimeoutMs, Math.min(serverTimeoutMs, mMaxServerTimeoutMs));
+    }
+
+    @Override
+    public synchronized int getClientTimeout(int serverTimeoutMs) {
+        int marginMs = MAX_CLIENT_TIMEOUT_MARGIN_MS;
+
+        if (mLatencyMs >= 0) {
+            marginMs = Math.max(MIN_CLIENT_TIMEOUT_MARGIN_MS, Math.min((int) (mLatencyMs * CLIENT_TIMEOUT_MARGIN_BY_LATENCY), MAX_CLIENT_TIMEOUT_MARGIN_MS));
+        }
+
+        return serverTimeoutMs + marginMs;
+    }
+
+    @Override
+    public synchronized int getRetryDelay(boolean isCatchingUp) {
+        int exponent = Math.max(0, Math.min(mConsecutiveErrorsCount - 1, 16));
+        int delayMs = (int) Math.min((long) MIN_RETRY_DELAY_MS << exponent, MAX_RETRY_DELAY_MS);
+
+        if (isCatchingUp) {
+            delayMs *= BACKGROUND_RETRY_DELAY_RATIO;
+        }
+
+        // the jitter avoids the clients retrying at the same time
+        return (delayMs / 2) + mRandom.nextInt((delayMs / 2) + 1);
+    }
+
+    @Override
+    public synchronized void onSyncSuccess(int serverTimeoutMs, long roundTripMs, boolean isEmptyResponse) {
+        mRequestsCount++;
+        mSucceededRequestsCount++;
+        mTotalRoundTripMs += roundTripMs;
+        mConsecutiveErrorsCount = 0;
+
+        if (isEmptyResponse) {
+            mEmptyPollsCount++;
+            mConsecutiveEmptyPollsCount++;
+        } else {
+            mConsecutiveEmptyPollsCount = 0;
+        }
+
+        // the latency is only known when the server did not wait for updates
+        // or when it waited until the timeout
+        if ((0 == serverTimeoutMs) || isEmptyResponse) {
+            addLatencySample(Math.max(0, roundTripMs - serverTimeoutMs));
+        }
+    }
+
+    @Override
+    public synchronized void onSyncError(int serverTimeoutMs) {
+        mRequestsCount++;
+        mRetriesCount++;
+        mConsecutiveErrorsCount++;
+        mConsecutiveEmptyPollsCount = 0;
+
+        // an extended poll failed : the network might not support it
+        if ((serverTimeoutMs > mLastDefaultServerTimeoutMs) && (mLastDefaultServerTimeoutMs > 0)) {
+            mMaxServerTimeoutMs = Math.max(mLastDefaultServerTimeoutMs, serverTimeoutMs - (int) (mLastDefaultServerTimeoutMs * SERVER_TIMEOUT_EXTENSION_RATIO));
+        }
+    }
+
+    /**
+     * Update the latency moving average.
+     *
+     * @param latencyMs the latency sample
+     */
+    private void addLatencySample(long latencyMs) {
+        if (mLatencyMs < 0) {
+            mLatencyMs = latencyMs;
+        } else {
+            mLatencyMs += LATENCY_SAMPLE_WEIGHT * (latencyMs - mLatencyMs);
+        }
+    }
+
+    /**
+     * @return the sync requests count
+     */
+    public synchronized long getRequestsCount() {
+        return mRequestsCount;
+    }
+
+    /**
+     * @return the number of polls which returned no update
+     */
+    public synchronized long getEmptyPollsCount() {
+        return mEmptyPollsCount;
+    }
+
+    /**
+     * @return the number of failed requests, which are retried
+     */
+    public synchronized long getRetriesCount() {
+        return mRetriesCount;
+    }
+
+    /**
+     * @return the mean round trip time in ms of the succeeded requests
+     */
+    public synchronized long getMeanRoundTripMs() {
+        return (0 == mSucceededRequestsCount) ? 0 : (mTotalRoundTripMs / mSucceededRequestsCount);
+    }
+
+    /**
+     * @return the estimated network latency in ms, -1 if it is unknown
+     */
+    public synchronized long getLatencyMs() {
+        return (long) mLatencyMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mRequestsCount + " requests, " + mEmptyPollsCount + " empty polls, " + mRetriesCount + " retries"
+                + ", mean round trip " + getMeanRoundTripMs() + " ms, latency " + getLatencyMs() + " ms";
+    }
+}
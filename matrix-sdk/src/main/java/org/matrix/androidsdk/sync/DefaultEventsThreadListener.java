@@ -18,8 +18,11 @@
 package org.matrix.androidsdk.sync;
 
 import org.matrix.androidsdk.MXDataHandler;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 
+import java.io.InputStream;
+
 /**
  * Listener for the events thread that sends data back to a data handler.
  */
@@ -36,6 +39,11 @@ public class DefaultEventsThreadListener implements EventsThreadListener {
         mDataHandler.onSyncResponse(syncResponse, fromToken, isCatchingUp);
     }
 
+    @Override
+    public void onSyncResponseStream(InputStream stream, String fromToken, ApiCallback<SyncResponse> callback) {
+        mDataHandler.onSyncResponseStream(stream, fromToken, callback);
+    }
+
     @Override
     public void onConfigurationError(String matrixErrorCode) {
         mDataHandler.onConfigurationError(matrixErrorCode);
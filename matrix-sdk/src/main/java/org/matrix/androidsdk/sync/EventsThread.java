@@ -32,12 +32,14 @@ import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.listeners.IMXNetworkEventListener;
 import org.matrix.androidsdk.network.NetworkConnectivityReceiver;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.ApiFailureCallback;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.client.EventsRestClient;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
@@ -48,8 +50,6 @@ import java.util.concurrent.CountDownLatch;
 public class EventsThread extends Thread {
     private static final String LOG_TAG = EventsThread.class.getSimpleName();
 
-    private static final int RETRY_WAIT_TIME_MS = 10000;
-
     private static final int DEFAULT_SERVER_TIMEOUT_MS = 30000;
     private static final int DEFAULT_CLIENT_TIMEOUT_MS = 120000;
 
@@ -60,6 +60,10 @@ public class EventsThread extends Thread {
     private EventsThreadListener mListener = null;
     private String mCurrentToken = null;
 
+    // the received sync response, which is dispatched by the events thread
+    private SyncResponse mReceivedSyncResponse = null;
+    private boolean mIsReceivedSyncResponseCatchingUp = false;
+
     private boolean mInitialSyncDone = false;
     private boolean mPaused = true;
     private boolean mIsNetworkSuspended = false;
@@ -93,6 +97,12 @@ public class EventsThread extends Thread {
     // use dedicated filter when enable
     private boolean mIsInDataSaveMode = false;
 
+    // the sync filters by mode
+    private SyncFilterRegistry mSyncFilterRegistry = null;
+
+    // the sync requests timeouts and retries policy
+    private SyncSchedulingPolicy mSyncSchedulingPolicy = new AdaptiveSyncSchedulingPolicy();
+
     private final IMXNetworkEventListener mNetworkListener = new IMXNetworkEventListener() {
         @Override
         public void onNetworkConnectionUpdate(boolean isConnected) {
@@ -145,6 +155,47 @@ public class EventsThread extends Thread {
         mIsInDataSaveMode = enabled;
     }
 
+    /**
+     * Set the sync filters registry.
+     *
+     * @param syncFilterRegistry the sync filters registry, null to only use the data save mode filter
+     */
+    public void setSyncFilterRegistry(SyncFilterRegistry syncFilterRegistry) {
+        mSyncFilterRegistry = syncFilterRegistry;
+    }
+
+    /**
+     * Set the sync scheduling policy.
+     *
+     * @param syncSchedulingPolicy the sync scheduling policy
+     */
+    public void setSyncSchedulingPolicy(SyncSchedulingPolicy syncSchedulingPolicy) {
+        if (null != syncSchedulingPolicy) {
+            mSyncSchedulingPolicy = syncSchedulingPolicy;
+        }
+    }
+
+    /**
+     * @return the sync scheduling policy
+     */
+    public SyncSchedulingPolicy getSyncSchedulingPolicy() {
+        return mSyncSchedulingPolicy;
+    }
+
+    /**
+     * Provides the filter of a sync request.
+     *
+     * @param mode the sync mode
+     * @return the filter id or the JSON filter, null if there is no filter
+     */
+    private String getSyncFilter(SyncFilterRegistry.Mode mode) {
+        if (null != mSyncFilterRegistry) {
+            return mSyncFilterRegistry.getFilter(mode);
+        }
+
+        return ((SyncFilterRegistry.Mode.INITIAL == mode) || (SyncFilterRegistry.Mode.DATA_SAVE == mode)) ? DATA_SAVE_MODE_FILTER : null;
+    }
+
     /**
      * Update the long poll timeout.
      *
@@ -359,6 +410,31 @@ public class EventsThread extends Thread {
                 (syncResponse.deviceLists.changed.size() > 0);
     }
 
+    /**
+     * Tell if a sync response contains no update.
+     *
+     * @param syncResponse the sync response
+     * @return true if the response is empty
+     */
+    private static boolean isEmptyResponse(SyncResponse syncResponse) {
+        if (null == syncResponse) {
+            return true;
+        }
+
+        RoomsSyncResponse rooms = syncResponse.rooms;
+
+        boolean hasRooms = (null != rooms) &&
+                (((null != rooms.join) && !rooms.join.isEmpty()) ||
+                        ((null != rooms.invite) && !rooms.invite.isEmpty()) ||
+                        ((null != rooms.leave) && !rooms.leave.isEmpty()));
+
+        return !hasRooms &&
+                ((null == syncResponse.toDevice) || (null == syncResponse.toDevice.events) || syncResponse.toDevice.events.isEmpty()) &&
+                ((null == syncResponse.presence) || (null == syncResponse.presence.events) || syncResponse.presence.events.isEmpty()) &&
+                ((null == syncResponse.accountData) || syncResponse.accountData.isEmpty()) &&
+                !hasDevicesChanged(syncResponse);
+    }
+
 
     /**
      * Use a broadcast receiver because the Timer delay might be inaccurate when the screen is turned off.
@@ -415,7 +491,7 @@ public class EventsThread extends Thread {
             // Start with initial sync
             while (!mInitialSyncDone) {
                 final CountDownLatch latch = new CountDownLatch(1);
-                mEventsRestClient.syncFromToken(null, 0, DEFAULT_CLIENT_TIMEOUT_MS, mIsOnline ? null : "offline", DATA_SAVE_MODE_FILTER, new SimpleApiCallback<SyncResponse>(mFailureCallback) {
+                final ApiCallback<SyncResponse> initialSyncCallback = new SimpleApiCallback<SyncResponse>(mFailureCallback) {
                     @Override
                     public void onSuccess(SyncResponse syncResponse) {
                         Log.d(LOG_TAG, "Received initial sync response.");
@@ -428,12 +504,15 @@ public class EventsThread extends Thread {
                     }
 
                     private void sleepAndUnblock() {
-                        Log.i(LOG_TAG, "Waiting a bit before retrying");
+                        mSyncSchedulingPolicy.onSyncError(0);
+                        int retryDelayMs = mSyncSchedulingPolicy.getRetryDelay(false);
+
+                        Log.i(LOG_TAG, "Waiting " + retryDelayMs + " ms before retrying");
                         new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
                             public void run() {
                                 latch.countDown();
                             }
-                        }, RETRY_WAIT_TIME_MS);
+                        }, retryDelayMs);
                     }
 
                     @Override
@@ -464,6 +543,31 @@ public class EventsThread extends Thread {
                         Log.e(LOG_TAG, "Sync V2 onUnexpectedError " + e.getMessage());
                         sleepAndUnblock();
                     }
+                };
+
+                // the initial sync response might be huge
+                // so its rooms are handled while it is downloaded.
+                mEventsRestClient.syncFromTokenAsStream(null, 0, DEFAULT_CLIENT_TIMEOUT_MS, mIsOnline ? null : "offline", getSyncFilter(SyncFilterRegistry.Mode.INITIAL), new ApiCallback<InputStream>() {
+                    @Override
+                    public void onSuccess(InputStream stream) {
+                        Log.d(LOG_TAG, "Receiving initial sync response.");
+                        mListener.onSyncResponseStream(stream, null, initialSyncCallback);
+                    }
+
+                    @Override
+                    public void onNetworkError(Exception e) {
+                        initialSyncCallback.onNetworkError(e);
+                    }
+
+                    @Override
+                    public void onMatrixError(MatrixError e) {
+                        initialSyncCallback.onMatrixError(e);
+                    }
+
+                    @Override
+                    public void onUnexpectedError(Exception e) {
+                        initialSyncCallback.onUnexpectedError(e);
+                    }
                 });
 
                 // block until the initial sync callback is invoked.
@@ -542,7 +646,7 @@ public class EventsThread extends Thread {
 
             // the service could have been killed while being paused.
             if (!mKilling) {
-                String inlineFilter = mIsInDataSaveMode ? DATA_SAVE_MODE_FILTER : null; //"{\"room\":{\"timeline\":{\"limit\":250}}}";
+                String filter = getSyncFilter(mIsInDataSaveMode ? SyncFilterRegistry.Mode.DATA_SAVE : (mIsCatchingUp ? SyncFilterRegistry.Mode.BACKGROUND : SyncFilterRegistry.Mode.FOREGROUND));
 
                 final CountDownLatch latch = new CountDownLatch(1);
 
@@ -552,12 +656,19 @@ public class EventsThread extends Thread {
                     Log.d(LOG_TAG, "Get events from token " + mCurrentToken);
                 }
 
+                if (0 != serverTimeout) {
+                    serverTimeout = mSyncSchedulingPolicy.getServerTimeout(serverTimeout, mIsCatchingUp);
+                }
+
                 final int fServerTimeout = serverTimeout;
+                final long requestStartTime = System.currentTimeMillis();
                 mNextServerTimeoutms = mDefaultServerTimeoutms;
 
-                mEventsRestClient.syncFromToken(mCurrentToken, serverTimeout, DEFAULT_CLIENT_TIMEOUT_MS, mIsOnline ? null : "offline", inlineFilter, new SimpleApiCallback<SyncResponse>(mFailureCallback) {
+                mEventsRestClient.syncFromToken(mCurrentToken, serverTimeout, mSyncSchedulingPolicy.getClientTimeout(serverTimeout), mIsOnline ? null : "offline", filter, new SimpleApiCallback<SyncResponse>(mFailureCallback) {
                     @Override
                     public void onSuccess(SyncResponse syncResponse) {
+                        mSyncSchedulingPolicy.onSyncSuccess(fServerTimeout, System.currentTimeMillis() - requestStartTime, isEmptyResponse(syncResponse));
+
                         if (!mKilling) {
                             // poll /sync with timeout=0 until
                             // we get no to_device messages back.
@@ -597,10 +708,11 @@ public class EventsThread extends Thread {
                             }
 
                             Log.d(LOG_TAG, "Got event response");
-                            mListener.onSyncResponse(syncResponse, mCurrentToken, (0 == mNextServerTimeoutms));
-                            mCurrentToken = syncResponse.nextBatch;
-                            Log.d(LOG_TAG, "mCurrentToken is now set to " + mCurrentToken);
 
+                            // the response is dispatched by the events thread
+                            // because the dispatch waits while the sync responses queue is full
+                            mReceivedSyncResponse = syncResponse;
+                            mIsReceivedSyncResponseCatchingUp = (0 == mNextServerTimeoutms);
                         }
 
                         // unblock the events thread
@@ -611,17 +723,22 @@ public class EventsThread extends Thread {
                         boolean isConnected;
                         Log.d(LOG_TAG, "Got an error while polling events " + description);
 
+                        mSyncSchedulingPolicy.onSyncError(fServerTimeout);
+
                         synchronized (mSyncObject) {
                             isConnected = mbIsConnected;
                         }
 
                         // detected if the device is connected before trying again
                         if (isConnected) {
+                            int retryDelayMs = mSyncSchedulingPolicy.getRetryDelay(mIsCatchingUp);
+                            Log.d(LOG_TAG, "Retry in " + retryDelayMs + " ms");
+
                             new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
                                 public void run() {
                                     latch.countDown();
                                 }
-                            }, RETRY_WAIT_TIME_MS);
+                            }, retryDelayMs);
 
                         } else {
                             // no network -> wait that a network connection comes back.
@@ -660,6 +777,16 @@ public class EventsThread extends Thread {
                     // The thread might have been killed.
                     Log.e(LOG_TAG, "latch.await() failed " + e.getMessage());
                 }
+
+                // the response is processed in background while the next one is requested
+                if (null != mReceivedSyncResponse) {
+                    SyncResponse syncResponse = mReceivedSyncResponse;
+                    mReceivedSyncResponse = null;
+
+                    mListener.onSyncResponse(syncResponse, mCurrentToken, mIsReceivedSyncResponseCatchingUp);
+                    mCurrentToken = syncResponse.nextBatch;
+                    Log.d(LOG_TAG, "mCurrentToken is now set to " + mCurrentToken);
+                }
             }
 
             serverTimeout = mNextServerTimeoutms;
@@ -16,8 +16,11 @@
  */
 package org.matrix.androidsdk.sync;
 
+import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 
+import java.io.InputStream;
+
 /**
  * Interface to implement to listen to the event thread.
  */
@@ -31,6 +34,17 @@ public interface EventsThreadListener {
      */
     void onSyncResponse(SyncResponse response, String fromToken, boolean isCatchingUp);
 
+    /**
+     * Call when a streamed sync response is received.
+     * The rooms are handled while the response is decoded, the callback provides the response
+     * without its rooms, which must then be provided to onSyncResponse().
+     *
+     * @param stream    the response stream
+     * @param fromToken the start token
+     * @param callback  the asynchronous callback
+     */
+    void onSyncResponseStream(InputStream stream, String fromToken, ApiCallback<SyncResponse> callback);
+
     /**
      * A configuration error has been received.
      *
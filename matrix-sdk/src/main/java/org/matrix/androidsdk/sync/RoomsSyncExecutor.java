@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle the independent rooms of a sync response on a bounded threads pool.
+ * <p>
+ * The tasks are submitted from the sync thread, which waits for them with await()
+ * before handling the next sync response section.
+ * The submission blocks when too many tasks are pending, so the decoded rooms are not queued
+ * faster than they are handled.
+ */
+public class RoomsSyncExecutor {
+    private static final String LOG_TAG = RoomsSyncExecutor.class.getSimpleName();
+
+    // the max number of pending tasks by thread
+    private static final int MAX_PENDING_TASKS_BY_THREAD = 2;
+
+    private final int mThreadsCount;
+    private final ExecutorService mExecutorService;
+
+    // limit the pending tasks count
+    private final Semaphore mPendingTasksSemaphore;
+
+    // the submitted tasks, only used by the submitting thread
+    private final List<Future<?>> mSubmittedTasks = new ArrayList<>();
+
+    // true in the pool threads while they run a task
+    private final ThreadLocal<Boolean> mIsRunningTask = new ThreadLocal<>();
+
+    /**
+     * Constructor
+     *
+     * @param threadsCount the number of threads
+     */
+    public RoomsSyncExecutor(int threadsCount) {
+        mThreadsCount = Math.max(threadsCount, 1);
+        mPendingTasksSemaphore = new Semaphore(mThreadsCount * MAX_PENDING_TASKS_BY_THREAD);
+
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+
+        mExecutorService = Executors.newFixedThreadPool(mThreadsCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RoomsSyncThread-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getThreadsCount() {
+        return mThreadsCount;
+    }
+
+    /**
+     * @return true if the current thread is running a task of this executor
+     */
+    public boolean isRunningTask() {
+        return Boolean.TRUE.equals(mIsRunningTask.get());
+    }
+
+    /**
+     * Submit a task.
+     * It waits while too many tasks are pending.
+     * The task is run in the current thread if the executor has been shut down.
+     *
+     * @param task the task
+     */
+    public void execute(final Runnable task) {
+        try {
+            mPendingTasksSemaphore.acquire();
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "## execute() : interrupted, run the task in the current thread");
+            task.run();
+            return;
+        }
+
+        try {
+            mSubmittedTasks.add(mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mIsRunningTask.set(true);
+
+                    try {
+                        task.run();
+                    } finally {
+                        mIsRunningTask.remove();
+                        mPendingTasksSemaphore.release();
+                    }
+                }
+            }));
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## execute() : submit failed " + e.getMessage() + ", run the task in the current thread");
+            mPendingTasksSemaphore.release();
+            task.run();
+        }
+    }
+
+    /**
+     * Wait until the submitted tasks are done.
+     */
+    public void await() {
+        for (Future<?> future : mSubmittedTasks) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## await() : a task failed " + e.getMessage());
+            }
+        }
+
+        mSubmittedTasks.clear();
+    }
+
+    /**
+     * Shut down the threads pool.
+     * The pending tasks are run.
+     */
+    public void shutdown() {
+        mExecutorService.shutdown();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.FilterRestClient;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.rest.model.filter.EventFilter;
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
+import org.matrix.androidsdk.rest.model.filter.FilterResponse;
+import org.matrix.androidsdk.rest.model.filter.RoomEventFilter;
+import org.matrix.androidsdk.rest.model.filter.RoomFilter;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The sync filters registry.
+ * <p>
+ * It defines a sync filter for each sync mode. The filters are uploaded to the server
+ * and their ids are saved in the store, so they are uploaded once.
+ * Until a filter is uploaded, it is sent inline as a JSON string.
+ */
+public class SyncFilterRegistry {
+    private static final String LOG_TAG = SyncFilterRegistry.class.getSimpleName();
+
+    /**
+     * The sync modes
+     */
+    public enum Mode {
+        // the initial sync
+        INITIAL,
+        // the sync while the application is in foreground
+        FOREGROUND,
+        // the catchup syncs, while the application is in background
+        BACKGROUND,
+        // the syncs while the data save mode is enabled
+        DATA_SAVE
+    }
+
+    private final IMXStore mStore;
+    private final FilterRestClient mFilterRestClient;
+    private final String mUserId;
+
+    // the filters by mode
+    private final Map<Mode, FilterBody> mFilters = new HashMap<>();
+
+    // the uploaded filters ids by JSON filter
+    private final Map<String, String> mFilterIds = new HashMap<>();
+
+    // the JSON filters which are being uploaded
+    private final Set<String> mUploadingFilters = new HashSet<>();
+
+    /**
+     * Constructor
+     *
+     * @param store            the store, which saves the filters ids
+     * @param filterRestClient the filter rest client
+     * @param userId           the user id
+     */
+    public SyncFilterRegistry(IMXStore store, FilterRestClient filterRestClient, String userId) {
+        mStore = store;
+        mFilterRestClient = filterRestClient;
+        mUserId = userId;
+
+        // keep the previous behaviour
+        mFilters.put(Mode.INITIAL, createFilter(null, false, true));
+        mFilters.put(Mode.DATA_SAVE, createFilter(null, false, true));
+    }
+
+    /**
+     * Create a sync filter.
+     *
+     * @param timelineLimit   the max number of timeline events by room, null to use the server default one
+     * @param lazyLoadMembers true to only receive the m.room.member events of the timeline events senders
+     * @param isDataSaveMode  true to only receive the read receipts ephemeral events and no presence event
+     * @return the filter, null if there is nothing to filter
+     */
+    public static FilterBody createFilter(Integer timelineLimit, boolean lazyLoadMembers, boolean isDataSaveMode) {
+        if ((null == timelineLimit) && !lazyLoadMembers && !isDataSaveMode) {
+            return null;
+        }
+
+        FilterBody filterBody = new FilterBody();
+        filterBody.room = new RoomFilter();
+
+        if (null != timelineLimit) {
+            filterBody.room.timeline = new RoomEventFilter();
+            filterBody.room.timeline.limit = timelineLimit;
+        }
+
+        if (lazyLoadMembers) {
+            filterBody.room.state = new RoomEventFilter();
+            filterBody.room.state.lazy_load_members = true;
+        }
+
+        if (isDataSaveMode) {
+            filterBody.room.ephemeral = new RoomEventFilter();
+            filterBody.room.ephemeral.types = Arrays.asList("m.receipt");
+
+            filterBody.presence = new EventFilter();
+            filterBody.presence.not_types = Arrays.asList("*");
+        }
+
+        return filterBody;
+    }
+
+    /**
+     * Set the filter of a sync mode.
+     *
+     * @param mode       the sync mode
+     * @param filterBody the filter, null to sync without filter
+     */
+    public synchronized void setFilter(Mode mode, FilterBody filterBody) {
+        if (null == filterBody) {
+            mFilters.remove(mode);
+        } else {
+            mFilters.put(mode, filterBody);
+        }
+    }
+
+    /**
+     * Set the filter of every sync mode.
+     *
+     * @param timelineLimit   the max number of timeline events by room, null to use the server default one
+     * @param lazyLoadMembers true to only receive the m.room.member events of the timeline events senders
+     */
+    public synchronized void setFilters(Integer timelineLimit, boolean lazyLoadMembers) {
+        setFilter(Mode.INITIAL, createFilter(timelineLimit, lazyLoadMembers, true));
+        setFilter(Mode.FOREGROUND, createFilter(timelineLimit, lazyLoadMembers, false));
+        setFilter(Mode.BACKGROUND, createFilter(timelineLimit, lazyLoadMembers, false));
+        setFilter(Mode.DATA_SAVE, createFilter(timelineLimit, lazyLoadMembers, true));
+    }
+
+    /**
+     * Tells if a sync filter lazy loads the rooms members.
+     *
+     * @return true if the room states might only contain some of the members
+     */
+    public synchronized boolean areMembersLazyLoaded() {
+        for (FilterBody filterBody : mFilters.values()) {
+            if ((null != filterBody.room) && (null != filterBody.room.state) && Boolean.TRUE.equals(filterBody.room.state.lazy_load_members)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Provides the filter parameter of a sync mode.
+     * The filter is uploaded if it is not yet done.
+     *
+     * @param mode the sync mode
+     * @return the filter id if the filter is uploaded, else the JSON filter, null if there is no filter
+     */
+    public synchronized String getFilter(Mode mode) {
+        FilterBody filterBody = mFilters.get(mode);
+
+        if (null == filterBody) {
+            return null;
+        }
+
+        String jsonFilter = filterBody.toJSONString();
+        String filterId = mFilterIds.get(jsonFilter);
+
+        if (null == filterId) {
+            filterId = mStore.getFilters().get(jsonFilter);
+
+            if (null != filterId) {
+                mFilterIds.put(jsonFilter, filterId);
+            } else {
+                uploadFilter(filterBody, jsonFilter);
+            }
+        }
+
+        return (null != filterId) ? filterId : jsonFilter;
+    }
+
+    /**
+     * Upload a filter.
+     *
+     * @param filterBody the filter
+     * @param jsonFilter the filter as JSON string
+     */
+    private void uploadFilter(FilterBody filterBody, final String jsonFilter) {
+        if (mUploadingFilters.contains(jsonFilter)) {
+            return;
+        }
+
+        mUploadingFilters.add(jsonFilter);
+
+        mFilterRestClient.uploadFilter(mUserId, filterBody, new ApiCallback<FilterResponse>() {
+            @Override
+            public void onSuccess(FilterResponse filterResponse) {
+                Log.d(LOG_TAG, "## uploadFilter() : " + jsonFilter + " has the id " + filterResponse.filter_id);
+
+                synchronized (SyncFilterRegistry.this) {
+                    mUploadingFilters.remove(jsonFilter);
+
+                    if (null != filterResponse.filter_id) {
+                        mFilterIds.put(jsonFilter, filterResponse.filter_id);
+                        mStore.addFilter(jsonFilter, filterResponse.filter_id);
+                    }
+                }
+            }
+
+            private void onError(String errorMessage) {
+                // the filter is sent inline until it is uploaded
+                Log.e(LOG_TAG, "## uploadFilter() : failed " + errorMessage);
+
+                synchronized (SyncFilterRegistry.this) {
+                    mUploadingFilters.remove(jsonFilter);
+                }
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                onError(e.getMessage());
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                onError(e.getMessage());
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                onError(e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+/**
+ * The sync latency metrics.
+ * <p>
+ * For each sync response, it records the time spent in the sync responses queue and the processing time.
+ * For each live event, it records the time between the sync response reception and the event dispatch
+ * to the listeners.
+ */
+public class SyncLatencyMetrics {
+    // the processed sync responses
+    private long mSyncResponsesCount;
+    private long mTotalQueueTimeMs;
+    private long mMaxQueueTimeMs;
+    private long mTotalProcessingTimeMs;
+    private long mMaxProcessingTimeMs;
+
+    // the dispatched events
+    private long mDispatchedEventsCount;
+    private long mTotalDispatchTimeMs;
+    private long mMaxDispatchTimeMs;
+
+    /**
+     * A sync response has been processed.
+     *
+     * @param queueTimeMs      the time between the response reception and its processing start
+     * @param processingTimeMs the processing duration
+     */
+    public synchronized void onSyncResponseProcessed(long queueTimeMs, long processingTimeMs) {
+        mSyncResponsesCount++;
+        mTotalQueueTimeMs += queueTimeMs;
+        mMaxQueueTimeMs = Math.max(mMaxQueueTimeMs, queueTimeMs);
+        mTotalProcessingTimeMs += processingTimeMs;
+        mMaxProcessingTimeMs = Math.max(mMaxProcessingTimeMs, processingTimeMs);
+    }
+
+    /**
+     * A live event has been dispatched to the listeners.
+     *
+     * @param dispatchTimeMs the time between the sync response reception and the event dispatch
+     */
+    public synchronized void onEventDispatched(long dispatchTimeMs) {
+        mDispatchedEventsCount++;
+        mTotalDispatchTimeMs += dispatchTimeMs;
+        mMaxDispatchTimeMs = Math.max(mMaxDispatchTimeMs, dispatchTimeMs);
+    }
+
+    /**
+     * @return the processed sync responses count
+     */
+    public synchronized long getSyncResponsesCount() {
+        return mSyncResponsesCount;
+    }
+
+    /**
+     * @return the average time in ms spent by a sync response in the queue
+     */
+    public synchronized long getAverageQueueTimeMs() {
+        return (0 == mSyncResponsesCount) ? 0 : (mTotalQueueTimeMs / mSyncResponsesCount);
+    }
+
+    /**
+     * @return the max time in ms spent by a sync response in the queue
+     */
+    public synchronized long getMaxQueueTimeMs() {
+        return mMaxQueueTimeMs;
+    }
+
+    /**
+     * @return the average sync response processing time in ms
+     */
+    public synchronized long getAverageProcessingTimeMs() {
+        return (0 == mSyncResponsesCount) ? 0 : (mTotalProcessingTimeMs / mSyncResponsesCount);
+    }
+
+    /**
+     * @return the max sync response processing time in ms
+     */
+    public synchronized long getMaxProcessingTimeMs() {
+        return mMaxProcessingTimeMs;
+    }
+
+    /**
+     * @return the dispatched events count
+     */
+    public synchronized long getDispatchedEventsCount() {
+        return mDispatchedEventsCount;
+    }
+
+    /**
+     * @return the average time in ms between a sync response reception and its events dispatch
+     */
+    public synchronized long getAverageDispatchTimeMs() {
+        return (0 == mDispatchedEventsCount) ? 0 : (mTotalDispatchTimeMs / mDispatchedEventsCount);
+    }
+
+    /**
+     * @return the max time in ms between a sync response reception and its events dispatch
+     */
+    public synchronized long getMaxDispatchTimeMs() {
+        return mMaxDispatchTimeMs;
+    }
+
+    /**
+     * Reset the metrics.
+     */
+    public synchronized void reset() {
+        mSyncResponsesCount = 0;
+        mTotalQueueTimeMs = 0;
+        mMaxQueueTimeMs = 0;
+        mTotalProcessingTimeMs = 0;
+        mMaxProcessingTimeMs = 0;
+        mDispatchedEventsCount = 0;
+        mTotalDispatchTimeMs = 0;
+        mMaxDispatchTimeMs = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mSyncResponsesCount + " responses (queue avg " + getAverageQueueTimeMs() + " ms max " + mMaxQueueTimeMs + " ms"
+                + ", processing avg " + getAverageProcessingTimeMs() + " ms max " + mMaxProcessingTimeMs + " ms)"
+                + ", " + mDispatchedEventsCount + " events (dispatch avg " + getAverageDispatchTimeMs() + " ms max " + mMaxDispatchTimeMs + " ms)";
+    }
+}
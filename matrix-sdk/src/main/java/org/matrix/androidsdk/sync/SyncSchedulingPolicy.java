@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.matrix.androidsdk.sync;
+
+/**
+ * The sync scheduling policy of the events thread.
+ * It defines the sync requests timeouts and the delay before retrying a failed request,
+ * according to the previous requests results.
+ * <p>
+ * The methods are called from the events thread and from the network callbacks threads.
+ */
+public interface SyncSchedulingPolicy {
+
+    /**
+     * Provides the server long poll timeout of the next sync request.
+     * It is not called when the sync request must return immediately.
+     *
+     * @param defaultServerTimeoutMs the long poll timeout defined by the application
+     * @param isCatchingUp           true when the application is in background and catches up
+     * @return the server timeout in ms
+     */
+    int getServerTimeout(int defaultServerTimeoutMs, boolean isCatchingUp);
+
+    /**
+     * Provides the client timeout of a sync request.
+     *
+     * @param serverTimeoutMs the server timeout of the request
+     * @return the client timeout in ms
+     */
+    int getClientTimeout(int serverTimeoutMs);
+
+    /**
+     * Provides the delay before retrying a failed sync request.
+     *
+     * @param isCatchingUp true when the application is in background and catches up
+     * @return the delay in ms
+     */
+    int getRetryDelay(boolean isCatchingUp);
+
+    /**
+     * A sync request succeeded.
+     *
+     * @param serverTimeoutMs the request server timeout
+     * @param roundTripMs     the request round trip time
+     * @param isEmptyResponse true if the response contains no update
+     */
+    void onSyncSuccess(int serverTimeoutMs, long roundTripMs, boolean isEmptyResponse);
+
+    /**
+     * A sync request failed.
+     *
+     * @param serverTimeoutMs the request server timeout
+     */
+    void onSyncError(int serverTimeoutMs);
+}
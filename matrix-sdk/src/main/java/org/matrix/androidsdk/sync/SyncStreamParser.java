@@ -0,0 +1,365 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.matrix.androidsdk.rest.model.sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.sync.RoomSync;
+import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decode a sync response while it is downloaded.
+ * <p>
+ * The rooms are decoded one by one and provided to a listener as soon as they are decoded,
+ * so the whole rooms list is never materialized. The other sections are small : they are
+ * decoded into a SyncResponse without rooms.
+ * <p>
+ * The to_device and account_data sections must be handled before the rooms.
+ * The JSON keys order is not guaranteed, so if the rooms section is received before them,
+ * each of its join, invite and leave sections is copied as it is into a temporary file until
+ * the end of the response, then the rooms are decoded from these files. The heap usage does
+ * not depend on the rooms section size.
+ * <p>
+ * If the stream fails, the rooms which have been provided are not rolled back. The listener
+ * must not save the sync token : the next sync restarts from the previous token, and the
+ * server sends these rooms again. The events are stored by event id, so they are not duplicated.
+ */
+public class SyncStreamParser {
+    private static final String LOG_TAG = SyncStreamParser.class.getSimpleName();
+
+    private static final String ROOMS_KEY = "rooms";
+    private static final String JOINED_ROOMS_KEY = "join";
+    private static final String INVITED_ROOMS_KEY = "invite";
+    private static final String LEFT_ROOMS_KEY = "leave";
+    private static final String TO_DEVICE_KEY = "to_device";
+    private static final String ACCOUNT_DATA_KEY = "account_data";
+
+    /**
+     * The streamed rooms listener.
+     */
+    public interface SyncStreamListener {
+        /**
+         * The rooms section starts.
+         *
+         * @param syncResponse the sections decoded before the rooms one
+         */
+        void onRoomsSyncStart(SyncResponse syncResponse);
+
+        /**
+         * A joined room has been decoded.
+         *
+         * @param roomId   the room id
+         * @param roomSync the room sync
+         */
+        void onJoinedRoomSync(String roomId, RoomSync roomSync);
+
+        /**
+         * An invited room has been decoded.
+         *
+         * @param roomId          the room id
+         * @param invitedRoomSync the invited room sync
+         */
+        void onInvitedRoomSync(String roomId, InvitedRoomSync invitedRoomSync);
+
+        /**
+         * A left room has been decoded.
+         *
+         * @param roomId   the room id
+         * @param roomSync the room sync
+         */
+        void onLeftRoomSync(String roomId, RoomSync roomSync);
+    }
+
+    /**
+     * Decode a sync response stream.
+     *
+     * @param stream   the sync response stream
+     * @param listener the rooms listener
+     * @return the sync response without its rooms
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    public static SyncResponse parse(InputStream stream, SyncStreamListener listener) throws IOException {
+        Gson gson = JsonUtils.getGson(false);
+        JsonParser parser = new JsonParser();
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, "UTF-8"));
+
+        // the sections other than the rooms one
+        JsonObject sections = new JsonObject();
+
+        // the rooms sections files, when the rooms are received before the to_device and account_data sections
+        boolean isRoomsSpooled = false;
+        Map<String, File> spooledRoomsFiles = new HashMap<>();
+
+        try {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (ROOMS_KEY.equals(name) && (reader.peek() == JsonToken.BEGIN_OBJECT)) {
+                    if (sections.has(TO_DEVICE_KEY) && sections.has(ACCOUNT_DATA_KEY)) {
+                        listener.onRoomsSyncStart(gson.fromJson(sections, SyncResponse.class));
+                        parseRooms(gson, reader, listener);
+                    } else {
+                        spoolRooms(reader, spooledRoomsFiles);
+                        isRoomsSpooled = true;
+                    }
+                } else {
+                    sections.add(name, parser.parse(reader));
+                }
+            }
+
+            reader.endObject();
+
+            if (isRoomsSpooled) {
+                listener.onRoomsSyncStart(gson.fromJson(sections, SyncResponse.class));
+
+                // the joined rooms first, then the invited and the left ones
+                for (String section : Arrays.asList(JOINED_ROOMS_KEY, INVITED_ROOMS_KEY, LEFT_ROOMS_KEY)) {
+                    File file = spooledRoomsFiles.get(section);
+
+                    if (null != file) {
+                        JsonReader fileReader = new JsonReader(new InputStreamReader(new BufferedInputStream(new FileInputStream(file)), "UTF-8"));
+
+                        try {
+                            parseRoomsSection(gson, fileReader, section, listener);
+                        } finally {
+                            fileReader.close();
+                        }
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            // the JsonReader reports the unexpected tokens with IllegalStateException
+            throw new IOException(e.getMessage());
+        } catch (JsonParseException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            for (File file : spooledRoomsFiles.values()) {
+                if (!file.delete()) {
+                    Log.e(LOG_TAG, "## parse() : cannot delete " + file);
+                }
+            }
+        }
+
+        return gson.fromJson(sections, SyncResponse.class);
+    }
+
+    /**
+     * Copy each section of the rooms section into a temporary file.
+     *
+     * @param reader the reader, positioned at the rooms object
+     * @param files  the files by section name, the created files are added even if the copy fails
+     * @throws IOException if the stream cannot be read or a file cannot be written
+     */
+    private static void spoolRooms(JsonReader reader, Map<String, File> files) throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String section = reader.nextName();
+
+            if ((reader.peek() != JsonToken.BEGIN_OBJECT) || !isRoomsSection(section)) {
+                reader.skipValue();
+                continue;
+            }
+
+            File file = File.createTempFile("sync_" + section, ".json");
+            files.put(section, file);
+            spoolValue(reader, file);
+        }
+
+        reader.endObject();
+    }
+
+    /**
+     * Copy the next value of a reader into a file, token by token.
+     *
+     * @param reader the reader
+     * @param file   the file
+     * @throws IOException if the stream cannot be read or the file cannot be written
+     */
+    private static void spoolValue(JsonReader reader, File file) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)), "UTF-8"));
+        boolean isSpooled = false;
+
+        try {
+            int depth = 0;
+
+            do {
+                JsonToken token = reader.peek();
+
+                switch (token) {
+                    case BEGIN_OBJECT:
+                        reader.beginObject();
+                        writer.beginObject();
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                        reader.endObject();
+                        writer.endObject();
+                        depth--;
+                        break;
+                    case BEGIN_ARRAY:
+                        reader.beginArray();
+                        writer.beginArray();
+                        depth++;
+                        break;
+                    case END_ARRAY:
+                        reader.endArray();
+                        writer.endArray();
+                        depth--;
+                        break;
+                    case NAME:
+                        writer.name(reader.nextName());
+                        break;
+                    case STRING:
+                        writer.value(reader.nextString());
+                        break;
+                    case NUMBER:
+                        writer.value(new BigDecimal(reader.nextString()));
+                        break;
+                    case BOOLEAN:
+                        writer.value(reader.nextBoolean());
+                        break;
+                    case NULL:
+                        reader.nextNull();
+                        writer.nullValue();
+                        break;
+                    default:
+                        throw new IOException("Unexpected token " + token);
+                }
+            } while (depth > 0);
+
+            writer.close();
+            isSpooled = true;
+        } finally {
+            if (!isSpooled) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "## spoolValue() : close failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the rooms section.
+     *
+     * @param gson     the gson instance
+     * @param reader   the reader, positioned at the rooms object
+     * @param listener the rooms listener
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    private static void parseRooms(Gson gson, JsonReader reader, SyncStreamListener listener) throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String section = reader.nextName();
+
+            if ((reader.peek() != JsonToken.BEGIN_OBJECT) || !isRoomsSection(section)) {
+                reader.skipValue();
+                continue;
+            }
+
+            parseRoomsSection(gson, reader, section, listener);
+        }
+
+        reader.endObject();
+    }
+
+    /**
+     * Decode the rooms of a rooms section.
+     *
+     * @param gson     the gson instance
+     * @param reader   the reader, positioned at the section object
+     * @param section  the section name
+     * @param listener the rooms listener
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    private static void parseRoomsSection(Gson gson, JsonReader reader, String section, SyncStreamListener listener) throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String roomId = reader.nextName();
+            onRoomSync(listener, section, roomId, gson.fromJson(reader, getRoomSyncClass(section)));
+        }
+
+        reader.endObject();
+    }
+
+    /**
+     * @param section the section name
+     * @return true if it is a rooms section
+     */
+    private static boolean isRoomsSection(String section) {
+        return JOINED_ROOMS_KEY.equals(section) || INVITED_ROOMS_KEY.equals(section) || LEFT_ROOMS_KEY.equals(section);
+    }
+
+    /**
+     * @param section the rooms section name
+     * @return the class of the rooms of this section
+     */
+    private static Class<?> getRoomSyncClass(String section) {
+        return INVITED_ROOMS_KEY.equals(section) ? InvitedRoomSync.class : RoomSync.class;
+    }
+
+    /**
+     * Provide a decoded room to the listener.
+     *
+     * @param listener the rooms listener
+     * @param section  the rooms section name
+     * @param roomId   the room id
+     * @param roomSync the decoded room, a RoomSync or an InvitedRoomSync
+     */
+    private static void onRoomSync(SyncStreamListener listener, String section, String roomId, Object roomSync) {
+        if (null == roomSync) {
+            return;
+        }
+
+        if (JOINED_ROOMS_KEY.equals(section)) {
+            listener.onJoinedRoomSync(roomId, (RoomSync) roomSync);
+        } else if (INVITED_ROOMS_KEY.equals(section)) {
+            listener.onInvitedRoomSync(roomId, (InvitedRoomSync) roomSync);
+        } else {
+            listener.onLeftRoomSync(roomId, (RoomSync) roomSync);
+        }
+    }
+}
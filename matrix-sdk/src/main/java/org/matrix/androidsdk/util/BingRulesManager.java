@@ -49,6 +49,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -103,7 +104,7 @@ public class BingRulesManager {
     private boolean mIsInitialized = false;
 
     // map to check if a room is "mention only"
-    private final Map<String, Boolean> mIsMentionOnlyMap = new HashMap<>();
+    private final Map<String, Boolean> mIsMentionOnlyMap = new ConcurrentHashMap<>();
 
     // network management
     private NetworkConnectivityReceiver mNetworkConnectivityReceiver;
@@ -138,7 +139,8 @@ public class BingRulesManager {
         MUTE
     }
 
-    private Map<String, RoomNotificationState> mRoomNotificationStateByRoomId = new HashMap<>();
+    // the rules are evaluated by the sync threads
+    private final Map<String, RoomNotificationState> mRoomNotificationStateByRoomId = new ConcurrentHashMap<>();
 
     /**
      * Constructor
@@ -1013,8 +1015,10 @@ public class BingRulesManager {
             return RoomNotificationState.ALL_MESSAGES;
         }
 
-        if (mRoomNotificationStateByRoomId.containsKey(roomId)) {
-            return mRoomNotificationStateByRoomId.get(roomId);
+        RoomNotificationState cachedResult = mRoomNotificationStateByRoomId.get(roomId);
+
+        if (null != cachedResult) {
+            return cachedResult;
         }
 
         RoomNotificationState result = RoomNotificationState.ALL_MESSAGES;
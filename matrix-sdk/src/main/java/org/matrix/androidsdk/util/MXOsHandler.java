@@ -61,4 +61,37 @@ public class MXOsHandler {
 
         return result;
     }
+
+    /**
+     * Post a runnable after a delay
+     *
+     * @param r           the runnable
+     * @param delayMillis the delay in milliseconds
+     * @return true if the runnable is placed
+     */
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        boolean result = mHandler.postDelayed(r, delayMillis);
+
+        if (result && (null != mPostListener)) {
+            mPostListener.onPost(mHandler.getLooper());
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the handler looper
+     */
+    public Looper getLooper() {
+        return mHandler.getLooper();
+    }
+
+    /**
+     * Remove the pending posts of a runnable
+     *
+     * @param r the runnable
+     */
+    public void removeCallbacks(Runnable r) {
+        mHandler.removeCallbacks(r);
+    }
 }
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable hash map, which shares its structure with the maps it is built from.
+ * <p>
+ * It is a hash array mapped trie : put() and remove() return a new map,
+ * which only copies the nodes on the path of the updated key (at most 7 nodes of 32 slots).
+ * The map itself is never modified, so it can be shared between several owners without copy.
+ *
+ * @param <K> the keys type
+ * @param <V> the values type
+ */
+public final class PersistentHashMap<K, V> {
+    // the number of hash bits used by level
+    private static final int BITS_BY_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_BY_LEVEL) - 1;
+
+    // putAll() rebuilds the map when it adds more than 1/BULK_UPDATE_RATIO of its size
+    private static final int BULK_UPDATE_RATIO = 8;
+
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<>(null, 0);
+
+    /**
+     * A key / value pair.
+     */
+    private static final class Leaf {
+        final int mHash;
+        final Object mKey;
+        final Object mValue;
+
+        Leaf(int hash, Object key, Object value) {
+            mHash = hash;
+            mKey = key;
+            mValue = value;
+        }
+    }
+
+    /**
+     * The pairs whose keys have the same hash.
+     */
+    private static final class Collision {
+        final int mHash;
+        final Leaf[] mLeaves;
+
+        Collision(int hash, Leaf[] leaves) {
+            mHash = hash;
+            mLeaves = leaves;
+        }
+    }
+
+    /**
+     * A trie node : the slot i exists when the bit i of the bitmap is set.
+     * A slot is a Leaf, a Collision or a child Node.
+     */
+    private static final class Node {
+        final int mBitmap;
+        final Object[] mSlots;
+
+        Node(int bitmap, Object[] slots) {
+            mBitmap = bitmap;
+            mSlots = slots;
+        }
+    }
+
+    private final Node mRoot;
+    private final int mSize;
+
+    private PersistentHashMap(Node root, int size) {
+        mRoot = root;
+        mSize = size;
+    }
+
+    /**
+     * @param <K> the keys type
+     * @param <V> the values type
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Build a map from a standard one.
+     *
+     * @param map the map, it can be null
+     * @param <K> the keys type
+     * @param <V> the values type
+     * @return the persistent map
+     */
+    public static <K, V> PersistentHashMap<K, V> fromMap(Map<K, V> map) {
+        if ((null == map) || map.isEmpty()) {
+            return empty();
+        }
+
+        List<Leaf> leaves = new ArrayList<>(map.size());
+
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            leaves.add(new Leaf(hash(entry.getKey()), entry.getKey(), entry.getValue()));
+        }
+
+        return new PersistentHashMap<>(build(leaves, 0), leaves.size());
+    }
+
+    /**
+     * Build the node which contains some leaves, without any intermediate copy.
+     *
+     * @param leaves the leaves, their keys are unique
+     * @param shift  the node shift
+     * @return the node
+     */
+    @SuppressWarnings("unchecked")
+    private static Node build(List<Leaf> leaves, int shift) {
+        List<Leaf>[] buckets = new List[1 << BITS_BY_LEVEL];
+        int bitmap = 0;
+
+        for (Leaf leaf : leaves) {
+            int index = index(leaf.mHash, shift);
+
+            if (null == buckets[index]) {
+                buckets[index] = new ArrayList<>();
+            }
+
+            buckets[index].add(leaf);
+            bitmap |= 1 << index;
+        }
+
+        Object[] slots = new Object[Integer.bitCount(bitmap)];
+        int pos = 0;
+
+        for (List<Leaf> bucket : buckets) {
+            if (null == bucket) {
+                continue;
+            }
+
+            if (1 == bucket.size()) {
+                slots[pos++] = bucket.get(0);
+            } else {
+                int hash = bucket.get(0).mHash;
+                boolean hasSameHash = true;
+
+                for (Leaf leaf : bucket) {
+                    if (leaf.mHash != hash) {
+                        hasSameHash = false;
+                        break;
+                    }
+                }
+
+                slots[pos++] = hasSameHash ? new Collision(hash, bucket.toArray(new Leaf[bucket.size()])) : build(bucket, shift + BITS_BY_LEVEL);
+            }
+        }
+
+        return new Node(bitmap, slots);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return 0 == mSize;
+    }
+
+    private static int hash(Object key) {
+        int h = (null == key) ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return (a == b) || ((null != a) && a.equals(b));
+    }
+
+    private static int index(int hash, int shift) {
+        return (hash >>> shift) & LEVEL_MASK;
+    }
+
+    private static int position(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     * Provides the value of a key.
+     *
+     * @param key the key
+     * @return the value, null if the key is not defined
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf leaf = getLeaf(key);
+        return (null == leaf) ? null : (V) leaf.mValue;
+    }
+
+    /**
+     * Tells if a key is defined.
+     *
+     * @param key the key
+     * @return true if the key is defined
+     */
+    public boolean containsKey(Object key) {
+        return null != getLeaf(key);
+    }
+
+    private Leaf getLeaf(Object key) {
+        int hash = hash(key);
+        Node node = mRoot;
+        int shift = 0;
+
+        while (null != node) {
+            int bit = 1 << index(hash, shift);
+
+            if (0 == (node.mBitmap & bit)) {
+                return null;
+            }
+
+            Object slot = node.mSlots[position(node.mBitmap, bit)];
+
+            if (slot instanceof Node) {
+                node = (Node) slot;
+                shift += BITS_BY_LEVEL;
+            } else if (slot instanceof Leaf) {
+                Leaf leaf = (Leaf) slot;
+                return ((leaf.mHash == hash) && equals(leaf.mKey, key)) ? leaf : null;
+            } else {
+                Collision collision = (Collision) slot;
+
+                if (collision.mHash == hash) {
+                    for (Leaf leaf : collision.mLeaves) {
+                        if (equals(leaf.mKey, key)) {
+                            return leaf;
+                        }
+                    }
+                }
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Provides a map with a new value for a key.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the updated map, this map is not modified
+     */
+    public PersistentHashMap<K, V> put(K key, V value) {
+        int hash = hash(key);
+        boolean[] isAdded = new boolean[1];
+        Node root = put((null == mRoot) ? new Node(0, new Object[0]) : mRoot, 0, new Leaf(hash, key, value), isAdded);
+
+        if (root == mRoot) {
+            return this;
+        }
+
+        return new PersistentHashMap<>(root, isAdded[0] ? mSize + 1 : mSize);
+    }
+
+    private static Node put(Node node, int shift, Leaf leaf, boolean[] isAdded) {
+        int bit = 1 << index(leaf.mHash, shift);
+        int pos = position(node.mBitmap, bit);
+
+        if (0 == (node.mBitmap & bit)) {
+            isAdded[0] = true;
+
+            Object[] slots = new Object[node.mSlots.length + 1];
+            System.arraycopy(node.mSlots, 0, slots, 0, pos);
+            slots[pos] = leaf;
+            System.arraycopy(node.mSlots, pos, slots, pos + 1, node.mSlots.length - pos);
+            return new Node(node.mBitmap | bit, slots);
+        }
+
+        Object slot = node.mSlots[pos];
+        Object newSlot;
+
+        if (slot instanceof Node) {
+            newSlot = put((Node) slot, shift + BITS_BY_LEVEL, leaf, isAdded);
+        } else if (slot instanceof Leaf) {
+            Leaf current = (Leaf) slot;
+
+            if ((current.mHash == leaf.mHash) && equals(current.mKey, leaf.mKey)) {
+                newSlot = (current.mValue == leaf.mValue) ? current : leaf;
+            } else if (current.mHash == leaf.mHash) {
+                isAdded[0] = true;
+                newSlot = new Collision(leaf.mHash, new Leaf[]{current, leaf});
+            } else {
+                isAdded[0] = true;
+                newSlot = merge(current, current.mHash, leaf, shift + BITS_BY_LEVEL);
+            }
+        } else {
+            Collision collision = (Collision) slot;
+
+            if (collision.mHash == leaf.mHash) {
+                newSlot = put(collision, leaf, isAdded);
+            } else {
+                isAdded[0] = true;
+                newSlot = merge(collision, collision.mHash, leaf, shift + BITS_BY_LEVEL);
+            }
+        }
+
+        if (newSlot == slot) {
+            return node;
+        }
+
+        Object[] slots = node.mSlots.clone();
+        slots[pos] = newSlot;
+        return new Node(node.mBitmap, slots);
+    }
+
+    private static Collision put(Collision collision, Leaf leaf, boolean[] isAdded) {
+        Leaf[] leaves = collision.mLeaves;
+
+        for (int i = 0; i < leaves.length; i++) {
+            if (equals(leaves[i].mKey, leaf.mKey)) {
+                if (leaves[i].mValue == leaf.mValue) {
+                    return collision;
+                }
+
+                Leaf[] newLeaves = leaves.clone();
+                newLeaves[i] = leaf;
+                return new Collision(collision.mHash, newLeaves);
+            }
+        }
+
+        isAdded[0] = true;
+        Leaf[] newLeaves = new Leaf[leaves.length + 1];
+        System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+        newLeaves[leaves.length] = leaf;
+        return new Collision(collision.mHash, newLeaves);
+    }
+
+    /**
+     * Build the node which contains an existing slot and a new leaf, whose hashes are different.
+     *
+     * @param slot  the existing Leaf or Collision
+     * @param hash  the existing slot hash
+     * @param leaf  the new leaf
+     * @param shift the node shift
+     * @return the node
+     */
+    private static Node merge(Object slot, int hash, Leaf leaf, int shift) {
+        int index1 = index(hash, shift);
+        int index2 = index(leaf.mHash, shift);
+
+        if (index1 == index2) {
+            return new Node(1 << index1, new Object[]{merge(slot, hash, leaf, shift + BITS_BY_LEVEL)});
+        }
+
+        Object[] slots = (index1 < index2) ? new Object[]{slot, leaf} : new Object[]{leaf, slot};
+        return new Node((1 << index1) | (1 << index2), slots);
+    }
+
+    /**
+     * Provides a map with the entries of another map.
+     * A large update is done by rebuilding the map in one pass, instead of copying a path by entry.
+     *
+     * @param map the entries to add
+     * @return the updated map, this map is not modified
+     */
+    public PersistentHashMap<K, V> putAll(Map<K, V> map) {
+        if ((null == map) || map.isEmpty()) {
+            return this;
+        }
+
+        // the path copies are cheaper for a few entries
+        if ((map.size() * BULK_UPDATE_RATIO) < mSize) {
+            PersistentHashMap<K, V> res = this;
+
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                res = res.put(entry.getKey(), entry.getValue());
+            }
+
+            return res;
+        }
+
+        HashMap<K, V> entries = toHashMap();
+        entries.putAll(map);
+        return fromMap(entries);
+    }
+
+    /**
+     * Provides a map without a key.
+     *
+     * @param key the key
+     * @return the updated map, this map is not modified
+     */
+    public PersistentHashMap<K, V> remove(Object key) {
+        if (null == mRoot) {
+            return this;
+        }
+
+        Node root = remove(mRoot, 0, hash(key), key);
+
+        if (root == mRoot) {
+            return this;
+        }
+
+        return (null == root) ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<K, V>(root, mSize - 1);
+    }
+
+    private static Node remove(Node node, int shift, int hash, Object key) {
+        int bit = 1 << index(hash, shift);
+
+        if (0 == (node.mBitmap & bit)) {
+            return node;
+        }
+
+        int pos = position(node.mBitmap, bit);
+        Object slot = node.mSlots[pos];
+        Object newSlot;
+
+        if (slot instanceof Node) {
+            Node child = remove((Node) slot, shift + BITS_BY_LEVEL, hash, key);
+
+            if (child == slot) {
+                return node;
+            }
+
+            // a child with a single pair is replaced by the pair
+            if ((null != child) && (1 == child.mSlots.length) && !(child.mSlots[0] instanceof Node)) {
+                newSlot = child.mSlots[0];
+            } else {
+                newSlot = child;
+            }
+        } else if (slot instanceof Leaf) {
+            Leaf leaf = (Leaf) slot;
+
+            if ((leaf.mHash != hash) || !equals(leaf.mKey, key)) {
+                return node;
+            }
+
+            newSlot = null;
+        } else {
+            Collision collision = (Collision) slot;
+
+            if (collision.mHash != hash) {
+                return node;
+            }
+
+            newSlot = remove(collision, key);
+
+            if (newSlot == collision) {
+                return node;
+            }
+        }
+
+        if (null == newSlot) {
+            if (1 == node.mSlots.length) {
+                return null;
+            }
+
+            Object[] slots = new Object[node.mSlots.length - 1];
+            System.arraycopy(node.mSlots, 0, slots, 0, pos);
+            System.arraycopy(node.mSlots, pos + 1, slots, pos, slots.length - pos);
+            return new Node(node.mBitmap & ~bit, slots);
+        }
+
+        Object[] slots = node.mSlots.clone();
+        slots[pos] = newSlot;
+        return new Node(node.mBitmap, slots);
+    }
+
+    /**
+     * Remove a key from a collision.
+     *
+     * @param collision the collision
+     * @param key       the key
+     * @return the collision if the key is not found, a Leaf if a single pair remains, else a new Collision
+     */
+    private static Object remove(Collision collision, Object key) {
+        Leaf[] leaves = collision.mLeaves;
+
+        for (int i = 0; i < leaves.length; i++) {
+            if (equals(leaves[i].mKey, key)) {
+                if (2 == leaves.length) {
+                    return leaves[1 - i];
+                }
+
+                Leaf[] newLeaves = new Leaf[leaves.length - 1];
+                System.arraycopy(leaves, 0, newLeaves, 0, i);
+                System.arraycopy(leaves, i + 1, newLeaves, i, newLeaves.length - i);
+                return new Collision(collision.mHash, newLeaves);
+            }
+        }
+
+        return collision;
+    }
+
+    /**
+     * Visit the pairs of a node.
+     *
+     * @param node    the node
+     * @param visitor the visitor
+     */
+    private static void visit(Node node, LeafVisitor visitor) {
+        for (Object slot : node.mSlots) {
+            if (slot instanceof Node) {
+                visit((Node) slot, visitor);
+            } else if (slot instanceof Leaf) {
+                visitor.visit((Leaf) slot);
+            } else {
+                for (Leaf leaf : ((Collision) slot).mLeaves) {
+                    visitor.visit(leaf);
+                }
+            }
+        }
+    }
+
+    private interface LeafVisitor {
+        void visit(Leaf leaf);
+    }
+
+    /**
+     * @return a new list of the keys
+     */
+    public List<K> keys() {
+        final List<K> keys = new ArrayList<>(mSize);
+
+        if (null != mRoot) {
+            visit(mRoot, new LeafVisitor() {
+                @SuppressWarnings("unchecked")
+                @Override
+                public void visit(Leaf leaf) {
+                    keys.add((K) leaf.mKey);
+                }
+            });
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return a new list of the values
+     */
+    public List<V> values() {
+        final List<V> values = new ArrayList<>(mSize);
+
+        if (null != mRoot) {
+            visit(mRoot, new LeafVisitor() {
+                @SuppressWarnings("unchecked")
+                @Override
+                public void visit(Leaf leaf) {
+                    values.add((V) leaf.mValue);
+                }
+            });
+        }
+
+        return values;
+    }
+
+    /**
+     * @return a new list of the entries
+     */
+    public List<Map.Entry<K, V>> entries() {
+        final List<Map.Entry<K, V>> entries = new ArrayList<>(mSize);
+
+        if (null != mRoot) {
+            visit(mRoot, new LeafVisitor() {
+                @SuppressWarnings("unchecked")
+                @Override
+                public void visit(Leaf leaf) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>((K) leaf.mKey, (V) leaf.mValue));
+                }
+            });
+        }
+
+        return entries;
+    }
+
+    /**
+     * @return a new standard map with the same entries
+     */
+    public HashMap<K, V> toHashMap() {
+        HashMap<K, V> map = new HashMap<>((mSize * 4 / 3) + 1);
+
+        for (Map.Entry<K, V> entry : entries()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable sorted list, which shares its structure with the lists it is built from.
+ * <p>
+ * The items are stored in some sorted chunks of at most 64 items : add() and remove() return a new list,
+ * which only copies the updated chunk and the chunks array.
+ * The list itself is never modified, so it can be iterated without copy while it is updated.
+ *
+ * @param <T> the items type
+ */
+public final class PersistentSortedList<T> implements Iterable<T> {
+    // the chunk is split when it exceeds this size
+    private static final int MAX_CHUNK_SIZE = 64;
+
+    private static final Object[][] NO_CHUNKS = new Object[0][];
+
+    private final Comparator<? super T> mComparator;
+    private final Object[][] mChunks;
+    private final int mSize;
+
+    private PersistentSortedList(Comparator<? super T> comparator, Object[][] chunks, int size) {
+        mComparator = comparator;
+        mChunks = chunks;
+        mSize = size;
+    }
+
+    /**
+     * @param comparator the items comparator
+     * @param <T>        the items type
+     * @return an empty list
+     */
+    public static <T> PersistentSortedList<T> empty(Comparator<? super T> comparator) {
+        return new PersistentSortedList<>(comparator, NO_CHUNKS, 0);
+    }
+
+    /**
+     * Build a sorted list from a collection.
+     *
+     * @param items      the items
+     * @param comparator the items comparator
+     * @param <T>        the items type
+     * @return the sorted list
+     */
+    public static <T> PersistentSortedList<T> fromCollection(Collection<? extends T> items, Comparator<? super T> comparator) {
+        if ((null == items) || items.isEmpty()) {
+            return empty(comparator);
+        }
+
+        Object[] sortedItems = items.toArray();
+        sortItems(sortedItems, comparator);
+
+        // half-filled chunks, so the next additions do not split them at once
+        int chunkSize = MAX_CHUNK_SIZE / 2;
+        Object[][] chunks = new Object[(sortedItems.length + chunkSize - 1) / chunkSize][];
+
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(sortedItems, i * chunkSize, Math.min(sortedItems.length, (i + 1) * chunkSize));
+        }
+
+        return new PersistentSortedList<>(comparator, chunks, sortedItems.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void sortItems(Object[] items, Comparator<? super T> comparator) {
+        Arrays.sort((T[]) items, comparator);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object item1, Object item2) {
+        return mComparator.compare((T) item1, (T) item2);
+    }
+
+    /**
+     * @return the number of items
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the list is empty
+     */
+    public boolean isEmpty() {
+        return 0 == mSize;
+    }
+
+    /**
+     * Find the first chunk whose last item is greater than or equal to an item.
+     *
+     * @param item the item
+     * @return the chunk index, mChunks.length if the item is greater than all the items
+     */
+    private int findChunk(Object item) {
+        int low = 0;
+        int high = mChunks.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Object[] chunk = mChunks[mid];
+
+            if (compare(chunk[chunk.length - 1], item) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Find the first position of a chunk whose item is greater than (or equal to) an item.
+     *
+     * @param chunk     the chunk
+     * @param item      the item
+     * @param inclusive true to find the first item greater than or equal to the item
+     * @return the position
+     */
+    private int findPosition(Object[] chunk, Object item, boolean inclusive) {
+        int low = 0;
+        int high = chunk.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int res = compare(chunk[mid], item);
+
+            if ((res < 0) || (!inclusive && (0 == res))) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Provides a list with a new item.
+     *
+     * @param item the item to add
+     * @return the updated list, this list is not modified
+     */
+    public PersistentSortedList<T> add(T item) {
+        if (0 == mChunks.length) {
+            return new PersistentSortedList<>(mComparator, new Object[][]{new Object[]{item}}, 1);
+        }
+
+        int chunkIndex = Math.min(findChunk(item), mChunks.length - 1);
+        Object[] chunk = mChunks[chunkIndex];
+        int pos = findPosition(chunk, item, false);
+
+        Object[] newChunk = new Object[chunk.length + 1];
+        System.arraycopy(chunk, 0, newChunk, 0, pos);
+        newChunk[pos] = item;
+        System.arraycopy(chunk, pos, newChunk, pos + 1, chunk.length - pos);
+
+        Object[][] chunks;
+
+        if (newChunk.length > MAX_CHUNK_SIZE) {
+            int half = newChunk.length / 2;
+
+            chunks = new Object[mChunks.length + 1][];
+            System.arraycopy(mChunks, 0, chunks, 0, chunkIndex);
+            chunks[chunkIndex] = Arrays.copyOfRange(newChunk, 0, half);
+            chunks[chunkIndex + 1] = Arrays.copyOfRange(newChunk, half, newChunk.length);
+            System.arraycopy(mChunks, chunkIndex + 1, chunks, chunkIndex + 2, mChunks.length - chunkIndex - 1);
+        } else {
+            chunks = mChunks.clone();
+            chunks[chunkIndex] = newChunk;
+        }
+
+        return new PersistentSortedList<>(mComparator, chunks, mSize + 1);
+    }
+
+    /**
+     * Provides a list without an item.
+     * The item is searched with the comparator, then compared with equals().
+     *
+     * @param item the item to remove
+     * @return the updated list, this list is not modified
+     */
+    public PersistentSortedList<T> remove(T item) {
+        int chunkIndex = findChunk(item);
+
+        if (chunkIndex >= mChunks.length) {
+            return this;
+        }
+
+        int pos = findPosition(mChunks[chunkIndex], item, true);
+
+        // the items which are equal for the comparator might be spread on several chunks
+        while (chunkIndex < mChunks.length) {
+            Object[] chunk = mChunks[chunkIndex];
+
+            for (; pos < chunk.length; pos++) {
+                if (0 != compare(chunk[pos], item)) {
+                    return this;
+                }
+
+                if ((chunk[pos] == item) || chunk[pos].equals(item)) {
+                    return removeAt(chunkIndex, pos);
+                }
+            }
+
+            chunkIndex++;
+            pos = 0;
+        }
+
+        return this;
+    }
+
+    private PersistentSortedList<T> removeAt(int chunkIndex, int pos) {
+        Object[] chunk = mChunks[chunkIndex];
+        Object[][] chunks;
+
+        if (1 == chunk.length) {
+            chunks = new Object[mChunks.length - 1][];
+            System.arraycopy(mChunks, 0, chunks, 0, chunkIndex);
+            System.arraycopy(mChunks, chunkIndex + 1, chunks, chunkIndex, mChunks.length - chunkIndex - 1);
+        } else {
+            Object[] newChunk = new Object[chunk.length - 1];
+            System.arraycopy(chunk, 0, newChunk, 0, pos);
+            System.arraycopy(chunk, pos + 1, newChunk, pos, chunk.length - pos - 1);
+
+            chunks = mChunks.clone();
+            chunks[chunkIndex] = newChunk;
+        }
+
+        return new PersistentSortedList<>(mComparator, chunks, mSize - 1);
+    }
+
+    /**
+     * Provides the item at a position.
+     *
+     * @param index the position
+     * @return the item
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if ((index < 0) || (index >= mSize)) {
+            throw new IndexOutOfBoundsException("Index " + index + " size " + mSize);
+        }
+
+        for (Object[] chunk : mChunks) {
+            if (index < chunk.length) {
+                return (T) chunk[index];
+            }
+            index -= chunk.length;
+        }
+
+        throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * Provides a page of items.
+     *
+     * @param offset the first item position
+     * @param count  the max number of items
+     * @return a new list of items
+     */
+    public List<T> getPage(int offset, int count) {
+        List<T> items = new ArrayList<>(Math.max(0, Math.min(count, mSize - offset)));
+        Iterator<T> iterator = iterator(offset);
+
+        while (iterator.hasNext() && (items.size() < count)) {
+            items.add(iterator.next());
+        }
+
+        return items;
+    }
+
+    /**
+     * @return a new list of the items
+     */
+    public List<T> toList() {
+        return getPage(0, mSize);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new ChunksIterator(0, 0);
+    }
+
+    /**
+     * Provides an iterator from a position.
+     *
+     * @param offset the first item position
+     * @return the iterator
+     */
+    public Iterator<T> iterator(int offset) {
+        int chunkIndex = 0;
+        offset = Math.max(0, offset);
+
+        while ((chunkIndex < mChunks.length) && (offset >= mChunks[chunkIndex].length)) {
+            offset -= mChunks[chunkIndex].length;
+            chunkIndex++;
+        }
+
+        return new ChunksIterator(chunkIndex, offset);
+    }
+
+    /**
+     * Provides an iterator from the first item which is greater than or equal to an item.
+     *
+     * @param item the item, it is only used to be compared
+     * @return the iterator
+     */
+    public Iterator<T> iteratorFrom(T item) {
+        int chunkIndex = findChunk(item);
+
+        if (chunkIndex >= mChunks.length) {
+            return new ChunksIterator(chunkIndex, 0);
+        }
+
+        return new ChunksIterator(chunkIndex, findPosition(mChunks[chunkIndex], item, true));
+    }
+
+    /**
+     * Iterate the chunks items.
+     */
+    private class ChunksIterator implements Iterator<T> {
+        private int mChunkIndex;
+        private int mPosition;
+
+        ChunksIterator(int chunkIndex, int position) {
+            mChunkIndex = chunkIndex;
+            mPosition = position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mChunkIndex < mChunks.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            T item = (T) mChunks[mChunkIndex][mPosition++];
+
+            if (mPosition >= mChunks[mChunkIndex].length) {
+                mChunkIndex++;
+                mPosition = 0;
+            }
+
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("The list is immutable");
+        }
+    }
+}
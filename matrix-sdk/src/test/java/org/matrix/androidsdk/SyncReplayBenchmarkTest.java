@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk;
+
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.store.MXFileStore;
+import org.matrix.androidsdk.data.store.MXMemoryStore;
+import org.matrix.androidsdk.data.store.MXStoreListener;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.matrix.androidsdk.rest.model.sync.RoomSync;
+import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+import org.matrix.androidsdk.test.BenchmarkStage;
+import org.matrix.androidsdk.test.SyncResponseGenerator;
+import org.matrix.androidsdk.util.Log;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replay some sync responses through the data handler, without home server.
+ * <p>
+ * The sync responses are either generated (N rooms x M members x K events)
+ * or loaded from the JSON files of the folder defined by the "matrix.sync.replay.fixtures" system property.
+ * The first file must be an initial sync response, the files are replayed in their names order.
+ * <p>
+ * It reports the throughput, the p99 latency and the allocation rate of each stage.
+ * <p>
+ * It only runs when the fixtures folder is defined, or when the benchmarks are enabled
+ * (see BenchmarkStage.BENCHMARKS_PROPERTY).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncReplayBenchmarkTest {
+    private static final String LOG_TAG = SyncReplayBenchmarkTest.class.getSimpleName();
+
+    private static final String FIXTURES_PROPERTY = "matrix.sync.replay.fixtures";
+
+    private static final int ROOMS_COUNT = 100;
+    private static final int MEMBERS_PER_ROOM = 50;
+    private static final int EVENTS_PER_ROOM = 20;
+    private static final int INCREMENTAL_SYNCS_COUNT = 10;
+
+    private static final long TIMEOUT_MS = 60000;
+
+    private Credentials mCredentials;
+    private final List<MXDataHandler> mDataHandlers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mCredentials = new Credentials();
+        mCredentials.userId = SyncResponseGenerator.getUserId(0);
+        mCredentials.accessToken = "accessToken";
+        mCredentials.homeServer = "matrix.org";
+    }
+
+    @After
+    public void tearDown() {
+        for (MXDataHandler dataHandler : mDataHandlers) {
+            dataHandler.clear();
+        }
+    }
+
+    /**
+     * Provides the sync responses to replay.
+     *
+     * @param decodeStage the JSON decoding stage
+     * @return the sync responses
+     * @throws Exception if the fixtures cannot be read
+     */
+    private List<SyncResponse> loadSyncResponses(BenchmarkStage decodeStage) throws Exception {
+        List<SyncResponse> syncResponses = new ArrayList<>();
+        String fixturesPath = System.getProperty(FIXTURES_PROPERTY);
+
+        if (null != fixturesPath) {
+            File[] files = new File(fixturesPath).listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(".json");
+                }
+            });
+
+            assertNotNull("no fixture in " + fixturesPath, files);
+            Arrays.sort(files);
+
+            for (File file : files) {
+                decodeStage.start();
+                syncResponses.add(SyncResponseGenerator.load(file));
+                decodeStage.stop();
+            }
+        } else {
+            for (int batchIndex = 0; batchIndex <= INCREMENTAL_SYNCS_COUNT; batchIndex++) {
+                String json = SyncResponseGenerator.generate(batchIndex, ROOMS_COUNT, MEMBERS_PER_ROOM, EVENTS_PER_ROOM).toString();
+
+                decodeStage.start();
+                syncResponses.add(SyncResponseGenerator.decode(json));
+                decodeStage.stop();
+            }
+        }
+
+        return syncResponses;
+    }
+
+    /**
+     * Create a data handler.
+     *
+     * @param useFileStore true to use a file store, false to use a memory store
+     * @return the data handler
+     */
+    private MXDataHandler createDataHandler(boolean useFileStore) {
+        MXMemoryStore store;
+
+        if (useFileStore) {
+            HomeServerConnectionConfig hsConfig = new HomeServerConnectionConfig(Uri.parse("https://matrix.org"), mCredentials);
+            MXFileStore fileStore = new MXFileStore(hsConfig, RuntimeEnvironment.application);
+            // the commits are explicitly done by the benchmark
+            fileStore.setCommitDelay(3600 * 1000);
+            store = fileStore;
+        } else {
+            store = new MXMemoryStore(mCredentials, RuntimeEnvironment.application);
+        }
+
+        MXDataHandler dataHandler = new MXDataHandler(store, mCredentials);
+        mDataHandlers.add(dataHandler);
+
+        return dataHandler;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        if (null == System.getProperty(FIXTURES_PROPERTY)) {
+            BenchmarkStage.assumeBenchmarksEnabled();
+        }
+
+        BenchmarkStage decodeStage = new BenchmarkStage("decode");
+        BenchmarkStage syncResponseStage = new BenchmarkStage("MXDataHandler.onSyncResponse");
+        BenchmarkStage commitStage = new BenchmarkStage("MXFileStore.commit");
+        BenchmarkStage joinedRoomStage = new BenchmarkStage("EventTimeline.handleJoinedRoomSync");
+        BenchmarkStage applyStateStage = new BenchmarkStage("RoomState.applyState");
+        BenchmarkStage applyStateEventsStage = new BenchmarkStage("RoomState.applyStateEvents");
+
+        List<SyncResponse> syncResponses = loadSyncResponses(decodeStage);
+        assertFalse(syncResponses.isEmpty());
+
+        // the whole response, with a file store
+        MXDataHandler dataHandler = createDataHandler(true);
+        MXFileStore fileStore = (MXFileStore) dataHandler.getStore();
+        final CountDownLatch[] commitLatch = new CountDownLatch[1];
+
+        fileStore.addMXStoreListener(new MXStoreListener() {
+            @Override
+            public void onStoreCommitted(String accountId) {
+                commitLatch[0].countDown();
+            }
+        });
+
+        String fromToken = null;
+
+        for (SyncResponse syncResponse : syncResponses) {
+            final CountDownLatch syncLatch = new CountDownLatch(1);
+
+            syncResponseStage.start();
+            dataHandler.onSyncResponse(syncResponse, fromToken, false);
+            // the sync responses are processed in their reception order
+            dataHandler.runInSyncThread(new Runnable() {
+                @Override
+                public void run() {
+                    syncLatch.countDown();
+                }
+            });
+            assertTrue(syncLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            syncResponseStage.stop();
+
+            commitLatch[0] = new CountDownLatch(1);
+
+            commitStage.start();
+            fileStore.flush();
+            assertTrue(commitLatch[0].await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            commitStage.stop();
+
+            fromToken = syncResponse.nextBatch;
+        }
+
+        if (null == System.getProperty(FIXTURES_PROPERTY)) {
+            assertEquals(ROOMS_COUNT, dataHandler.getStore().getRooms().size());
+        }
+
+        // each joined room, with a memory store
+        MXDataHandler roomsDataHandler = createDataHandler(false);
+        boolean isInitialSync = true;
+
+        for (SyncResponse syncResponse : syncResponses) {
+            if ((null != syncResponse.rooms) && (null != syncResponse.rooms.join)) {
+                for (String roomId : syncResponse.rooms.join.keySet()) {
+                    Room room = roomsDataHandler.getRoom(roomId);
+                    RoomSync roomSync = syncResponse.rooms.join.get(roomId);
+
+                    joinedRoomStage.start();
+                    room.handleJoinedRoomSync(roomSync, isInitialSync);
+                    joinedRoomStage.stop();
+                }
+            }
+
+            isInitialSync = false;
+        }
+
+        // the state events of the initial sync, on empty room states
+        SyncResponse initialSyncResponse = syncResponses.get(0);
+
+        if ((null != initialSyncResponse.rooms) && (null != initialSyncResponse.rooms.join)) {
+            for (String roomId : initialSyncResponse.rooms.join.keySet()) {
+                RoomSync roomSync = initialSyncResponse.rooms.join.get(roomId);
+
+                if ((null != roomSync.state) && (null != roomSync.state.events)) {
+                    RoomState roomState = new RoomState();
+                    roomState.roomId = roomId;
+                    roomState.setDataHandler(roomsDataHandler);
+
+                    for (Event event : roomSync.state.events) {
+                        event.roomId = roomId;
+
+                        applyStateStage.start();
+                        roomState.applyState(roomsDataHandler.getStore(), event, EventTimeline.Direction.FORWARDS);
+                        applyStateStage.stop();
+                    }
+
+                    RoomState batchRoomState = new RoomState();
+                    batchRoomState.roomId = roomId;
+                    batchRoomState.setDataHandler(roomsDataHandler);
+
+                    applyStateEventsStage.start();
+                    batchRoomState.applyStateEvents(roomsDataHandler.getStore(), roomSync.state.events, EventTimeline.Direction.FORWARDS);
+                    applyStateEventsStage.stop();
+
+                    assertEquals(roomState.getMembers().size(), batchRoomState.getMembers().size());
+                }
+            }
+        }
+
+        Log.d(LOG_TAG, "## SyncReplayBenchmark : " + syncResponses.size() + " sync responses");
+
+        for (BenchmarkStage stage : Arrays.asList(decodeStage, syncResponseStage, commitStage, joinedRoomStage, applyStateStage, applyStateEventsStage)) {
+            Log.d(LOG_TAG, stage.toString());
+        }
+
+        assertTrue(joinedRoomStage.getCount() > 0);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.PowerLevels;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.test.RoomEventFactory;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class RoomStateTest {
+    private static final String ROOM_ID = "!room:matrix.org";
+
+    private static Event buildTopicEvent(String topic) {
+        JsonObject content = new JsonObject();
+        content.addProperty("topic", topic);
+
+        Event event = new Event(Event.EVENT_TYPE_STATE_ROOM_TOPIC, content, "@alice:matrix.org", ROOM_ID);
+        event.eventId = "$topic" + topic;
+        event.stateKey = "";
+        return event;
+    }
+
+    @Test
+    public void testDeepCopySnapshot() {
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
+
+        for (int i = 0; i < 100; i++) {
+            state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user" + i + ":matrix.org", RoomMember.MEMBERSHIP_JOIN, "User " + i), EventTimeline.Direction.FORWARDS);
+        }
+        state.applyState(null, buildTopicEvent("first"), EventTimeline.Direction.FORWARDS);
+
+        RoomState previousState = state;
+        state = state.deepCopy();
+
+        // update the copy
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user0:matrix.org", RoomMember.MEMBERSHIP_LEAVE, null), EventTimeline.Direction.FORWARDS);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@new:matrix.org", RoomMember.MEMBERSHIP_JOIN, "New"), EventTimeline.Direction.FORWARDS);
+        state.applyState(null, buildTopicEvent("second"), EventTimeline.Direction.FORWARDS);
+
+        assertEquals(101, state.getMembers().size());
+        assertEquals(RoomMember.MEMBERSHIP_LEAVE, state.getMember("@user0:matrix.org").membership);
+        assertEquals("second", state.topic);
+        assertEquals(2, state.getStateEvents(new HashSet<>(Arrays.asList(Event.EVENT_TYPE_STATE_ROOM_TOPIC))).size());
+
+        // the previous state keeps its snapshot
+        assertEquals(100, previousState.getMembers().size());
+        assertEquals(RoomMember.MEMBERSHIP_JOIN, previousState.getMember("@user0:matrix.org").membership);
+        assertNull(previousState.getMember("@new:matrix.org"));
+        assertEquals("first", previousState.topic);
+        assertEquals(1, previousState.getStateEvents(new HashSet<>(Arrays.asList(Event.EVENT_TYPE_STATE_ROOM_TOPIC))).size());
+    }
+
+    @Test
+    public void testMemberNameDisambiguation() {
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
+
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@alice:matrix.org", RoomMember.MEMBERSHIP_JOIN, "Alice"), EventTimeline.Direction.FORWARDS);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@bob:matrix.org", RoomMember.MEMBERSHIP_JOIN, "Bob"), EventTimeline.Direction.FORWARDS);
+        assertEquals("Bob", state.getMemberName("@bob:matrix.org"));
+
+        // another member uses the same display name
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@carol:matrix.org", RoomMember.MEMBERSHIP_JOIN, "Bob"), EventTimeline.Direction.FORWARDS);
+        assertEquals("Bob (@bob:matrix.org)", state.getMemberName("@bob:matrix.org"));
+        assertEquals("Bob (@carol:matrix.org)", state.getMemberName("@carol:matrix.org"));
+        assertEquals("Alice", state.getMemberName("@alice:matrix.org"));
+
+        // the snapshot is not impacted by the next updates
+        RoomState previousState = state;
+        state = state.deepCopy();
+
+        // the display name is updated
+        JsonObject content = new JsonObject();
+        content.addProperty("membership", RoomMember.MEMBERSHIP_JOIN);
+        content.addProperty("displayname", "Carol");
+        Event renameEvent = new Event(Event.EVENT_TYPE_STATE_ROOM_MEMBER, content, "@carol:matrix.org", ROOM_ID);
+        renameEvent.eventId = "$rename";
+        renameEvent.stateKey = "@carol:matrix.org";
+        state.applyState(null, renameEvent, EventTimeline.Direction.FORWARDS);
+
+        assertEquals("Bob", state.getMemberName("@bob:matrix.org"));
+        assertEquals("Carol", state.getMemberName("@carol:matrix.org"));
+        assertEquals("Bob (@bob:matrix.org)", previousState.getMemberName("@bob:matrix.org"));
+
+        // the member leaves
+        state.removeMember("@carol:matrix.org");
+        assertEquals("@carol:matrix.org", state.getMemberName("@carol:matrix.org"));
+    }
+
+    @Test
+    public void testDisplayName() {
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
+
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@alice:matrix.org", RoomMember.MEMBERSHIP_JOIN, "Alice"), EventTimeline.Direction.FORWARDS);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@bob:matrix.org", RoomMember.MEMBERSHIP_JOIN, "Bob"), EventTimeline.Direction.FORWARDS);
+        assertEquals("Bob", state.getDisplayName("@alice:matrix.org"));
+
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@carol:matrix.org", RoomMember.MEMBERSHIP_JOIN, "Carol"), EventTimeline.Direction.FORWARDS);
+        String displayName = state.getDisplayName("@alice:matrix.org");
+        assertTrue(displayName.startsWith("(2) "));
+        assertTrue(displayName.contains("Bob"));
+        assertTrue(displayName.contains("Carol"));
+
+        // cached value
+        assertSame(displayName, state.getDisplayName("@alice:matrix.org"));
+
+        // the room name is used when it is defined
+        state.name = "Room name";
+        assertEquals("Room name", state.getDisplayName("@alice:matrix.org"));
+
+        state.name = null;
+        assertEquals(displayName, state.getDisplayName("@alice:matrix.org"));
+
+        // the members update invalidates the cache
+        state.removeMember("@carol:matrix.org");
+        assertEquals("Bob", state.getDisplayName("@alice:matrix.org"));
+    }
+
+    @Test
+    public void testApplyStateEvents() {
+        List<Event> events = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            events.add(RoomEventFactory.buildMemberEvent(ROOM_ID, "@user" + i + ":matrix.org", RoomMember.MEMBERSHIP_JOIN, "User " + (i % 900)));
+        }
+        events.add(buildTopicEvent("first"));
+        events.add(RoomEventFactory.buildMemberEvent(ROOM_ID, "@user0:matrix.org", RoomMember.MEMBERSHIP_LEAVE, null));
+        events.add(buildTopicEvent("second"));
+
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
+
+        RoomState batchState = new RoomState();
+        batchState.roomId = ROOM_ID;
+
+        for (Event event : events) {
+            state.applyState(null, event, EventTimeline.Direction.FORWARDS);
+        }
+        assertEquals(events.size(), batchState.applyStateEvents(null, events, EventTimeline.Direction.FORWARDS));
+
+        assertEquals(state.getMembers().size(), batchState.getMembers().size());
+        assertEquals(state.getJoinedMembersCount(), batchState.getJoinedMembersCount());
+        assertEquals(999, batchState.getJoinedMembersCount());
+        assertEquals("second", batchState.topic);
+        assertEquals(2, batchState.getStateEvents(new HashSet<>(Arrays.asList(Event.EVENT_TYPE_STATE_ROOM_TOPIC))).size());
+
+        for (RoomMember member : state.getMembers()) {
+            assertEquals(member.membership, batchState.getMember(member.getUserId()).membership);
+            assertEquals(state.getMemberName(member.getUserId()), batchState.getMemberName(member.getUserId()));
+        }
+
+        // the display names are disambiguated
+        assertEquals("User 1 (@user1:matrix.org)", batchState.getMemberName("@user1:matrix.org"));
+        assertEquals("User 100", batchState.getMemberName("@user100:matrix.org"));
+
+        // the state can still be updated event by event
+        batchState.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user901:matrix.org", RoomMember.MEMBERSHIP_LEAVE, "User 901"), EventTimeline.Direction.FORWARDS);
+        batchState.removeMember("@user901:matrix.org");
+        assertEquals("User 1", batchState.getMemberName("@user1:matrix.org"));
+    }
+
+    @Test
+    public void testMembersIndex() {
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
+
+        for (int i = 0; i < 1000; i++) {
+            state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user" + i + ":matrix.org", (0 == (i % 10)) ? RoomMember.MEMBERSHIP_INVITE : RoomMember.MEMBERSHIP_JOIN, "User " + i), EventTimeline.Direction.FORWARDS);
+        }
+
+        PowerLevels powerLevels = new PowerLevels();
+        powerLevels.setUserPowerLevel("@user999:matrix.org", 100);
+        state.setPowerLevels(powerLevels);
+
+        assertEquals(900, state.getMembersCount(RoomMember.MEMBERSHIP_JOIN));
+        assertEquals(100, state.getMembersCount(RoomMember.MEMBERSHIP_INVITE));
+        assertEquals(0, state.getMembersCount(RoomMember.MEMBERSHIP_BAN));
+
+        // the highest power level first, then by name
+        List<RoomMember> page = state.getMembers(RoomMember.MEMBERSHIP_JOIN, 0, 3);
+        assertEquals(3, page.size());
+        assertEquals("@user999:matrix.org", page.get(0).getUserId());
+        assertEquals("@user1:matrix.org", page.get(1).getUserId());
+        assertEquals("@user101:matrix.org", page.get(2).getUserId());
+
+        // the snapshot is not impacted by the next updates
+        RoomState previousState = state;
+        state = state.deepCopy();
+
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_LEAVE, null), EventTimeline.Direction.FORWARDS);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user10:matrix.org", RoomMember.MEMBERSHIP_JOIN, "Alice"), EventTimeline.Direction.FORWARDS);
+
+        assertEquals(900, state.getMembersCount(RoomMember.MEMBERSHIP_JOIN));
+        assertEquals(99, state.getMembersCount(RoomMember.MEMBERSHIP_INVITE));
+        assertEquals(1, state.getMembersCount(RoomMember.MEMBERSHIP_LEAVE));
+        assertEquals("@user10:matrix.org", state.getMembers(RoomMember.MEMBERSHIP_JOIN, 1, 1).get(0).getUserId());
+        assertEquals(900, previousState.getMembersCount(RoomMember.MEMBERSHIP_JOIN));
+        assertEquals("@user1:matrix.org", previousState.getMembers(RoomMember.MEMBERSHIP_JOIN, 1, 1).get(0).getUserId());
+
+        // prefix search
+        Iterator<RoomMember> iterator = state.getMembersWithNamePrefix("user 99", RoomMember.MEMBERSHIP_JOIN);
+        List<String> userIds = new ArrayList<>();
+        while (iterator.hasNext()) {
+            userIds.add(iterator.next().getUserId());
+        }
+        assertEquals(10, userIds.size());
+        assertEquals("@user99:matrix.org", userIds.get(0));
+        assertEquals("@user999:matrix.org", userIds.get(9));
+
+        iterator = state.getMembersWithNamePrefix("ALI", null);
+        assertEquals("@user10:matrix.org", iterator.next().getUserId());
+        assertFalse(iterator.hasNext());
+
+        // the power levels update reorders the members
+        powerLevels = new PowerLevels();
+        powerLevels.setUserPowerLevel("@user501:matrix.org", 50);
+        state.setPowerLevels(powerLevels);
+        assertEquals("@user501:matrix.org", state.getMembers(RoomMember.MEMBERSHIP_JOIN, 0, 1).get(0).getUserId());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.store.MXBinaryFileStoreSerializer;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.sync.RoomSyncSummary;
+import org.matrix.androidsdk.test.RoomEventFactory;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class RoomSummaryTest {
+    private static final String ROOM_ID = "!room:matrix.org";
+    private static final String MY_USER_ID = "@me:matrix.org";
+
+    private static RoomState buildRoomState(int membersCount) {
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
+        state.topic = "topic";
+        state.url = "mxc://matrix.org/avatar";
+
+        for (int i = 0; i < membersCount; i++) {
+            state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user" + i + ":matrix.org", RoomMember.MEMBERSHIP_JOIN, "User " + i), EventTimeline.Direction.FORWARDS);
+        }
+
+        return state;
+    }
+
+    private static RoomSummary saveAndLoad(RoomSummary summary) throws Exception {
+        MXBinaryFileStoreSerializer serializer = new MXBinaryFileStoreSerializer();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        serializer.write(bos, summary);
+
+        return (RoomSummary) serializer.read(new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    @Test
+    public void testRoomStateData() {
+        RoomState state = buildRoomState(500);
+        Event event = RoomEventFactory.buildMemberEvent(ROOM_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_JOIN, "User 1");
+
+        RoomSummary summary = new RoomSummary(null, event, state, MY_USER_ID);
+
+        assertEquals(ROOM_ID, summary.getRoomId());
+        assertEquals("topic", summary.getRoomTopic());
+        assertEquals("mxc://matrix.org/avatar", summary.getAvatarUrl());
+        assertEquals(500, summary.getJoinedMembersCount());
+        assertFalse(summary.isInvited());
+        assertFalse(summary.isRoomStateDataMissing());
+
+        // the summary is updated with the next room states
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user0:matrix.org", RoomMember.MEMBERSHIP_LEAVE, null), EventTimeline.Direction.FORWARDS);
+        summary.setLatestRoomState(state);
+        assertEquals(499, summary.getJoinedMembersCount());
+    }
+
+    @Test
+    public void testCompactForm() throws Exception {
+        RoomState state = buildRoomState(500);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, MY_USER_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_INVITE, "Me"), EventTimeline.Direction.FORWARDS);
+
+        Event inviteEvent = RoomEventFactory.buildMemberEvent(ROOM_ID, MY_USER_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_INVITE, "Me");
+        inviteEvent.invite_room_state = new ArrayList<>();
+        inviteEvent.invite_room_state.add(RoomEventFactory.buildMemberEvent(ROOM_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_JOIN, "User 1"));
+
+        RoomSummary summary = new RoomSummary(null, inviteEvent, state, MY_USER_ID);
+        summary.setUnreadEventsCount(3);
+        summary.setHighlightCount(1);
+
+        assertTrue(summary.isInvited());
+        assertEquals("User 1", summary.getRoomName());
+
+        MXBinaryFileStoreSerializer serializer = new MXBinaryFileStoreSerializer(false);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        serializer.write(bos, summary);
+
+        // the members are not saved
+        assertTrue("the summary uses " + bos.size() + " bytes", bos.size() < 1024);
+
+        RoomSummary loadedSummary = saveAndLoad(summary);
+
+        assertEquals(ROOM_ID, loadedSummary.getRoomId());
+        assertEquals(MY_USER_ID, loadedSummary.getMatrixId());
+        assertEquals("topic", loadedSummary.getRoomTopic());
+        assertEquals("mxc://matrix.org/avatar", loadedSummary.getAvatarUrl());
+        assertEquals(500, loadedSummary.getJoinedMembersCount());
+        assertEquals(3, loadedSummary.getUnreadEventsCount());
+        assertEquals(1, loadedSummary.getHighlightCount());
+        assertEquals(summary.getReadReceiptEventId(), loadedSummary.getReadReceiptEventId());
+        assertTrue(loadedSummary.isInvited());
+        assertEquals("@user1:matrix.org", loadedSummary.getInviterUserId());
+        assertEquals("User 1", loadedSummary.getRoomName());
+        assertFalse(loadedSummary.isRoomStateDataMissing());
+
+        // the invite room state is not saved
+        assertEquals(inviteEvent.eventId, loadedSummary.getLatestReceivedEvent().eventId);
+        assertEquals(RoomMember.MEMBERSHIP_INVITE, loadedSummary.getLatestReceivedEvent().getContentAsJsonObject().get("membership").getAsString());
+        assertNull(loadedSummary.getLatestReceivedEvent().invite_room_state);
+        assertNotNull(summary.getLatestReceivedEvent().invite_room_state);
+    }
+
+    @Test
+    public void testRoomSyncSummary() throws Exception {
+        // the lazy loaded room state only contains the members who sent the timeline events
+        RoomState state = buildRoomState(2);
+        Event event = RoomEventFactory.buildMemberEvent(ROOM_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_JOIN, "User 1");
+
+        RoomSummary summary = new RoomSummary(null, event, state, MY_USER_ID);
+
+        RoomSyncSummary syncSummary = new RoomSyncSummary();
+        syncSummary.heroes = Arrays.asList("@user0:matrix.org", "@user1:matrix.org", MY_USER_ID);
+        syncSummary.joinedMembersCount = 40;
+        syncSummary.invitedMembersCount = 2;
+        summary.setRoomSyncSummary(syncSummary);
+        summary.setLatestRoomState(state);
+
+        assertEquals(40, summary.getJoinedMembersCount());
+        assertEquals(2, summary.getInvitedMembersCount());
+        assertEquals("(41) User 0, User 1", summary.getRoomName());
+
+        // the server only sends the updated fields
+        syncSummary = new RoomSyncSummary();
+        syncSummary.joinedMembersCount = 41;
+        summary.setRoomSyncSummary(syncSummary);
+
+        assertEquals(41, summary.getJoinedMembersCount());
+        assertEquals(2, summary.getInvitedMembersCount());
+        assertEquals(3, summary.getHeroes().size());
+
+        // the sync room summary data are kept by the next summaries
+        RoomSummary nextSummary = new RoomSummary(summary, event, state, MY_USER_ID);
+        assertEquals(41, nextSummary.getJoinedMembersCount());
+        assertEquals("(42) User 0, User 1", nextSummary.getRoomName());
+
+        RoomSummary loadedSummary = saveAndLoad(nextSummary);
+        assertEquals(41, loadedSummary.getJoinedMembersCount());
+        assertEquals(2, loadedSummary.getInvitedMembersCount());
+        assertEquals(nextSummary.getHeroes(), loadedSummary.getHeroes());
+        assertEquals("(42) User 0, User 1", loadedSummary.getRoomName());
+    }
+}
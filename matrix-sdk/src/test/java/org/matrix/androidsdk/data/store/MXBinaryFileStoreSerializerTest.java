@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.test.RoomEventFactory;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXBinaryFileStoreSerializerTest {
+    private static final String ROOM_ID = "!room:matrix.org";
+
+    private static Object saveAndLoad(MXBinaryFileStoreSerializer serializer, Object object) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        serializer.write(bos, object);
+
+        return serializer.read(new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    private static Event buildMessageEvent(int index) {
+        JsonObject content = new JsonObject();
+        content.addProperty("msgtype", "m.text");
+        content.addProperty("body", "Message " + index);
+
+        Event event = new Event(Event.EVENT_TYPE_MESSAGE, content, "@user" + (index % 3) + ":matrix.org", ROOM_ID);
+        event.eventId = "$" + index + ":matrix.org";
+        event.originServerTs = 1500000000000L + index;
+        event.age = null;
+        event.mSentState = Event.SentState.SENT;
+        return event;
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+
+        for (int i = 0; i < 20; i++) {
+            Event event = buildMessageEvent(i);
+            events.put(event.eventId, event);
+        }
+
+        Event stateEvent = RoomEventFactory.buildMemberEvent(ROOM_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_JOIN, "User 1");
+        stateEvent.prev_content = RoomEventFactory.buildMemberEvent(ROOM_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_INVITE, null).getContent();
+        stateEvent.mToken = "token";
+        stateEvent.mSentState = Event.SentState.UNSENT;
+        events.put(stateEvent.eventId, stateEvent);
+
+        for (MXBinaryFileStoreSerializer serializer : new MXBinaryFileStoreSerializer[]{new MXBinaryFileStoreSerializer(), new MXBinaryFileStoreSerializer(false)}) {
+            LinkedHashMap<String, Event> loadedEvents = (LinkedHashMap<String, Event>) saveAndLoad(serializer, events);
+
+            // the order is kept
+            assertEquals(new ArrayList<>(events.keySet()), new ArrayList<>(loadedEvents.keySet()));
+
+            Iterator<Event> it = loadedEvents.values().iterator();
+
+            for (Event event : events.values()) {
+                Event loadedEvent = it.next();
+
+                assertEquals(event.eventId, loadedEvent.eventId);
+                assertEquals(event.getType(), loadedEvent.getType());
+                assertEquals(event.roomId, loadedEvent.roomId);
+                assertEquals(event.getSender(), loadedEvent.getSender());
+                assertEquals(event.originServerTs, loadedEvent.originServerTs);
+                assertEquals(event.stateKey, loadedEvent.stateKey);
+                assertEquals(event.mSentState, loadedEvent.mSentState);
+                assertEquals(event.mToken, loadedEvent.mToken);
+                assertNull(loadedEvent.age);
+                assertEquals(event.getContentAsJsonObject(), loadedEvent.getContentAsJsonObject());
+            }
+
+            Event loadedStateEvent = loadedEvents.get(stateEvent.eventId);
+            assertEquals(RoomMember.MEMBERSHIP_INVITE, loadedStateEvent.getPrevContentAsJsonObject().get("membership").getAsString());
+        }
+    }
+
+    @Test
+    public void testRoomState() throws Exception {
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
+        state.name = "Room name";
+        state.topic = "Room topic";
+        state.setNotificationCount(3);
+        state.setHighlightCount(1);
+
+        for (int i = 0; i < 10; i++) {
+            state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user" + i + ":matrix.org", RoomMember.MEMBERSHIP_JOIN, "User " + i), EventTimeline.Direction.FORWARDS);
+        }
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user10:matrix.org", RoomMember.MEMBERSHIP_INVITE, "User 10"), EventTimeline.Direction.FORWARDS);
+
+        for (MXBinaryFileStoreSerializer serializer : new MXBinaryFileStoreSerializer[]{new MXBinaryFileStoreSerializer(), new MXBinaryFileStoreSerializer(false)}) {
+            RoomState loadedState = (RoomState) saveAndLoad(serializer, state);
+
+            assertEquals(ROOM_ID, loadedState.roomId);
+            assertEquals("Room name", loadedState.name);
+            assertEquals("Room topic", loadedState.topic);
+            assertEquals(3, loadedState.getNotificationCount());
+            assertEquals(1, loadedState.getHighlightCount());
+
+            assertEquals(11, loadedState.getMembers().size());
+            assertEquals(10, loadedState.getJoinedMembersCount());
+            assertEquals("User 4", loadedState.getMember("@user4:matrix.org").displayname);
+            assertEquals(RoomMember.MEMBERSHIP_INVITE, loadedState.getMember("@user10:matrix.org").membership);
+            assertEquals("User 10", loadedState.getMemberName("@user10:matrix.org"));
+        }
+    }
+
+    @Test
+    public void testReceipts() throws Exception {
+        List<ReceiptData> receipts = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            receipts.add(new ReceiptData("@user" + i + ":matrix.org", "$" + (i % 3) + ":matrix.org", 1500000000000L + i));
+        }
+
+        for (MXBinaryFileStoreSerializer serializer : new MXBinaryFileStoreSerializer[]{new MXBinaryFileStoreSerializer(), new MXBinaryFileStoreSerializer(false)}) {
+            List<ReceiptData> loadedReceipts = (List<ReceiptData>) saveAndLoad(serializer, receipts);
+
+            assertEquals(receipts.size(), loadedReceipts.size());
+
+            for (int i = 0; i < receipts.size(); i++) {
+                assertEquals(receipts.get(i).userId, loadedReceipts.get(i).userId);
+                assertEquals(receipts.get(i).eventId, loadedReceipts.get(i).eventId);
+                assertEquals(receipts.get(i).originServerTs, loadedReceipts.get(i).originServerTs);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.ContentUtils;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreEventIndexTest {
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = File.createTempFile("MXFileStoreEventIndex", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        ContentUtils.deleteDirectory(mFolder);
+    }
+
+    private static Event buildEvent(String roomId, int index) {
+        JsonObject content = new JsonObject();
+        content.addProperty("msgtype", "m.text");
+        content.addProperty("body", "Message " + index);
+
+        Event event = new Event(Event.EVENT_TYPE_MESSAGE, content, "@user:matrix.org", roomId);
+        event.eventId = "$" + index + ":matrix.org";
+        event.mSentState = Event.SentState.SENT;
+        return event;
+    }
+
+    private MXFileStoreEventIndex openIndex() {
+        MXFileStoreEventIndex index = new MXFileStoreEventIndex(mFolder, new MXBinaryFileStoreSerializer(false));
+        assertTrue(index.open());
+        return index;
+    }
+
+    @Test
+    public void testPutGet() {
+        MXFileStoreEventIndex index = openIndex();
+
+        // enough events to resize the table
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.put(buildEvent("!room" + (i % 10) + ":matrix.org", i)));
+        }
+
+        Event event = index.get("$1234:matrix.org", "!room4:matrix.org");
+        assertNotNull(event);
+        assertEquals("Message 1234", event.getContentAsJsonObject().get("body").getAsString());
+
+        assertTrue(index.contains("$1234:matrix.org", "!room4:matrix.org"));
+        assertNull(index.get("$1234:matrix.org", "!room5:matrix.org"));
+        assertNull(index.get("$10000:matrix.org", "!room0:matrix.org"));
+
+        index.remove("$1234:matrix.org");
+        assertNull(index.get("$1234:matrix.org", "!room4:matrix.org"));
+
+        index.removeRoom("!room5:matrix.org");
+        assertFalse(index.contains("$1235:matrix.org", "!room5:matrix.org"));
+        assertTrue(index.contains("$1236:matrix.org", "!room6:matrix.org"));
+
+        index.close();
+
+        index = openIndex();
+        assertNotNull(index.get("$1236:matrix.org", "!room6:matrix.org"));
+        assertNull(index.get("$1234:matrix.org", "!room4:matrix.org"));
+        index.close();
+    }
+
+    @Test
+    public void testRepair() throws Exception {
+        MXFileStoreEventIndex index = openIndex();
+
+        for (int i = 0; i < 100; i++) {
+            index.put(buildEvent("!room:matrix.org", i));
+        }
+
+        index.close();
+
+        // torn record
+        RandomAccessFile segment = new RandomAccessFile(new File(mFolder, "segment_0"), "rw");
+        segment.setLength(segment.length() - 3);
+        segment.close();
+
+        index = openIndex();
+        assertNull(index.get("$99:matrix.org", "!room:matrix.org"));
+        assertNotNull(index.get("$98:matrix.org", "!room:matrix.org"));
+        assertTrue(index.put(buildEvent("!room:matrix.org", 100)));
+        index.close();
+
+        // lost table
+        assertTrue(new File(mFolder, "index").delete());
+
+        index = openIndex();
+        assertNotNull(index.get("$0:matrix.org", "!room:matrix.org"));
+        assertNotNull(index.get("$100:matrix.org", "!room:matrix.org"));
+        assertEquals(100, index.getUsedSlotsCount());
+        index.close();
+    }
+}
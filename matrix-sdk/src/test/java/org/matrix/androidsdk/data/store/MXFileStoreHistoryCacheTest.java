@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.util.ContentUtils;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreHistoryCacheTest {
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = File.createTempFile("MXFileStoreHistoryCache", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        ContentUtils.deleteDirectory(mFolder);
+    }
+
+    private static TokensChunkResponse<Event> buildChunk(String roomId, String start, String end, int count) {
+        TokensChunkResponse<Event> response = new TokensChunkResponse<>();
+        response.start = start;
+        response.end = end;
+        response.chunk = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            JsonObject content = new JsonObject();
+            content.addProperty("msgtype", "m.text");
+            content.addProperty("body", "Message " + i + " before " + start);
+
+            Event event = new Event(Event.EVENT_TYPE_MESSAGE, content, "@user:matrix.org", roomId);
+            event.eventId = "$" + start + "_" + i;
+            response.chunk.add(event);
+        }
+
+        response.chunk.get(0).mToken = start;
+        response.chunk.get(count - 1).mToken = end;
+
+        return response;
+    }
+
+    @Test
+    public void testPutGet() {
+        MXFileStoreHistoryCache cache = new MXFileStoreHistoryCache(mFolder, new MXBinaryFileStoreSerializer(), 1024 * 1024);
+        cache.put("!room:matrix.org", buildChunk("!room:matrix.org", "t1", "t2", 20));
+
+        // survive a restart
+        cache = new MXFileStoreHistoryCache(mFolder, new MXBinaryFileStoreSerializer(), 1024 * 1024);
+
+        TokensChunkResponse<Event> response = cache.get("!room:matrix.org", "t1");
+        assertNotNull(response);
+        assertEquals("t1", response.start);
+        assertEquals("t2", response.end);
+        assertEquals(20, response.chunk.size());
+        assertEquals("$t1_0", response.chunk.get(0).eventId);
+        assertEquals("t2", response.chunk.get(19).mToken);
+
+        assertNull(cache.get("!room:matrix.org", "t2"));
+        assertNull(cache.get("!other:matrix.org", "t1"));
+
+        cache.deleteRoom("!room:matrix.org");
+        assertNull(cache.get("!room:matrix.org", "t1"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        MXFileStoreHistoryCache cache = new MXFileStoreHistoryCache(mFolder, new MXBinaryFileStoreSerializer(), 1024 * 1024);
+        cache.put("!room1:matrix.org", buildChunk("!room1:matrix.org", "a1", "a2", 20));
+        cache.put("!room2:matrix.org", buildChunk("!room2:matrix.org", "b1", "b2", 20));
+
+        // room1 is the most recently used one
+        assertNotNull(cache.get("!room1:matrix.org", "a1"));
+
+        long size = cache.getSize();
+        cache.setMaxSize(size - 1);
+
+        assertNotNull(cache.get("!room1:matrix.org", "a1"));
+        assertNull(cache.get("!room2:matrix.org", "b1"));
+        assertTrue(cache.getSize() < size);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.HomeServerConnectionConfig;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.matrix.androidsdk.util.ContentUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreJournalTest {
+
+    private static final String FOLDER_NAME = "Summaries";
+    private static final String USER_ID = "@user:matrix.org";
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = File.createTempFile("MXFileStoreJournal", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        ContentUtils.deleteDirectory(mFolder);
+        ContentUtils.deleteDirectory(getStoreFolder());
+    }
+
+    private MXFileStoreJournal openJournal() {
+        MXFileStoreJournal journal = new MXFileStoreJournal(mFolder);
+        assertTrue(journal.open());
+        return journal;
+    }
+
+    private static byte[] buildData(int length, int seed) {
+        byte[] data = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i + seed);
+        }
+
+        return data;
+    }
+
+    private File getSegmentFile(long segmentId) {
+        return new File(mFolder, "segment_" + segmentId + ".log");
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        MXFileStoreJournal journal = openJournal();
+
+        assertTrue(journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(100, 1)));
+        assertTrue(journal.put(FOLDER_NAME, "!room2:matrix.org", buildData(200, 2)));
+        assertTrue(journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(300, 3)));
+
+        assertArrayEquals(buildData(300, 3), journal.get(FOLDER_NAME, "!room1:matrix.org"));
+        assertNull(journal.get("Messages", "!room1:matrix.org"));
+        journal.close();
+
+        // the segments are replayed
+        journal = openJournal();
+        assertArrayEquals(buildData(300, 3), journal.get(FOLDER_NAME, "!room1:matrix.org"));
+        assertArrayEquals(buildData(200, 2), journal.get(FOLDER_NAME, "!room2:matrix.org"));
+        journal.close();
+    }
+
+    @Test
+    public void testDeleteReplay() throws Exception {
+        MXFileStoreJournal journal = openJournal();
+
+        journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(100, 1));
+        journal.put(FOLDER_NAME, "!room2:matrix.org", buildData(100, 2));
+        journal.delete(FOLDER_NAME, "!room1:matrix.org");
+
+        assertFalse(journal.contains(FOLDER_NAME, "!room1:matrix.org"));
+        journal.close();
+
+        journal = openJournal();
+        assertFalse(journal.contains(FOLDER_NAME, "!room1:matrix.org"));
+        assertNull(journal.get(FOLDER_NAME, "!room1:matrix.org"));
+        assertEquals(Arrays.asList("!room2:matrix.org"), journal.keys(FOLDER_NAME));
+
+        // an item can be saved again after its deletion
+        journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(100, 3));
+        journal.close();
+
+        journal = openJournal();
+        assertArrayEquals(buildData(100, 3), journal.get(FOLDER_NAME, "!room1:matrix.org"));
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        MXFileStoreJournal journal = openJournal();
+        journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(100, 1));
+        journal.close();
+
+        long validLength = getSegmentFile(0).length();
+
+        journal = openJournal();
+        journal.put(FOLDER_NAME, "!room2:matrix.org", buildData(100, 2));
+        journal.close();
+
+        // the application was killed while writing the record
+        RandomAccessFile segment = new RandomAccessFile(getSegmentFile(0), "rw");
+        segment.setLength(segment.length() - 3);
+        segment.close();
+
+        journal = openJournal();
+        assertArrayEquals(buildData(100, 1), journal.get(FOLDER_NAME, "!room1:matrix.org"));
+        assertFalse(journal.contains(FOLDER_NAME, "!room2:matrix.org"));
+
+        // the torn tail is truncated
+        assertEquals(validLength, getSegmentFile(0).length());
+
+        // the next records are appended after the valid ones
+        journal.put(FOLDER_NAME, "!room3:matrix.org", buildData(100, 3));
+        journal.close();
+
+        journal = openJournal();
+        assertArrayEquals(buildData(100, 1), journal.get(FOLDER_NAME, "!room1:matrix.org"));
+        assertArrayEquals(buildData(100, 3), journal.get(FOLDER_NAME, "!room3:matrix.org"));
+        journal.close();
+    }
+
+    @Test
+    public void testInvalidChecksum() throws Exception {
+        MXFileStoreJournal journal = openJournal();
+        journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(100, 1));
+        journal.close();
+
+        long validLength = getSegmentFile(0).length();
+
+        journal = openJournal();
+        journal.put(FOLDER_NAME, "!room2:matrix.org", buildData(100, 2));
+        journal.put(FOLDER_NAME, "!room3:matrix.org", buildData(100, 3));
+        journal.close();
+
+        // corrupt the data of the second record
+        RandomAccessFile segment = new RandomAccessFile(getSegmentFile(0), "rw");
+        segment.seek(validLength + 50);
+        int value = segment.read();
+        segment.seek(validLength + 50);
+        segment.write(value ^ 0xFF);
+        segment.close();
+
+        // the record and the next ones are rejected
+        journal = openJournal();
+        assertArrayEquals(buildData(100, 1), journal.get(FOLDER_NAME, "!room1:matrix.org"));
+        assertFalse(journal.contains(FOLDER_NAME, "!room2:matrix.org"));
+        assertFalse(journal.contains(FOLDER_NAME, "!room3:matrix.org"));
+        assertEquals(validLength, getSegmentFile(0).length());
+        journal.close();
+    }
+
+    @Test
+    public void testSegmentRollover() throws Exception {
+        MXFileStoreJournal journal = openJournal();
+
+        // a segment is limited to 4 MB
+        for (int i = 0; i < 5; i++) {
+            assertTrue(journal.put(FOLDER_NAME, "!room" + i + ":matrix.org", buildData(1024 * 1024, i)));
+        }
+
+        assertTrue(getSegmentFile(0).exists());
+        assertTrue(getSegmentFile(1).exists());
+        assertTrue(getSegmentFile(0).length() <= 4 * 1024 * 1024);
+        journal.close();
+
+        journal = openJournal();
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(buildData(1024 * 1024, i), journal.get(FOLDER_NAME, "!room" + i + ":matrix.org"));
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        MXFileStoreJournal journal = openJournal();
+
+        journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(1000, 1));
+
+        // overwrite the same item until the dead bytes reach the threshold
+        for (int i = 0; i < 4; i++) {
+            journal.put(FOLDER_NAME, "!room2:matrix.org", buildData(700 * 1024, i));
+        }
+
+        journal.delete(FOLDER_NAME, "!room1:matrix.org");
+
+        assertTrue(journal.needsCompaction());
+        journal.compact();
+        assertFalse(journal.needsCompaction());
+
+        // the previous segment is deleted, the live record is rewritten in a new one
+        assertFalse(getSegmentFile(0).exists());
+        assertTrue(getSegmentFile(1).length() < 1024 * 1024);
+        assertArrayEquals(buildData(700 * 1024, 3), journal.get(FOLDER_NAME, "!room2:matrix.org"));
+
+        // the records are appended after the compacted ones
+        journal.put(FOLDER_NAME, "!room3:matrix.org", buildData(100, 3));
+        journal.close();
+
+        journal = openJournal();
+        assertFalse(journal.contains(FOLDER_NAME, "!room1:matrix.org"));
+        assertArrayEquals(buildData(700 * 1024, 3), journal.get(FOLDER_NAME, "!room2:matrix.org"));
+        assertArrayEquals(buildData(100, 3), journal.get(FOLDER_NAME, "!room3:matrix.org"));
+        journal.close();
+    }
+
+    //================================================================================
+    // Storage mode
+    //================================================================================
+
+    private static File getStoreFolder() {
+        return new File(new File(RuntimeEnvironment.application.getFilesDir(), "MXFileStore"), USER_ID);
+    }
+
+    private static void saveMetaData(boolean useJournal) throws Exception {
+        MXFileStoreMetaData metadata = new MXFileStoreMetaData();
+        metadata.mUserId = USER_ID;
+        metadata.mAccessToken = "accessToken";
+        metadata.mEventStreamToken = "token";
+        metadata.mUseJournal = useJournal;
+
+        File folder = getStoreFolder();
+        folder.mkdirs();
+
+        FileOutputStream stream = new FileOutputStream(new File(folder, "MXFileStore"));
+        new MXBinaryFileStoreSerializer().write(stream, metadata);
+        stream.close();
+    }
+
+    private static MXFileStore openStore(boolean useJournal) {
+        Credentials credentials = new Credentials();
+        credentials.userId = USER_ID;
+        credentials.accessToken = "accessToken";
+        credentials.homeServer = "matrix.org";
+
+        HomeServerConnectionConfig hsConfig = new HomeServerConnectionConfig(Uri.parse("https://matrix.org"), credentials);
+        return new MXFileStore(hsConfig, RuntimeEnvironment.application, new MXBinaryFileStoreSerializer(), useJournal);
+    }
+
+    @Test
+    public void testStorageModeUpdate() throws Exception {
+        // the data are kept when the storage mode is the saved one
+        saveMetaData(false);
+        MXFileStore store = openStore(false);
+        assertEquals("token", store.getEventStreamToken());
+        store.close();
+
+        // the store is cleared when the storage mode is updated
+        store = openStore(true);
+        assertNull(store.getEventStreamToken());
+        store.close();
+
+        saveMetaData(true);
+        store = openStore(true);
+        assertEquals("token", store.getEventStreamToken());
+        store.close();
+
+        store = openStore(false);
+        assertNull(store.getEventStreamToken());
+        store.close();
+    }
+
+    @Test
+    public void testStorageModeWithoutMetaData() throws Exception {
+        // the previous versions did not save the storage mode : the journal segments are checked
+        saveMetaData(false);
+
+        MXFileStoreJournal journal = new MXFileStoreJournal(new File(getStoreFolder(), "journal"));
+        journal.put(FOLDER_NAME, "!room1:matrix.org", buildData(100, 1));
+        journal.close();
+
+        MXFileStore store = openStore(true);
+        assertEquals("token", store.getEventStreamToken());
+        store.close();
+
+        store = openStore(false);
+        assertNull(store.getEventStreamToken());
+        store.close();
+    }
+}
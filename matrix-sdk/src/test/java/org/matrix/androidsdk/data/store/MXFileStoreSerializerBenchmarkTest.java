@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.test.BenchmarkStage;
+import org.matrix.androidsdk.util.ContentUtils;
+import org.matrix.androidsdk.util.Log;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the MXFileStore formats on a synthetic 1,000 rooms store.
+ * The reading time is the main part of the MXFileStore.open() time.
+ * The comparison only runs when the benchmarks are enabled (see BenchmarkStage.BENCHMARKS_PROPERTY).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreSerializerBenchmarkTest {
+    private static final String LOG_TAG = MXFileStoreSerializerBenchmarkTest.class.getSimpleName();
+
+    private static final int ROOMS_COUNT = 1000;
+    private static final int EVENTS_PER_ROOM = 50;
+    private static final int MEMBERS_PER_ROOM = 20;
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = File.createTempFile("MXFileStoreSerializerBenchmark", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        ContentUtils.deleteDirectory(mFolder);
+    }
+
+    private static LinkedHashMap<String, Event> buildRoomEvents(String roomId) {
+        LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+
+        for (int i = 0; i < EVENTS_PER_ROOM; i++) {
+            JsonObject content = new JsonObject();
+            content.addProperty("msgtype", "m.text");
+            content.addProperty("body", "Message " + i + " in the room " + roomId);
+
+            Event event = new Event(Event.EVENT_TYPE_MESSAGE, content, "@user" + (i % MEMBERS_PER_ROOM) + ":matrix.org", roomId);
+            event.eventId = "$" + roomId.hashCode() + "_" + i + ":matrix.org";
+            event.originServerTs = 1500000000000L + i;
+            event.age = null;
+            event.mSentState = Event.SentState.SENT;
+            events.put(event.eventId, event);
+        }
+
+        return events;
+    }
+
+    private static RoomState buildRoomState(String roomId) {
+        RoomState roomState = new RoomState();
+        roomState.roomId = roomId;
+        roomState.name = "Room " + roomId;
+        roomState.topic = "The topic of " + roomId;
+
+        for (int i = 0; i < MEMBERS_PER_ROOM; i++) {
+            RoomMember member = new RoomMember();
+            member.membership = RoomMember.MEMBERSHIP_JOIN;
+            member.displayname = "User " + i;
+            member.setAvatarUrl("mxc://matrix.org/avatar" + i);
+            roomState.setMember("@user" + i + ":matrix.org", member);
+        }
+
+        return roomState;
+    }
+
+    private static List<ReceiptData> buildReceipts(String roomId) {
+        List<ReceiptData> receipts = new ArrayList<>();
+
+        for (int i = 0; i < MEMBERS_PER_ROOM; i++) {
+            receipts.add(new ReceiptData("@user" + i + ":matrix.org", "$" + roomId.hashCode() + "_" + i + ":matrix.org", 1500000000000L + i));
+        }
+
+        return receipts;
+    }
+
+    /**
+     * Save and read the synthetic store with a serializer.
+     *
+     * @param name       the format name
+     * @param serializer the serializer
+     * @return the bytes on disk
+     * @throws Exception if the (de)serialization fails
+     */
+    private long benchmark(String name, IMXFileStoreSerializer serializer) throws Exception {
+        File folder = new File(mFolder, name);
+        folder.mkdirs();
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < ROOMS_COUNT; i++) {
+            String roomId = "!room" + i + ":matrix.org";
+
+            write(serializer, new File(folder, roomId + ".messages"), buildRoomEvents(roomId));
+            write(serializer, new File(folder, roomId + ".state"), buildRoomState(roomId));
+            write(serializer, new File(folder, roomId + ".receipts"), buildReceipts(roomId));
+        }
+
+        long writeTime = System.currentTimeMillis() - start;
+
+        File[] files = folder.listFiles();
+        long bytes = 0;
+
+        start = System.currentTimeMillis();
+
+        for (File file : files) {
+            bytes += file.length();
+
+            Object object = read(serializer, file);
+            assertNotNull(object);
+
+            if (file.getName().endsWith(".messages")) {
+                LinkedHashMap<String, Event> events = (LinkedHashMap<String, Event>) object;
+                assertEquals(EVENTS_PER_ROOM, events.size());
+                assertEquals(Event.SentState.SENT, events.values().iterator().next().mSentState);
+            } else if (file.getName().endsWith(".state")) {
+                assertEquals(MEMBERS_PER_ROOM, ((RoomState) object).getMembers().size());
+            } else {
+                assertEquals(MEMBERS_PER_ROOM, ((List<ReceiptData>) object).size());
+            }
+        }
+
+        long readTime = System.currentTimeMillis() - start;
+
+        Log.d(LOG_TAG, "## " + name + " : " + ROOMS_COUNT + " rooms, " + bytes + " bytes on disk, write " + writeTime + " ms, read " + readTime + " ms");
+
+        return bytes;
+    }
+
+    private static void write(IMXFileStoreSerializer serializer, File file, Object object) throws Exception {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        serializer.write(out, object);
+        out.close();
+    }
+
+    private static Object read(IMXFileStoreSerializer serializer, File file) throws Exception {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        Object object = serializer.read(in);
+        in.close();
+        return object;
+    }
+
+    @Test
+    public void testCompareFormats() throws Exception {
+        BenchmarkStage.assumeBenchmarksEnabled();
+
+        long gzipBytes = benchmark("gzip", new MXGzipFileStoreSerializer());
+        long binaryBytes = benchmark("binary", new MXBinaryFileStoreSerializer());
+        benchmark("binary_uncompressed", new MXBinaryFileStoreSerializer(false));
+
+        assertTrue("The binary format should be smaller than the GZIP one", binaryBytes < gzipBytes);
+    }
+
+    @Test
+    public void testFormatDetection() {
+        MXGzipFileStoreSerializer gzipSerializer = new MXGzipFileStoreSerializer();
+        MXBinaryFileStoreSerializer binarySerializer = new MXBinaryFileStoreSerializer();
+
+        byte[] gzipHeader = {(byte) 0x1f, (byte) 0x8b, 8, 0};
+        byte[] binaryHeader = {'M', 'X', 'B', 'S', 1, 1};
+
+        assertTrue(gzipSerializer.canRead(gzipHeader));
+        assertFalse(gzipSerializer.canRead(binaryHeader));
+        assertTrue(binarySerializer.canRead(binaryHeader));
+        assertFalse(binarySerializer.canRead(gzipHeader));
+        assertFalse(binarySerializer.canRead(new byte[0]));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.matrix.androidsdk.test.BenchmarkStage;
+import org.matrix.androidsdk.util.Log;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the MXMemoryStore rooms events contention with several sessions
+ * whose rooms receive events while their timelines are read.
+ * The striped locks are compared to a single lock shared by all the rooms.
+ * It only runs when the benchmarks are enabled (see BenchmarkStage.BENCHMARKS_PROPERTY).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MXMemoryStoreContentionBenchmarkTest {
+    private static final String LOG_TAG = MXMemoryStoreContentionBenchmarkTest.class.getSimpleName();
+
+    private static final int SESSIONS_COUNT = 4;
+    private static final int ROOMS_PER_SESSION = 300;
+    private static final int EVENTS_PER_ROOM = 100;
+    private static final int WRITERS_PER_SESSION = 2;
+    private static final int READERS_PER_SESSION = 2;
+
+    // the single lock used by all the rooms of all the sessions
+    private static final Object GLOBAL_LOCK = new Object();
+
+    /**
+     * A store whose rooms share the same lock.
+     */
+    private static class GlobalLockMemoryStore extends MXMemoryStore {
+        GlobalLockMemoryStore(Credentials credentials) {
+            super(credentials, RuntimeEnvironment.application);
+        }
+
+        @Override
+        protected Object getRoomEventsLock(String roomId) {
+            return GLOBAL_LOCK;
+        }
+    }
+
+    private static Credentials buildCredentials(int session) {
+        Credentials credentials = new Credentials();
+        credentials.userId = "@user" + session + ":matrix.org";
+        return credentials;
+    }
+
+    private static String buildRoomId(int room) {
+        return "!room" + room + ":matrix.org";
+    }
+
+    private static Event buildEvent(String roomId, int index) {
+        JsonObject content = new JsonObject();
+        content.addProperty("msgtype", "m.text");
+        content.addProperty("body", "Message " + index);
+
+        Event event = new Event(Event.EVENT_TYPE_MESSAGE, content, "@sender:matrix.org", roomId);
+        event.eventId = "$" + roomId.hashCode() + "_" + index + ":matrix.org";
+        return event;
+    }
+
+    /**
+     * Store the events of all the rooms while their timelines are read.
+     *
+     * @param name   the benchmark name
+     * @param stores the sessions stores
+     * @return the elapsed time in ms
+     * @throws Exception if a thread is interrupted
+     */
+    private long benchmark(String name, final List<MXMemoryStore> stores) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch writersLatch = new CountDownLatch(SESSIONS_COUNT * WRITERS_PER_SESSION);
+        final AtomicBoolean isWriting = new AtomicBoolean(true);
+        final AtomicLong readsCount = new AtomicLong();
+
+        // the threads failures are reported by the test thread
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (final MXMemoryStore store : stores) {
+            for (int i = 0; i < WRITERS_PER_SESSION; i++) {
+                final int writer = i;
+
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+
+                            for (int index = 0; index < EVENTS_PER_ROOM; index++) {
+                                // each writer feeds its own rooms, like the sync threads of the sessions
+                                for (int room = writer; room < ROOMS_PER_SESSION; room += WRITERS_PER_SESSION) {
+                                    store.storeLiveRoomEvent(buildEvent(buildRoomId(room), index));
+                                }
+                            }
+                        } catch (Throwable throwable) {
+                            failures.add(throwable);
+                        } finally {
+                            writersLatch.countDown();
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < READERS_PER_SESSION; i++) {
+                final int reader = i;
+
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+
+                            int room = reader;
+
+                            while (isWriting.get()) {
+                                store.getRoomMessages(buildRoomId(room));
+                                readsCount.incrementAndGet();
+                                room = (room + 1) % ROOMS_PER_SESSION;
+                            }
+                        } catch (Throwable throwable) {
+                            failures.add(throwable);
+                        }
+                    }
+                }));
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        long start = System.currentTimeMillis();
+        startLatch.countDown();
+        writersLatch.await();
+        long elapsed = System.currentTimeMillis() - start;
+
+        isWriting.set(false);
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+
+        for (MXMemoryStore store : stores) {
+            for (int room = 0; room < ROOMS_PER_SESSION; room++) {
+                Collection<Event> events = store.getRoomMessages(buildRoomId(room));
+                assertNotNull(events);
+                assertEquals(EVENTS_PER_ROOM, events.size());
+            }
+        }
+
+        Log.d(LOG_TAG, "## " + name + " : " + SESSIONS_COUNT + " sessions, " + (SESSIONS_COUNT * ROOMS_PER_SESSION * EVENTS_PER_ROOM)
+                + " events stored in " + elapsed + " ms, " + readsCount.get() + " timelines read");
+
+        return elapsed;
+    }
+
+    @Test
+    public void testContention() throws Exception {
+        BenchmarkStage.assumeBenchmarksEnabled();
+
+        List<MXMemoryStore> globalLockStores = new ArrayList<>();
+        List<MXMemoryStore> stripedLocksStores = new ArrayList<>();
+
+        for (int session = 0; session < SESSIONS_COUNT; session++) {
+            globalLockStores.add(new GlobalLockMemoryStore(buildCredentials(session)));
+            stripedLocksStores.add(new MXMemoryStore(buildCredentials(session), RuntimeEnvironment.application));
+        }
+
+        benchmark("global lock", globalLockStores);
+        benchmark("striped locks", stripedLocksStores);
+    }
+}
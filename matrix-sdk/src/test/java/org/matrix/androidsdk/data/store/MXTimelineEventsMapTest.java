@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXTimelineEventsMapTest {
+
+    private static final String MY_USER_ID = "@me:matrix.org";
+
+    private static Event buildEvent(String eventId, String type, String sender) {
+        Event event = new Event(type, new JsonObject(), sender, "!room:matrix.org");
+        event.eventId = eventId;
+        return event;
+    }
+
+    private static void put(MXTimelineEventsMap map, Event event) {
+        map.put(event.eventId, event);
+    }
+
+    @Test
+    public void testEventsAfter() {
+        MXTimelineEventsMap map = new MXTimelineEventsMap(MY_USER_ID);
+
+        put(map, buildEvent("$1", Event.EVENT_TYPE_MESSAGE, "@other:matrix.org"));
+        put(map, buildEvent("$2", Event.EVENT_TYPE_STATE_ROOM_MEMBER, "@other:matrix.org"));
+        put(map, buildEvent("$3", Event.EVENT_TYPE_MESSAGE, MY_USER_ID));
+        put(map, buildEvent("$4", Event.EVENT_TYPE_MESSAGE, "@other:matrix.org"));
+        put(map, buildEvent("$5", Event.EVENT_TYPE_STATE_ROOM_TOPIC, "@other:matrix.org"));
+
+        assertEquals(3, map.countEventsAfter(null));
+        assertEquals(2, map.countEventsAfter("$1"));
+        assertEquals(1, map.countEventsAfter("$4"));
+        assertEquals(0, map.countEventsAfter("$5"));
+        assertEquals(3, map.countEventsAfter("$unknown"));
+
+        List<Event> events = map.getEventsAfter("$1", Arrays.asList(Event.EVENT_TYPE_MESSAGE));
+        assertEquals(1, events.size());
+        assertEquals("$4", events.get(0).eventId);
+
+        assertTrue(map.isNotAfter("$1", "$4"));
+        assertTrue(map.isNotAfter("$4", "$4"));
+        assertFalse(map.isNotAfter("$4", "$1"));
+        assertFalse(map.isNotAfter("$unknown", "$4"));
+
+        map.remove("$4");
+        assertEquals(1, map.countEventsAfter("$1"));
+        assertFalse(map.isNotAfter("$1", "$4"));
+    }
+
+    @Test
+    public void testReindex() {
+        MXTimelineEventsMap map = new MXTimelineEventsMap(MY_USER_ID);
+
+        // add and remove enough events to reuse and to grow the positions
+        for (int i = 0; i < 1000; i++) {
+            put(map, buildEvent("$" + i, Event.EVENT_TYPE_MESSAGE, "@other:matrix.org"));
+
+            if ((i % 3) != 0) {
+                map.remove("$" + i);
+            }
+        }
+
+        assertEquals(334, map.size());
+        assertEquals(334, map.countEventsAfter(null));
+        assertEquals(333, map.countEventsAfter("$0"));
+        assertEquals(1, map.countEventsAfter("$996"));
+        assertTrue(map.isNotAfter("$3", "$999"));
+        assertEquals("$999", map.getEventsAfter("$996", null).get(0).eventId);
+    }
+
+    @Test
+    public void testEventsAddedAfter() {
+        MXTimelineEventsMap map = new MXTimelineEventsMap(MY_USER_ID);
+
+        assertNull(map.getLatestKey());
+        assertTrue(map.getEventsAddedAfter(null).isEmpty());
+
+        put(map, buildEvent("$1", Event.EVENT_TYPE_MESSAGE, "@other:matrix.org"));
+        put(map, buildEvent("$2", Event.EVENT_TYPE_STATE_ROOM_MEMBER, "@other:matrix.org"));
+        put(map, buildEvent("$3", Event.EVENT_TYPE_MESSAGE, MY_USER_ID));
+
+        assertEquals("$3", map.getLatestKey());
+        assertEquals(3, map.getEventsAddedAfter(null).size());
+        assertTrue(map.getEventsAddedAfter("$3").isEmpty());
+        assertNull(map.getEventsAddedAfter("$unknown"));
+
+        // the member and the user events are provided too
+        List<Event> events = map.getEventsAddedAfter("$1");
+        assertEquals(2, events.size());
+        assertEquals("$2", events.get(0).eventId);
+        assertEquals("$3", events.get(1).eventId);
+
+        // the removed events are skipped
+        map.remove("$2");
+        map.remove("$3");
+        assertEquals("$1", map.getLatestKey());
+        assertTrue(map.getEventsAddedAfter("$1").isEmpty());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.client;
+
+import android.net.Uri;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.HomeServerConnectionConfig;
+import org.matrix.androidsdk.sync.AdaptiveSyncSchedulingPolicy;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class EventsRestClientTest {
+
+    @Test
+    public void testSyncReadTimeout() {
+        AdaptiveSyncSchedulingPolicy policy = new AdaptiveSyncSchedulingPolicy(new Random(0));
+
+        // the idle polls extend the server timeout to its max value
+        for (int i = 0; i < 30; i++) {
+            policy.onSyncSuccess(30000, 30100, true);
+        }
+
+        int serverTimeout = policy.getServerTimeout(30000, false);
+        int clientTimeout = policy.getClientTimeout(serverTimeout);
+
+        EventsRestClient client = new EventsRestClient(new HomeServerConnectionConfig(Uri.parse("https://matrix.org")));
+
+        // the extended long poll exceeds the default read timeout
+        assertTrue(serverTimeout > client.getReadTimeout());
+
+        Map<String, Object> params = client.buildSyncParams("token", serverTimeout, clientTimeout, null, null);
+        assertEquals(serverTimeout, params.get("timeout"));
+
+        // the read timeout does not interrupt the long poll before the client timeout
+        assertEquals(clientTimeout, client.getReadTimeout());
+        assertTrue(client.getReadTimeout() > serverTimeout);
+
+        // the short requests keep the default read timeout
+        client.buildSyncParams("token", 0, 30000, null, null);
+        assertEquals(60000, client.getReadTimeout());
+    }
+}
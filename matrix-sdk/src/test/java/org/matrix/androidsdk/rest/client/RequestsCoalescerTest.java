@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.rest.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class RequestsCoalescerTest {
+
+    /**
+     * A request which is answered manually.
+     */
+    private static class PendingRequest implements RequestsCoalescer.Request<String> {
+        final List<ApiCallback<String>> mCallbacks = new ArrayList<>();
+
+        @Override
+        public void send(ApiCallback<String> callback) {
+            mCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Collect the responses.
+     */
+    private static class ResponsesCallback extends SimpleApiCallback<String> {
+        final List<String> mResponses = new ArrayList<>();
+        int mErrorsCount = 0;
+
+        @Override
+        public void onSuccess(String info) {
+            mResponses.add(info);
+        }
+
+        @Override
+        public void onMatrixError(MatrixError e) {
+            mErrorsCount++;
+        }
+    }
+
+    @Test
+    public void testCoalescing() {
+        RequestsCoalescer coalescer = new RequestsCoalescer();
+        PendingRequest request = new PendingRequest();
+        ResponsesCallback callback = new ResponsesCallback();
+
+        coalescer.request("displayname @alice:matrix.org", 0, callback, request);
+        coalescer.request("displayname @alice:matrix.org", 0, callback, request);
+        coalescer.request("displayname @alice:matrix.org", 0, callback, request);
+
+        // only one request is sent
+        assertEquals(1, request.mCallbacks.size());
+        assertEquals(1, coalescer.getSentRequestsCount());
+        assertEquals(2, coalescer.getCoalescedRequestsCount());
+        assertTrue(callback.mResponses.isEmpty());
+
+        // the response is dispatched to each caller
+        request.mCallbacks.get(0).onSuccess("Alice");
+        assertEquals(3, callback.mResponses.size());
+
+        // no cache : the next request is sent
+        coalescer.request("displayname @alice:matrix.org", 0, callback, request);
+        assertEquals(2, request.mCallbacks.size());
+        assertEquals(0, coalescer.getCachedResponsesHitsCount());
+    }
+
+    @Test
+    public void testDistinctRequests() {
+        RequestsCoalescer coalescer = new RequestsCoalescer();
+        PendingRequest request = new PendingRequest();
+        ResponsesCallback callback = new ResponsesCallback();
+
+        coalescer.request("displayname @alice:matrix.org", 0, callback, request);
+        coalescer.request("displayname @bob:matrix.org", 0, callback, request);
+
+        assertEquals(2, request.mCallbacks.size());
+        assertEquals(0, coalescer.getCoalescedRequestsCount());
+    }
+
+    @Test
+    public void testErrorDispatch() {
+        RequestsCoalescer coalescer = new RequestsCoalescer();
+        PendingRequest request = new PendingRequest();
+        ResponsesCallback callback = new ResponsesCallback();
+
+        coalescer.request("getGroupProfile +group:matrix.org", 1000, callback, request);
+        coalescer.request("getGroupProfile +group:matrix.org", 1000, callback, request);
+
+        request.mCallbacks.get(0).onMatrixError(new MatrixError());
+        assertEquals(2, callback.mErrorsCount);
+
+        // the errors are not cached
+        coalescer.request("getGroupProfile +group:matrix.org", 1000, callback, request);
+        assertEquals(2, request.mCallbacks.size());
+    }
+
+    @Test
+    public void testCache() {
+        RequestsCoalescer coalescer = new RequestsCoalescer();
+        PendingRequest request = new PendingRequest();
+        ResponsesCallback callback = new ResponsesCallback();
+
+        coalescer.request("avatarUrl @alice:matrix.org", 60000, callback, request);
+        request.mCallbacks.get(0).onSuccess("mxc://matrix.org/alice");
+
+        // the cached response is used, it is dispatched in the UI thread
+        coalescer.request("avatarUrl @alice:matrix.org", 60000, callback, request);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(1, request.mCallbacks.size());
+        assertEquals(1, coalescer.getCachedResponsesHitsCount());
+        assertEquals(2, callback.mResponses.size());
+        assertEquals("mxc://matrix.org/alice", callback.mResponses.get(1));
+
+        // until it is invalidated
+        coalescer.invalidate("avatarUrl @alice:matrix.org");
+        coalescer.request("avatarUrl @alice:matrix.org", 60000, callback, request);
+        assertEquals(2, request.mCallbacks.size());
+    }
+
+    @Test
+    public void testInvalidatePendingRequest() {
+        RequestsCoalescer coalescer = new RequestsCoalescer();
+        PendingRequest request = new PendingRequest();
+        ResponsesCallback callback = new ResponsesCallback();
+
+        coalescer.request("displayname @alice:matrix.org", 60000, callback, request);
+
+        // the display name is updated while the request is in progress
+        coalescer.invalidate("displayname @alice:matrix.org");
+
+        // the next request does not wait for the obsolete response
+        coalescer.request("displayname @alice:matrix.org", 60000, callback, request);
+        assertEquals(2, request.mCallbacks.size());
+        assertEquals(0, coalescer.getCoalescedRequestsCount());
+
+        request.mCallbacks.get(1).onSuccess("Alice 2");
+        request.mCallbacks.get(0).onSuccess("Alice");
+        assertEquals(2, callback.mResponses.size());
+
+        // the obsolete response is not cached
+        ResponsesCallback nextCallback = new ResponsesCallback();
+        coalescer.request("displayname @alice:matrix.org", 60000, nextCallback, request);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(2, request.mCallbacks.size());
+        assertEquals("Alice 2", nextCallback.mResponses.get(0));
+    }
+
+    @Test
+    public void testResponseCopies() {
+        RequestsCoalescer coalescer = new RequestsCoalescer();
+        final List<ApiCallback<List<String>>> requestCallbacks = new ArrayList<>();
+        final List<List<String>> responses = new ArrayList<>();
+
+        RequestsCoalescer.Request<List<String>> request = new RequestsCoalescer.Request<List<String>>() {
+            @Override
+            public void send(ApiCallback<List<String>> callback) {
+                requestCallbacks.add(callback);
+            }
+        };
+
+        RequestsCoalescer.ResponseCopier<List<String>> copier = new RequestsCoalescer.ResponseCopier<List<String>>() {
+            @Override
+            public List<String> copy(List<String> response) {
+                return new ArrayList<>(response);
+            }
+        };
+
+        SimpleApiCallback<List<String>> callback = new SimpleApiCallback<List<String>>() {
+            @Override
+            public void onSuccess(List<String> info) {
+                // the caller updates the response
+                Collections.reverse(info);
+                responses.add(info);
+            }
+        };
+
+        coalescer.request("getContextOfEvent !room:matrix.org $event 10", 0, copier, callback, request);
+        coalescer.request("getContextOfEvent !room:matrix.org $event 10", 0, copier, callback, request);
+        assertEquals(1, requestCallbacks.size());
+
+        requestCallbacks.get(0).onSuccess(new ArrayList<>(Arrays.asList("a", "b", "c")));
+
+        // each caller has received its own response
+        assertEquals(2, responses.size());
+        assertNotSame(responses.get(0), responses.get(1));
+        assertEquals(Arrays.asList("c", "b", "a"), responses.get(0));
+        assertEquals(Arrays.asList("c", "b", "a"), responses.get(1));
+    }
+}
@@ -23,6 +23,10 @@ import org.junit.runner.RunWith;
 import org.matrix.androidsdk.rest.model.Event;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 @RunWith(RobolectricTestRunner.class)
@@ -116,4 +120,46 @@ public class EventMatchConditionTest {
         condition.pattern = "?value";
         assertFalse(condition.isSatisfied(event));
     }
+
+    @Test
+    public void testConcurrentEvaluation() throws Exception {
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>();
+
+        // the rooms of a sync response can be handled by several threads, which share the compiled patterns
+        for (int t = 0; t < 4; t++) {
+            final int threadIndex = t;
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            EventMatchCondition threadCondition = new EventMatchCondition();
+                            threadCondition.key = "content.body";
+                            threadCondition.pattern = "word" + threadIndex + "_" + i;
+
+                            Event threadEvent = new Event();
+                            threadEvent.content = new JsonParser().parse("{'body': 'a word" + threadIndex + "_" + i + " here'}");
+
+                            assertTrue(threadCondition.isSatisfied(threadEvent));
+                        }
+                    } catch (Throwable throwable) {
+                        failures.add(throwable);
+                    }
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+    }
 }
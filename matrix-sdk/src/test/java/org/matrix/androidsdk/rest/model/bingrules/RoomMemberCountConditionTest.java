@@ -18,20 +18,26 @@ package org.matrix.androidsdk.rest.model.bingrules;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.EventTimeline;
 import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.sync.RoomSyncSummary;
+import org.matrix.androidsdk.test.RoomEventFactory;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 
-import java.util.ArrayList;
-
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 @RunWith(RobolectricTestRunner.class)
 public class RoomMemberCountConditionTest {
 
+    private static final String ROOM_ID = "!room:matrix.org";
+
     private RoomMemberCountCondition condition = new RoomMemberCountCondition();
 
     @Mock
@@ -44,26 +50,41 @@ public class RoomMemberCountConditionTest {
     }
 
     private void setUpThreeRoomMembers() {
-        ArrayList<RoomMember> members = new ArrayList<>();
+        RoomState state = new RoomState();
+        state.roomId = ROOM_ID;
 
-        RoomMember rm1 = new RoomMember();
-        rm1.membership = RoomMember.MEMBERSHIP_JOIN;
-        members.add(rm1);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user1:matrix.org", RoomMember.MEMBERSHIP_JOIN, null), EventTimeline.Direction.FORWARDS);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user2:matrix.org", RoomMember.MEMBERSHIP_JOIN, null), EventTimeline.Direction.FORWARDS);
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user3:matrix.org", RoomMember.MEMBERSHIP_JOIN, null), EventTimeline.Direction.FORWARDS);
 
-        RoomMember rm2 = new RoomMember();
-        rm2.membership = RoomMember.MEMBERSHIP_JOIN;
-        members.add(rm2);
+        // This one shouldn't count because they're not joined
+        state.applyState(null, RoomEventFactory.buildMemberEvent(ROOM_ID, "@user4:matrix.org", RoomMember.MEMBERSHIP_LEAVE, null), EventTimeline.Direction.FORWARDS);
 
-        RoomMember rm3 = new RoomMember();
-        rm3.membership = RoomMember.MEMBERSHIP_JOIN;
-        members.add(rm3);
+        when(mockRoom.getState()).thenReturn(state);
+        when(mockRoom.getRoomId()).thenReturn(ROOM_ID);
+        when(mockRoom.getNumberOfJoinedMembers()).thenCallRealMethod();
+    }
 
-        // This one shouldn't count because they're not joined
-        RoomMember rm4 = new RoomMember();
-        rm4.membership = RoomMember.MEMBERSHIP_LEAVE;
-        members.add(rm4);
+    @Test
+    public void testLazyLoadedMembersCount() {
+        // the room state only contains some members : the sync room summary provides the count
+        RoomSyncSummary syncSummary = new RoomSyncSummary();
+        syncSummary.joinedMembersCount = 10;
+
+        RoomSummary summary = new RoomSummary();
+        summary.setRoomSyncSummary(syncSummary);
 
-        when(mockRoom.getMembers()).thenReturn(members);
+        IMXStore store = mock(IMXStore.class);
+        when(store.getSummary(ROOM_ID)).thenReturn(summary);
+        when(mockRoom.getStore()).thenReturn(store);
+
+        condition.is = "10";
+        condition.parseIsField();
+        assertTrue(condition.isSatisfied(mockRoom));
+
+        condition.is = "3";
+        condition.parseIsField();
+        assertFalse(condition.isSatisfied(mockRoom));
     }
 
     @Test
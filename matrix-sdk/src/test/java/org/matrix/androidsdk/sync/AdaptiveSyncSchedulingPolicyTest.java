@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class AdaptiveSyncSchedulingPolicyTest {
+
+    @Test
+    public void testServerTimeoutExtension() {
+        AdaptiveSyncSchedulingPolicy policy = new AdaptiveSyncSchedulingPolicy(new Random(0));
+
+        assertEquals(30000, policy.getServerTimeout(30000, false));
+
+        for (int i = 0; i < 3; i++) {
+            policy.onSyncSuccess(30000, 30100, true);
+        }
+
+        assertEquals(45000, policy.getServerTimeout(30000, false));
+        // no extension while catching up
+        assertEquals(30000, policy.getServerTimeout(30000, true));
+
+        for (int i = 0; i < 30; i++) {
+            policy.onSyncSuccess(30000, 30100, true);
+        }
+
+        assertEquals(90000, policy.getServerTimeout(30000, false));
+
+        // an update resets the extension
+        policy.onSyncSuccess(30000, 500, false);
+        assertEquals(30000, policy.getServerTimeout(30000, false));
+
+        assertEquals(34, policy.getRequestsCount());
+        assertEquals(33, policy.getEmptyPollsCount());
+        assertEquals(100, policy.getLatencyMs());
+    }
+
+    @Test
+    public void testExtendedPollFailure() {
+        AdaptiveSyncSchedulingPolicy policy = new AdaptiveSyncSchedulingPolicy(new Random(0));
+
+        for (int i = 0; i < 6; i++) {
+            policy.onSyncSuccess(30000, 30000, true);
+        }
+
+        assertEquals(60000, policy.getServerTimeout(30000, false));
+        policy.onSyncError(60000);
+
+        for (int i = 0; i < 30; i++) {
+            policy.onSyncSuccess(30000, 30000, true);
+        }
+
+        // the failed extension is not used anymore
+        assertEquals(45000, policy.getServerTimeout(30000, false));
+    }
+
+    @Test
+    public void testClientTimeout() {
+        AdaptiveSyncSchedulingPolicy policy = new AdaptiveSyncSchedulingPolicy(new Random(0));
+
+        // the previous default value until the latency is known
+        assertEquals(120000, policy.getClientTimeout(30000));
+
+        policy.onSyncSuccess(0, 1000, false);
+        assertEquals(60000, policy.getClientTimeout(30000));
+
+        // moving average : 1000 + 0.2 * (100000 - 1000)
+        policy.onSyncSuccess(0, 100000, false);
+        assertEquals(30000 + 4 * 20800, policy.getClientTimeout(30000));
+    }
+
+    @Test
+    public void testRetryDelay() {
+        AdaptiveSyncSchedulingPolicy policy = new AdaptiveSyncSchedulingPolicy(new Random(0));
+
+        policy.onSyncError(30000);
+        int delay = policy.getRetryDelay(false);
+        assertTrue((delay >= 1000) && (delay <= 2000));
+
+        policy.onSyncError(30000);
+        delay = policy.getRetryDelay(false);
+        assertTrue((delay >= 2000) && (delay <= 4000));
+
+        delay = policy.getRetryDelay(true);
+        assertTrue((delay >= 4000) && (delay <= 8000));
+
+        for (int i = 0; i < 40; i++) {
+            policy.onSyncError(30000);
+        }
+
+        delay = policy.getRetryDelay(false);
+        assertTrue((delay >= 30000) && (delay <= 60000));
+        assertEquals(42, policy.getRetriesCount());
+
+        // a success resets the backoff
+        policy.onSyncSuccess(30000, 30000, true);
+        delay = policy.getRetryDelay(false);
+        assertTrue(delay <= 2000);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class RoomsSyncExecutorTest {
+
+    @Test
+    public void testAwait() {
+        final RoomsSyncExecutor executor = new RoomsSyncExecutor(4);
+        final AtomicInteger doneCount = new AtomicInteger(0);
+        final AtomicInteger workerTasksCount = new AtomicInteger(0);
+        final AtomicInteger runningCount = new AtomicInteger(0);
+        final AtomicInteger maxRunningCount = new AtomicInteger(0);
+
+        for (int i = 0; i < 50; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int running = runningCount.incrementAndGet();
+
+                    synchronized (maxRunningCount) {
+                        maxRunningCount.set(Math.max(maxRunningCount.get(), running));
+                    }
+
+                    if (executor.isRunningTask()) {
+                        workerTasksCount.incrementAndGet();
+                    }
+
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        fail("interrupted");
+                    }
+
+                    runningCount.decrementAndGet();
+                    doneCount.incrementAndGet();
+                }
+            });
+        }
+
+        executor.await();
+
+        assertEquals(50, doneCount.get());
+        assertEquals(50, workerTasksCount.get());
+        assertTrue(maxRunningCount.get() <= 4);
+        assertFalse(executor.isRunningTask());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExecuteAfterShutdown() {
+        RoomsSyncExecutor executor = new RoomsSyncExecutor(2);
+        executor.shutdown();
+
+        final AtomicInteger doneCount = new AtomicInteger(0);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doneCount.incrementAndGet();
+            }
+        });
+
+        // the task is run in the current thread
+        assertEquals(1, doneCount.get());
+        executor.await();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.store.MXMemoryStore;
+import org.matrix.androidsdk.rest.api.FilterApi;
+import org.matrix.androidsdk.rest.client.FilterRestClient;
+import org.matrix.androidsdk.rest.model.filter.FilterBody;
+import org.matrix.androidsdk.rest.model.filter.FilterResponse;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit.Callback;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class SyncFilterRegistryTest {
+
+    /**
+     * A filter API which answers synchronously.
+     */
+    private static class UploadFilterApi implements FilterApi {
+        final List<String> mUploadedFilters = new ArrayList<>();
+
+        @Override
+        public void uploadFilter(String userId, FilterBody body, Callback<FilterResponse> callback) {
+            mUploadedFilters.add(body.toJSONString());
+
+            FilterResponse response = new FilterResponse();
+            response.filter_id = "filter" + mUploadedFilters.size();
+            callback.success(response, null);
+        }
+
+        @Override
+        public void getFilter(String userId, String filterId, Callback<FilterBody> callback) {
+        }
+    }
+
+    @Test
+    public void testCreateFilter() {
+        assertNull(SyncFilterRegistry.createFilter(null, false, false));
+
+        assertEquals("{\"room\":{\"timeline\":{\"limit\":10},\"state\":{\"lazy_load_members\":true}}}",
+                SyncFilterRegistry.createFilter(10, true, false).toJSONString());
+
+        assertEquals("{\"presence\":{\"not_types\":[\"*\"]},\"room\":{\"ephemeral\":{\"types\":[\"m.receipt\"]}}}",
+                SyncFilterRegistry.createFilter(null, false, true).toJSONString());
+    }
+
+    @Test
+    public void testGetFilter() {
+        Credentials credentials = new Credentials();
+        credentials.userId = "@user:matrix.org";
+        MXMemoryStore store = new MXMemoryStore(credentials, RuntimeEnvironment.application);
+
+        UploadFilterApi api = new UploadFilterApi();
+        FilterRestClient restClient = new FilterRestClient(api) {
+        };
+
+        SyncFilterRegistry registry = new SyncFilterRegistry(store, restClient, credentials.userId);
+
+        // no filter by default
+        assertNull(registry.getFilter(SyncFilterRegistry.Mode.FOREGROUND));
+        assertFalse(registry.areMembersLazyLoaded());
+
+        // the filter is sent inline until it is uploaded
+        registry.setFilter(SyncFilterRegistry.Mode.FOREGROUND, SyncFilterRegistry.createFilter(20, true, false));
+        String jsonFilter = SyncFilterRegistry.createFilter(20, true, false).toJSONString();
+        assertEquals(jsonFilter, registry.getFilter(SyncFilterRegistry.Mode.FOREGROUND));
+        assertEquals("filter1", registry.getFilter(SyncFilterRegistry.Mode.FOREGROUND));
+        assertEquals("filter1", store.getFilters().get(jsonFilter));
+
+        // the filter ids are retrieved from the store
+        registry = new SyncFilterRegistry(store, restClient, credentials.userId);
+        registry.setFilters(20, true);
+        assertTrue(registry.areMembersLazyLoaded());
+        assertEquals("filter1", registry.getFilter(SyncFilterRegistry.Mode.BACKGROUND));
+        assertEquals(1, api.mUploadedFilters.size());
+    }
+}
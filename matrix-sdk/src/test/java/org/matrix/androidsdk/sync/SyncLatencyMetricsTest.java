@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class SyncLatencyMetricsTest {
+
+    @Test
+    public void testMetrics() {
+        SyncLatencyMetrics metrics = new SyncLatencyMetrics();
+
+        assertEquals(0, metrics.getAverageQueueTimeMs());
+        assertEquals(0, metrics.getAverageDispatchTimeMs());
+
+        metrics.onSyncResponseProcessed(10, 100);
+        metrics.onSyncResponseProcessed(30, 300);
+        metrics.onEventDispatched(5);
+        metrics.onEventDispatched(15);
+        metrics.onEventDispatched(40);
+
+        assertEquals(2, metrics.getSyncResponsesCount());
+        assertEquals(20, metrics.getAverageQueueTimeMs());
+        assertEquals(30, metrics.getMaxQueueTimeMs());
+        assertEquals(200, metrics.getAverageProcessingTimeMs());
+        assertEquals(300, metrics.getMaxProcessingTimeMs());
+        assertEquals(3, metrics.getDispatchedEventsCount());
+        assertEquals(20, metrics.getAverageDispatchTimeMs());
+        assertEquals(40, metrics.getMaxDispatchTimeMs());
+
+        metrics.reset();
+        assertEquals(0, metrics.getSyncResponsesCount());
+        assertEquals(0, metrics.getMaxDispatchTimeMs());
+    }
+}
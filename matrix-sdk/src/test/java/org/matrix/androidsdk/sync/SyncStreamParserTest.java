@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.sync;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.sync.RoomSync;
+import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class SyncStreamParserTest {
+
+    private static class RecordingListener implements SyncStreamParser.SyncStreamListener {
+        final List<String> mCalls = new ArrayList<>();
+        SyncResponse mPartialResponse;
+
+        @Override
+        public void onRoomsSyncStart(SyncResponse syncResponse) {
+            mPartialResponse = syncResponse;
+            mCalls.add("start");
+        }
+
+        @Override
+        public void onJoinedRoomSync(String roomId, RoomSync roomSync) {
+            mCalls.add("join " + roomId + " " + ((null != roomSync.timeline) ? roomSync.timeline.events.size() : 0));
+        }
+
+        @Override
+        public void onInvitedRoomSync(String roomId, InvitedRoomSync invitedRoomSync) {
+            mCalls.add("invite " + roomId);
+        }
+
+        @Override
+        public void onLeftRoomSync(String roomId, RoomSync roomSync) {
+            mCalls.add("leave " + roomId);
+        }
+    }
+
+    private static InputStream toStream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        String json = "{\"account_data\":{\"events\":[]},"
+                + "\"to_device\":{\"events\":[]},"
+                + "\"rooms\":{"
+                + "\"join\":{\"!a:matrix.org\":{\"timeline\":{\"events\":[{\"type\":\"m.room.message\",\"event_id\":\"$1\"}],\"limited\":true}},\"!b:matrix.org\":{}},"
+                + "\"invite\":{\"!c:matrix.org\":{\"invite_state\":{\"events\":[]}}},"
+                + "\"leave\":{\"!d:matrix.org\":{}},"
+                + "\"unknown\":{\"!e:matrix.org\":{}}},"
+                + "\"next_batch\":\"s42\","
+                + "\"unknown_section\":[1,{\"a\":2}]}";
+
+        RecordingListener listener = new RecordingListener();
+        SyncResponse syncResponse = SyncStreamParser.parse(toStream(json), listener);
+
+        assertEquals("[start, join !a:matrix.org 1, join !b:matrix.org 0, invite !c:matrix.org, leave !d:matrix.org]", listener.mCalls.toString());
+
+        // the sections decoded before the rooms are provided when the rooms start
+        assertNotNull(listener.mPartialResponse.accountData);
+        assertNotNull(listener.mPartialResponse.toDevice);
+        assertNull(listener.mPartialResponse.nextBatch);
+
+        assertEquals("s42", syncResponse.nextBatch);
+        assertNotNull(syncResponse.accountData);
+        assertNull(syncResponse.rooms);
+    }
+
+    @Test
+    public void testRoomsBeforeToDevice() throws Exception {
+        String json = "{\"account_data\":{\"events\":[]},"
+                + "\"rooms\":{"
+                + "\"leave\":{\"!d:matrix.org\":{}},"
+                + "\"invite\":{\"!c:matrix.org\":{\"invite_state\":{\"events\":[]}}},"
+                + "\"join\":{\"!a:matrix.org\":{\"timeline\":{\"events\":[{\"type\":\"m.room.message\",\"event_id\":\"$1\","
+                + "\"origin_server_ts\":1500000000000,\"content\":{\"body\":\"a \\\"quoted\\\" body\",\"url\":null,\"list\":[1.5,true]}}],\"limited\":false}}}},"
+                + "\"to_device\":{\"events\":[]},"
+                + "\"next_batch\":\"s42\"}";
+
+        RecordingListener listener = new RecordingListener();
+        SyncResponse syncResponse = SyncStreamParser.parse(toStream(json), listener);
+
+        // the rooms are copied into temporary files until the to_device section is decoded, then provided with the joined rooms first
+        assertEquals("[start, join !a:matrix.org 1, invite !c:matrix.org, leave !d:matrix.org]", listener.mCalls.toString());
+        assertNotNull(listener.mPartialResponse.accountData);
+        assertNotNull(listener.mPartialResponse.toDevice);
+
+        assertEquals("s42", syncResponse.nextBatch);
+        assertNull(syncResponse.rooms);
+    }
+
+    @Test
+    public void testParseWithoutRooms() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        SyncResponse syncResponse = SyncStreamParser.parse(toStream("{\"next_batch\":\"s1\",\"rooms\":null}"), listener);
+
+        assertTrue(listener.mCalls.isEmpty());
+        assertEquals("s1", syncResponse.nextBatch);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedStream() throws Exception {
+        SyncStreamParser.parse(toStream("{\"rooms\":{\"join\":{\"!a:matrix.org\":{"), new RecordingListener());
+    }
+}
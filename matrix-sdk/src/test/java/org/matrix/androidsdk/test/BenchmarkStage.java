@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.test;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measure the operations of a benchmark stage.
+ * It reports the throughput, the latency percentiles and the allocation rate.
+ * The allocations are only measured in the calling thread, when the JVM supports it.
+ */
+public class BenchmarkStage {
+    // the system property which enables the benchmarks, they are too slow to run with the unit tests
+    public static final String BENCHMARKS_PROPERTY = "matrix.benchmarks";
+
+    private final String mName;
+
+    // the operations durations
+    private final List<Long> mDurationsNs = new ArrayList<>();
+    private long mTotalDurationNs = 0;
+    private long mAllocatedBytes = 0;
+
+    // the running operation
+    private long mStartTimeNs = 0;
+    private long mStartAllocatedBytes = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name the stage name
+     */
+    public BenchmarkStage(String name) {
+        mName = name;
+    }
+
+    /**
+     * Skip the calling test unless the benchmarks are enabled with -Dmatrix.benchmarks=true.
+     */
+    public static void assumeBenchmarksEnabled() {
+        Assume.assumeTrue("the benchmarks are enabled with -D" + BENCHMARKS_PROPERTY + "=true", Boolean.getBoolean(BENCHMARKS_PROPERTY));
+    }
+
+    /**
+     * @return the allocated bytes count of the current thread, -1 if it is not supported
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+
+    /**
+     * Start an operation.
+     */
+    public void start() {
+        mStartAllocatedBytes = getAllocatedBytes();
+        mStartTimeNs = System.nanoTime();
+    }
+
+    /**
+     * Stop the running operation.
+     */
+    public void stop() {
+        long durationNs = System.nanoTime() - mStartTimeNs;
+        long allocatedBytes = getAllocatedBytes();
+
+        mDurationsNs.add(durationNs);
+        mTotalDurationNs += durationNs;
+
+        if ((mStartAllocatedBytes >= 0) && (allocatedBytes >= 0)) {
+            mAllocatedBytes += allocatedBytes - mStartAllocatedBytes;
+        }
+    }
+
+    /**
+     * @return the operations count
+     */
+    public int getCount() {
+        return mDurationsNs.size();
+    }
+
+    /**
+     * @return the operations per second
+     */
+    public double getThroughput() {
+        return (0 == mTotalDurationNs) ? 0 : (mDurationsNs.size() * 1e9 / mTotalDurationNs);
+    }
+
+    /**
+     * Provides a latency percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in ns
+     */
+    public long getPercentileNs(double percentile) {
+        if (mDurationsNs.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> durations = new ArrayList<>(mDurationsNs);
+        Collections.sort(durations);
+
+        int index = (int) Math.ceil(percentile / 100 * durations.size()) - 1;
+        return durations.get(Math.max(0, Math.min(index, durations.size() - 1)));
+    }
+
+    /**
+     * @return the allocated bytes by second
+     */
+    public double getAllocationRate() {
+        return (0 == mTotalDurationNs) ? 0 : (mAllocatedBytes * 1e9 / mTotalDurationNs);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : %d ops, %.1f ops/s, p50 %.3f ms, p99 %.3f ms, %.1f MB allocated (%.1f MB/s)",
+                mName, getCount(), getThroughput(), getPercentileNs(50) / 1e6, getPercentileNs(99) / 1e6,
+                mAllocatedBytes / (1024.0 * 1024.0), getAllocationRate() / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.test;
+
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.rest.model.Event;
+
+/**
+ * Build the room events used by the unit tests.
+ */
+public class RoomEventFactory {
+    private static final long ORIGIN_SERVER_TS = 1500000000000L;
+
+    /**
+     * Build a member event sent by the member itself.
+     *
+     * @param roomId      the room id
+     * @param userId      the member user id
+     * @param membership  the membership
+     * @param displayName the display name, null to send none
+     * @return the member event
+     */
+    public static Event buildMemberEvent(String roomId, String userId, String membership, String displayName) {
+        return buildMemberEvent(roomId, userId, userId, membership, displayName);
+    }
+
+    /**
+     * Build a member event.
+     *
+     * @param roomId      the room id
+     * @param userId      the member user id
+     * @param sender      the event sender (e.g. the inviter)
+     * @param membership  the membership
+     * @param displayName the display name, null to send none
+     * @return the member event
+     */
+    public static Event buildMemberEvent(String roomId, String userId, String sender, String membership, String displayName) {
+        JsonObject content = new JsonObject();
+        content.addProperty("membership", membership);
+
+        if (null != displayName) {
+            content.addProperty("displayname", displayName);
+        }
+
+        Event event = new Event(Event.EVENT_TYPE_STATE_ROOM_MEMBER, content, sender, roomId);
+        event.eventId = "$" + userId + membership;
+        event.stateKey = userId;
+        event.originServerTs = ORIGIN_SERVER_TS;
+        return event;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+import org.matrix.androidsdk.util.JsonUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Generate synthetic sync responses : N rooms x M members x K events.
+ * The recorded sync responses can also be loaded from JSON files.
+ */
+public class SyncResponseGenerator {
+    private static final long ORIGIN_SERVER_TS = 1500000000000L;
+
+    /**
+     * Provides the user id of a member.
+     *
+     * @param index the member index
+     * @return the user id
+     */
+    public static String getUserId(int index) {
+        return "@user" + index + ":matrix.org";
+    }
+
+    /**
+     * Provides the room id of a room.
+     *
+     * @param index the room index
+     * @return the room id
+     */
+    public static String getRoomId(int index) {
+        return "!room" + index + ":matrix.org";
+    }
+
+    private static JsonObject buildEvent(String type, String eventId, String sender, String stateKey, JsonObject content, long ts) {
+        JsonObject event = new JsonObject();
+        event.addProperty("type", type);
+        event.addProperty("event_id", eventId);
+        event.addProperty("sender", sender);
+        event.addProperty("origin_server_ts", ts);
+
+        if (null != stateKey) {
+            event.addProperty("state_key", stateKey);
+        }
+
+        event.add("content", content);
+        return event;
+    }
+
+    private static JsonObject buildMemberEvent(String roomId, int memberIndex) {
+        JsonObject content = new JsonObject();
+        content.addProperty("membership", RoomMember.MEMBERSHIP_JOIN);
+        content.addProperty("displayname", "User " + memberIndex);
+        content.addProperty("avatar_url", "mxc://matrix.org/avatar" + memberIndex);
+
+        return buildEvent(Event.EVENT_TYPE_STATE_ROOM_MEMBER, "$member" + memberIndex + "_" + roomId, getUserId(memberIndex), getUserId(memberIndex), content, ORIGIN_SERVER_TS + memberIndex);
+    }
+
+    private static JsonObject buildMessageEvent(String roomId, int batchIndex, int eventIndex, int membersCount) {
+        JsonObject content = new JsonObject();
+        content.addProperty("msgtype", "m.text");
+        content.addProperty("body", "Message " + eventIndex + " of the batch " + batchIndex + " in the room " + roomId);
+
+        return buildEvent(Event.EVENT_TYPE_MESSAGE, "$message" + batchIndex + "_" + eventIndex + "_" + roomId, getUserId(eventIndex % membersCount), null, content,
+                ORIGIN_SERVER_TS + 1000000L * (batchIndex + 1) + eventIndex);
+    }
+
+    /**
+     * Generate a sync response.
+     * The batch 0 is an initial sync, which contains the rooms states : the room creation, its name and its members.
+     * The next batches only contain some messages.
+     *
+     * @param batchIndex    the batch index
+     * @param roomsCount    the number of joined rooms
+     * @param membersCount  the number of members by room, the member 0 is the current user
+     * @param eventsCount   the number of timeline events by room
+     * @return the sync response as JSON
+     */
+    public static JsonObject generate(int batchIndex, int roomsCount, int membersCount, int eventsCount) {
+        JsonObject join = new JsonObject();
+
+        for (int roomIndex = 0; roomIndex < roomsCount; roomIndex++) {
+            String roomId = getRoomId(roomIndex);
+            JsonObject roomSync = new JsonObject();
+
+            if (0 == batchIndex) {
+                JsonArray stateEvents = new JsonArray();
+
+                JsonObject createContent = new JsonObject();
+                createContent.addProperty("creator", getUserId(0));
+                stateEvents.add(buildEvent(Event.EVENT_TYPE_STATE_ROOM_CREATE, "$create_" + roomId, getUserId(0), "", createContent, ORIGIN_SERVER_TS));
+
+                JsonObject nameContent = new JsonObject();
+                nameContent.addProperty("name", "Room " + roomIndex);
+                stateEvents.add(buildEvent(Event.EVENT_TYPE_STATE_ROOM_NAME, "$name_" + roomId, getUserId(0), "", nameContent, ORIGIN_SERVER_TS));
+
+                for (int memberIndex = 0; memberIndex < membersCount; memberIndex++) {
+                    stateEvents.add(buildMemberEvent(roomId, memberIndex));
+                }
+
+                JsonObject state = new JsonObject();
+                state.add("events", stateEvents);
+                roomSync.add("state", state);
+            }
+
+            JsonArray timelineEvents = new JsonArray();
+
+            for (int eventIndex = 0; eventIndex < eventsCount; eventIndex++) {
+                timelineEvents.add(buildMessageEvent(roomId, batchIndex, eventIndex, membersCount));
+            }
+
+            JsonObject timeline = new JsonObject();
+            timeline.add("events", timelineEvents);
+            timeline.addProperty("limited", 0 == batchIndex);
+            timeline.addProperty("prev_batch", "p" + batchIndex + "_" + roomIndex);
+            roomSync.add("timeline", timeline);
+
+            join.add(roomId, roomSync);
+        }
+
+        JsonObject rooms = new JsonObject();
+        rooms.add("join", join);
+
+        JsonObject syncResponse = new JsonObject();
+        syncResponse.addProperty("next_batch", "s" + (batchIndex + 1));
+        syncResponse.add("rooms", rooms);
+
+        return syncResponse;
+    }
+
+    /**
+     * Decode a sync response.
+     *
+     * @param json the JSON sync response
+     * @return the sync response
+     */
+    public static SyncResponse decode(String json) {
+        return JsonUtils.getGson(false).fromJson(json, SyncResponse.class);
+    }
+
+    /**
+     * Load a recorded sync response.
+     *
+     * @param file the JSON file
+     * @return the sync response
+     * @throws Exception if the file cannot be read
+     */
+    public static SyncResponse load(File file) throws Exception {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+
+        try {
+            return JsonUtils.getGson(false).fromJson(reader, SyncResponse.class);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class PersistentHashMapTest {
+
+    /**
+     * A key whose hash code is chosen.
+     */
+    private static class CollidingKey {
+        final int mHash;
+        final int mId;
+
+        CollidingKey(int hash, int id) {
+            mHash = hash;
+            mId = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return (other instanceof CollidingKey) && (((CollidingKey) other).mId == mId);
+        }
+    }
+
+    private static <K, V> void assertSameContent(Map<K, V> expected, PersistentHashMap<K, V> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map.toHashMap());
+
+        for (Map.Entry<K, V> entry : expected.entrySet()) {
+            assertTrue(map.containsKey(entry.getKey()));
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testPutRemove() {
+        PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> map = empty.put("@alice:matrix.org", 1).put("@bob:matrix.org", 2);
+
+        assertTrue(empty.isEmpty());
+        assertEquals(2, map.size());
+        assertEquals(Integer.valueOf(1), map.get("@alice:matrix.org"));
+        assertNull(map.get("@carol:matrix.org"));
+
+        // same value : same map
+        assertSame(map, map.put("@bob:matrix.org", 2));
+
+        // unknown key : same map
+        assertSame(map, map.remove("@carol:matrix.org"));
+
+        PersistentHashMap<String, Integer> updated = map.put("@bob:matrix.org", 3).remove("@alice:matrix.org");
+        assertEquals(1, updated.size());
+        assertEquals(Integer.valueOf(3), updated.get("@bob:matrix.org"));
+
+        // the former map is unchanged
+        assertEquals(2, map.size());
+        assertEquals(Integer.valueOf(2), map.get("@bob:matrix.org"));
+
+        assertTrue(updated.remove("@bob:matrix.org").isEmpty());
+    }
+
+    @Test
+    public void testSnapshots() {
+        Random random = new Random(42);
+        PersistentHashMap<Object, Integer> map = PersistentHashMap.empty();
+        Map<Object, Integer> expected = new HashMap<>();
+
+        List<PersistentHashMap<Object, Integer>> snapshots = new ArrayList<>();
+        List<Map<Object, Integer>> expectedSnapshots = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            int id = random.nextInt(2000);
+            // some keys have the same hash code
+            Object key = (0 == (id % 2)) ? "key" + id : new CollidingKey(id % 13, id);
+
+            if (0 == random.nextInt(3)) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                int value = random.nextInt();
+                map = map.put(key, value);
+                expected.put(key, value);
+            }
+
+            if (0 == (i % 1000)) {
+                snapshots.add(map);
+                expectedSnapshots.add(new HashMap<>(expected));
+            }
+        }
+
+        assertSameContent(expected, map);
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertSameContent(expectedSnapshots.get(i), snapshots.get(i));
+        }
+
+        for (Object key : expected.keySet()) {
+            map = map.remove(key);
+        }
+
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testFromMap() {
+        Map<String, String> source = new HashMap<>();
+        source.put("matrix.org", "#room:matrix.org");
+        source.put("example.org", "#room:example.org");
+
+        PersistentHashMap<String, String> map = PersistentHashMap.fromMap(source);
+        assertSameContent(source, map);
+        assertEquals(2, map.keys().size());
+        assertEquals(2, map.values().size());
+        assertEquals(2, map.entries().size());
+
+        assertTrue(PersistentHashMap.fromMap(null).isEmpty());
+    }
+
+    @Test
+    public void testPutAll() {
+        Random random = new Random(42);
+        PersistentHashMap<Object, Integer> map = PersistentHashMap.empty();
+        Map<Object, Integer> expected = new HashMap<>();
+
+        for (int batchSize : new int[]{5000, 10, 3000, 1}) {
+            Map<Object, Integer> batch = new HashMap<>();
+
+            for (int i = 0; i < batchSize; i++) {
+                int id = random.nextInt(10000);
+                // some keys have the same hash code
+                Object key = (0 == (id % 2)) ? "key" + id : new CollidingKey(id % 13, id);
+                batch.put(key, random.nextInt());
+            }
+
+            PersistentHashMap<Object, Integer> previousMap = map;
+            Map<Object, Integer> previousExpected = new HashMap<>(expected);
+
+            map = map.putAll(batch);
+            expected.putAll(batch);
+
+            assertSameContent(expected, map);
+
+            // the former map is unchanged
+            assertSameContent(previousExpected, previousMap);
+        }
+
+        // the built map can be updated
+        for (Object key : expected.keySet()) {
+            map = map.remove(key);
+        }
+
+        assertTrue(map.isEmpty());
+        assertSame(map, map.putAll(new HashMap<Object, Integer>()));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Vector Creations Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class PersistentSortedListTest {
+
+    // some items are equal for this comparator
+    private static final Comparator<Integer> TENS_COMPARATOR = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer item1, Integer item2) {
+            return (item1 / 10) - (item2 / 10);
+        }
+    };
+
+    private static void assertSameContent(List<Integer> expected, PersistentSortedList<Integer> list) {
+        assertEquals(expected.size(), list.size());
+
+        List<Integer> items = list.toList();
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(0, TENS_COMPARATOR.compare(expected.get(i), items.get(i)));
+            assertEquals(items.get(i), list.get(i));
+        }
+
+        List<Integer> sortedExpected = new ArrayList<>(expected);
+        Collections.sort(sortedExpected);
+        Collections.sort(items);
+        assertEquals(sortedExpected, items);
+    }
+
+    @Test
+    public void testSnapshots() {
+        Random random = new Random(42);
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            expected.add(random.nextInt(10000));
+        }
+
+        PersistentSortedList<Integer> list = PersistentSortedList.fromCollection(expected, TENS_COMPARATOR);
+        Collections.sort(expected, TENS_COMPARATOR);
+        assertSameContent(expected, list);
+
+        List<PersistentSortedList<Integer>> snapshots = new ArrayList<>();
+        List<List<Integer>> expectedSnapshots = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            if ((0 == random.nextInt(3)) && !expected.isEmpty()) {
+                Integer item = expected.remove(random.nextInt(expected.size()));
+                list = list.remove(item);
+            } else {
+                Integer item = random.nextInt(10000);
+                expected.add(item);
+                Collections.sort(expected, TENS_COMPARATOR);
+                list = list.add(item);
+            }
+
+            if (0 == (i % 1000)) {
+                snapshots.add(list);
+                expectedSnapshots.add(new ArrayList<>(expected));
+            }
+        }
+
+        assertSameContent(expected, list);
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertSameContent(expectedSnapshots.get(i), snapshots.get(i));
+        }
+
+        // unknown item : same list
+        assertSame(list, list.remove(-1));
+
+        for (Integer item : expected) {
+            list = list.remove(item);
+        }
+
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void testIterators() {
+        List<Integer> items = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            items.add(i * 10);
+        }
+
+        PersistentSortedList<Integer> list = PersistentSortedList.fromCollection(items, TENS_COMPARATOR);
+
+        assertEquals(items.subList(100, 120), list.getPage(100, 20));
+        assertEquals(items.subList(495, 500), list.getPage(495, 20));
+        assertTrue(list.getPage(600, 20).isEmpty());
+
+        Iterator<Integer> iterator = list.iteratorFrom(2345);
+        assertEquals(Integer.valueOf(2340), iterator.next());
+        assertEquals(Integer.valueOf(2350), iterator.next());
+
+        assertFalse(list.iteratorFrom(100000).hasNext());
+
+        // the iterator is not impacted by the updates
+        iterator = list.iterator();
+        list = list.remove(0).add(5000);
+
+        int count = 0;
+        while (iterator.hasNext()) {
+            assertEquals(Integer.valueOf(count * 10), iterator.next());
+            count++;
+        }
+        assertEquals(500, count);
+    }
+}